@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.poi.ss.usermodel.FontUnderline;
+import org.apache.poi.xssf.usermodel.XSSFFont;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Formatting a single cell's text, either plain or with several differently-styled runs. Cycles
+ * through a fixed set of distinct cards, the same way a sheet would hand them over. They all fit
+ * in the cache, unless it is turned off with a {@code cacheSize} of 0.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FormatHelperBenchmark {
+
+  private static final int CARD_COUNT = 256;
+
+  @Param({ "plain", "rich" })
+  public String text;
+
+  @Param({ "0", "32" })
+  public int cacheSize;
+
+  private XSSFWorkbook workbook;
+  private XSSFRichTextString[] cards;
+  private RichTextToHtmlFormatHelper helper;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    workbook = new XSSFWorkbook();
+    final XSSFFont bold = workbook.createFont();
+    bold.setBold(true);
+    final XSSFFont italic = workbook.createFont();
+    italic.setItalic(true);
+    final XSSFFont underline = workbook.createFont();
+    underline.setUnderline(FontUnderline.SINGLE);
+
+    cards = new XSSFRichTextString[CARD_COUNT];
+    for (int i = 0; i < CARD_COUNT; i++) {
+      final XSSFRichTextString card = new XSSFRichTextString();
+      if ("plain".equals(text)) {
+        card.append(String.format("Card %d: a bag of magic beans & being on fire.", i));
+      } else {
+        card.append(String.format("Card %d: a ", i));
+        card.append("bag", bold);
+        card.append(" of ");
+        card.append("magic", italic);
+        card.append(" beans & ");
+        card.append("being on fire", underline);
+        card.append(".");
+      }
+      cards[i] = card;
+    }
+    helper = new RichTextToHtmlFormatHelper(true, SyntheticWorkbooks.replacements(), cacheSize,
+        new Metrics());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    workbook.close();
+  }
+
+  @Benchmark
+  public String format() {
+    next = (next + 1) % CARD_COUNT;
+    return helper.format(cards[next]);
+  }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Single-pass special character replacement against applying each replacement in turn, using the
+ * replacements from the template configuration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SpecialCharacterReplacerBenchmark {
+
+  @Param({ "plain", "special" })
+  public String text;
+
+  private SpecialCharacterReplacer replacer;
+  private String str;
+
+  @Setup
+  public void setUp() {
+    final LinkedHashMap<String, String> map = new LinkedHashMap<>();
+    map.put("&", "&amp;");
+    map.put("<", "&lt;");
+    map.put(">", "&gt;");
+    map.put("®", "&reg;");
+    map.put("é", "&eacute;");
+    map.put("£", "&pound;");
+    map.put("ñ", "&ntilde;");
+    map.put("™", "&trade;");
+    map.put("✮", "&#x2605;");
+    map.put("✩", "&#x2606;");
+    map.put("’", "'");
+    map.put("“", "\"");
+    map.put("”", "\"");
+    map.put("\n", "<br>");
+    map.put("⬇", "&darr;");
+    map.put("⬅", "&larr;");
+    map.put("➡", "&rarr;");
+    replacer = new SpecialCharacterReplacer(map, new Metrics.Counter());
+
+    if ("plain".equals(text)) {
+      str = "The biggest, blackest dick. A bag of magic beans. Being on fire. Getting naked and "
+          + "watching Nickelodeon.";
+    } else {
+      str = "“Mañana,” said the café owner, & then: <b>Fajitas™</b> isn’t on the menu.\n"
+          + "✮✮✮ ⬅ £5 ➡";
+    }
+  }
+
+  @Benchmark
+  public String singlePass() {
+    return replacer.replace(str);
+  }
+
+  @Benchmark
+  public String sequential() {
+    return replacer.replaceSequentially(str);
+  }
+}
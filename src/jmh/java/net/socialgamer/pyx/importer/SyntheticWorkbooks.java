@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Properties;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.poi.xssf.usermodel.XSSFFont;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+
+/**
+ * Generates workbooks with made-up cards for benchmarks to import.
+ */
+public final class SyntheticWorkbooks {
+
+  public static final int HEADING_NAMED_COUNT = 3;
+  public static final int NEXT_COLUMN_NAMED_COUNT = 2;
+
+  private SyntheticWorkbooks() {
+    // static only
+  }
+
+  /**
+   * Write a workbook with {@code sheetCount} sheets of {@code rows} rows each. Every sheet has
+   * {@link #HEADING_NAMED_COUNT} heading-named columns followed by {@link #NEXT_COLUMN_NAMED_COUNT}
+   * pairs of next-column-named columns. Every fifth card has a bold run in it.
+   */
+  public static void write(final File file, final int sheetCount, final int rows)
+      throws IOException {
+    try (final XSSFWorkbook workbook = new XSSFWorkbook()) {
+      final XSSFFont bold = workbook.createFont();
+      bold.setBold(true);
+
+      for (int s = 0; s < sheetCount; s++) {
+        final XSSFSheet sheet = workbook.createSheet("Sheet " + s);
+        final XSSFRow headings = sheet.createRow(0);
+        for (int col = 0; col < HEADING_NAMED_COUNT; col++) {
+          headings.createCell(col).setCellValue(String.format("Deck %d-%d", s, col));
+        }
+
+        for (int r = 1; r <= rows; r++) {
+          final XSSFRow row = sheet.createRow(r);
+          int col = 0;
+          for (; col < HEADING_NAMED_COUNT; col++) {
+            row.createCell(col).setCellValue(card(s, r, col, bold));
+          }
+          for (int pair = 0; pair < NEXT_COLUMN_NAMED_COUNT; pair++) {
+            row.createCell(col++).setCellValue(card(s, r, col, bold));
+            row.createCell(col++).setCellValue(String.format("Mixed %d", (r + pair) % 7));
+          }
+        }
+      }
+
+      try (final OutputStream out = new FileOutputStream(file)) {
+        workbook.write(out);
+      }
+    }
+  }
+
+  /**
+   * Write the same cards as the first sheet of a workbook written by {@link #write}, as a CSV file
+   * with bold marked inline.
+   */
+  public static void writeCsv(final File file, final int rows) throws IOException {
+    try (final Writer out = new OutputStreamWriter(new FileOutputStream(file),
+        StandardCharsets.UTF_8);
+        final CSVPrinter printer = new CSVPrinter(out, CSVFormat.DEFAULT)) {
+      for (int col = 0; col < HEADING_NAMED_COUNT; col++) {
+        printer.print(String.format("Deck %d-%d", 0, col));
+      }
+      printer.println();
+
+      for (int r = 1; r <= rows; r++) {
+        int col = 0;
+        for (; col < HEADING_NAMED_COUNT; col++) {
+          printer.print(cardCsv(0, r, col));
+        }
+        for (int pair = 0; pair < NEXT_COLUMN_NAMED_COUNT; pair++) {
+          // numbered the same as the workbook's cards
+          printer.print(cardCsv(0, r, col + 1));
+          printer.print(String.format("Mixed %d", (r + pair) % 7));
+          col += 2;
+        }
+        printer.println();
+      }
+    }
+  }
+
+  private static XSSFRichTextString card(final int sheet, final int row, final int col,
+      final XSSFFont bold) {
+    final XSSFRichTextString text = new XSSFRichTextString();
+    text.append(cardStart(sheet, row, col));
+    if (row % 5 == 0) {
+      text.append("in bold", bold);
+      text.append(".");
+    } else {
+      text.append("in plain text.");
+    }
+    return text;
+  }
+
+  private static String cardCsv(final int sheet, final int row, final int col) {
+    if (row % 5 == 0) {
+      return cardStart(sheet, row, col) + "**in bold**.";
+    } else {
+      return cardStart(sheet, row, col) + "in plain text.";
+    }
+  }
+
+  private static String cardStart(final int sheet, final int row, final int col) {
+    return String.format("Card %d on sheet %d, column %d & a ________ ", row, sheet, col);
+  }
+
+  /**
+   * @return Importer configuration for a workbook written by {@link #write}, as file index 0.
+   */
+  public static Properties properties(final File file, final int sheetCount) {
+    final Properties props = new Properties();
+    props.setProperty("import.file.count", "1");
+    props.setProperty("import.file[0].type", "excel");
+    props.setProperty("import.file[0].name", file.getAbsolutePath());
+    props.setProperty("import.file[0].sheet.count", String.valueOf(sheetCount));
+    for (int s = 0; s < sheetCount; s++) {
+      final String prefix = String.format("import.file[0].sheet[%d].", s);
+      props.setProperty(prefix + "color", s % 2 == 0 ? "white" : "black");
+      props.setProperty(prefix + "heading_named_count", String.valueOf(HEADING_NAMED_COUNT));
+      props.setProperty(prefix + "next_column_named_count",
+          String.valueOf(NEXT_COLUMN_NAMED_COUNT));
+    }
+    return props;
+  }
+
+  /**
+   * @return Importer configuration for a CSV file written by {@link #writeCsv}, as file index 0.
+   */
+  public static Properties csvProperties(final File file) {
+    final Properties props = new Properties();
+    props.setProperty("import.file.count", "1");
+    props.setProperty("import.file[0].type", "csv");
+    props.setProperty("import.file[0].name", file.getAbsolutePath());
+    props.setProperty("import.file[0].color", "white");
+    props.setProperty("import.file[0].heading_named_count", String.valueOf(HEADING_NAMED_COUNT));
+    props.setProperty("import.file[0].next_column_named_count",
+        String.valueOf(NEXT_COLUMN_NAMED_COUNT));
+    return props;
+  }
+
+  /**
+   * Add deck information for every deck in a workbook written by {@link #write}, so the decks can
+   * be saved to a database.
+   */
+  public static void addDeckInfo(final Properties props, final int sheetCount) {
+    int count = 0;
+    for (int s = 0; s < sheetCount; s++) {
+      for (int col = 0; col < HEADING_NAMED_COUNT; col++) {
+        addDeckInfo(props, count++, String.format("Deck %d-%d", s, col));
+      }
+    }
+    for (int mixed = 0; mixed < 7; mixed++) {
+      addDeckInfo(props, count++, String.format("Mixed %d", mixed));
+    }
+    props.setProperty("deckinfo.count", String.valueOf(count));
+  }
+
+  private static void addDeckInfo(final Properties props, final int index, final String deck) {
+    props.setProperty(String.format("deckinfo[%d].id", index), deck);
+    props.setProperty(String.format("deckinfo[%d].watermark", index), "W" + index);
+    props.setProperty(String.format("deckinfo[%d].weight", index), String.valueOf(index));
+  }
+
+  public static LinkedHashMap<String, String> replacements() {
+    final LinkedHashMap<String, String> map = new LinkedHashMap<>();
+    map.put("&", "&amp;");
+    map.put("<", "&lt;");
+    map.put(">", "&gt;");
+    map.put("\n", "<br>");
+    return map;
+  }
+}
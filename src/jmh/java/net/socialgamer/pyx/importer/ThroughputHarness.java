@@ -0,0 +1,262 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+
+/**
+ * Runs whole imports of generated files, each in a new JVM, and records how many cards a second
+ * each one got through and the most memory its process ever had resident. Run it with
+ * {@code --help} for its options; by default it imports 10 thousand, 100 thousand and 1 million
+ * cards and writes them out as a script, so no database is needed.
+ *
+ * <p>The time includes starting the JVM, which matters for the smallest imports. Peak resident
+ * memory is read from {@code /proc}, so it is only known on Linux.
+ */
+public class ThroughputHarness {
+
+  private static final String RSS_FILE_PROPERTY = "harness.rss.file";
+  private static final Pattern CARDS_COUNTER = Pattern.compile(
+      "\"" + Pattern.quote(Metrics.CARDS) + "\": (\\d+)");
+  private static final Pattern PEAK_RSS = Pattern.compile("VmHWM:\\s+(\\d+) kB");
+
+  public static void main(final String[] args) throws IOException, InterruptedException {
+    final OptionParser parser = new OptionParser(false);
+    final OptionSpec<Void> help = parser.acceptsAll(Arrays.asList("h", "help"),
+        "Print this usage information.");
+    final OptionSpec<Long> cards = parser.accepts("cards", "Numbers of cards to import.")
+        .withRequiredArg().ofType(Long.class).withValuesSeparatedBy(',')
+        .defaultsTo(10_000L, 100_000L, 1_000_000L);
+    final OptionSpec<Long> cardsPerFile = parser.accepts("cards-per-file",
+        "Split the cards into files of about this many.")
+        .withRequiredArg().ofType(Long.class).defaultsTo(100_000L);
+    final OptionSpec<File> work = parser.accepts("work",
+        "Directory to generate files and write output to. Defaults to a new temporary directory.")
+        .withRequiredArg().ofType(File.class);
+    final OptionSpec<File> results = parser.accepts("results",
+        "Also write the results to this file as CSV.")
+        .withRequiredArg().ofType(File.class);
+    final OptionSpec<String> importerArgs = parser.accepts("importer-arg",
+        "Extra option for the importer. Can be given more than once.")
+        .withRequiredArg();
+    final OptionSpec<String> jvmArgs = parser.accepts("jvm-arg",
+        "Extra option for the importer's JVM, like -Xmx4g. Can be given more than once.")
+        .withRequiredArg();
+    final WorkbookGenerator.OptionSpecs specs = new WorkbookGenerator.OptionSpecs(parser);
+    final OptionSet opts = parser.parse(args);
+    if (opts.has(help)) {
+      System.out.println(String.format("USAGE: %s [options]",
+          ThroughputHarness.class.getSimpleName()));
+      System.out.println();
+      parser.printHelpOn(System.out);
+      return;
+    }
+
+    final File workDir = opts.has(work) ? opts.valueOf(work)
+        : Files.createTempDirectory("throughput").toFile();
+    final List<Result> resultList = new ArrayList<>();
+    for (final long count : opts.valuesOf(cards)) {
+      final File dir = new File(workDir, String.valueOf(count));
+      final WorkbookGenerator generator = specs.createForCards(opts, count,
+          opts.valueOf(cardsPerFile));
+      System.out.println(String.format("Generating %d cards in %s", count, dir));
+      final File conf = generator.generate(dir, specs.wantsCsv(opts));
+
+      final Result result = runImport(dir, conf, opts.valuesOf(importerArgs),
+          opts.valuesOf(jvmArgs));
+      resultList.add(result);
+      System.out.println(result);
+    }
+
+    System.out.println();
+    System.out.println(String.format("%10s %10s %10s %12s %12s", "target", "cards", "seconds",
+        "cards/sec", "peak RSS MB"));
+    for (final Result result : resultList) {
+      System.out.println(String.format("%10d %10d %10.2f %12.0f %12s", result.target,
+          result.cards, result.nanos / 1e9, result.getCardsPerSecond(),
+          result.peakRssKb < 0 ? "?" : String.valueOf(result.peakRssKb / 1024)));
+    }
+
+    if (opts.has(results)) {
+      try (final Writer out = new OutputStreamWriter(
+          new FileOutputStream(opts.valueOf(results)), StandardCharsets.UTF_8);
+          final CSVPrinter printer = new CSVPrinter(out, CSVFormat.DEFAULT.withHeader(
+              "target_cards", "cards", "elapsed_ns", "cards_per_second", "peak_rss_kb"))) {
+        for (final Result result : resultList) {
+          printer.printRecord(result.target, result.cards, result.nanos,
+              Math.round(result.getCardsPerSecond()), result.peakRssKb);
+        }
+      }
+    }
+  }
+
+  private static Result runImport(final File dir, final File conf,
+      final List<String> importerArgs, final List<String> jvmArgs)
+      throws IOException, InterruptedException {
+    final File metricsFile = new File(dir, "metrics.json");
+    final File rssFile = new File(dir, "rss.txt");
+    final File log = new File(dir, "importer.log");
+
+    final List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    command.addAll(jvmArgs);
+    command.add("-D" + RSS_FILE_PROPERTY + "=" + rssFile.getAbsolutePath());
+    command.add("-cp");
+    command.add(getClassPath());
+    command.add(ImporterProcess.class.getName());
+    command.addAll(Arrays.asList("-c", conf.getAbsolutePath(), "--metrics",
+        metricsFile.getAbsolutePath()));
+    addDefault(command, importerArgs, "--format");
+    addDefault(command, importerArgs, "--save");
+    addDefault(command, importerArgs, "--output", "script");
+    addDefault(command, importerArgs, "--script",
+        new File(dir, "cards.sql.gz").getAbsolutePath());
+    command.addAll(importerArgs);
+
+    final long start = System.nanoTime();
+    final Process process = new ProcessBuilder(command).redirectErrorStream(true)
+        .redirectOutput(log).start();
+    final int exitCode = process.waitFor();
+    final long nanos = System.nanoTime() - start;
+    if (0 != exitCode || !metricsFile.exists()) {
+      throw new IllegalStateException(String.format(
+          "Import in %s failed with exit code %d, see %s.", dir, exitCode, log));
+    }
+
+    final long target = Long.parseLong(dir.getName());
+    final Matcher cards = CARDS_COUNTER.matcher(
+        new String(Files.readAllBytes(metricsFile.toPath()), StandardCharsets.UTF_8));
+    final Matcher rss = PEAK_RSS.matcher(rssFile.exists()
+        ? new String(Files.readAllBytes(rssFile.toPath()), StandardCharsets.UTF_8) : "");
+    return new Result(target, cards.find() ? Long.parseLong(cards.group(1)) : -1, nanos,
+        rss.find() ? Long.parseLong(rss.group(1)) : -1);
+  }
+
+  /**
+   * Add an importer option unless it was given explicitly, since the importer doesn't allow giving
+   * one more than once.
+   */
+  private static void addDefault(final List<String> command, final List<String> importerArgs,
+      final String option, final String... values) {
+    for (final String arg : importerArgs) {
+      if (arg.equals(option) || arg.startsWith(option + "=")) {
+        return;
+      }
+    }
+    command.add(option);
+    command.addAll(Arrays.asList(values));
+  }
+
+  /**
+   * @return The class path this was run with, which under {@code exec:java} isn't the JVM's own.
+   */
+  private static String getClassPath() {
+    final ClassLoader loader = ThroughputHarness.class.getClassLoader();
+    if (loader instanceof URLClassLoader) {
+      final List<String> paths = new ArrayList<>();
+      for (final URL url : ((URLClassLoader) loader).getURLs()) {
+        try {
+          paths.add(Paths.get(url.toURI()).toString());
+        } catch (final URISyntaxException e) {
+          throw new IllegalStateException("Unusable class path entry " + url, e);
+        }
+      }
+      return String.join(File.pathSeparator, paths);
+    }
+    return System.getProperty("java.class.path");
+  }
+
+  private static final class Result {
+    private final long target;
+    private final long cards;
+    private final long nanos;
+    private final long peakRssKb;
+
+    private Result(final long target, final long cards, final long nanos, final long peakRssKb) {
+      this.target = target;
+      this.cards = cards;
+      this.nanos = nanos;
+      this.peakRssKb = peakRssKb;
+    }
+
+    private double getCardsPerSecond() {
+      return cards * (double) TimeUnit.SECONDS.toNanos(1) / nanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d cards in %.2f seconds, %.0f cards/second, peak RSS %d kB", cards,
+          nanos / 1e9, getCardsPerSecond(), peakRssKb);
+    }
+  }
+
+  /**
+   * Runs the importer, and copies its peak resident memory out of {@code /proc} when it exits,
+   * however it exits.
+   */
+  public static final class ImporterProcess {
+
+    private ImporterProcess() {
+      // static only
+    }
+
+    public static void main(final String[] args) throws IOException, InterruptedException {
+      final String rssFile = System.getProperty(RSS_FILE_PROPERTY);
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          Files.copy(Paths.get("/proc/self/status"), Paths.get(rssFile),
+              StandardCopyOption.REPLACE_EXISTING);
+        } catch (final IOException e) {
+          // not on Linux, so it stays unknown
+        }
+      }));
+      CardImporter.main(args);
+    }
+  }
+}
@@ -0,0 +1,515 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.poi.ss.usermodel.FontUnderline;
+import org.apache.poi.xssf.usermodel.XSSFFont;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import net.socialgamer.pyx.importer.output.SqliteDialect;
+
+
+/**
+ * Writes made-up but realistic-looking input files, and an importer configuration to go with them,
+ * for testing how the importer scales without needing anyone's real workbooks.
+ *
+ * <p>Every sheet (or CSV file) uses one of the configured layouts, in turn, for how many columns
+ * are named by their heading and how many pairs are named by the next column. Cards are given
+ * bold, italic and underlined runs, left blank, or given characters that need replacing, at the
+ * configured rates. Every card is different, so the number of cards imported is the number
+ * written. The same seed always writes the same files.
+ *
+ * <p>Run it with {@code --help} for its options.
+ */
+public class WorkbookGenerator {
+
+  public static final String PROPERTIES_NAME = "importer.properties";
+  public static final String DATABASE_NAME = "cards.sqlite";
+
+  private static final String BLANK = "________";
+  private static final String[] WORDS = { "a", "bag", "of", "magic", "beans", "being", "on",
+      "fire", "the", "biggest", "blackest", "dick", "getting", "naked", "and", "watching",
+      "cartoons", "salt & pepper", "my", "collection", "high-tech", "sex", "toys", "an",
+      "honest", "cop", "with", "nothing", "left", "to", "lose", "<3", "tiny", "horses" };
+  private static final String[] NON_ASCII_WORDS = { "café", "mañana", "Fajitas™", "isn’t",
+      "“quoted”" };
+  private static final int HEADER_ROW = 0;
+
+  /**
+   * How many of a sheet's columns are named by their heading, and how many pairs of columns after
+   * them are named by the second column of the pair.
+   */
+  public static final class Layout {
+    private final int headingNamedCount;
+    private final int nextColNamedCount;
+
+    public Layout(final int headingNamedCount, final int nextColNamedCount) {
+      this.headingNamedCount = headingNamedCount;
+      this.nextColNamedCount = nextColNamedCount;
+    }
+
+    /**
+     * @param spec The heading-named count and the next-column-named count, separated by a colon.
+     */
+    public static Layout parse(final String spec) {
+      final String[] parts = spec.split(":");
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("Layout " + spec + " isn't of the form heading:next.");
+      }
+      return new Layout(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+    }
+
+    public int getCardColumns() {
+      return headingNamedCount + nextColNamedCount;
+    }
+
+    @Override
+    public String toString() {
+      return headingNamedCount + ":" + nextColNamedCount;
+    }
+  }
+
+  /**
+   * The options that describe what to generate, shared with anything else that generates files
+   * with this.
+   */
+  public static final class OptionSpecs {
+    private final OptionSpec<Integer> files;
+    private final OptionSpec<Integer> sheets;
+    private final OptionSpec<Integer> decks;
+    private final OptionSpec<String> layouts;
+    private final OptionSpec<Double> rich;
+    private final OptionSpec<Integer> runs;
+    private final OptionSpec<Double> blank;
+    private final OptionSpec<Double> nonAscii;
+    private final OptionSpec<Void> csv;
+    private final OptionSpec<Long> seed;
+
+    public OptionSpecs(final OptionParser parser) {
+      files = parser.accepts("files", "Number of workbooks, or sets of CSV files, to write.")
+          .withRequiredArg().ofType(Integer.class).defaultsTo(1);
+      sheets = parser.accepts("sheets", "Number of sheets, or CSV files, in each set.")
+          .withRequiredArg().ofType(Integer.class).defaultsTo(4);
+      decks = parser.accepts("decks", "Number of different decks the cards are spread over.")
+          .withRequiredArg().ofType(Integer.class).defaultsTo(20);
+      layouts = parser.accepts("layouts",
+          "Column layouts to use for the sheets in turn, each as heading-named count:next-column"
+              + "-named count.")
+          .withRequiredArg().withValuesSeparatedBy(',').defaultsTo("5:0", "3:3", "0:4");
+      rich = parser.accepts("rich", "Fraction of cards with formatted runs in them.")
+          .withRequiredArg().ofType(Double.class).defaultsTo(0.2);
+      runs = parser.accepts("runs", "Most formatted runs in one card.")
+          .withRequiredArg().ofType(Integer.class).defaultsTo(3);
+      blank = parser.accepts("blank", "Fraction of card cells to leave empty.")
+          .withRequiredArg().ofType(Double.class).defaultsTo(0.05);
+      nonAscii = parser.accepts("non-ascii",
+          "Fraction of cards with characters in them that need replacing.")
+          .withRequiredArg().ofType(Double.class).defaultsTo(0.05);
+      csv = parser.accepts("csv", "Write CSV files with inline markup instead of workbooks.");
+      seed = parser.accepts("seed", "Seed for the random choices.")
+          .withRequiredArg().ofType(Long.class).defaultsTo(1L);
+    }
+
+    public int getFiles(final OptionSet opts) {
+      return opts.valueOf(files);
+    }
+
+    public boolean wantsCsv(final OptionSet opts) {
+      return opts.has(csv);
+    }
+
+    public WorkbookGenerator create(final OptionSet opts, final int fileCount, final int rows) {
+      final List<Layout> layoutList = new ArrayList<>();
+      for (final String layout : opts.valuesOf(layouts)) {
+        layoutList.add(Layout.parse(layout));
+      }
+      return new WorkbookGenerator(fileCount, opts.valueOf(sheets), rows, opts.valueOf(decks),
+          layoutList, opts.valueOf(rich), opts.valueOf(runs), opts.valueOf(blank),
+          opts.valueOf(nonAscii), opts.valueOf(seed));
+    }
+
+    /**
+     * @return A generator for roughly {@code cards} cards, in as many files as it takes to keep
+     *         each of them to about {@code cardsPerFile}.
+     */
+    public WorkbookGenerator createForCards(final OptionSet opts, final long cards,
+        final long cardsPerFile) {
+      final int fileCount = (int) Math.max(1, (cards + cardsPerFile - 1) / cardsPerFile);
+      final WorkbookGenerator perRow = create(opts, fileCount, 1);
+      final double cardsPerRow = perRow.getCardColumnsPerRow() * fileCount
+          * (1 - opts.valueOf(blank));
+      return create(opts, fileCount, (int) Math.max(1, Math.ceil(cards / cardsPerRow)));
+    }
+  }
+
+  private final int fileCount;
+  private final int sheetCount;
+  private final int rows;
+  private final int deckCount;
+  private final List<Layout> layouts;
+  private final double richRatio;
+  private final int maxRuns;
+  private final double blankRatio;
+  private final double nonAsciiRatio;
+  private final long seed;
+
+  public WorkbookGenerator(final int fileCount, final int sheetCount, final int rows,
+      final int deckCount, final List<Layout> layouts, final double richRatio, final int maxRuns,
+      final double blankRatio, final double nonAsciiRatio, final long seed) {
+    if (layouts.isEmpty()) {
+      throw new IllegalArgumentException("Need at least one layout.");
+    }
+    this.fileCount = fileCount;
+    this.sheetCount = sheetCount;
+    this.rows = rows;
+    this.deckCount = deckCount;
+    this.layouts = layouts;
+    this.richRatio = richRatio;
+    this.maxRuns = maxRuns;
+    this.blankRatio = blankRatio;
+    this.nonAsciiRatio = nonAsciiRatio;
+    this.seed = seed;
+  }
+
+  public static void main(final String[] args) throws IOException {
+    final OptionParser parser = new OptionParser(false);
+    final OptionSpec<Void> help = parser.acceptsAll(Arrays.asList("h", "help"),
+        "Print this usage information.");
+    final OptionSpec<File> dir = parser.accepts("dir", "Directory to write the files to.")
+        .withRequiredArg().ofType(File.class).defaultsTo(new File("generated"));
+    final OptionSpec<Integer> rows = parser.accepts("rows", "Number of rows in each sheet.")
+        .withRequiredArg().ofType(Integer.class).defaultsTo(1000);
+    final OptionSpecs specs = new OptionSpecs(parser);
+    final OptionSet opts = parser.parse(args);
+    if (opts.has(help)) {
+      System.out.println(String.format("USAGE: %s [options]",
+          WorkbookGenerator.class.getSimpleName()));
+      System.out.println();
+      parser.printHelpOn(System.out);
+      return;
+    }
+
+    final File conf = specs.create(opts, specs.getFiles(opts), opts.valueOf(rows))
+        .generate(opts.valueOf(dir), specs.wantsCsv(opts));
+    System.out.println("Wrote " + conf.getAbsolutePath());
+  }
+
+  public int getCardColumnsPerRow() {
+    int columns = 0;
+    for (int s = 0; s < sheetCount; s++) {
+      columns += getLayout(s).getCardColumns();
+    }
+    return columns;
+  }
+
+  private Layout getLayout(final int sheet) {
+    return layouts.get(sheet % layouts.size());
+  }
+
+  private static String getColor(final int sheet) {
+    return sheet % 2 == 0 ? "white" : "black";
+  }
+
+  private static String getDeckName(final int deck) {
+    return String.format("Generated Deck %d", deck);
+  }
+
+  /**
+   * Write the files, and a configuration to import them, to {@code dir}. The configuration saves
+   * to a SQLite database in the same directory.
+   *
+   * @return The configuration file.
+   */
+  public File generate(final File dir, final boolean csv) throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Unable to create " + dir.getAbsolutePath());
+    }
+    final Random random = new Random(seed);
+    final Properties props = new Properties();
+    props.setProperty("hibernate.dialect", SqliteDialect.class.getName());
+    props.setProperty("hibernate.driver_class", "org.sqlite.JDBC");
+    props.setProperty("hibernate.url",
+        "jdbc:sqlite:" + new File(dir, DATABASE_NAME).getAbsolutePath());
+    props.setProperty("hibernate.username", "");
+    props.setProperty("hibernate.password", "");
+    props.setProperty("hibernate.sql.show", "false");
+    props.setProperty("hibernate.sql.format", "false");
+
+    long nextCard = 0;
+    int fileIndex = 0;
+    for (int f = 0; f < fileCount; f++) {
+      if (csv) {
+        for (int s = 0; s < sheetCount; s++) {
+          final File file = new File(dir, String.format("cards-%d-%d.csv", f, s));
+          nextCard = writeCsv(file, s, random, nextCard);
+          final String prefix = String.format("import.file[%d].", fileIndex++);
+          props.setProperty(prefix + "type", "csv");
+          props.setProperty(prefix + "name", file.getAbsolutePath());
+          setLayout(props, prefix, s);
+        }
+      } else {
+        final File file = new File(dir, String.format("cards-%d.xlsx", f));
+        nextCard = writeWorkbook(file, random, nextCard);
+        final String prefix = String.format("import.file[%d].", fileIndex++);
+        props.setProperty(prefix + "type", "excel");
+        props.setProperty(prefix + "name", file.getAbsolutePath());
+        props.setProperty(prefix + "sheet.count", String.valueOf(sheetCount));
+        for (int s = 0; s < sheetCount; s++) {
+          setLayout(props, prefix + String.format("sheet[%d].", s), s);
+        }
+      }
+    }
+    props.setProperty("import.file.count", String.valueOf(fileIndex));
+
+    for (int d = 0; d < deckCount; d++) {
+      props.setProperty(String.format("deckinfo[%d].id", d), getDeckName(d));
+      props.setProperty(String.format("deckinfo[%d].watermark", d), "G" + d);
+      props.setProperty(String.format("deckinfo[%d].weight", d), String.valueOf(d));
+    }
+    props.setProperty("deckinfo.count", String.valueOf(deckCount));
+
+    final String[][] replacements = { { "&", "&amp;" }, { "<", "&lt;" }, { ">", "&gt;" },
+        { "é", "&eacute;" }, { "ñ", "&ntilde;" }, { "™", "&trade;" }, { "’", "'" },
+        { "“", "\"" }, { "”", "\"" } };
+    for (int i = 0; i < replacements.length; i++) {
+      props.setProperty(String.format("replace[%d].from", i), replacements[i][0]);
+      props.setProperty(String.format("replace[%d].to", i), replacements[i][1]);
+    }
+    props.setProperty("replace.count", String.valueOf(replacements.length));
+
+    final File conf = new File(dir, PROPERTIES_NAME);
+    try (final OutputStream out = new FileOutputStream(conf)) {
+      props.store(out, String.format("Generated by %s, %d cards", getClass().getSimpleName(),
+          nextCard));
+    }
+    return conf;
+  }
+
+  private void setLayout(final Properties props, final String prefix, final int sheet) {
+    props.setProperty(prefix + "color", getColor(sheet));
+    props.setProperty(prefix + "heading_named_count",
+        String.valueOf(getLayout(sheet).headingNamedCount));
+    props.setProperty(prefix + "next_column_named_count",
+        String.valueOf(getLayout(sheet).nextColNamedCount));
+  }
+
+  private long writeWorkbook(final File file, final Random random, long nextCard)
+      throws IOException {
+    try (final XSSFWorkbook workbook = new XSSFWorkbook()) {
+      final XSSFFont[] fonts = new XSSFFont[4];
+      for (int i = 0; i < fonts.length; i++) {
+        fonts[i] = workbook.createFont();
+      }
+      fonts[0].setBold(true);
+      fonts[1].setItalic(true);
+      fonts[2].setUnderline(FontUnderline.SINGLE);
+      fonts[3].setBold(true);
+      fonts[3].setItalic(true);
+
+      for (int s = 0; s < sheetCount; s++) {
+        final XSSFSheet sheet = workbook.createSheet("Sheet " + s);
+        final Layout layout = getLayout(s);
+        final XSSFRow headings = sheet.createRow(HEADER_ROW);
+        int col = 0;
+        for (; col < layout.headingNamedCount; col++) {
+          headings.createCell(col).setCellValue(getDeckName((s + col) % deckCount));
+        }
+        for (int pair = 0; pair < layout.nextColNamedCount; pair++) {
+          headings.createCell(col++).setCellValue("Card");
+          headings.createCell(col++).setCellValue("Deck");
+        }
+
+        for (int r = 1; r <= rows; r++) {
+          final XSSFRow row = sheet.createRow(r);
+          col = 0;
+          for (; col < layout.headingNamedCount; col++) {
+            if (random.nextDouble() >= blankRatio) {
+              row.createCell(col).setCellValue(toRichText(makeCard(s, nextCard++, random),
+                  fonts));
+            }
+          }
+          for (int pair = 0; pair < layout.nextColNamedCount; pair++) {
+            if (random.nextDouble() >= blankRatio) {
+              row.createCell(col).setCellValue(toRichText(makeCard(s, nextCard++, random),
+                  fonts));
+            }
+            row.createCell(col + 1).setCellValue(getDeckName(random.nextInt(deckCount)));
+            col += 2;
+          }
+        }
+      }
+
+      try (final OutputStream out = new FileOutputStream(file)) {
+        workbook.write(out);
+      }
+    }
+    return nextCard;
+  }
+
+  private long writeCsv(final File file, final int sheet, final Random random, long nextCard)
+      throws IOException {
+    final Layout layout = getLayout(sheet);
+    try (final Writer out = new OutputStreamWriter(new FileOutputStream(file),
+        StandardCharsets.UTF_8);
+        final CSVPrinter printer = new CSVPrinter(out, CSVFormat.DEFAULT)) {
+      for (int col = 0; col < layout.headingNamedCount; col++) {
+        printer.print(getDeckName((sheet + col) % deckCount));
+      }
+      for (int pair = 0; pair < layout.nextColNamedCount; pair++) {
+        printer.print("Card");
+        printer.print("Deck");
+      }
+      printer.println();
+
+      for (int r = 1; r <= rows; r++) {
+        for (int col = 0; col < layout.headingNamedCount; col++) {
+          printer.print(random.nextDouble() >= blankRatio
+              ? toMarkup(makeCard(sheet, nextCard++, random)) : "");
+        }
+        for (int pair = 0; pair < layout.nextColNamedCount; pair++) {
+          printer.print(random.nextDouble() >= blankRatio
+              ? toMarkup(makeCard(sheet, nextCard++, random)) : "");
+          printer.print(getDeckName(random.nextInt(deckCount)));
+        }
+        printer.println();
+      }
+    }
+    return nextCard;
+  }
+
+  /**
+   * Make up the text of a card as runs of words, each with a style: -1 for plain, otherwise an
+   * index into the bold, italic, underline and bold italic fonts.
+   */
+  private List<Run> makeCard(final int sheet, final long number, final Random random) {
+    final List<String> words = new ArrayList<>();
+    words.add("Card");
+    words.add(Long.toString(number, 36) + ":");
+    final int length = 3 + random.nextInt(8);
+    for (int i = 0; i < length; i++) {
+      words.add(WORDS[random.nextInt(WORDS.length)]);
+    }
+    if (random.nextDouble() < nonAsciiRatio) {
+      words.set(2 + random.nextInt(length), NON_ASCII_WORDS[random.nextInt(
+          NON_ASCII_WORDS.length)]);
+    }
+    if ("black".equals(getColor(sheet))) {
+      // mostly pick 1, sometimes 2 or 3
+      final int blanks = random.nextInt(10) < 7 ? 1 : 2 + random.nextInt(2);
+      for (int i = 0; i < blanks; i++) {
+        words.add(3 + random.nextInt(words.size() - 2), BLANK);
+      }
+    }
+    words.set(words.size() - 1, words.get(words.size() - 1) + ".");
+
+    final List<Run> runs = new ArrayList<>();
+    if (random.nextDouble() >= richRatio) {
+      runs.add(new Run(String.join(" ", words), -1));
+      return runs;
+    }
+    // split the words up into runs, and style every other one starting at a random run
+    final int runCount = Math.min(words.size(), 2 * (1 + random.nextInt(maxRuns)));
+    final boolean styledFirst = random.nextBoolean();
+    int start = 0;
+    for (int i = 0; i < runCount; i++) {
+      final int end = i == runCount - 1 ? words.size()
+          : start + 1 + random.nextInt(Math.max(1, words.size() - start - (runCount - i)));
+      final boolean styled = (i % 2 == 0) == styledFirst;
+      runs.add(new Run(String.join(" ", words.subList(start, end)),
+          styled ? random.nextInt(4) : -1));
+      start = end;
+    }
+    return runs;
+  }
+
+  private static XSSFRichTextString toRichText(final List<Run> runs, final XSSFFont[] fonts) {
+    final XSSFRichTextString text = new XSSFRichTextString();
+    for (int i = 0; i < runs.size(); i++) {
+      final String str = (i > 0 ? " " : "") + runs.get(i).text;
+      if (runs.get(i).style < 0) {
+        text.append(str);
+      } else {
+        text.append(str, fonts[runs.get(i).style]);
+      }
+    }
+    return text;
+  }
+
+  /**
+   * CSV files only have bold and italic, so underlined runs are left plain, and bold italic runs
+   * are only bold.
+   */
+  private static String toMarkup(final List<Run> runs) {
+    final StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < runs.size(); i++) {
+      if (i > 0) {
+        builder.append(' ');
+      }
+      final String text = runs.get(i).text.replace("*", "\\*");
+      switch (runs.get(i).style) {
+        case 0:
+        case 3:
+          builder.append("**").append(text).append("**");
+          break;
+        case 1:
+          builder.append('*').append(text).append('*');
+          break;
+        default:
+          builder.append(text);
+      }
+    }
+    return builder.toString();
+  }
+
+  private static final class Run {
+    private final String text;
+    private final int style;
+
+    private Run(final String text, final int style) {
+      this.text = text;
+      this.style = style;
+    }
+  }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.filetypes;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.socialgamer.pyx.importer.Metrics;
+import net.socialgamer.pyx.importer.RichTextToHtmlFormatHelper;
+import net.socialgamer.pyx.importer.SyntheticWorkbooks;
+import net.socialgamer.pyx.importer.data.ParseResult;
+import net.socialgamer.pyx.importer.parsers.CsvParser;
+import net.socialgamer.pyx.importer.parsers.SheetParser;
+import net.socialgamer.pyx.importer.parsers.StreamingSheetParser;
+
+
+/**
+ * Parse time for the same cards from a CSV file with inline markup, and from a single sheet
+ * workbook, read both ways.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CsvFileTypeBenchmark {
+
+  @Param({ "csv", "xlsx", "xlsx-streaming" })
+  public String source;
+
+  @Param({ "20000" })
+  public int rows;
+
+  private File file;
+  private Properties props;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    if ("csv".equals(source)) {
+      file = File.createTempFile("csv-benchmark", ".csv");
+      SyntheticWorkbooks.writeCsv(file, rows);
+      props = SyntheticWorkbooks.csvProperties(file);
+    } else {
+      file = File.createTempFile("csv-benchmark", ".xlsx");
+      SyntheticWorkbooks.write(file, 1, rows);
+      props = SyntheticWorkbooks.properties(file, 1);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Benchmark
+  public ParseResult process() throws ConfigurationException {
+    // new every time so the formatter's history doesn't carry over between invocations
+    final Metrics metrics = new Metrics();
+    final RichTextToHtmlFormatHelper helper = new RichTextToHtmlFormatHelper(true,
+        SyntheticWorkbooks.replacements(), 32, metrics);
+    final FileType fileType;
+    if ("csv".equals(source)) {
+      fileType = new CsvFileType(props, 0,
+          (csvFile, format, charset, markup, headingNamedCount, nextColNamedCount) -> new CsvParser(
+              csvFile, format, charset, markup, headingNamedCount, nextColNamedCount, helper,
+              metrics));
+    } else {
+      fileType = new ExcelFileType(props, 0,
+          (sheet, headingNamedCount, nextColNamedCount) -> new SheetParser(sheet,
+              headingNamedCount, nextColNamedCount, helper, metrics, Optional.empty()),
+          (sheetName, sheetPart, sharedStrings, styles, headingNamedCount,
+              nextColNamedCount) -> new StreamingSheetParser(sheetName, sheetPart, sharedStrings,
+                  styles, headingNamedCount, nextColNamedCount, helper, metrics),
+          "xlsx-streaming".equals(source), 1, new ParseCache(Optional.empty(), 0, true,
+              SyntheticWorkbooks.replacements()), metrics);
+    }
+    fileType.validate();
+    return fileType.process();
+  }
+}
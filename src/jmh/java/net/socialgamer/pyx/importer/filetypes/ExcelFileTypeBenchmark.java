@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.filetypes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.socialgamer.pyx.importer.Metrics;
+import net.socialgamer.pyx.importer.RichTextToHtmlFormatHelper;
+import net.socialgamer.pyx.importer.SyntheticWorkbooks;
+import net.socialgamer.pyx.importer.data.ParseResult;
+import net.socialgamer.pyx.importer.parsers.SheetParser;
+import net.socialgamer.pyx.importer.parsers.StreamingSheetParser;
+
+
+/**
+ * Whole-workbook parse time with different numbers of sheet threads. Compare the scores for each
+ * {@code sheetThreads} against the number of cores on the machine running it. With
+ * {@code cached}, every sheet is loaded from the parse cache after the first invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ExcelFileTypeBenchmark {
+
+  @Param({ "1", "2", "4", "8" })
+  public int sheetThreads;
+
+  @Param({ "false", "true" })
+  public boolean streaming;
+
+  @Param({ "false", "true" })
+  public boolean cached;
+
+  @Param({ "8" })
+  public int sheets;
+
+  @Param({ "5000" })
+  public int rows;
+
+  private File file;
+  private Properties props;
+  private Path cacheDirectory;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    file = File.createTempFile("excel-benchmark", ".xlsx");
+    SyntheticWorkbooks.write(file, sheets, rows);
+    props = SyntheticWorkbooks.properties(file, sheets);
+    cacheDirectory = Files.createTempDirectory("excel-benchmark-cache");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    file.delete();
+    try (final Stream<Path> entries = Files.list(cacheDirectory)) {
+      entries.forEach(entry -> entry.toFile().delete());
+    }
+    Files.delete(cacheDirectory);
+  }
+
+  @Benchmark
+  public ParseResult process() throws ConfigurationException {
+    // new every time so the formatter's history doesn't carry over between invocations
+    final Metrics metrics = new Metrics();
+    final RichTextToHtmlFormatHelper helper = new RichTextToHtmlFormatHelper(true,
+        SyntheticWorkbooks.replacements(), 32, metrics);
+    final ExcelFileType fileType = new ExcelFileType(props, 0,
+        (sheet, headingNamedCount, nextColNamedCount) -> new SheetParser(sheet,
+            headingNamedCount, nextColNamedCount, helper, metrics, Optional.empty()),
+        (sheetName, sheetPart, sharedStrings, styles, headingNamedCount,
+            nextColNamedCount) -> new StreamingSheetParser(sheetName, sheetPart, sharedStrings,
+                styles, headingNamedCount, nextColNamedCount, helper, metrics),
+        streaming, sheetThreads, new ParseCache(
+            cached ? Optional.of(cacheDirectory.toFile()) : Optional.empty(), 256, true,
+            SyntheticWorkbooks.replacements()), metrics);
+    fileType.validate();
+    return fileType.process();
+  }
+}
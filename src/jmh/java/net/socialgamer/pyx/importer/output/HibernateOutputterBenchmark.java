@@ -0,0 +1,157 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.output;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.dialect.Dialect;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+
+import net.socialgamer.pyx.importer.Options;
+import net.socialgamer.pyx.importer.SyntheticWorkbooks;
+import net.socialgamer.pyx.importer.data.ParseResult;
+import net.socialgamer.pyx.importer.filetypes.ConfigurationException;
+import net.socialgamer.pyx.importer.filetypes.ExcelFileType;
+import net.socialgamer.pyx.importer.inject.ImporterModule;
+
+
+/**
+ * Saving an already-parsed workbook to a local SQLite database, set up through the same module as
+ * a real import. Every invocation starts from empty tables.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class HibernateOutputterBenchmark {
+
+  @Param({ "0", "100" })
+  public int batchSize;
+
+  @Param({ "2" })
+  public int sheets;
+
+  @Param({ "2000" })
+  public int rows;
+
+  private File workbookFile;
+  private File confFile;
+  private File databaseFile;
+  private String url;
+  private String[] dropScript;
+  private String[] createScript;
+  private ParseResult result;
+  private SessionFactory sessionFactory;
+  private HibernateOutputter outputter;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException, ConfigurationException {
+    workbookFile = File.createTempFile("hibernate-benchmark", ".xlsx");
+    SyntheticWorkbooks.write(workbookFile, sheets, rows);
+    databaseFile = File.createTempFile("hibernate-benchmark", ".sqlite");
+    url = "jdbc:sqlite:" + databaseFile.getAbsolutePath();
+
+    final Properties props = SyntheticWorkbooks.properties(workbookFile, sheets);
+    SyntheticWorkbooks.addDeckInfo(props, sheets);
+    props.setProperty("hibernate.dialect", SqliteDialect.class.getName());
+    props.setProperty("hibernate.driver_class", "org.sqlite.JDBC");
+    props.setProperty("hibernate.url", url);
+    props.setProperty("hibernate.username", "");
+    props.setProperty("hibernate.password", "");
+    props.setProperty("hibernate.sql.show", "false");
+    props.setProperty("hibernate.sql.format", "false");
+    confFile = File.createTempFile("hibernate-benchmark", ".properties");
+    try (final OutputStream out = new FileOutputStream(confFile)) {
+      props.store(out, null);
+    }
+
+    final Injector injector = Guice.createInjector(new ImporterModule(new Options(new String[] {
+        "-c", confFile.getAbsolutePath(), "--format", "--save",
+        "--batch-size", String.valueOf(batchSize) })));
+    final ExcelFileType fileType = injector.getInstance(ExcelFileType.Factory.class).create(0);
+    fileType.validate();
+    result = fileType.process();
+
+    final Configuration config = injector.getInstance(Configuration.class);
+    final Dialect dialect = injector.getInstance(Dialect.class);
+    dropScript = config.generateDropSchemaScript(dialect);
+    createScript = config.generateSchemaCreationScript(dialect);
+    sessionFactory = injector.getInstance(SessionFactory.class);
+    outputter = injector.getInstance(HibernateOutputter.class);
+  }
+
+  @Setup(Level.Invocation)
+  public void emptyTables() throws SQLException {
+    try (final Connection connection = DriverManager.getConnection(url);
+        final Statement statement = connection.createStatement()) {
+      for (final String sql : dropScript) {
+        statement.execute(sql);
+      }
+      for (final String sql : createScript) {
+        statement.execute(sql);
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    sessionFactory.close();
+    workbookFile.delete();
+    confFile.delete();
+    databaseFile.delete();
+  }
+
+  @Benchmark
+  public void output() {
+    outputter.output(result);
+  }
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.parsers;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.socialgamer.pyx.importer.Metrics;
+import net.socialgamer.pyx.importer.RichTextToHtmlFormatHelper;
+import net.socialgamer.pyx.importer.SyntheticWorkbooks;
+
+
+/**
+ * Collecting the cards from one already-loaded sheet, without the cost of opening the workbook.
+ * {@code cellsPerSecond} gives the same measurement as a rate of cells read. Compare the scores for
+ * each {@code rowThreads} against the number of cores on the machine running it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SheetParserBenchmark {
+
+  @Param({ "1000", "10000" })
+  public int rows;
+
+  @Param({ "1", "2", "4" })
+  public int rowThreads;
+
+  private File file;
+  private XSSFWorkbook workbook;
+  private XSSFSheet sheet;
+  private Optional<ForkJoinPool> rowPool;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException, InvalidFormatException {
+    file = File.createTempFile("sheet-parser-benchmark", ".xlsx");
+    SyntheticWorkbooks.write(file, 1, rows);
+    workbook = new XSSFWorkbook(file);
+    sheet = workbook.getSheetAt(0);
+    rowPool = rowThreads > 1 ? Optional.of(new ForkJoinPool(rowThreads)) : Optional.empty();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    rowPool.ifPresent(ForkJoinPool::shutdown);
+    workbook.close();
+    file.delete();
+  }
+
+  /**
+   * Reports how many cells are read per second, alongside the number of sheets.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class Cells {
+    public long cells;
+  }
+
+  @Benchmark
+  public Map<String, Set<String>> getCards() {
+    return getCards(new Metrics());
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public Map<String, Set<String>> cellsPerSecond(final Cells cells) {
+    final Metrics metrics = new Metrics();
+    final Map<String, Set<String>> cards = getCards(metrics);
+    cells.cells += metrics.counter(Metrics.CELLS).get();
+    return cards;
+  }
+
+  private Map<String, Set<String>> getCards(final Metrics metrics) {
+    // new every time so the formatter's history doesn't carry over between invocations
+    final RichTextToHtmlFormatHelper helper = new RichTextToHtmlFormatHelper(true,
+        SyntheticWorkbooks.replacements(), 32, metrics);
+    return new SheetParser(sheet, SyntheticWorkbooks.HEADING_NAMED_COUNT,
+        SyntheticWorkbooks.NEXT_COLUMN_NAMED_COUNT, helper, metrics, rowPool).getCards();
+  }
+}
@@ -23,10 +23,21 @@
 
 package net.socialgamer.pyx.importer;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.log4j.Logger;
 
@@ -37,12 +48,17 @@ import com.google.inject.Stage;
 
 import net.socialgamer.pyx.importer.data.ParseResult;
 import net.socialgamer.pyx.importer.filetypes.ConfigurationException;
+import net.socialgamer.pyx.importer.filetypes.CsvFileType;
 import net.socialgamer.pyx.importer.filetypes.ExcelFileType;
 import net.socialgamer.pyx.importer.filetypes.FileType;
 import net.socialgamer.pyx.importer.inject.ImporterModule;
+import net.socialgamer.pyx.importer.inject.ImporterModule.MetricsFile;
 import net.socialgamer.pyx.importer.inject.ImporterModule.OutputSchemaOnly;
+import net.socialgamer.pyx.importer.inject.ImporterModule.PipelineCapacity;
 import net.socialgamer.pyx.importer.inject.ImporterModule.Schema;
-import net.socialgamer.pyx.importer.output.HibernateOutputter;
+import net.socialgamer.pyx.importer.inject.ImporterModule.Watch;
+import net.socialgamer.pyx.importer.inject.ImporterModule.WatchDelay;
+import net.socialgamer.pyx.importer.output.Outputter;
 
 
 public class CardImporter {
@@ -51,21 +67,35 @@ public class CardImporter {
   private final Properties appProps;
   private final boolean schemaOnly;
   private final String schema;
+  private final int pipelineCapacity;
   private final ExcelFileType.Factory excelFactory;
+  private final CsvFileType.Factory csvFactory;
   private final ImportHandler.Factory importHandlerFactory;
-  private final HibernateOutputter outputter;
+  private final Outputter outputter;
+  private final Metrics metrics;
+  private final Optional<File> metricsFile;
+  private final boolean watch;
+  private final int watchDelay;
 
   @Inject
   public CardImporter(final Properties appProps, @OutputSchemaOnly final boolean schemaOnly,
-      @Schema final String schema,
-      final ExcelFileType.Factory excelFactory, final ImportHandler.Factory importHandlerFactory,
-      final HibernateOutputter outputter) {
+      @Schema final String schema, @PipelineCapacity final int pipelineCapacity,
+      final ExcelFileType.Factory excelFactory, final CsvFileType.Factory csvFactory,
+      final ImportHandler.Factory importHandlerFactory, final Outputter outputter,
+      final Metrics metrics, @MetricsFile final Optional<File> metricsFile,
+      @Watch final boolean watch, @WatchDelay final int watchDelay) {
     this.appProps = appProps;
     this.schemaOnly = schemaOnly;
     this.schema = schema;
+    this.pipelineCapacity = pipelineCapacity;
     this.excelFactory = excelFactory;
+    this.csvFactory = csvFactory;
     this.importHandlerFactory = importHandlerFactory;
     this.outputter = outputter;
+    this.metrics = metrics;
+    this.metricsFile = metricsFile;
+    this.watch = watch;
+    this.watchDelay = watchDelay;
   }
 
   public static void main(final String[] args) throws IOException, InterruptedException {
@@ -92,33 +122,237 @@ public class CardImporter {
       System.exit(1);
     }
 
+    // connecting to the database can happen while the files are being read
+    outputter.prepare();
+
     // make sure all of the files are valid before we start doing anything
     final List<FileType> fileTypes = new ArrayList<>(fileCount);
     for (int i = 0; i < fileCount; i++) {
-      final String fileType = appProps.getProperty(String.format("import.file[%d].type", i));
-      final FileType impl;
-      switch (fileType) {
-        case "excel":
-          impl = excelFactory.create(i);
-          break;
-        default:
-          LOG.error(String.format("Unknown file type %s for file %d.", fileType, i));
-          System.exit(1);
-          impl = null;
+      fileTypes.add(createFileType(i));
+    }
+    final Metrics.Timer validateTimer = metrics.timer(Metrics.VALIDATE);
+    final long validateStart = validateTimer.start();
+    if (!validate(fileTypes)) {
+      System.exit(1);
+    }
+    validateTimer.stop(validateStart);
+
+    final ImportHandler handler = importHandlerFactory.create(fileTypes);
+
+    if (watch) {
+      // keep the cards from each file, so only the ones that change have to be parsed again
+      final Metrics.Timer parseTimer = metrics.timer(Metrics.PARSE);
+      final long parseStart = parseTimer.start();
+      final List<ParseResult> results = handler.processFiles();
+      final ParseResult result = handler.merge(results);
+      parseTimer.stop(parseStart);
+
+      output(result);
+      writeMetrics();
+      watch(handler, results);
+    } else if (pipelineCapacity > 0) {
+      final Metrics.Timer pipelineTimer = metrics.timer(Metrics.PIPELINE);
+      final long start = pipelineTimer.start();
+      outputter.output(handler::process);
+      pipelineTimer.stop(start);
+      writeMetrics();
+    } else {
+      final Metrics.Timer parseTimer = metrics.timer(Metrics.PARSE);
+      final long parseStart = parseTimer.start();
+      final ParseResult result = handler.process();
+      parseTimer.stop(parseStart);
+
+      output(result);
+      writeMetrics();
+    }
+  }
+
+  private FileType createFileType(final int index) {
+    final String fileType = appProps.getProperty(String.format("import.file[%d].type", index));
+    switch (fileType) {
+      case "excel":
+        return excelFactory.create(index);
+      case "csv":
+        return csvFactory.create(index);
+      default:
+        LOG.error(String.format("Unknown file type %s for file %d.", fileType, index));
+        System.exit(1);
+        return null;
+    }
+  }
+
+  private void output(final ParseResult result) {
+    final Metrics.Timer outputTimer = metrics.timer(Metrics.OUTPUT);
+    final long outputStart = outputTimer.start();
+    outputter.output(result);
+    outputTimer.stop(outputStart);
+  }
+
+  private void writeMetrics() {
+    if (metricsFile.isPresent()) {
+      try {
+        metrics.writeReport(metricsFile.get());
+        LOG.info("Wrote metrics to " + metricsFile.get().getAbsolutePath());
+      } catch (final IOException e) {
+        LOG.error("Unable to write metrics.", e);
       }
+    }
+  }
+
+  /**
+   * Import files again whenever they change, until the process is stopped. Only the files that
+   * changed are parsed again. The cards from all of them are merged and given to the outputter,
+   * which only writes the deck memberships that changed.
+   *
+   * @param results The cards from each file when it was last imported. Updated as files change.
+   */
+  private void watch(final ImportHandler handler, final List<ParseResult> results) {
+    final List<File> files = new ArrayList<>(results.size());
+    for (int i = 0; i < results.size(); i++) {
+      files.add(new File(appProps.getProperty(String.format("import.file[%d].name", i))));
+    }
+
+    final Metrics.Timer reimportTimer = metrics.timer(Metrics.WATCH_REIMPORT);
+    try (final FileWatcher watcher = new FileWatcher(files, watchDelay)) {
+      LOG.info(String.format("Watching %d files for changes.", files.size()));
+      watcher.run(changed -> {
+        final long start = reimportTimer.start();
+        if (reimport(changed, handler, results)) {
+          reimportTimer.stop(start);
+          LOG.info(String.format("Imported changed files in %d ms.",
+              TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+          writeMetrics();
+        }
+      });
+    } catch (final IOException e) {
+      LOG.error("Unable to watch files for changes.", e);
+      System.exit(1);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Parse the files that changed again, and save everything if any of them could be. If any of
+   * them isn't valid, none of them are parsed, and they keep the cards they had before until they
+   * change again. A file that can't be parsed keeps the cards it had before too; it might be
+   * halfway through being saved, and will be tried again when it changes next. The other files
+   * that changed are still parsed.
+   *
+   * @return Whether anything was saved.
+   */
+  private boolean reimport(final Set<Integer> changed, final ImportHandler handler,
+      final List<ParseResult> results) {
+    LOG.info(String.format("Files %s changed, importing again.", changed));
+    final List<FileType> fileTypes = new ArrayList<>(changed.size());
+    for (final int index : changed) {
+      fileTypes.add(createFileType(index));
+    }
+    if (!validate(fileTypes)) {
+      LOG.error("Not importing the changed files again until they are all valid.");
+      return false;
+    }
+
+    boolean parsed = false;
+    final Metrics.Timer parseTimer = metrics.timer(Metrics.PARSE);
+    final long parseStart = parseTimer.start();
+    for (final FileType fileType : fileTypes) {
       try {
-        impl.validate();
-      } catch (final ConfigurationException e) {
-        LOG.error(
-            String.format("File %d configuration validation failed: %s", i, e.getMessage()));
-        System.exit(1);
+        results.set(fileType.getConfigIndex(), fileType.process());
+        parsed = true;
+      } catch (final RuntimeException e) {
+        LOG.error(String.format("Unable to process file %d.", fileType.getConfigIndex()), e);
       }
-      fileTypes.add(impl);
     }
+    if (!parsed) {
+      return false;
+    }
+    final ParseResult result = handler.merge(results);
+    parseTimer.stop(parseStart);
 
-    final ImportHandler handler = importHandlerFactory.create(fileTypes);
+    try {
+      output(result);
+    } catch (final RuntimeException e) {
+      LOG.error("Unable to save changed files.", e);
+      return false;
+    }
+    return true;
+  }
 
-    final ParseResult result = handler.process();
-    outputter.output(result);
+  /**
+   * Validate all of the files at the same time. Stops as soon as any of them fails, without waiting
+   * for the rest, and then discards whatever the valid ones kept open for processing, including
+   * any that finish validating afterwards.
+   *
+   * @return Whether all of the files are valid. The reason one isn't is logged.
+   */
+  private boolean validate(final List<FileType> fileTypes) {
+    final ExecutorService executor = Executors.newFixedThreadPool(
+        Math.min(fileTypes.size(), Runtime.getRuntime().availableProcessors()));
+    // the files that have been validated, until one fails
+    final List<FileType> validated = new ArrayList<>(fileTypes.size());
+    final AtomicBoolean failed = new AtomicBoolean();
+    final List<Future<String>> futures = new ArrayList<>(fileTypes.size());
+    try {
+      final CompletionService<String> validations = new ExecutorCompletionService<>(executor);
+      for (final FileType impl : fileTypes) {
+        futures.add(validations.submit(() -> {
+          try {
+            impl.validate();
+          } catch (final ConfigurationException e) {
+            return String.format("File %d configuration validation failed: %s",
+                impl.getConfigIndex(), e.getMessage());
+          }
+          synchronized (validated) {
+            if (!failed.get()) {
+              validated.add(impl);
+              return null;
+            }
+          }
+          // another file already failed, so this one won't be processed
+          impl.discard();
+          return null;
+        }));
+      }
+
+      for (int i = 0; i < fileTypes.size(); i++) {
+        final String error = validations.take().get();
+        if (null != error) {
+          LOG.error(error);
+          return fail(futures, validated, failed);
+        }
+      }
+      return true;
+    } catch (final ExecutionException e) {
+      LOG.error("Unexpected error while validating files.", e.getCause());
+      return fail(futures, validated, failed);
+    } catch (final InterruptedException e) {
+      LOG.error("Interrupted while validating files.", e);
+      Thread.currentThread().interrupt();
+      return fail(futures, validated, failed);
+    } finally {
+      // let any that are still going finish, so they can discard what they opened
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Cancel the validations that haven't started yet, and discard the files that were already
+   * validated. Any that are still going discard themselves when they finish.
+   *
+   * @return false
+   */
+  private static boolean fail(final List<Future<String>> futures, final List<FileType> validated,
+      final AtomicBoolean failed) {
+    for (final Future<String> future : futures) {
+      future.cancel(false);
+    }
+    final List<FileType> discard;
+    synchronized (validated) {
+      failed.set(true);
+      discard = new ArrayList<>(validated);
+    }
+    discard.forEach(FileType::discard);
+    return false;
   }
 }
@@ -0,0 +1,175 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Watches the files being imported, and reports which of them have changed once they have stopped
+ * changing for a while. Saving a workbook usually writes it more than once in quick succession, so
+ * every change pushes back the report until nothing has changed for {@code delayMillis}, and
+ * everything that changed in the meantime is reported together.
+ *
+ * <p>Files are identified by their index in the list they were given in. The directories they are
+ * in are what is actually watched, so a file that is replaced instead of written to in place is
+ * still seen, as is one that doesn't exist yet.
+ */
+class FileWatcher implements Closeable {
+  private static final Logger LOG = Logger.getLogger(FileWatcher.class);
+
+  private final WatchService watchService;
+  private final Map<WatchKey, Path> directories = new HashMap<>();
+  private final Map<Path, List<Integer>> indexes = new HashMap<>();
+  private final long delayNanos;
+
+  /**
+   * @param files The files to watch.
+   * @param delayMillis How long a file has to go without changing before it is reported.
+   */
+  FileWatcher(final List<File> files, final long delayMillis) throws IOException {
+    this.delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+    watchService = FileSystems.getDefault().newWatchService();
+    try {
+      for (int i = 0; i < files.size(); i++) {
+        final Path path = files.get(i).getAbsoluteFile().toPath().normalize();
+        // the same file could be imported more than once with different settings
+        indexes.computeIfAbsent(path, p -> new ArrayList<>()).add(i);
+        final Path directory = path.getParent();
+        if (!directories.containsValue(directory)) {
+          directories.put(directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY), directory);
+        }
+      }
+    } catch (final IOException e) {
+      watchService.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Report changes to {@code changed}, on the calling thread, until this is closed or the thread is
+   * interrupted. Nothing else is reported while {@code changed} is running, but changes that happen
+   * in the meantime are still picked up and reported afterwards.
+   *
+   * @param changed Called with the indexes of the files that changed, in order.
+   */
+  void run(final Consumer<Set<Integer>> changed) throws InterruptedException {
+    final Set<Integer> pending = new TreeSet<>();
+    long deadline = 0;
+    try {
+      while (true) {
+        final WatchKey key;
+        if (pending.isEmpty()) {
+          key = watchService.take();
+        } else {
+          final long remaining = deadline - System.nanoTime();
+          if (remaining <= 0) {
+            final Set<Integer> files = new TreeSet<>(pending);
+            pending.clear();
+            changed.accept(files);
+            continue;
+          }
+          key = watchService.poll(remaining, TimeUnit.NANOSECONDS);
+          if (null == key) {
+            continue;
+          }
+        }
+
+        if (addChanges(key, pending)) {
+          deadline = System.nanoTime() + delayNanos;
+        }
+        if (!key.reset()) {
+          LOG.warn(String.format("Directory %s can no longer be watched.", directories.get(key)));
+          directories.remove(key);
+          if (directories.isEmpty()) {
+            LOG.error("There is nothing left to watch.");
+            return;
+          }
+        }
+      }
+    } catch (final ClosedWatchServiceException e) {
+      // closed from another thread, we're done
+    }
+  }
+
+  /**
+   * Add the indexes of the files that {@code key}'s events are for to {@code pending}.
+   *
+   * @return Whether any of the events were for a file being watched.
+   */
+  private boolean addChanges(final WatchKey key, final Set<Integer> pending) {
+    final Path directory = directories.get(key);
+    boolean any = false;
+    for (final WatchEvent<?> event : key.pollEvents()) {
+      if (OVERFLOW == event.kind()) {
+        // some events were lost, so anything in the directory could have changed
+        for (final Entry<Path, List<Integer>> entry : indexes.entrySet()) {
+          if (entry.getKey().getParent().equals(directory)) {
+            pending.addAll(entry.getValue());
+            any = true;
+          }
+        }
+        continue;
+      }
+
+      final List<Integer> files = indexes.get(directory.resolve((Path) event.context()));
+      if (null != files) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug(String.format("%s: %s", event.kind().name(), event.context()));
+        }
+        pending.addAll(files);
+        any = true;
+      }
+    }
+    return any;
+  }
+
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+  }
+}
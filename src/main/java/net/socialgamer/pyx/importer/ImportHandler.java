@@ -23,35 +23,58 @@
 
 package net.socialgamer.pyx.importer;
 
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 import org.apache.log4j.Logger;
 
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 
+import net.socialgamer.pyx.importer.data.CardIdSet;
+import net.socialgamer.pyx.importer.data.CardsByDeck;
 import net.socialgamer.pyx.importer.data.DeckInfo;
 import net.socialgamer.pyx.importer.data.ParseResult;
 import net.socialgamer.pyx.importer.filetypes.FileType;
+import net.socialgamer.pyx.importer.inject.ImporterModule.FileThreads;
+import net.socialgamer.pyx.importer.inject.ImporterModule.PipelineCapacity;
 
 
 public class ImportHandler {
 
   private final Logger LOG = Logger.getLogger(ImportHandler.class);
 
+  /**
+   * Marks the end of a file's pieces in its queue.
+   */
+  private static final ParseResult END_OF_FILE = new ParseResult(new CardsByDeck(),
+      new CardsByDeck());
+
   private final Map<String, DeckInfo> deckInfos;
   private final List<FileType> fileTypes;
+  private final int fileThreads;
+  private final int pipelineCapacity;
 
   @Inject
   public ImportHandler(final Map<String, DeckInfo> deckInfos,
-      @Assisted("fileTypes") final List<FileType> fileTypes) {
+      @Assisted("fileTypes") final List<FileType> fileTypes,
+      @FileThreads final int fileThreads, @PipelineCapacity final int pipelineCapacity) {
     this.deckInfos = deckInfos;
     this.fileTypes = fileTypes;
+    this.fileThreads = fileThreads;
+    this.pipelineCapacity = pipelineCapacity;
   }
 
   public interface Factory {
@@ -59,81 +82,192 @@ public class ImportHandler {
   }
 
   public ParseResult process() {
-    // so we iterate over decks in the same order as they appeared in sources
-    final Set<String> decks = new LinkedHashSet<>();
-    final Map<String, Set<String>> blackCards = new LinkedHashMap<>();
-    final Map<String, Set<String>> whiteCards = new LinkedHashMap<>();
-
-    for (final FileType fileType : fileTypes) {
-      final ParseResult result = fileType.process();
-
-      for (final Entry<String, Set<String>> e : result.getBlackCards().entrySet()) {
-        final String deck;
-        if (!deckInfos.containsKey(e.getKey())) {
-          LOG.warn(String.format("Deck info not found for deck %s.", e.getKey()));
-          deck = e.getKey();
-        } else {
-          deck = deckInfos.get(e.getKey()).getName();
-        }
-        if (blackCards.containsKey(deck)) {
-          blackCards.get(deck).addAll(e.getValue());
-        } else {
-          blackCards.put(deck, e.getValue());
-        }
-        decks.add(deck);
-      }
+    return merge(processFiles());
+  }
 
-      for (final Entry<String, Set<String>> e : result.getWhiteCards().entrySet()) {
-        final String deck;
-        if (!deckInfos.containsKey(e.getKey())) {
-          LOG.warn(String.format("Deck info not found for deck %s.", e.getKey()));
-          deck = e.getKey();
-        } else {
-          deck = deckInfos.get(e.getKey()).getName();
-        }
-        if (whiteCards.containsKey(deck)) {
-          whiteCards.get(deck).addAll(e.getValue());
-        } else {
-          whiteCards.put(deck, e.getValue());
-        }
-        decks.add(deck);
-      }
+  /**
+   * Merge the results for each file, as returned by {@link #processFiles()}, renaming decks that
+   * have a different name configured for them.
+   */
+  public ParseResult merge(final List<ParseResult> results) {
+    final CardsByDeck blackCards = new CardsByDeck();
+    final CardsByDeck whiteCards = new CardsByDeck();
+    for (final ParseResult result : results) {
+      blackCards.addAll(result.getBlackCards(), this::getDeckName);
+      whiteCards.addAll(result.getWhiteCards(), this::getDeckName);
     }
 
+    // so we iterate over decks in the same order as they appeared in sources
+    final Set<String> decks = new LinkedHashSet<>();
+    decks.addAll(blackCards.getDecks().keySet());
+    decks.addAll(whiteCards.getDecks().keySet());
+
     // dump to output
     LOG.info("Decks:");
     for (final String deck : decks) {
       final int blackCount;
-      if (blackCards.containsKey(deck)) {
-        blackCount = blackCards.get(deck).size();
+      if (blackCards.getDecks().containsKey(deck)) {
+        blackCount = blackCards.getDecks().get(deck).size();
       } else {
         blackCount = 0;
       }
       final int whiteCount;
-      if (whiteCards.containsKey(deck)) {
-        whiteCount = whiteCards.get(deck).size();
+      if (whiteCards.getDecks().containsKey(deck)) {
+        whiteCount = whiteCards.getDecks().get(deck).size();
       } else {
         whiteCount = 0;
       }
       LOG.info(String.format(">%s (black: %d, white: %d)", deck, blackCount, whiteCount));
     }
+    LOG.info(String.format("%d distinct black cards and %d distinct white cards.",
+        blackCards.getPool().size(), whiteCards.getPool().size()));
 
-    LOG.trace("White cards:");
-    for (final Entry<String, Set<String>> entry : whiteCards.entrySet()) {
-      LOG.trace(">" + entry.getKey());
-      for (final String card : entry.getValue()) {
-        LOG.trace(">>" + card);
+    if (LOG.isTraceEnabled()) {
+      LOG.trace("White cards:");
+      traceCards(whiteCards);
+      LOG.trace("Black cards:");
+      traceCards(blackCards);
+    }
+
+    return new ParseResult(blackCards, whiteCards);
+  }
+
+  /**
+   * Pass the cards to {@code parts} a piece at a time, as soon as each piece has been parsed,
+   * instead of all at once. Decks are renamed the same way as {@link #process()}, and the pieces
+   * are passed on in the order that it merges them in, on the calling thread. Up to
+   * {@code fileThreads} files are parsed at once, each with at most {@code pipelineCapacity} pieces
+   * waiting to be passed on, so a slow consumer holds up parsing instead of parsed cards piling up.
+   *
+   * <p>Unlike {@link #process()}, this stops at the first file that fails, as everything before it
+   * has already been passed on.
+   */
+  public void process(final Consumer<ParseResult> parts) {
+    final ExecutorService executor = Executors
+        .newFixedThreadPool(Math.max(1, Math.min(fileThreads, fileTypes.size())));
+    try {
+      final List<BlockingQueue<ParseResult>> queues = new ArrayList<>(fileTypes.size());
+      final List<Future<Void>> futures = new ArrayList<>(fileTypes.size());
+      for (final FileType fileType : fileTypes) {
+        final BlockingQueue<ParseResult> queue = new ArrayBlockingQueue<>(
+            Math.max(1, pipelineCapacity));
+        queues.add(queue);
+        // the pool runs them in order, so the file being waited for is never stuck behind others
+        futures.add(executor.submit(() -> {
+          try {
+            fileType.process(part -> put(queue, new ParseResult(rename(part.getBlackCards()),
+                rename(part.getWhiteCards()))));
+          } finally {
+            put(queue, END_OF_FILE);
+          }
+          return null;
+        }));
+      }
+
+      for (int i = 0; i < fileTypes.size(); i++) {
+        for (ParseResult part = queues.get(i).take(); END_OF_FILE != part; part = queues.get(i)
+            .take()) {
+          parts.accept(part);
+        }
+        try {
+          futures.get(i).get();
+        } catch (final ExecutionException e) {
+          LOG.error(String.format("Unable to process file %d.", i), e.getCause());
+          throw new RuntimeException(String.format("File %d failed to process.", i),
+              e.getCause());
+        }
       }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } finally {
+      executor.shutdownNow();
     }
+  }
+
+  private CardsByDeck rename(final CardsByDeck cards) {
+    final CardsByDeck renamed = new CardsByDeck();
+    renamed.addAll(cards, this::getDeckName);
+    return renamed;
+  }
 
-    LOG.trace("Black cards:");
-    for (final Entry<String, Set<String>> entry : blackCards.entrySet()) {
+  private static void put(final BlockingQueue<ParseResult> queue, final ParseResult part) {
+    try {
+      queue.put(part);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+  }
+
+  private String getDeckName(final String deckId) {
+    if (!deckInfos.containsKey(deckId)) {
+      LOG.warn(String.format("Deck info not found for deck %s.", deckId));
+      return deckId;
+    } else {
+      return deckInfos.get(deckId).getName();
+    }
+  }
+
+  private void traceCards(final CardsByDeck cards) {
+    for (final Entry<String, CardIdSet> entry : cards.getDecks().entrySet()) {
       LOG.trace(">" + entry.getKey());
-      for (final String card : entry.getValue()) {
-        LOG.trace(">>" + card);
+      for (int i = 0; i < entry.getValue().size(); i++) {
+        LOG.trace(">>" + cards.getText(entry.getValue().get(i)));
+      }
+    }
+  }
+
+  /**
+   * Process every file, on up to {@code fileThreads} threads at once. A file that fails does not
+   * stop the others; all failures are logged once everything is done.
+   *
+   * @return The result for each file, in the same order as {@code fileTypes}.
+   */
+  public List<ParseResult> processFiles() {
+    final List<ParseResult> results = new ArrayList<>(fileTypes.size());
+    final Map<Integer, Throwable> failures = new TreeMap<>();
+
+    if (fileThreads <= 1 || fileTypes.size() <= 1) {
+      for (int i = 0; i < fileTypes.size(); i++) {
+        try {
+          results.add(fileTypes.get(i).process());
+        } catch (final RuntimeException e) {
+          failures.put(i, e);
+        }
+      }
+    } else {
+      final ExecutorService executor = Executors
+          .newFixedThreadPool(Math.min(fileThreads, fileTypes.size()));
+      try {
+        final List<Future<ParseResult>> futures = new ArrayList<>(fileTypes.size());
+        for (final FileType fileType : fileTypes) {
+          futures.add(executor.submit(() -> fileType.process()));
+        }
+        // wait for them in order, regardless of the order they finish in
+        for (int i = 0; i < futures.size(); i++) {
+          try {
+            results.add(futures.get(i).get());
+          } catch (final ExecutionException e) {
+            failures.put(i, e.getCause());
+          }
+        }
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      } finally {
+        executor.shutdownNow();
       }
     }
 
-    return new ParseResult(blackCards, whiteCards);
+    if (!failures.isEmpty()) {
+      for (final Entry<Integer, Throwable> failure : failures.entrySet()) {
+        LOG.error(String.format("Unable to process file %d.", failure.getKey()),
+            failure.getValue());
+      }
+      throw new RuntimeException(String.format("%d of %d files failed to process.",
+          failures.size(), fileTypes.size()));
+    }
+    return results;
   }
 }
@@ -0,0 +1,269 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+
+/**
+ * Counters and timers for each stage of an import, shared by everything in one run, which can be
+ * written out as a JSON report at the end.
+ *
+ * <p>Counters and timers are made the first time they are asked for by name, and are safe to
+ * update from any thread. Timers keep a histogram of how long each thing they timed took, as well
+ * as the total, so the report can say how the time was spread out.
+ */
+@Singleton
+public class Metrics {
+
+  // timers
+  public static final String VALIDATE = "stage.validate";
+  public static final String PARSE = "stage.parse";
+  public static final String OUTPUT = "stage.output";
+  /**
+   * Output to one of several configured outputs, by index. Use with {@link String#format}.
+   */
+  public static final String OUTPUT_TARGET = "stage.output[%d]";
+  /**
+   * Parsing and output at the same time, for a pipelined import.
+   */
+  public static final String PIPELINE = "stage.pipeline";
+  public static final String WORKBOOK_OPEN = "workbook.open";
+  public static final String SHEET_PARSE = "sheet.parse";
+  public static final String FORMAT = "format";
+  public static final String DB_FLUSH = "db.flush";
+  public static final String DB_BATCH = "db.batch";
+  public static final String DB_BOOTSTRAP = "db.bootstrap";
+  public static final String WATCH_REIMPORT = "watch.reimport";
+
+  // counters
+  public static final String ROWS = "rows";
+  public static final String CELLS = "cells";
+  public static final String CARDS = "cards";
+  /**
+   * Cards that were already in the same deck on the same sheet.
+   */
+  public static final String DUPLICATE_CARDS = "cards.duplicate";
+  public static final String REPLACEMENTS = "replacements";
+  public static final String FORMAT_CACHE_HITS = "format.cache.hit";
+  public static final String FORMAT_CACHE_MISSES = "format.cache.miss";
+
+  private final Instant started = Instant.now();
+  private final long startNanos = System.nanoTime();
+  // sorted, so the report is always in the same order
+  private final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+  private final Map<String, Timer> timers = new ConcurrentSkipListMap<>();
+
+  @Inject
+  public Metrics() {
+    // nothing to set up
+  }
+
+  public Counter counter(final String name) {
+    return counters.computeIfAbsent(name, key -> new Counter());
+  }
+
+  public Timer timer(final String name) {
+    return timers.computeIfAbsent(name, key -> new Timer());
+  }
+
+  /**
+   * Write everything recorded so far to {@code file} as JSON. Durations are in nanoseconds.
+   */
+  public void writeReport(final File file) throws IOException {
+    try (final Writer out = new OutputStreamWriter(new FileOutputStream(file),
+        StandardCharsets.UTF_8)) {
+      out.write(toJson());
+    }
+  }
+
+  String toJson() {
+    final StringBuilder json = new StringBuilder("{\n");
+    json.append("  \"started\": \"").append(started).append("\",\n");
+    json.append("  \"elapsed_ns\": ").append(System.nanoTime() - startNanos).append(",\n");
+
+    json.append("  \"counters\": {");
+    String separator = "\n";
+    for (final Entry<String, Counter> counter : counters.entrySet()) {
+      json.append(separator).append("    \"").append(counter.getKey()).append("\": ")
+          .append(counter.getValue().get());
+      separator = ",\n";
+    }
+    json.append("\n  },\n");
+
+    json.append("  \"timers\": {");
+    separator = "\n";
+    for (final Entry<String, Timer> entry : timers.entrySet()) {
+      final Timer timer = entry.getValue();
+      json.append(separator).append("    \"").append(entry.getKey()).append("\": {")
+          .append("\"count\": ").append(timer.getCount())
+          .append(", \"total_ns\": ").append(timer.getTotal())
+          .append(", \"mean_ns\": ").append(timer.getMean())
+          .append(", \"p50_ns\": ").append(timer.getPercentile(50))
+          .append(", \"p90_ns\": ").append(timer.getPercentile(90))
+          .append(", \"p99_ns\": ").append(timer.getPercentile(99))
+          .append(", \"max_ns\": ").append(timer.getMax())
+          .append('}');
+      separator = ",\n";
+    }
+    json.append("\n  }\n}\n");
+    return json.toString();
+  }
+
+  public static class Counter {
+    private final LongAdder count = new LongAdder();
+
+    public void add(final long n) {
+      count.add(n);
+    }
+
+    public void increment() {
+      count.increment();
+    }
+
+    public long get() {
+      return count.sum();
+    }
+  }
+
+  /**
+   * Times something that happens many times. Each time is put in a histogram bucket, with eight
+   * buckets for each power of two, so the percentiles are within about 12% of the real value.
+   *
+   * <p>Use it like this:
+   * <pre>
+   * final long start = timer.start();
+   * doSomething();
+   * timer.stop(start);
+   * </pre>
+   */
+  public static class Timer {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    public Timer() {
+      for (int i = 0; i < buckets.length; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    public long start() {
+      return System.nanoTime();
+    }
+
+    /**
+     * @param start What {@link #start()} returned.
+     */
+    public void stop(final long start) {
+      record(System.nanoTime() - start);
+    }
+
+    public void record(final long nanos) {
+      count.increment();
+      total.add(nanos);
+      buckets[bucket(nanos)].increment();
+      if (nanos > max.get()) {
+        max.accumulateAndGet(nanos, Math::max);
+      }
+    }
+
+    public long getCount() {
+      return count.sum();
+    }
+
+    public long getTotal() {
+      return total.sum();
+    }
+
+    public long getMean() {
+      final long n = getCount();
+      return 0 == n ? 0 : getTotal() / n;
+    }
+
+    public long getMax() {
+      return max.get();
+    }
+
+    /**
+     * @return The largest time in the bucket that the given percentile of times fall in, but no
+     * more than the largest time recorded.
+     */
+    public long getPercentile(final double percentile) {
+      final long n = getCount();
+      if (0 == n) {
+        return 0;
+      }
+      final long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+      long seen = 0;
+      for (int i = 0; i < buckets.length; i++) {
+        seen += buckets[i].sum();
+        if (seen >= rank) {
+          return Math.min(bucketLimit(i), getMax());
+        }
+      }
+      return getMax();
+    }
+
+    static int bucket(final long nanos) {
+      if (nanos < SUB_BUCKETS) {
+        return (int) Math.max(0, nanos);
+      }
+      final int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+      final int sub = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+      return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return The largest time that goes in {@code bucket}.
+     */
+    static long bucketLimit(final int bucket) {
+      if (bucket < SUB_BUCKETS) {
+        return bucket;
+      }
+      final int shift = bucket / SUB_BUCKETS - 1;
+      final long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+      return lower + (1L << shift) - 1;
+    }
+  }
+}
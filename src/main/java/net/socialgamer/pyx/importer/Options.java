@@ -41,6 +41,24 @@ public class Options {
   private final OptionSpec<Void> help;
   private final OptionSpec<Boolean> saveToDb;
   private final OptionSpec<Void> schemaOnly;
+  private final OptionSpec<Boolean> streaming;
+  private final OptionSpec<Integer> sheetThreads;
+  private final OptionSpec<Integer> rowThreads;
+  private final OptionSpec<Integer> fileThreads;
+  private final OptionSpec<Integer> batchSize;
+  private final OptionSpec<Integer> commitEvery;
+  private final OptionSpec<File> checkpoint;
+  private final OptionSpec<String> output;
+  private final OptionSpec<Void> incremental;
+  private final OptionSpec<File> cacheDirectory;
+  private final OptionSpec<Integer> cacheSize;
+  private final OptionSpec<Integer> pipeline;
+  private final OptionSpec<File> script;
+  private final OptionSpec<File> metrics;
+  private final OptionSpec<Integer> formatCacheSize;
+  private final OptionSpec<Void> watch;
+  private final OptionSpec<Integer> writeThreads;
+  private final OptionSpec<Integer> watchDelay;
   private final OptionSet opts;
 
   public Options(final String[] args) {
@@ -61,6 +79,116 @@ public class Options {
         .ofType(Boolean.class)
         .defaultsTo(Boolean.TRUE);
     schemaOnly = parser.accepts("schema", "Output the required database schema and exit.");
+    streaming = parser.accepts("streaming",
+        "Read workbooks as a stream instead of loading them entirely into memory.")
+        .withOptionalArg()
+        .ofType(Boolean.class)
+        .defaultsTo(Boolean.FALSE);
+    fileThreads = parser.accepts("file-threads", "Number of files to process at the same time.")
+        .withRequiredArg()
+        .describedAs("threads")
+        .ofType(Integer.class)
+        .defaultsTo(1);
+    sheetThreads = parser.accepts("sheet-threads",
+        "Number of sheets in each workbook to parse at the same time.")
+        .withRequiredArg()
+        .describedAs("threads")
+        .ofType(Integer.class)
+        .defaultsTo(1);
+    rowThreads = parser.accepts("row-threads",
+        "Number of threads to parse the rows of sheets with, each reading different rows of a"
+            + " sheet. Shared by all of the sheets being parsed at once. Not used with"
+            + " --streaming.")
+        .withRequiredArg()
+        .describedAs("threads")
+        .ofType(Integer.class)
+        .defaultsTo(1);
+    batchSize = parser.accepts("batch-size",
+        "Save to the database in JDBC batches of this many rows, clearing the session between"
+            + " batches. 0 keeps every card in one session until the end.")
+        .withRequiredArg()
+        .describedAs("rows")
+        .ofType(Integer.class)
+        .defaultsTo(0);
+    commitEvery = parser.accepts("commit-every",
+        "Commit to the database after each deck once at least this many cards have been added"
+            + " to decks since the last commit. 0 commits once at the end.")
+        .withRequiredArg()
+        .describedAs("cards")
+        .ofType(Integer.class)
+        .defaultsTo(0);
+    checkpoint = parser.accepts("checkpoint",
+        "Record which decks have been committed in this file, and skip them if it already"
+            + " lists them.")
+        .withRequiredArg()
+        .describedAs("filename")
+        .ofType(File.class);
+    output = parser.accepts("output",
+        "How to save parse results to the database: hibernate, jdbc to write the tables"
+            + " directly, or script to write an SQL script to load later.")
+        .withRequiredArg()
+        .describedAs("outputter")
+        .defaultsTo("hibernate");
+    incremental = parser.accepts("incremental",
+        "Reuse decks and cards already in the database, and only change deck memberships that"
+            + " are different. Requires --output jdbc.");
+    cacheDirectory = parser.accepts("cache",
+        "Keep the cards parsed from each sheet in this directory, and reuse them if the sheet and"
+            + " the settings for it haven't changed.")
+        .withRequiredArg()
+        .describedAs("directory")
+        .ofType(File.class);
+    cacheSize = parser.accepts("cache-size",
+        "Largest size of the parse cache. The least recently used sheets are removed first.")
+        .withRequiredArg()
+        .describedAs("megabytes")
+        .ofType(Integer.class)
+        .defaultsTo(256);
+    pipeline = parser.accepts("pipeline",
+        "Save each sheet to the database while later ones are still being parsed, with up to"
+            + " this many parsed sheets from each file waiting to be saved. 0 parses everything"
+            + " before saving anything. Only --output jdbc saves as it goes.")
+        .withRequiredArg()
+        .describedAs("sheets")
+        .ofType(Integer.class)
+        .defaultsTo(0);
+    script = parser.accepts("script",
+        "File that --output script writes the SQL script to. It is compressed with gzip if its"
+            + " name ends in .gz.")
+        .withRequiredArg()
+        .describedAs("filename")
+        .ofType(File.class);
+    metrics = parser.accepts("metrics",
+        "Write how long each stage of the import took, and how much it did, to this file as"
+            + " JSON.")
+        .withRequiredArg()
+        .describedAs("filename")
+        .ofType(File.class);
+    formatCacheSize = parser.accepts("format-cache-size",
+        "Largest size of the cache of formatted card text, which saves formatting the same text"
+            + " again. 0 turns it off.")
+        .withRequiredArg()
+        .describedAs("megabytes")
+        .ofType(Integer.class)
+        .defaultsTo(32);
+    watch = parser.accepts("watch",
+        "After importing, keep running and import again whenever any of the files change. Only"
+            + " the files that changed are parsed again. Everything is parsed before it is saved,"
+            + " regardless of --pipeline. Requires --output jdbc --incremental.");
+    watchDelay = parser.accepts("watch-delay",
+        "How long a file has to go without changing before --watch imports it again.")
+        .withRequiredArg()
+        .describedAs("milliseconds")
+        .ofType(Integer.class)
+        .defaultsTo(500);
+    writeThreads = parser.accepts("write-threads",
+        "Save to the database over this many connections at once, each saving different decks."
+            + " Only for --output hibernate, without --commit-every or --checkpoint, and with a"
+            + " database that allows more than one writer at a time.")
+        .withRequiredArg()
+        .describedAs("threads")
+        .ofType(Integer.class)
+        .defaultsTo(1);
 
     opts = parser.parse(args);
   }
@@ -92,4 +220,88 @@ public class Options {
   public boolean outputScheamOnly() {
     return opts.has(schemaOnly);
   }
+
+  public boolean wantsStreaming() {
+    return opts.valueOf(streaming);
+  }
+
+  public int getFileThreads() {
+    return opts.valueOf(fileThreads);
+  }
+
+  public int getSheetThreads() {
+    return opts.valueOf(sheetThreads);
+  }
+
+  public int getRowThreads() {
+    return opts.valueOf(rowThreads);
+  }
+
+  public int getBatchSize() {
+    return opts.valueOf(batchSize);
+  }
+
+  public int getCommitEvery() {
+    return opts.valueOf(commitEvery);
+  }
+
+  /**
+   * @return The checkpoint file, or {@code null} if there isn't one.
+   */
+  public File getCheckpointFile() {
+    return opts.valueOf(checkpoint);
+  }
+
+  public String getOutput() {
+    return opts.valueOf(output);
+  }
+
+  public boolean wantsIncremental() {
+    return opts.has(incremental);
+  }
+
+  /**
+   * @return The parse cache directory, or {@code null} if there isn't one.
+   */
+  public File getCacheDirectory() {
+    return opts.valueOf(cacheDirectory);
+  }
+
+  public int getCacheSize() {
+    return opts.valueOf(cacheSize);
+  }
+
+  public int getPipelineCapacity() {
+    return opts.valueOf(pipeline);
+  }
+
+  /**
+   * @return The SQL script file, or {@code null} if there isn't one.
+   */
+  public File getScriptFile() {
+    return opts.valueOf(script);
+  }
+
+  /**
+   * @return The metrics report file, or {@code null} if there isn't one.
+   */
+  public File getMetricsFile() {
+    return opts.valueOf(metrics);
+  }
+
+  public int getFormatCacheSize() {
+    return opts.valueOf(formatCacheSize);
+  }
+
+  public boolean wantsWatch() {
+    return opts.has(watch);
+  }
+
+  public int getWatchDelay() {
+    return opts.valueOf(watchDelay);
+  }
+
+  public int getWriteThreads() {
+    return opts.valueOf(writeThreads);
+  }
 }
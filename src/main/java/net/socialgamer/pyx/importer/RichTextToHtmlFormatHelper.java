@@ -23,21 +23,22 @@
 
 package net.socialgamer.pyx.importer;
 
-import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.Map.Entry;
 
 import org.apache.log4j.Logger;
-import org.apache.poi.xssf.usermodel.XSSFFont;
 import org.apache.poi.xssf.usermodel.XSSFRichTextString;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
+import net.socialgamer.pyx.importer.data.StyledText;
+import net.socialgamer.pyx.importer.inject.ImporterModule.FormatCacheSize;
 import net.socialgamer.pyx.importer.inject.ImporterModule.FormatText;
 import net.socialgamer.pyx.importer.inject.ImporterModule.SpecialCharacterReplacements;
+import net.socialgamer.pyx.importer.parsers.RichTextDecoder;
 
 
 @Singleton
@@ -45,52 +46,102 @@ public class RichTextToHtmlFormatHelper {
 
   private static final Logger LOG = Logger.getLogger(RichTextToHtmlFormatHelper.class);
 
-  // log about any cards that have any characters above this left in them after html entity
-  // replacement
-  private static final char LAST_ASCII_CHARACTER = '~';
+  // rough size of a cache entry apart from its strings, in bytes
+  private static final int ENTRY_OVERHEAD = 128;
 
   private final boolean processFormatting;
-  private final Map<String, String> plainTextToFormatted = new HashMap<>();
+  /**
+   * Finished HTML for recently formatted text, by the trimmed plain text. An entry is only used if
+   * the formatting runs are the same as well; otherwise the text is formatted again and checked
+   * against the entry, so the same text formatted two different ways is still noticed as long as
+   * the first one is cached. Sheets may be parsed concurrently.
+   */
+  private final Cache<String, Formatted> formatted;
+  private final Metrics.Counter cacheHits;
+  private final Metrics.Counter cacheMisses;
 
   /**
-   * Replace these characters and character sequences with HTML entities or tags. Iteration order
-   * matters.
+   * Replaces the configured characters and character sequences with HTML entities or tags.
    */
-  private final Map<String, String> replacements;
+  private final SpecialCharacterReplacer replacer;
+  private final Metrics.Timer formatTimer;
 
   @Inject
   public RichTextToHtmlFormatHelper(@FormatText final boolean processFormatting,
-      @SpecialCharacterReplacements final LinkedHashMap<String, String> replacements) {
+      @SpecialCharacterReplacements final LinkedHashMap<String, String> replacements,
+      @FormatCacheSize final int cacheSize, final Metrics metrics) {
     this.processFormatting = processFormatting;
-    this.replacements = ImmutableMap.copyOf(replacements);
+    formatted = CacheBuilder.newBuilder()
+        .maximumWeight(cacheSize * 1024L * 1024L)
+        .weigher((final String key, final Formatted value) -> value.getWeight())
+        .build();
+    cacheHits = metrics.counter(Metrics.FORMAT_CACHE_HITS);
+    cacheMisses = metrics.counter(Metrics.FORMAT_CACHE_MISSES);
+    this.replacer = new SpecialCharacterReplacer(ImmutableMap.copyOf(replacements),
+        metrics.counter(Metrics.REPLACEMENTS));
+    formatTimer = metrics.timer(Metrics.FORMAT);
   }
 
   public String format(final XSSFRichTextString rtf) {
+    final long start = formatTimer.start();
+    final String formatted = formatCached(RichTextDecoder.decode(rtf));
+    formatTimer.stop(start);
+    return formatted;
+  }
+
+  public String format(final StyledText text) {
+    final long start = formatTimer.start();
+    final String formatted = formatCached(text);
+    formatTimer.stop(start);
+    return formatted;
+  }
+
+  private String formatCached(final StyledText text) {
+    final String key = text.getString().trim();
+    final Formatted cached = formatted.getIfPresent(key);
+    if (null != cached && cached.text.equals(text)) {
+      cacheHits.increment();
+      return cached.html;
+    }
+
+    cacheMisses.increment();
+    final String done = formatStyledText(text);
+    if (null == cached) {
+      formatted.asMap().putIfAbsent(key, new Formatted(text, done));
+    } else if (!cached.html.equals(done)) {
+      LOG.warn(
+          String.format("Input string '%s' formatted to '%s', but previously formatted to '%s'",
+              key, done, cached.html));
+    }
+    return done;
+  }
+
+  private String formatStyledText(final StyledText text) {
+    final String str = text.getString();
     final String formatted;
-    if (rtf.hasFormatting()) {
-      LOG.trace(String.format("Processing formatting for %s", rtf.getString()));
+    if (text.hasFormatting()) {
+      LOG.trace(String.format("Processing formatting for %s", str));
       final StringBuilder builder = new StringBuilder();
-      for (int i = 0; i < rtf.numFormattingRuns(); i++) {
+      for (int i = 0; i < text.getRunCount(); i++) {
         final String segment = replaceSpecials(
-            rtf.getString().substring(rtf.getIndexOfFormattingRun(i),
-                rtf.getIndexOfFormattingRun(i) + rtf.getLengthOfFormattingRun(i))).trim();
-        // will be null for normal font
-        final XSSFFont font = rtf.getFontOfFormattingRun(i);
-        if (null == font) {
+            str.substring(text.getRunStart(i), text.getRunEnd(i))).trim();
+        final int style = text.getRunStyle(i);
+        // no font for normal text
+        if (0 == (style & StyledText.HAS_FONT)) {
           builder.append(segment);
         } else {
           int formatsApplied = 0;
           if (processFormatting) {
             // figure out how to format it
-            if (font.getBold()) {
+            if (0 != (style & StyledText.BOLD)) {
               formatsApplied++;
               builder.append("<b>");
             }
-            if (font.getItalic()) {
+            if (0 != (style & StyledText.ITALIC)) {
               formatsApplied++;
               builder.append("<i>");
             }
-            if (font.getUnderline() > 0) {
+            if (0 != (style & StyledText.UNDERLINE)) {
               formatsApplied++;
               builder.append("<u>");
             }
@@ -98,13 +149,13 @@ public class RichTextToHtmlFormatHelper {
             builder.append(segment);
 
             // reverse order
-            if (font.getUnderline() > 0) {
+            if (0 != (style & StyledText.UNDERLINE)) {
               builder.append("</u>");
             }
-            if (font.getItalic()) {
+            if (0 != (style & StyledText.ITALIC)) {
               builder.append("</i>");
             }
-            if (font.getBold()) {
+            if (0 != (style & StyledText.BOLD)) {
               builder.append("</b>");
             }
           }
@@ -112,55 +163,45 @@ public class RichTextToHtmlFormatHelper {
           // there might still be unknown formatting, if it also had something else...
           if (0 == formatsApplied) {
             LOG.warn(String.format("Unknown formatting applied to segment '%s' of card '%s'.",
-                segment, rtf.getString()));
+                segment, str));
           }
         }
         builder.append(' ');
       }
       formatted = builder.toString();
     } else {
-      formatted = replaceSpecials(rtf.getString());
+      formatted = replaceSpecials(str);
     }
 
     final String done = normalizeBlanks(formatted).trim();
-    if (!done.equals(rtf.getString().trim())) {
-      LOG.trace(String.format("Adjusted input string '%s' to '%s'.", rtf.getString(), done));
-    }
-
-    final String trimmedOrig = rtf.getString().trim();
-    if (plainTextToFormatted.containsKey(trimmedOrig)) {
-      if (!plainTextToFormatted.get(trimmedOrig).equals(done)) {
-        LOG.warn(
-            String.format("Input string '%s' formatted to '%s', but previously formatted to '%s'",
-                trimmedOrig, done, plainTextToFormatted.get(trimmedOrig)));
-      }
-    } else {
-      plainTextToFormatted.put(rtf.getString(), done);
+    if (!done.equals(str.trim())) {
+      LOG.trace(String.format("Adjusted input string '%s' to '%s'.", str, done));
     }
     return done;
   }
 
   private String replaceSpecials(final String str) {
-    String specialsReplaced = str;
-    for (final Entry<String, String> entry : replacements.entrySet()) {
-      if (specialsReplaced.contains(entry.getKey())) {
-        specialsReplaced = specialsReplaced.replace(entry.getKey(), entry.getValue());
-      }
-    }
-
-    // see if there are any we don't know about
-    // TODO we might want to fail spectacularly here
-    for (int i = 0; i < specialsReplaced.length(); i++) {
-      if (specialsReplaced.charAt(i) > LAST_ASCII_CHARACTER) {
-        LOG.warn(String.format("Unhandled special character '%c' in string '%s'.",
-            specialsReplaced.charAt(i), str));
-      }
-    }
-    return specialsReplaced;
+    return replacer.replace(str);
   }
 
   private String normalizeBlanks(final String str) {
     // replace more than 4 underscores with 4 underscores
     return str.replaceAll("____+", "____");
   }
+
+  private static final class Formatted {
+    private final StyledText text;
+    private final String html;
+
+    private Formatted(final StyledText text, final String html) {
+      this.text = text;
+      this.html = html;
+    }
+
+    private int getWeight() {
+      // the key is the text, trimmed, so count that twice
+      return ENTRY_OVERHEAD + 2 * (2 * text.getString().length() + html.length())
+          + 5 * text.getRunCount();
+    }
+  }
 }
@@ -0,0 +1,361 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Performs the configured special character replacements, and warns about any characters that are
+ * left over afterwards which aren't plain ASCII.
+ *
+ * <p>The replacements are defined as being applied one after another, in order, to the whole
+ * string. As long as no replacement can affect what a later one matches, that gives the same result
+ * as a single left-to-right pass that looks for all of them at once, which is what this does with
+ * an Aho-Corasick automaton built once up front. If the replacements do interact, this falls back
+ * to applying them one after another.
+ */
+class SpecialCharacterReplacer {
+
+  private static final Logger LOG = Logger.getLogger(SpecialCharacterReplacer.class);
+
+  // log about any cards that have any characters above this left in them after html entity
+  // replacement
+  private static final char LAST_ASCII_CHARACTER = '~';
+
+  private static final int ROOT = 0;
+
+  private final String[] from;
+  private final String[] to;
+  private final boolean singlePass;
+  private final Metrics.Counter replaced;
+
+  // automaton, indexed by node
+  private final int[] rootAscii = new int[LAST_ASCII_CHARACTER + 1];
+  private char[][] edgeChars;
+  private int[][] edgeTargets;
+  private int[] fail;
+  private int[] matches;
+  private int[] depths;
+
+  private final ThreadLocal<StringBuilder> buffers = new ThreadLocal<StringBuilder>() {
+    @Override
+    protected StringBuilder initialValue() {
+      return new StringBuilder();
+    }
+  };
+
+  /**
+   * @param replaced Counts every replacement that is made.
+   */
+  SpecialCharacterReplacer(final Map<String, String> replacements,
+      final Metrics.Counter replaced) {
+    this.replaced = replaced;
+    from = new String[replacements.size()];
+    to = new String[replacements.size()];
+    int i = 0;
+    for (final Entry<String, String> entry : replacements.entrySet()) {
+      from[i] = entry.getKey();
+      to[i] = entry.getValue();
+      i++;
+    }
+
+    singlePass = isOrderIndependent();
+    if (singlePass) {
+      buildAutomaton();
+    } else {
+      LOG.info("Special character replacements affect each other, so they will be applied one at"
+          + " a time.");
+    }
+  }
+
+  String replace(final String str) {
+    if (singlePass) {
+      return replaceSinglePass(str);
+    } else {
+      return replaceSequentially(str);
+    }
+  }
+
+  boolean isSinglePass() {
+    return singlePass;
+  }
+
+  /**
+   * The original implementation: apply each replacement to the whole string in turn, then look for
+   * anything left over.
+   */
+  String replaceSequentially(final String str) {
+    String specialsReplaced = str;
+    for (int i = 0; i < from.length; i++) {
+      int found = specialsReplaced.indexOf(from[i]);
+      if (found >= 0) {
+        int count = 0;
+        for (; found >= 0; found = specialsReplaced.indexOf(from[i], found + from[i].length())) {
+          count++;
+        }
+        replaced.add(count);
+        specialsReplaced = specialsReplaced.replace(from[i], to[i]);
+      }
+    }
+
+    // see if there are any we don't know about
+    // TODO we might want to fail spectacularly here
+    for (int i = 0; i < specialsReplaced.length(); i++) {
+      if (specialsReplaced.charAt(i) > LAST_ASCII_CHARACTER) {
+        warnUnhandled(specialsReplaced.charAt(i), str);
+      }
+    }
+    return specialsReplaced;
+  }
+
+  private String replaceSinglePass(final String str) {
+    StringBuilder out = null;
+    // everything before this has been copied to out (or doesn't need to be, if out is null)
+    int copied = 0;
+    // everything before this has been checked for unhandled characters
+    int checked = 0;
+    int state = ROOT;
+    int count = 0;
+    final int length = str.length();
+    for (int i = 0; i < length; i++) {
+      if (ROOT == state) {
+        // skip ahead over plain text that can't start a match, which is most of it
+        char c = str.charAt(i);
+        while (c <= LAST_ASCII_CHARACTER && 0 == rootAscii[c] && ++i < length) {
+          c = str.charAt(i);
+        }
+        if (i == length) {
+          break;
+        }
+      }
+      state = step(state, str.charAt(i));
+      // anything before the start of a possible match is going to be output as-is
+      checked = checkUnhandled(str, checked, i - depths[state] + 1);
+
+      final int match = matches[state];
+      if (match < 0) {
+        continue;
+      }
+
+      if (null == out) {
+        out = buffers.get();
+        out.setLength(0);
+      }
+      final int start = i - from[match].length() + 1;
+      out.append(str, copied, start).append(to[match]);
+      for (int j = 0; j < to[match].length(); j++) {
+        if (to[match].charAt(j) > LAST_ASCII_CHARACTER) {
+          warnUnhandled(to[match].charAt(j), str);
+        }
+      }
+      count++;
+      copied = i + 1;
+      checked = i + 1;
+      // nothing can overlap a match, so start over
+      state = ROOT;
+    }
+    checkUnhandled(str, checked, length);
+
+    if (null == out) {
+      return str;
+    }
+    replaced.add(count);
+    return out.append(str, copied, length).toString();
+  }
+
+  /**
+   * Warn about unhandled characters in {@code str} from {@code start} up to {@code end}.
+   *
+   * @return The new start position.
+   */
+  private int checkUnhandled(final String str, final int start, final int end) {
+    for (int i = start; i < end; i++) {
+      if (str.charAt(i) > LAST_ASCII_CHARACTER) {
+        warnUnhandled(str.charAt(i), str);
+      }
+    }
+    return Math.max(start, end);
+  }
+
+  private void warnUnhandled(final char c, final String str) {
+    LOG.warn(String.format("Unhandled special character '%c' in string '%s'.", c, str));
+  }
+
+  private int step(int state, final char c) {
+    while (true) {
+      final int next = edge(state, c);
+      if (next >= 0) {
+        return next;
+      }
+      if (ROOT == state) {
+        return ROOT;
+      }
+      state = fail[state];
+    }
+  }
+
+  private int edge(final int state, final char c) {
+    if (ROOT == state) {
+      if (c <= LAST_ASCII_CHARACTER) {
+        final int next = rootAscii[c];
+        return next > 0 ? next : -1;
+      }
+    }
+    final int idx = Arrays.binarySearch(edgeChars[state], c);
+    return idx >= 0 ? edgeTargets[state][idx] : -1;
+  }
+
+  /**
+   * Checks that a single pass gives the same result as applying the replacements in order. That is
+   * true if no two patterns can overlap each other in the input, and no replacement text can form
+   * part of a match for a later pattern: the match can't be inside the replacement, start in it,
+   * end in it or at its end, or have the whole replacement in the middle of it.
+   */
+  private boolean isOrderIndependent() {
+    for (int i = 0; i < from.length; i++) {
+      for (int j = 0; j < from.length; j++) {
+        if (i != j && (from[i].contains(from[j]) || overlaps(from[i], from[j]))) {
+          return false;
+        }
+        if (j > i && (to[i].contains(from[j]) || overlaps(to[i], from[j])
+            || overlaps(from[j], to[i]) || from[j].endsWith(to[i])
+            || containsInside(from[j], to[i]))) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return True if some non-empty proper prefix of {@code b} is a suffix of {@code a}.
+   */
+  private static boolean overlaps(final String a, final String b) {
+    for (int len = 1; len < b.length() && len <= a.length(); len++) {
+      if (a.endsWith(b.substring(0, len))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return True if {@code inner} appears in {@code outer} with at least one character on either
+   * side of it, so text on both sides of a replacement could complete a match.
+   */
+  private static boolean containsInside(final String outer, final String inner) {
+    for (int start = 1; start + inner.length() < outer.length(); start++) {
+      if (outer.startsWith(inner, start)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void buildAutomaton() {
+    final List<StringBuilder> nodeChars = new ArrayList<>();
+    final List<List<Integer>> nodeTargets = new ArrayList<>();
+    final List<Integer> nodeMatches = new ArrayList<>();
+    final List<Integer> nodeDepths = new ArrayList<>();
+    nodeChars.add(new StringBuilder());
+    nodeTargets.add(new ArrayList<>());
+    nodeMatches.add(-1);
+    nodeDepths.add(0);
+
+    // trie of all patterns
+    for (int p = 0; p < from.length; p++) {
+      int node = ROOT;
+      for (int i = 0; i < from[p].length(); i++) {
+        final char c = from[p].charAt(i);
+        final int idx = nodeChars.get(node).indexOf(String.valueOf(c));
+        if (idx >= 0) {
+          node = nodeTargets.get(node).get(idx);
+        } else {
+          final int child = nodeChars.size();
+          nodeChars.add(new StringBuilder());
+          nodeTargets.add(new ArrayList<>());
+          nodeMatches.add(-1);
+          nodeDepths.add(i + 1);
+          nodeChars.get(node).append(c);
+          nodeTargets.get(node).add(child);
+          node = child;
+        }
+      }
+      nodeMatches.set(node, p);
+    }
+
+    final int nodeCount = nodeChars.size();
+    edgeChars = new char[nodeCount][];
+    edgeTargets = new int[nodeCount][];
+    matches = new int[nodeCount];
+    depths = new int[nodeCount];
+    fail = new int[nodeCount];
+    for (int node = 0; node < nodeCount; node++) {
+      // sort the edges so they can be binary searched
+      final char[] chars = nodeChars.get(node).toString().toCharArray();
+      final Integer[] order = new Integer[chars.length];
+      for (int i = 0; i < order.length; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, (a, b) -> Character.compare(chars[a], chars[b]));
+      edgeChars[node] = new char[chars.length];
+      edgeTargets[node] = new int[chars.length];
+      for (int i = 0; i < order.length; i++) {
+        edgeChars[node][i] = chars[order[i]];
+        edgeTargets[node][i] = nodeTargets.get(node).get(order[i]);
+      }
+      matches[node] = nodeMatches.get(node);
+      depths[node] = nodeDepths.get(node);
+    }
+    for (int i = 0; i < edgeChars[ROOT].length; i++) {
+      if (edgeChars[ROOT][i] <= LAST_ASCII_CHARACTER) {
+        rootAscii[edgeChars[ROOT][i]] = edgeTargets[ROOT][i];
+      }
+    }
+
+    // failure links, breadth first
+    final int[] queue = new int[nodeCount];
+    int head = 0;
+    int tail = 0;
+    for (final int child : edgeTargets[ROOT]) {
+      fail[child] = ROOT;
+      queue[tail++] = child;
+    }
+    while (head < tail) {
+      final int node = queue[head++];
+      for (int i = 0; i < edgeChars[node].length; i++) {
+        final int child = edgeTargets[node][i];
+        queue[tail++] = child;
+        fail[child] = step(fail[node], edgeChars[node][i]);
+      }
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.data;
+
+import java.util.Arrays;
+
+
+/**
+ * The cards in a deck, as ids in a {@link CardPool}. Ids are kept in the order they were added,
+ * with an open-addressed index to reject duplicates, so a membership takes a few {@code int}s
+ * instead of a hash set entry.
+ *
+ * <p>Not thread-safe.
+ */
+public class CardIdSet {
+
+  private int[] ids = new int[4];
+  private int size = 0;
+  /**
+   * Holds id + 1, so that 0 is an empty slot.
+   */
+  private int[] table = new int[8];
+
+  /**
+   * @return Whether the id was added, which it isn't if it was already in the set.
+   */
+  public boolean add(final int id) {
+    final int slot = find(id);
+    if (0 != table[slot]) {
+      return false;
+    }
+
+    if (size == ids.length) {
+      ids = Arrays.copyOf(ids, size * 2);
+    }
+    ids[size++] = id;
+    table[slot] = id + 1;
+    if (size * 2 > table.length) {
+      rehash();
+    }
+    return true;
+  }
+
+  public boolean contains(final int id) {
+    return 0 != table[find(id)];
+  }
+
+  /**
+   * @return The id at {@code index}, in the order the ids were added.
+   */
+  public int get(final int index) {
+    if (index >= size) {
+      throw new IndexOutOfBoundsException(index + " >= " + size);
+    }
+    return ids[index];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return 0 == size;
+  }
+
+  private int find(final int id) {
+    final int mask = table.length - 1;
+    int slot = CardPool.mix(id) & mask;
+    while (0 != table[slot] && table[slot] != id + 1) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void rehash() {
+    table = new int[table.length * 2];
+    final int mask = table.length - 1;
+    for (int i = 0; i < size; i++) {
+      int slot = CardPool.mix(ids[i]) & mask;
+      while (0 != table[slot]) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = ids[i] + 1;
+    }
+  }
+}
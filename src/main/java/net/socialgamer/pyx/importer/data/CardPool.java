@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.data;
+
+import java.util.Arrays;
+
+
+/**
+ * Every distinct card text seen for one color, each stored once and identified by an {@code int}
+ * id. Ids are assigned in order starting at 0, so they can be used to index arrays.
+ *
+ * <p>Not thread-safe.
+ */
+public class CardPool {
+
+  private String[] texts = new String[16];
+  private int size = 0;
+  /**
+   * Open-addressed index from text to id, holding id + 1 so that 0 is an empty slot.
+   */
+  private int[] table = new int[32];
+
+  /**
+   * @return The id for the text, adding it if it isn't already in the pool.
+   */
+  public int intern(final String text) {
+    final int slot = find(text);
+    if (0 != table[slot]) {
+      return table[slot] - 1;
+    }
+
+    if (size == texts.length) {
+      texts = Arrays.copyOf(texts, size * 2);
+    }
+    texts[size] = text;
+    table[slot] = ++size;
+    if (size * 2 > table.length) {
+      rehash();
+    }
+    return size - 1;
+  }
+
+  /**
+   * @return The id for the text, or -1 if it isn't in the pool.
+   */
+  public int indexOf(final String text) {
+    return table[find(text)] - 1;
+  }
+
+  public String get(final int id) {
+    return texts[id];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  private int find(final String text) {
+    final int mask = table.length - 1;
+    int slot = mix(text.hashCode()) & mask;
+    while (0 != table[slot] && !texts[table[slot] - 1].equals(text)) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void rehash() {
+    table = new int[table.length * 2];
+    final int mask = table.length - 1;
+    for (int id = 0; id < size; id++) {
+      int slot = mix(texts[id].hashCode()) & mask;
+      while (0 != table[slot]) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = id + 1;
+    }
+  }
+
+  static int mix(final int hash) {
+    final int h = hash * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
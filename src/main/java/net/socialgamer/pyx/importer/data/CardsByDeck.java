@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.data;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.function.UnaryOperator;
+
+
+/**
+ * The cards of one color, by deck. Each distinct card text is stored once, in a {@link CardPool},
+ * no matter how many decks it is in, and decks hold the ids of their cards.
+ *
+ * <p>Not thread-safe.
+ */
+public class CardsByDeck {
+
+  private final CardPool pool = new CardPool();
+  // so we iterate decks in the same order as they were added
+  private final Map<String, CardIdSet> decks = new LinkedHashMap<>();
+
+  /**
+   * Add cards to a deck, adding the deck first if needed, even if there aren't any cards.
+   */
+  public void addAll(final String deck, final Collection<String> texts) {
+    final CardIdSet cards = getOrAddDeck(deck);
+    for (final String text : texts) {
+      cards.add(pool.intern(text));
+    }
+  }
+
+  /**
+   * Add all of the decks and cards from {@code other}.
+   *
+   * @param rename Gives the name of the deck in this for the name of a deck in {@code other}.
+   */
+  public void addAll(final CardsByDeck other, final UnaryOperator<String> rename) {
+    // other's ids to ours, + 1 so that 0 is one that hasn't been looked up yet
+    final int[] ids = new int[other.pool.size()];
+    for (final Entry<String, CardIdSet> entry : other.decks.entrySet()) {
+      final CardIdSet from = entry.getValue();
+      final CardIdSet to = getOrAddDeck(rename.apply(entry.getKey()));
+      for (int i = 0; i < from.size(); i++) {
+        final int otherId = from.get(i);
+        if (0 == ids[otherId]) {
+          ids[otherId] = pool.intern(other.pool.get(otherId)) + 1;
+        }
+        to.add(ids[otherId] - 1);
+      }
+    }
+  }
+
+  private CardIdSet getOrAddDeck(final String deck) {
+    CardIdSet cards = decks.get(deck);
+    if (null == cards) {
+      cards = new CardIdSet();
+      decks.put(deck, cards);
+    }
+    return cards;
+  }
+
+  /**
+   * @return The decks, in the order they were added. Not modifiable.
+   */
+  public Map<String, CardIdSet> getDecks() {
+    return Collections.unmodifiableMap(decks);
+  }
+
+  public CardPool getPool() {
+    return pool;
+  }
+
+  public String getText(final int id) {
+    return pool.get(id);
+  }
+}
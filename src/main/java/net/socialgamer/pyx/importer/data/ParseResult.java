@@ -1,23 +1,19 @@
 package net.socialgamer.pyx.importer.data;
 
-import java.util.Map;
-import java.util.Set;
-
 public class ParseResult {
-  private final Map<String, Set<String>> blackCards;
-  private final Map<String, Set<String>> whiteCards;
+  private final CardsByDeck blackCards;
+  private final CardsByDeck whiteCards;
 
-  public ParseResult(final Map<String, Set<String>> blackCards,
-      final Map<String, Set<String>> whiteCards) {
+  public ParseResult(final CardsByDeck blackCards, final CardsByDeck whiteCards) {
     this.blackCards = blackCards;
     this.whiteCards = whiteCards;
   }
 
-  public Map<String, Set<String>> getBlackCards() {
+  public CardsByDeck getBlackCards() {
     return blackCards;
   }
 
-  public Map<String, Set<String>> getWhiteCards() {
+  public CardsByDeck getWhiteCards() {
     return whiteCards;
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.data;
+
+import java.util.Arrays;
+
+
+/**
+ * Cell text along with the formatting runs applied to it, reduced to just the information that
+ * {@code RichTextToHtmlFormatHelper} cares about. This is much smaller than keeping an
+ * {@code XSSFRichTextString} around, and can be built without the workbook's object model.
+ */
+public class StyledText {
+  public static final int BOLD = 1;
+  public static final int ITALIC = 2;
+  public static final int UNDERLINE = 4;
+  /**
+   * The run has font properties, even if none of them are ones we know how to format. A run
+   * without this flag is plain text.
+   */
+  public static final int HAS_FONT = 8;
+
+  private static final int[] NO_RUNS = new int[0];
+  private static final byte[] NO_STYLES = new byte[0];
+
+  public static final StyledText EMPTY = new StyledText("");
+
+  private final String text;
+  private final int[] runStarts;
+  private final byte[] runStyles;
+
+  /**
+   * Plain text with no formatting runs.
+   */
+  public StyledText(final String text) {
+    this(text, NO_RUNS, NO_STYLES);
+  }
+
+  private StyledText(final String text, final int[] runStarts, final byte[] runStyles) {
+    this.text = text;
+    this.runStarts = runStarts;
+    this.runStyles = runStyles;
+  }
+
+  public String getString() {
+    return text;
+  }
+
+  /**
+   * @return True if any run has font properties. Same meaning as
+   * {@code XSSFRichTextString.hasFormatting()}.
+   */
+  public boolean hasFormatting() {
+    return runStarts.length > 0;
+  }
+
+  public int getRunCount() {
+    return runStarts.length;
+  }
+
+  public int getRunStart(final int run) {
+    return runStarts[run];
+  }
+
+  public int getRunEnd(final int run) {
+    if (run + 1 < runStarts.length) {
+      return runStarts[run + 1];
+    } else {
+      return text.length();
+    }
+  }
+
+  /**
+   * @return Bitmask of {@link #BOLD}, {@link #ITALIC}, {@link #UNDERLINE}, and {@link #HAS_FONT}.
+   */
+  public int getRunStyle(final int run) {
+    return runStyles[run];
+  }
+
+  /**
+   * @return True if the other one has the same text and the same formatting runs.
+   */
+  @Override
+  public boolean equals(final Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof StyledText)) {
+      return false;
+    }
+    final StyledText other = (StyledText) obj;
+    return text.equals(other.text) && Arrays.equals(runStarts, other.runStarts)
+        && Arrays.equals(runStyles, other.runStyles);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * (31 * text.hashCode() + Arrays.hashCode(runStarts)) + Arrays.hashCode(runStyles);
+  }
+
+  @Override
+  public String toString() {
+    return text;
+  }
+
+  /**
+   * Builds up a {@code StyledText} one run at a time.
+   */
+  public static class Builder {
+    private final StringBuilder text = new StringBuilder();
+    private int[] runStarts = new int[4];
+    private byte[] runStyles = new byte[4];
+    private int runCount = 0;
+    private boolean anyFont = false;
+
+    public Builder appendRun(final CharSequence runText, final int style) {
+      if (runCount == runStarts.length) {
+        runStarts = Arrays.copyOf(runStarts, runCount * 2);
+        runStyles = Arrays.copyOf(runStyles, runCount * 2);
+      }
+      runStarts[runCount] = text.length();
+      runStyles[runCount] = (byte) style;
+      runCount++;
+      anyFont |= (style & HAS_FONT) != 0;
+      text.append(runText);
+      return this;
+    }
+
+    /**
+     * Append text that is not part of a formatting run.
+     */
+    public Builder append(final CharSequence plainText) {
+      text.append(plainText);
+      return this;
+    }
+
+    public Builder clear() {
+      text.setLength(0);
+      runCount = 0;
+      anyFont = false;
+      return this;
+    }
+
+    public StyledText build() {
+      if (!anyFont) {
+        // XSSFRichTextString treats runs without any font properties as unformatted
+        return new StyledText(text.toString());
+      }
+      return new StyledText(text.toString(), Arrays.copyOf(runStarts, runCount),
+          Arrays.copyOf(runStyles, runCount));
+    }
+  }
+}
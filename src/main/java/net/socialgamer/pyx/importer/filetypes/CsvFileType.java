@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.filetypes;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.commons.csv.CSVFormat;
+
+import com.google.inject.Inject;
+import com.google.inject.assistedinject.Assisted;
+
+import net.socialgamer.pyx.importer.data.CardsByDeck;
+import net.socialgamer.pyx.importer.data.ParseResult;
+import net.socialgamer.pyx.importer.parsers.CsvParser;
+
+
+/**
+ * A delimited text file, such as CSV or TSV, laid out like a single sheet of a workbook. The
+ * {@code format} is the name of one of commons-csv's predefined formats, like {@code Default},
+ * {@code Excel}, or {@code TDF} for tab-delimited.
+ */
+public class CsvFileType extends FileType {
+
+  private final CsvParser.Factory parserFactory;
+
+  @Inject
+  public CsvFileType(final Properties props, @Assisted("configIndex") final int configIndex,
+      final CsvParser.Factory parserFactory) {
+    super(props, configIndex);
+    this.parserFactory = parserFactory;
+  }
+
+  public interface Factory {
+    CsvFileType create(@Assisted("configIndex") final int configIndex);
+  }
+
+  @Override
+  public void validate() throws ConfigurationException {
+    final File file = new File(getProp("name"));
+    if (!file.canRead()) {
+      throw new ConfigurationException("Unable to read file " + getProp("name") + ".");
+    }
+
+    validateLayout(getProp("color"), getProp("heading_named_count", "0"),
+        getProp("next_column_named_count", "0"));
+    getFormat();
+    getCharset();
+  }
+
+  private CSVFormat getFormat() throws ConfigurationException {
+    final String format = getProp("format", CSVFormat.Predefined.Default.name());
+    try {
+      return CSVFormat.Predefined.valueOf(format).getFormat();
+    } catch (final IllegalArgumentException e) {
+      throw new ConfigurationException("Unknown CSV format " + format + ".");
+    }
+  }
+
+  private Charset getCharset() throws ConfigurationException {
+    final String charset = getProp("charset", "UTF-8");
+    try {
+      if (Charset.isSupported(charset)) {
+        return Charset.forName(charset);
+      }
+    } catch (final IllegalCharsetNameException e) {
+      // same as not supported
+    }
+    throw new ConfigurationException("Unsupported character set " + charset + ".");
+  }
+
+  @Override
+  public ParseResult process() {
+    final CsvParser parser;
+    try {
+      parser = parserFactory.create(new File(getProp("name")), getFormat(), getCharset(),
+          Boolean.parseBoolean(getProp("markup", "false")),
+          Integer.parseInt(getProp("heading_named_count", "0")),
+          Integer.parseInt(getProp("next_column_named_count", "0")));
+    } catch (final ConfigurationException e) {
+      // we shouldn't get here as we already validated the configuration...
+      throw new RuntimeException(e);
+    }
+    final Map<String, Set<String>> cards = parser.getCards();
+
+    final CardsByDeck blackCardsByDeck = new CardsByDeck();
+    final CardsByDeck whiteCardsByDeck = new CardsByDeck();
+    final CardsByDeck existingCards;
+    if ("black".equals(getProp("color"))) {
+      existingCards = blackCardsByDeck;
+    } else {
+      existingCards = whiteCardsByDeck;
+    }
+    for (final Entry<String, Set<String>> deck : cards.entrySet()) {
+      existingCards.addAll(deck.getKey(), deck.getValue());
+    }
+    return new ParseResult(blackCardsByDeck, whiteCardsByDeck);
+  }
+}
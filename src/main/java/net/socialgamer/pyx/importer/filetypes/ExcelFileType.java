@@ -25,34 +25,79 @@ package net.socialgamer.pyx.importer.filetypes;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.LinkedHashMap;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import javax.xml.parsers.ParserConfigurationException;
 
 import org.apache.log4j.Logger;
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.util.SAXHelper;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
 
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 
+import net.socialgamer.pyx.importer.Metrics;
+import net.socialgamer.pyx.importer.data.CardsByDeck;
 import net.socialgamer.pyx.importer.data.ParseResult;
+import net.socialgamer.pyx.importer.inject.ImporterModule.SheetThreads;
+import net.socialgamer.pyx.importer.inject.ImporterModule.StreamWorkbooks;
+import net.socialgamer.pyx.importer.parsers.Parser;
+import net.socialgamer.pyx.importer.parsers.SharedRichStrings;
 import net.socialgamer.pyx.importer.parsers.SheetParser;
+import net.socialgamer.pyx.importer.parsers.StreamingSheetParser;
 
 
 public class ExcelFileType extends FileType {
   private static final Logger LOG = Logger.getLogger(ExcelFileType.class);
 
   private final SheetParser.Factory columnarParserFactory;
+  private final StreamingSheetParser.Factory streamingParserFactory;
+  private final boolean streamWorkbooks;
+  private final int sheetThreads;
+  private final ParseCache parseCache;
+  private final Metrics.Timer openTimer;
+  private final Metrics.Timer sheetTimer;
+  private OPCPackage validatedPackage;
 
   @Inject
   public ExcelFileType(final Properties props, @Assisted("configIndex") final int configIndex,
-      final SheetParser.Factory columnarParserFactory) {
+      final SheetParser.Factory columnarParserFactory,
+      final StreamingSheetParser.Factory streamingParserFactory,
+      @StreamWorkbooks final boolean streamWorkbooks, @SheetThreads final int sheetThreads,
+      final ParseCache parseCache, final Metrics metrics) {
     super(props, configIndex);
     this.columnarParserFactory = columnarParserFactory;
+    this.streamingParserFactory = streamingParserFactory;
+    this.streamWorkbooks = streamWorkbooks;
+    this.sheetThreads = sheetThreads;
+    this.parseCache = parseCache;
+    openTimer = metrics.timer(Metrics.WORKBOOK_OPEN);
+    sheetTimer = metrics.timer(Metrics.SHEET_PARSE);
   }
 
   public interface Factory {
@@ -85,82 +130,139 @@ public class ExcelFileType extends FileType {
       throw new ConfigurationException("Must specify positive number of sheets.");
     }
 
-    try (final Workbook workbook = new XSSFWorkbook(file)) {
-      if (sheetCount > workbook.getNumberOfSheets()) {
+    for (int i = 0; i < sheetCount; i++) {
+      validateLayout(getSheetProp(i, "color"), getSheetProp(i, "heading_named_count", "0"),
+          getSheetProp(i, "next_column_named_count", "0"));
+    }
+
+    // Only the workbook part is read here, which is enough to know what sheets there are. The
+    // package is kept open for process() so it doesn't have to be opened again.
+    final OPCPackage pkg;
+    try {
+      pkg = OPCPackage.open(file, PackageAccess.READ);
+    } catch (final InvalidFormatException e) {
+      throw new ConfigurationException("Workbook file format invalid: " + e.getMessage());
+    }
+    try {
+      final List<String> sheetNames = readSheetNames(pkg);
+      if (sheetCount > sheetNames.size()) {
         throw new ConfigurationException(
-            String.format("Workbook file has %d sheets; %d configured.",
-                workbook.getNumberOfSheets(), sheetCount));
+            String.format("Workbook file has %d sheets; %d configured.", sheetNames.size(),
+                sheetCount));
       }
-    } catch (final InvalidFormatException e) {
+      for (int i = 0; i < sheetCount; i++) {
+        final String sheetName = getSheetProp(i, "name");
+        if (null != sheetName && !sheetName.equals(sheetNames.get(i))) {
+          throw new ConfigurationException(String.format("Sheet %d is named %s; %s configured.",
+              i, sheetNames.get(i), sheetName));
+        }
+      }
+    } catch (final ConfigurationException e) {
+      pkg.revert();
+      throw e;
+    }
+    validatedPackage = pkg;
+  }
+
+  @Override
+  public void discard() {
+    if (null != validatedPackage) {
+      // read-only packages are reverted, not closed
+      validatedPackage.revert();
+      validatedPackage = null;
+    }
+  }
+
+  /**
+   * Read the names of the sheets in the workbook, in order, without loading anything else.
+   */
+  private static List<String> readSheetNames(final OPCPackage pkg)
+      throws ConfigurationException {
+    final SheetNameHandler handler = new SheetNameHandler();
+    try (final InputStream stream = new XSSFReader(pkg).getWorkbookData()) {
+      final XMLReader reader = SAXHelper.newXMLReader();
+      reader.setContentHandler(handler);
+      reader.parse(new InputSource(stream));
+    } catch (final OpenXML4JException | SAXException | ParserConfigurationException e) {
       throw new ConfigurationException("Workbook file format invalid: " + e.getMessage());
     } catch (final IOException ioe) {
-      // should be unreachable as we don't write to the workbook
       throw new ConfigurationException("I/O error", ioe);
     }
+    return handler.sheetNames;
+  }
 
-    for (int i = 0; i < sheetCount; i++) {
-      final String sheetColor = getSheetProp(i, "color");
-      if (!"white".equals(sheetColor) && !"black".equals(sheetColor)) {
-        throw new ConfigurationException(
-            "Invalid sheet color " + sheetColor + "; must be either white or black.");
-      }
-
-      try {
-        final int headingNamedCount = Integer.parseInt(getSheetProp(i, "heading_named_count", "0"));
-        final int nextColNamedCount = Integer
-            .parseInt(getSheetProp(i, "next_column_named_count", "0"));
+  private static class SheetNameHandler extends DefaultHandler {
+    private final List<String> sheetNames = new ArrayList<>();
 
-        if (headingNamedCount < 0) {
-          throw new ConfigurationException("Heading named count cannot be negative.");
-        }
-        if (nextColNamedCount < 0) {
-          throw new ConfigurationException("Next column named count cannot be negative.");
-        }
-        if (headingNamedCount + nextColNamedCount <= 0) {
-          throw new ConfigurationException(
-              "Sum of heading name count and next column named count must be positive.");
-        }
-      } catch (final NumberFormatException e) {
-        throw new ConfigurationException("Naming count is not a number.");
+    @Override
+    public void startElement(final String uri, final String localName, final String qName,
+        final Attributes attributes) {
+      if ("sheet".equals(localName)) {
+        sheetNames.add(attributes.getValue("name"));
       }
     }
   }
 
   @Override
   public ParseResult process() {
-    // so we iterate over decks in the same order as the sheets
-    final Map<String, Set<String>> blackCardsByDeck = new LinkedHashMap<>();
-    final Map<String, Set<String>> whiteCardsByDeck = new LinkedHashMap<>();
+    final CardsByDeck blackCardsByDeck = new CardsByDeck();
+    final CardsByDeck whiteCardsByDeck = new CardsByDeck();
+    parse((sheet, cards) -> mergeSheet(sheet, cards, blackCardsByDeck, whiteCardsByDeck));
+    return new ParseResult(blackCardsByDeck, whiteCardsByDeck);
+  }
 
-    final File file = new File(getProp("name"));
-    try (final Workbook workbook = new XSSFWorkbook(file)) {
-      final int sheetCount = Integer.valueOf(getProp("sheet.count", "0"));
+  /**
+   * Each sheet is one piece.
+   */
+  @Override
+  public void process(final Consumer<ParseResult> parts) {
+    parse((sheet, cards) -> {
+      final CardsByDeck blackCardsByDeck = new CardsByDeck();
+      final CardsByDeck whiteCardsByDeck = new CardsByDeck();
+      mergeSheet(sheet, cards, blackCardsByDeck, whiteCardsByDeck);
+      parts.accept(new ParseResult(blackCardsByDeck, whiteCardsByDeck));
+    });
+  }
 
-      for (int i = 0; i < sheetCount; i++) {
-        final int headingNamedCount = Integer.parseInt(getSheetProp(i, "heading_named_count", "0"));
-        final int nextColNamedCount = Integer
-            .parseInt(getSheetProp(i, "next_column_named_count", "0"));
-        final SheetParser parser = columnarParserFactory.create(workbook.getSheetAt(i),
-            headingNamedCount, nextColNamedCount);
-        final Map<String, Set<String>> newCards = parser.getCards();
-
-        final String sheetColor = getSheetProp(i, "color");
-        final Map<String, Set<String>> existingCards;
-        if ("black".equals(sheetColor)) {
-          existingCards = blackCardsByDeck;
-        } else {
-          existingCards = whiteCardsByDeck;
-        }
+  /**
+   * Receives the cards from each sheet, in sheet order.
+   */
+  private interface SheetConsumer {
+    void accept(int sheet, Map<String, Set<String>> cards);
+  }
 
-        for (final Entry<String, Set<String>> newDeck : newCards.entrySet()) {
-          if (existingCards.containsKey(newDeck.getKey())) {
-            existingCards.get(newDeck.getKey()).addAll(newDeck.getValue());
-          } else {
-            existingCards.put(newDeck.getKey(), newDeck.getValue());
-          }
+  private void parse(final SheetConsumer sheets) {
+    final int sheetCount = Integer.valueOf(getProp("sheet.count", "0"));
+    final List<Integer> allSheets = new ArrayList<>(sheetCount);
+    for (int i = 0; i < sheetCount; i++) {
+      allSheets.add(i);
+    }
+    try {
+      final OPCPackage pkg;
+      if (null != validatedPackage) {
+        pkg = validatedPackage;
+        validatedPackage = null;
+      } else {
+        pkg = OPCPackage.open(new File(getProp("name")), PackageAccess.READ);
+      }
+      try {
+        if (parseCache.isEnabled()) {
+          processCached(pkg, sheetCount, sheets);
+        } else if (streamWorkbooks) {
+          final long start = openTimer.start();
+          final XSSFReader reader = new XSSFReader(pkg);
+          final SharedRichStrings sharedStrings = SharedRichStrings.read(
+              reader.getSharedStringsData());
+          openTimer.stop(start);
+          processStreaming(reader, sharedStrings, allSheets, sheets);
+        } else {
+          processWorkbook(pkg, allSheets, sheets);
         }
+      } finally {
+        // read-only packages are reverted, not closed
+        pkg.revert();
       }
-    } catch (final InvalidFormatException e) {
+    } catch (final OpenXML4JException e) {
       // we shouldn't get here as we already validated the workbook...
       LOG.error("Unexpected: Previously validated workbook no longer valid!", e);
       throw new RuntimeException(e);
@@ -168,7 +270,171 @@ public class ExcelFileType extends FileType {
       LOG.error("I/O error while processing workbook", e);
       throw new RuntimeException(e);
     }
+  }
 
-    return new ParseResult(blackCardsByDeck, whiteCardsByDeck);
+  /**
+   * Load the sheets that haven't changed since they were last parsed from the cache, and parse the
+   * rest, adding them to the cache.
+   */
+  private void processCached(final OPCPackage pkg, final int sheetCount,
+      final SheetConsumer sheets) throws IOException, OpenXML4JException {
+    final long start = openTimer.start();
+    final XSSFReader reader = new XSSFReader(pkg);
+    final SharedRichStrings sharedStrings = SharedRichStrings.read(reader.getSharedStringsData());
+    openTimer.stop(start);
+    final List<PackagePart> stylesParts = pkg.getPartsByContentType(
+        XSSFRelation.STYLES.getContentType());
+    final byte[] stylesDigest = SheetDigest.digestStyles(stylesParts.isEmpty() ? null
+        : stylesParts.get(0));
+
+    final List<Map<String, Set<String>>> results = new ArrayList<>(sheetCount);
+    final List<String> keys = new ArrayList<>(sheetCount);
+    final List<Integer> misses = new ArrayList<>();
+    final XSSFReader.SheetIterator parts = (XSSFReader.SheetIterator) reader.getSheetsData();
+    for (int sheet = 0; sheet < sheetCount; sheet++) {
+      parts.next().close();
+      final String key = parseCache.key(SheetDigest.digest(parts.getSheetPart(), sharedStrings,
+          stylesDigest), streamWorkbooks, getHeadingNamedCount(sheet), getNextColNamedCount(sheet));
+      final Map<String, Set<String>> cards = parseCache.get(key);
+      if (null == cards) {
+        misses.add(sheet);
+      }
+      results.add(cards);
+      keys.add(key);
+    }
+    LOG.info(String.format("Loaded %d of %d sheets in %s from the parse cache.",
+        sheetCount - misses.size(), sheetCount, getProp("name")));
+
+    if (!misses.isEmpty()) {
+      final SheetConsumer parsed = new SheetConsumer() {
+        private int next = 0;
+
+        @Override
+        public void accept(final int sheet, final Map<String, Set<String>> cards) {
+          parseCache.put(keys.get(sheet), cards);
+          results.set(sheet, cards);
+          // the cached sheets before this one can go now too
+          for (; next <= sheet; next++) {
+            sheets.accept(next, results.set(next, null));
+          }
+        }
+      };
+      if (streamWorkbooks) {
+        processStreaming(reader, sharedStrings, misses, parsed);
+      } else {
+        processWorkbook(pkg, misses, parsed);
+      }
+    }
+    // whatever is left came from the cache after the last sheet that had to be parsed
+    for (int sheet = 0; sheet < sheetCount; sheet++) {
+      if (null != results.get(sheet)) {
+        sheets.accept(sheet, results.set(sheet, null));
+      }
+    }
+  }
+
+  private void processWorkbook(final OPCPackage pkg, final List<Integer> sheets,
+      final SheetConsumer consumer) throws IOException {
+    final long start = openTimer.start();
+    // not closed as that would try to save the package
+    final Workbook workbook = new XSSFWorkbook(pkg);
+    openTimer.stop(start);
+    final List<Parser> parsers = new ArrayList<>(sheets.size());
+    for (final int sheet : sheets) {
+      parsers.add(columnarParserFactory.create(workbook.getSheetAt(sheet),
+          getHeadingNamedCount(sheet), getNextColNamedCount(sheet)));
+    }
+    parseSheets(sheets, parsers, consumer);
+  }
+
+  private void processStreaming(final XSSFReader reader, final SharedRichStrings sharedStrings,
+      final List<Integer> sheets, final SheetConsumer consumer)
+      throws IOException, OpenXML4JException {
+    // without a styles part, every number is in the General format
+    final StylesTable workbookStyles = reader.getStylesTable();
+    final StylesTable styles = (null == workbookStyles) ? new StylesTable() : workbookStyles;
+    final XSSFReader.SheetIterator parts = (XSSFReader.SheetIterator) reader.getSheetsData();
+    final List<Parser> parsers = new ArrayList<>(sheets.size());
+    for (int i = 0; parsers.size() < sheets.size() && parts.hasNext(); i++) {
+      // the parser opens the part itself when it is ready for it
+      parts.next().close();
+      if (sheets.contains(i)) {
+        parsers.add(streamingParserFactory.create(parts.getSheetName(), parts.getSheetPart(),
+            sharedStrings, styles, getHeadingNamedCount(i), getNextColNamedCount(i)));
+      }
+    }
+    parseSheets(sheets, parsers, consumer);
+  }
+
+  /**
+   * Run all of the parsers, on up to {@code sheetThreads} threads at once, passing the results to
+   * {@code consumer} in the same order as {@code parsers}. Only a few sheets are parsed ahead of
+   * the one that is being waited for, so finished sheets don't pile up if {@code consumer} is
+   * slower than the parsers.
+   *
+   * @param sheets The sheet each parser is for.
+   */
+  private void parseSheets(final List<Integer> sheets, final List<Parser> parsers,
+      final SheetConsumer consumer) {
+    if (sheetThreads <= 1 || parsers.size() <= 1) {
+      for (int i = 0; i < parsers.size(); i++) {
+        consumer.accept(sheets.get(i), parseSheet(parsers.get(i)));
+      }
+      return;
+    }
+
+    final ExecutorService executor = Executors
+        .newFixedThreadPool(Math.min(sheetThreads, parsers.size()));
+    try {
+      final int ahead = sheetThreads * 2;
+      final List<Future<Map<String, Set<String>>>> futures = new ArrayList<>(parsers.size());
+      for (int i = 0; i < parsers.size(); i++) {
+        while (futures.size() < parsers.size() && futures.size() <= i + ahead) {
+          final Parser parser = parsers.get(futures.size());
+          futures.add(executor.submit(() -> parseSheet(parser)));
+        }
+        // wait for them in order, regardless of the order they finish in
+        consumer.accept(sheets.get(i), futures.get(i).get());
+        futures.set(i, null);
+      }
+    } catch (final ExecutionException e) {
+      LOG.error("Unable to parse sheet", e.getCause());
+      throw new RuntimeException(e.getCause());
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private Map<String, Set<String>> parseSheet(final Parser parser) {
+    final long start = sheetTimer.start();
+    final Map<String, Set<String>> cards = parser.getCards();
+    sheetTimer.stop(start);
+    return cards;
+  }
+
+  private int getHeadingNamedCount(final int sheet) {
+    return Integer.parseInt(getSheetProp(sheet, "heading_named_count", "0"));
+  }
+
+  private int getNextColNamedCount(final int sheet) {
+    return Integer.parseInt(getSheetProp(sheet, "next_column_named_count", "0"));
+  }
+
+  private void mergeSheet(final int sheet, final Map<String, Set<String>> sheetCards,
+      final CardsByDeck blackCardsByDeck, final CardsByDeck whiteCardsByDeck) {
+    final String sheetColor = getSheetProp(sheet, "color");
+    final CardsByDeck existingCards;
+    if ("black".equals(sheetColor)) {
+      existingCards = blackCardsByDeck;
+    } else {
+      existingCards = whiteCardsByDeck;
+    }
+
+    for (final Entry<String, Set<String>> newDeck : sheetCards.entrySet()) {
+      existingCards.addAll(newDeck.getKey(), newDeck.getValue());
+    }
   }
 }
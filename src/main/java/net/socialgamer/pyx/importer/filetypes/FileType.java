@@ -24,6 +24,7 @@
 package net.socialgamer.pyx.importer.filetypes;
 
 import java.util.Properties;
+import java.util.function.Consumer;
 
 import net.socialgamer.pyx.importer.data.ParseResult;
 
@@ -39,6 +40,13 @@ public abstract class FileType {
     this.configIndex = configIndex;
   }
 
+  /**
+   * @return The index of this file in the configuration.
+   */
+  public int getConfigIndex() {
+    return configIndex;
+  }
+
   /**
    * Validate that the configuration for this file type is valid.
    * @throws ConfigurationException Configuration is invalid; the exception will contain a reason
@@ -46,8 +54,55 @@ public abstract class FileType {
    */
   public abstract void validate() throws ConfigurationException;
 
+  /**
+   * Release anything {@link #validate()} kept open for {@link #process()}, when the file isn't
+   * going to be processed after all. Does nothing by default.
+   */
+  public void discard() {
+    // nothing kept open
+  }
+
   public abstract ParseResult process();
 
+  /**
+   * Process the file, passing the cards to {@code parts} a piece at a time as soon as each piece is
+   * ready, in the order that {@link #process()} would merge them in. By default, the whole file is
+   * one piece.
+   */
+  public void process(final Consumer<ParseResult> parts) {
+    parts.accept(process());
+  }
+
+  /**
+   * Validate the settings for how cards are laid out in a sheet, or anything else read like one.
+   * @throws ConfigurationException Settings are invalid; the exception will contain a reason why.
+   */
+  protected static void validateLayout(final String color, final String headingNamedCount,
+      final String nextColNamedCount) throws ConfigurationException {
+    if (!"white".equals(color) && !"black".equals(color)) {
+      throw new ConfigurationException(
+          "Invalid sheet color " + color + "; must be either white or black.");
+    }
+
+    try {
+      final int headingNamed = Integer.parseInt(headingNamedCount);
+      final int nextColNamed = Integer.parseInt(nextColNamedCount);
+
+      if (headingNamed < 0) {
+        throw new ConfigurationException("Heading named count cannot be negative.");
+      }
+      if (nextColNamed < 0) {
+        throw new ConfigurationException("Next column named count cannot be negative.");
+      }
+      if (headingNamed + nextColNamed <= 0) {
+        throw new ConfigurationException(
+            "Sum of heading name count and next column named count must be positive.");
+      }
+    } catch (final NumberFormatException e) {
+      throw new ConfigurationException("Naming count is not a number.");
+    }
+  }
+
   protected String getProp(final String name) {
     return props.getProperty(String.format("%s[%d].%s", PROP_PREFIX, configIndex, name));
   }
@@ -0,0 +1,318 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.filetypes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import net.socialgamer.pyx.importer.inject.ImporterModule.CacheDirectory;
+import net.socialgamer.pyx.importer.inject.ImporterModule.CacheSize;
+import net.socialgamer.pyx.importer.inject.ImporterModule.FormatText;
+import net.socialgamer.pyx.importer.inject.ImporterModule.SpecialCharacterReplacements;
+
+
+/**
+ * On-disk cache of the cards parsed from each sheet, so sheets that haven't changed since the last
+ * import don't have to be parsed and formatted again.
+ *
+ * <p>Entries are keyed by a digest of the sheet's content, the settings for the sheet that affect
+ * how it is parsed, and the formatting settings. Each entry is a separate file, written to a
+ * temporary file first and then moved into place, with a checksum that is verified when it is read
+ * back. Anything that can't be read is treated as a miss and removed. Once the directory is larger
+ * than the configured size, the least recently used entries are removed.
+ */
+@Singleton
+public class ParseCache {
+  private static final Logger LOG = Logger.getLogger(ParseCache.class);
+
+  private static final int MAGIC = 0x50595843;
+  /**
+   * Increase this whenever parsing or formatting changes in a way that would give different cards
+   * for the same input.
+   */
+  private static final int VERSION = 4;
+  private static final String SUFFIX = ".cards";
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final long STALE_TEMP_MILLIS = 60 * 60 * 1000L;
+
+  private final File directory;
+  private final long maxBytes;
+  private final byte[] settingsDigest;
+
+  @Inject
+  public ParseCache(@CacheDirectory final Optional<File> directory,
+      @CacheSize final int maxMegabytes, @FormatText final boolean processFormatting,
+      @SpecialCharacterReplacements final LinkedHashMap<String, String> replacements) {
+    this.directory = directory.orElse(null);
+    this.maxBytes = maxMegabytes * 1024L * 1024L;
+
+    final MessageDigest digest = newDigest();
+    update(digest, String.valueOf(VERSION));
+    update(digest, String.valueOf(processFormatting));
+    for (final Entry<String, String> entry : replacements.entrySet()) {
+      update(digest, entry.getKey());
+      update(digest, entry.getValue());
+    }
+    settingsDigest = digest.digest();
+  }
+
+  public boolean isEnabled() {
+    return null != directory;
+  }
+
+  /**
+   * @param contentDigest Digest of everything in the input that the cards are parsed from.
+   * @param settings Anything else that affects how the input is parsed.
+   * @return The key for the cards parsed from the input.
+   */
+  public String key(final byte[] contentDigest, final Object... settings) {
+    final MessageDigest digest = newDigest();
+    digest.update(settingsDigest);
+    digest.update(contentDigest);
+    for (final Object setting : settings) {
+      update(digest, String.valueOf(setting));
+    }
+    final StringBuilder hex = new StringBuilder();
+    for (final byte b : digest.digest()) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+
+  /**
+   * @return The cards stored for the key, or {@code null} if there aren't any, or they couldn't be
+   * read.
+   */
+  public Map<String, Set<String>> get(final String key) {
+    final File file = new File(directory, key + SUFFIX);
+    if (!file.isFile()) {
+      return null;
+    }
+
+    try {
+      final Map<String, Set<String>> cards = read(key, Files.readAllBytes(file.toPath()));
+      // for least-recently-used eviction
+      file.setLastModified(System.currentTimeMillis());
+      return cards;
+    } catch (final IOException e) {
+      LOG.warn(String.format("Unable to read parse cache entry %s, discarding it: %s", file,
+          e.getMessage()));
+      file.delete();
+      return null;
+    }
+  }
+
+  public void put(final String key, final Map<String, Set<String>> cards) {
+    try {
+      Files.createDirectories(directory.toPath());
+      final Path temp = Files.createTempFile(directory.toPath(), key, TEMP_SUFFIX);
+      try {
+        Files.write(temp, write(key, cards));
+        Files.move(temp, new File(directory, key + SUFFIX).toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(temp);
+      }
+    } catch (final IOException e) {
+      // the cache is only an optimization
+      LOG.warn("Unable to write parse cache entry " + key, e);
+      return;
+    }
+    evict();
+  }
+
+  /**
+   * Remove the least recently used entries until the cache fits in its size limit, and any
+   * temporary files left behind by imports that didn't finish.
+   */
+  private synchronized void evict() {
+    final File[] files = directory.listFiles();
+    if (null == files) {
+      return;
+    }
+
+    final long now = System.currentTimeMillis();
+    long total = 0;
+    for (final File file : files) {
+      if (file.getName().endsWith(TEMP_SUFFIX) && now - file.lastModified() > STALE_TEMP_MILLIS) {
+        file.delete();
+      } else if (file.getName().endsWith(SUFFIX)) {
+        total += file.length();
+      }
+    }
+    if (total <= maxBytes) {
+      return;
+    }
+
+    Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+    for (final File file : files) {
+      if (total <= maxBytes) {
+        break;
+      }
+      if (file.getName().endsWith(SUFFIX)) {
+        final long length = file.length();
+        if (file.delete()) {
+          total -= length;
+          LOG.debug("Evicted parse cache entry " + file.getName());
+        }
+      }
+    }
+  }
+
+  /**
+   * Entry layout: magic, version, key, payload length, payload, CRC-32 of the payload. The payload
+   * is the number of decks, then for each deck its name, the number of cards, and the cards.
+   */
+  static byte[] write(final String key, final Map<String, Set<String>> cards)
+      throws IOException {
+    final ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+    try (final DataOutputStream payload = new DataOutputStream(payloadBytes)) {
+      payload.writeInt(cards.size());
+      for (final Entry<String, Set<String>> deck : cards.entrySet()) {
+        writeString(payload, deck.getKey());
+        payload.writeInt(deck.getValue().size());
+        for (final String card : deck.getValue()) {
+          writeString(payload, card);
+        }
+      }
+    }
+    final byte[] bytes = payloadBytes.toByteArray();
+    final CRC32 crc = new CRC32();
+    crc.update(bytes);
+
+    final ByteArrayOutputStream entry = new ByteArrayOutputStream(bytes.length + 128);
+    try (final DataOutputStream out = new DataOutputStream(entry)) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      writeString(out, key);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+      out.writeLong(crc.getValue());
+    }
+    return entry.toByteArray();
+  }
+
+  static Map<String, Set<String>> read(final String key, final byte[] entry) throws IOException {
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry));
+    if (MAGIC != in.readInt()) {
+      throw new IOException("Not a parse cache entry.");
+    }
+    if (VERSION != in.readInt()) {
+      throw new IOException("Written by a different version.");
+    }
+    if (!key.equals(readString(in, entry.length))) {
+      throw new IOException("Entry is for a different key.");
+    }
+    final int length = in.readInt();
+    if (length < 0 || length > in.available() - 8) {
+      throw new IOException("Entry is truncated.");
+    }
+    final byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    final CRC32 crc = new CRC32();
+    crc.update(bytes);
+    if (crc.getValue() != in.readLong()) {
+      throw new IOException("Checksum mismatch.");
+    }
+
+    final DataInputStream payload = new DataInputStream(new ByteArrayInputStream(bytes));
+    final int deckCount = payload.readInt();
+    // so we iterate decks in the same order as the sheet, like the parsers do
+    final Map<String, Set<String>> cards = new LinkedHashMap<>();
+    for (int i = 0; i < deckCount; i++) {
+      final String deck = readString(payload, length);
+      final int cardCount = payload.readInt();
+      if (cardCount < 0 || cardCount > length) {
+        throw new IOException("Invalid card count.");
+      }
+      final Set<String> deckCards = new HashSet<>(cardCount * 4 / 3 + 1);
+      for (int j = 0; j < cardCount; j++) {
+        deckCards.add(readString(payload, length));
+      }
+      cards.put(deck, deckCards);
+    }
+    return cards;
+  }
+
+  private static void writeString(final DataOutputStream out, final String str)
+      throws IOException {
+    final byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(final DataInputStream in, final int maxLength)
+      throws IOException {
+    final int length = in.readInt();
+    if (length < 0 || length > maxLength) {
+      throw new IOException("Invalid string length.");
+    }
+    final byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (final NoSuchAlgorithmException e) {
+      // every Java platform is required to support it
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Add a string to a digest, with its length first so adjacent strings can't run together.
+   */
+  static void update(final MessageDigest digest, final String str) {
+    final byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+    digest.update(new byte[] { (byte) (bytes.length >>> 24), (byte) (bytes.length >>> 16),
+        (byte) (bytes.length >>> 8), (byte) bytes.length });
+    digest.update(bytes);
+  }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.filetypes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.util.SAXHelper;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import net.socialgamer.pyx.importer.data.StyledText;
+import net.socialgamer.pyx.importer.parsers.SharedRichStrings;
+
+
+/**
+ * Digest of everything in a sheet that cards could be parsed from, which is only its cell data.
+ * Shared string references are replaced by the strings themselves, including their formatting runs,
+ * so a sheet that hasn't changed has the same digest even if the workbook's shared strings table
+ * was rewritten because of changes to other sheets. Column widths, the selected cell, and the like
+ * are left out. The workbook's styles are included as they are, since numbers are formatted with
+ * the number formats in them.
+ */
+final class SheetDigest {
+
+  private SheetDigest() {
+    // static only
+  }
+
+  /**
+   * @param stylesDigest From {@link #digestStyles(PackagePart)}, for the sheet's workbook.
+   */
+  static byte[] digest(final PackagePart sheetPart, final SharedRichStrings sharedStrings,
+      final byte[] stylesDigest) throws IOException {
+    final Handler handler = new Handler(sharedStrings);
+    handler.digest.update(stylesDigest);
+    try (final InputStream stream = sheetPart.getInputStream()) {
+      final XMLReader reader = SAXHelper.newXMLReader();
+      reader.setContentHandler(handler);
+      reader.parse(new InputSource(stream));
+    } catch (final SAXException | ParserConfigurationException e) {
+      throw new IOException("Unable to read sheet " + sheetPart.getPartName(), e);
+    }
+    return handler.digest.digest();
+  }
+
+  /**
+   * @param stylesPart The workbook's styles, or {@code null} if it doesn't have any.
+   */
+  static byte[] digestStyles(final PackagePart stylesPart) throws IOException {
+    final MessageDigest digest = ParseCache.newDigest();
+    if (null != stylesPart) {
+      try (final InputStream stream = stylesPart.getInputStream()) {
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = stream.read(buffer)) > 0) {
+          digest.update(buffer, 0, read);
+        }
+      }
+    }
+    return digest.digest();
+  }
+
+  private static class Handler extends DefaultHandler {
+    private final SharedRichStrings sharedStrings;
+    private final MessageDigest digest = ParseCache.newDigest();
+    private final StringBuilder text = new StringBuilder();
+    private boolean inSheetData = false;
+    private boolean sharedStringCell = false;
+
+    private Handler(final SharedRichStrings sharedStrings) {
+      this.sharedStrings = sharedStrings;
+    }
+
+    @Override
+    public void startElement(final String uri, final String localName, final String qName,
+        final Attributes attributes) {
+      if ("sheetData".equals(localName)) {
+        inSheetData = true;
+      }
+      if (!inSheetData) {
+        return;
+      }
+      flushText();
+      ParseCache.update(digest, "<" + localName);
+      for (int i = 0; i < attributes.getLength(); i++) {
+        ParseCache.update(digest, attributes.getLocalName(i));
+        ParseCache.update(digest, attributes.getValue(i));
+      }
+      if ("c".equals(localName)) {
+        sharedStringCell = "s".equals(attributes.getValue("t"));
+      }
+    }
+
+    @Override
+    public void endElement(final String uri, final String localName, final String qName) {
+      if (!inSheetData) {
+        return;
+      }
+      if (sharedStringCell && "v".equals(localName)) {
+        final StyledText string = sharedStrings.get(Integer.parseInt(text.toString().trim()));
+        text.setLength(0);
+        ParseCache.update(digest, string.getString());
+        for (int i = 0; i < string.getRunCount(); i++) {
+          ParseCache.update(digest, String.format("%d-%d:%d", string.getRunStart(i),
+              string.getRunEnd(i), string.getRunStyle(i)));
+        }
+      } else {
+        flushText();
+      }
+      ParseCache.update(digest, ">" + localName);
+      if ("sheetData".equals(localName)) {
+        inSheetData = false;
+      }
+    }
+
+    @Override
+    public void characters(final char[] ch, final int start, final int length) {
+      // SAX can split text up however it likes, so only add it once it's all been seen
+      if (inSheetData) {
+        text.append(ch, start, length);
+      }
+    }
+
+    private void flushText() {
+      if (text.length() > 0) {
+        ParseCache.update(digest, text.toString());
+        text.setLength(0);
+      }
+    }
+  }
+}
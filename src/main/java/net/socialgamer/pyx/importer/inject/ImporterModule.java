@@ -31,10 +31,14 @@ import java.io.Reader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
 
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
@@ -43,6 +47,8 @@ import org.hibernate.dialect.Dialect;
 
 import com.google.inject.AbstractModule;
 import com.google.inject.BindingAnnotation;
+import com.google.inject.Guice;
+import com.google.inject.Provider;
 import com.google.inject.Provides;
 import com.google.inject.Singleton;
 import com.google.inject.assistedinject.FactoryModuleBuilder;
@@ -54,19 +60,52 @@ import net.socialgamer.cah.db.PyxBlackCard;
 import net.socialgamer.cah.db.PyxCardSet;
 import net.socialgamer.cah.db.PyxWhiteCard;
 import net.socialgamer.pyx.importer.ImportHandler;
+import net.socialgamer.pyx.importer.Metrics;
 import net.socialgamer.pyx.importer.Options;
 import net.socialgamer.pyx.importer.data.DeckInfo;
+import net.socialgamer.pyx.importer.filetypes.CsvFileType;
 import net.socialgamer.pyx.importer.filetypes.ExcelFileType;
+import net.socialgamer.pyx.importer.output.HibernateOutputter;
+import net.socialgamer.pyx.importer.output.JdbcOutputter;
+import net.socialgamer.pyx.importer.output.MultiOutputter;
+import net.socialgamer.pyx.importer.output.Outputter;
+import net.socialgamer.pyx.importer.output.SessionFactoryLoader;
+import net.socialgamer.pyx.importer.output.SqlScriptOutputter;
+import net.socialgamer.pyx.importer.parsers.CsvParser;
 import net.socialgamer.pyx.importer.parsers.SheetParser;
+import net.socialgamer.pyx.importer.parsers.StreamingSheetParser;
 
 
 public class ImporterModule extends AbstractModule {
 
+  /**
+   * How many connections Hibernate's own connection pool keeps, if it isn't configured.
+   */
+  private static final int DEFAULT_POOL_SIZE = 20;
+
   private final Options opts;
+  /**
+   * Which of the outputs configured with {@code output.count} this is for, or -1 for the import
+   * itself.
+   */
+  private final int outputIndex;
+  private final Metrics metrics;
   private Properties props;
 
   public ImporterModule(final Options opts) throws IOException {
+    this(opts, -1, null);
+  }
+
+  /**
+   * For one of the outputs configured with {@code output.count}. Its {@code output[n].hibernate.*}
+   * settings are used instead of the top-level ones, and it records into the import's
+   * {@code metrics}.
+   */
+  private ImporterModule(final Options opts, final int outputIndex, final Metrics metrics)
+      throws IOException {
     this.opts = opts;
+    this.outputIndex = outputIndex;
+    this.metrics = metrics;
 
     final File propsFile = opts.getConfFile();
     if (!propsFile.canRead()) {
@@ -94,10 +133,22 @@ public class ImporterModule extends AbstractModule {
     } catch (final IOException e) {
       throw new RuntimeException("Unable to load properties", e);
     }
+    if (outputIndex >= 0) {
+      final String prefix = String.format("output[%d].", outputIndex);
+      for (final String key : props.stringPropertyNames()) {
+        if (key.startsWith(prefix + "hibernate.")) {
+          props.setProperty(key.substring(prefix.length()), props.getProperty(key));
+        }
+      }
+      bind(Metrics.class).toInstance(metrics);
+    }
 
     install(ThrowingProviderBinder.forModule(this));
     install(new FactoryModuleBuilder().build(ExcelFileType.Factory.class));
+    install(new FactoryModuleBuilder().build(CsvFileType.Factory.class));
     install(new FactoryModuleBuilder().build(SheetParser.Factory.class));
+    install(new FactoryModuleBuilder().build(StreamingSheetParser.Factory.class));
+    install(new FactoryModuleBuilder().build(CsvParser.Factory.class));
     install(new FactoryModuleBuilder().build(ImportHandler.Factory.class));
 
     Names.bindProperties(binder(), props);
@@ -113,7 +164,8 @@ public class ImporterModule extends AbstractModule {
       @Named("hibernate.username") final String username,
       @Named("hibernate.password") final String password,
       @Named("hibernate.sql.show") final String showSql,
-      @Named("hibernate.sql.format") final String formatSql) {
+      @Named("hibernate.sql.format") final String formatSql,
+      @BatchSize final int batchSize, @WriteThreads final int writeThreads) {
     final Configuration config = new Configuration();
 
     config.setProperty("hibernate.dialect", dialect);
@@ -127,6 +179,19 @@ public class ImporterModule extends AbstractModule {
         "org.hiberante.transaction.JDBCTransactionFactory");
     config.setProperty("show_sql", showSql);
     config.setProperty("format_sql", formatSql);
+    if (batchSize > 0) {
+      config.setProperty("hibernate.jdbc.batch_size", String.valueOf(batchSize));
+      config.setProperty("hibernate.order_inserts", "true");
+    }
+    final String configuredPoolSize = props.getProperty("hibernate.pool_size");
+    final int poolSize = null == configuredPoolSize ? DEFAULT_POOL_SIZE
+        : Integer.parseInt(configuredPoolSize.trim());
+    // one for each writer, and one for everything else
+    if (poolSize < writeThreads + 1) {
+      config.setProperty("hibernate.connection.pool_size", String.valueOf(writeThreads + 1));
+    } else if (null != configuredPoolSize) {
+      config.setProperty("hibernate.connection.pool_size", String.valueOf(poolSize));
+    }
 
     config.addAnnotatedClass(PyxBlackCard.class);
     config.addAnnotatedClass(PyxWhiteCard.class);
@@ -135,13 +200,18 @@ public class ImporterModule extends AbstractModule {
     return config;
   }
 
+  @Provides
+  @Singleton
+  public Dialect provideDialect(@Named("hibernate.dialect") final String dialect)
+      throws Exception {
+    return (Dialect) Class.forName(dialect).newInstance();
+  }
+
   @Provides
   @Singleton
   @Schema
-  public String provideSchema(final Configuration config,
-      @Named("hibernate.dialect") final String dialect) throws Exception {
-    final String[] lines = config
-        .generateSchemaCreationScript((Dialect) Class.forName(dialect).newInstance());
+  public String provideSchema(final Configuration config, final Dialect dialect) {
+    final String[] lines = config.generateSchemaCreationScript(dialect);
     final StringBuilder builder = new StringBuilder();
     for (final String line : lines) {
       builder.append(line).append(";\n");
@@ -150,9 +220,8 @@ public class ImporterModule extends AbstractModule {
   }
 
   @Provides
-  @Singleton
-  public SessionFactory provideSessionFactory(final Configuration config) {
-    return config.buildSessionFactory();
+  public SessionFactory provideSessionFactory(final SessionFactoryLoader loader) {
+    return loader.get();
   }
 
   @Provides
@@ -160,6 +229,94 @@ public class ImporterModule extends AbstractModule {
     return sessionFactory.openSession();
   }
 
+  @Provides
+  @Singleton
+  public Outputter provideOutputter(final Provider<HibernateOutputter> hibernateOutputter,
+      final Provider<JdbcOutputter> jdbcOutputter,
+      final Provider<SqlScriptOutputter> sqlScriptOutputter, final Metrics metrics)
+      throws IOException {
+    final int outputCount = Integer.parseInt(props.getProperty("output.count", "0"));
+    if (outputIndex < 0 && outputCount > 0) {
+      return provideMultiOutputter(outputCount, metrics);
+    }
+
+    final String output = getOutputSetting(outputIndex, "type", opts.getOutput());
+    if (opts.wantsIncremental() && !"jdbc".equals(output)) {
+      throw new RuntimeException("Incremental imports are only supported by the jdbc outputter.");
+    }
+    if (opts.wantsWatch() && (!"jdbc".equals(output) || !opts.wantsIncremental())) {
+      // anything else would save every card again each time a file changes
+      throw new RuntimeException("Watching for changes is only supported by the jdbc outputter,"
+          + " with --incremental.");
+    }
+    if (opts.getWriteThreads() > 1 && (!"hibernate".equals(output) || opts.getCommitEvery() > 0
+        || null != getOutputFile(outputIndex, "checkpoint", opts.getCheckpointFile()))) {
+      throw new RuntimeException("More than one write thread is only supported by the hibernate"
+          + " outputter, without committing as it goes.");
+    }
+    switch (output) {
+      case "hibernate":
+        return hibernateOutputter.get();
+      case "jdbc":
+        return jdbcOutputter.get();
+      case "script":
+        return sqlScriptOutputter.get();
+      default:
+        throw new RuntimeException("Unknown outputter " + output + ".");
+    }
+  }
+
+  /**
+   * Each output gets an injector of its own, so it has its own database settings, session factory
+   * and connections.
+   */
+  private Outputter provideMultiOutputter(final int outputCount, final Metrics metrics)
+      throws IOException {
+    final List<String> names = new ArrayList<>(outputCount);
+    final List<Outputter> outputters = new ArrayList<>(outputCount);
+    // the files each output writes to besides the database, so they don't clobber each other
+    final Map<File, Integer> files = new HashMap<>();
+    for (int i = 0; i < outputCount; i++) {
+      final String type = getOutputSetting(i, "type", opts.getOutput());
+      final File file;
+      if ("script".equals(type)) {
+        file = getOutputFile(i, "script", opts.getScriptFile());
+      } else if ("hibernate".equals(type)) {
+        file = getOutputFile(i, "checkpoint", opts.getCheckpointFile());
+      } else {
+        file = null;
+      }
+      if (null != file) {
+        final Integer other = files.put(file.getAbsoluteFile(), i);
+        if (null != other) {
+          throw new RuntimeException(String.format("Outputs %d and %d would both write to %s.",
+              other, i, file.getAbsolutePath()));
+        }
+      }
+
+      names.add(getOutputSetting(i, "name", String.format("output[%d]", i)));
+      outputters.add(Guice.createInjector(new ImporterModule(opts, i, metrics))
+          .getInstance(Outputter.class));
+    }
+    return new MultiOutputter(names, outputters, metrics);
+  }
+
+  /**
+   * @return The {@code output[index].<name>} setting, or {@code defaultValue} if it isn't set or
+   *         this isn't for one of several outputs.
+   */
+  private String getOutputSetting(final int index, final String name, final String defaultValue) {
+    if (index < 0) {
+      return defaultValue;
+    }
+    return props.getProperty(String.format("output[%d].%s", index, name), defaultValue);
+  }
+
+  private File getOutputFile(final int index, final String name, final File defaultValue) {
+    final String file = getOutputSetting(index, name, null);
+    return null == file ? defaultValue : new File(file);
+  }
+
   @Provides
   @Singleton
   @SpecialCharacterReplacements
@@ -222,6 +379,132 @@ public class ImporterModule extends AbstractModule {
     return opts.outputScheamOnly();
   }
 
+  @Provides
+  @Singleton
+  @StreamWorkbooks
+  public boolean provideStreamWorkbooks() {
+    return opts.wantsStreaming();
+  }
+
+  @Provides
+  @Singleton
+  @FileThreads
+  public int provideFileThreads() {
+    return opts.getFileThreads();
+  }
+
+  @Provides
+  @Singleton
+  @SheetThreads
+  public int provideSheetThreads() {
+    return opts.getSheetThreads();
+  }
+
+  /**
+   * One pool for the rows of every sheet, as sheets can be parsed at the same time on their own
+   * threads. Empty if sheets are read on just the thread parsing them.
+   */
+  @Provides
+  @Singleton
+  @RowThreads
+  public Optional<ForkJoinPool> provideRowPool() {
+    if (opts.getRowThreads() <= 1) {
+      return Optional.empty();
+    }
+    return Optional.of(new ForkJoinPool(opts.getRowThreads()));
+  }
+
+  @Provides
+  @Singleton
+  @BatchSize
+  public int provideBatchSize() {
+    return opts.getBatchSize();
+  }
+
+  @Provides
+  @Singleton
+  @CommitEvery
+  public int provideCommitEvery() {
+    return opts.getCommitEvery();
+  }
+
+  @Provides
+  @Singleton
+  @CheckpointFile
+  public Optional<File> provideCheckpointFile() {
+    return Optional.ofNullable(getOutputFile(outputIndex, "checkpoint", opts.getCheckpointFile()));
+  }
+
+  @Provides
+  @Singleton
+  @Incremental
+  public boolean provideIncremental() {
+    return opts.wantsIncremental();
+  }
+
+  @Provides
+  @Singleton
+  @CacheDirectory
+  public Optional<File> provideCacheDirectory() {
+    return Optional.ofNullable(opts.getCacheDirectory());
+  }
+
+  @Provides
+  @Singleton
+  @CacheSize
+  public int provideCacheSize() {
+    return opts.getCacheSize();
+  }
+
+  @Provides
+  @Singleton
+  @FormatCacheSize
+  public int provideFormatCacheSize() {
+    return opts.getFormatCacheSize();
+  }
+
+  @Provides
+  @Singleton
+  @PipelineCapacity
+  public int providePipelineCapacity() {
+    return opts.getPipelineCapacity();
+  }
+
+  @Provides
+  @Singleton
+  @ScriptFile
+  public Optional<File> provideScriptFile() {
+    return Optional.ofNullable(getOutputFile(outputIndex, "script", opts.getScriptFile()));
+  }
+
+  @Provides
+  @Singleton
+  @MetricsFile
+  public Optional<File> provideMetricsFile() {
+    return Optional.ofNullable(opts.getMetricsFile());
+  }
+
+  @Provides
+  @Singleton
+  @Watch
+  public boolean provideWatch() {
+    return opts.wantsWatch();
+  }
+
+  @Provides
+  @Singleton
+  @WatchDelay
+  public int provideWatchDelay() {
+    return opts.getWatchDelay();
+  }
+
+  @Provides
+  @Singleton
+  @WriteThreads
+  public int provideWriteThreads() {
+    return opts.getWriteThreads();
+  }
+
   @BindingAnnotation
   @Retention(RetentionPolicy.RUNTIME)
   public @interface SpecialCharacterReplacements {
@@ -251,4 +534,106 @@ public class ImporterModule extends AbstractModule {
   public @interface Schema {
     //
   }
+
+  @BindingAnnotation
+  @Retention(RetentionPolicy.RUNTIME)
+  public @interface StreamWorkbooks {
+    //
+  }
+
+  @BindingAnnotation
+  @Retention(RetentionPolicy.RUNTIME)
+  public @interface SheetThreads {
+    //
+  }
+
+  @BindingAnnotation
+  @Retention(RetentionPolicy.RUNTIME)
+  public @interface FileThreads {
+    //
+  }
+
+  @BindingAnnotation
+  @Retention(RetentionPolicy.RUNTIME)
+  public @interface BatchSize {
+    //
+  }
+
+  @BindingAnnotation
+  @Retention(RetentionPolicy.RUNTIME)
+  public @interface CommitEvery {
+    //
+  }
+
+  @BindingAnnotation
+  @Retention(RetentionPolicy.RUNTIME)
+  public @interface CheckpointFile {
+    //
+  }
+
+  @BindingAnnotation
+  @Retention(RetentionPolicy.RUNTIME)
+  public @interface Incremental {
+    //
+  }
+
+  @BindingAnnotation
+  @Retention(RetentionPolicy.RUNTIME)
+  public @interface CacheDirectory {
+    //
+  }
+
+  @BindingAnnotation
+  @Retention(RetentionPolicy.RUNTIME)
+  public @interface CacheSize {
+    //
+  }
+
+  @BindingAnnotation
+  @Retention(RetentionPolicy.RUNTIME)
+  public @interface PipelineCapacity {
+    //
+  }
+
+  @BindingAnnotation
+  @Retention(RetentionPolicy.RUNTIME)
+  public @interface ScriptFile {
+    //
+  }
+
+  @BindingAnnotation
+  @Retention(RetentionPolicy.RUNTIME)
+  public @interface MetricsFile {
+    //
+  }
+
+  @BindingAnnotation
+  @Retention(RetentionPolicy.RUNTIME)
+  public @interface FormatCacheSize {
+    //
+  }
+
+  @BindingAnnotation
+  @Retention(RetentionPolicy.RUNTIME)
+  public @interface Watch {
+    //
+  }
+
+  @BindingAnnotation
+  @Retention(RetentionPolicy.RUNTIME)
+  public @interface WatchDelay {
+    //
+  }
+
+  @BindingAnnotation
+  @Retention(RetentionPolicy.RUNTIME)
+  public @interface WriteThreads {
+    //
+  }
+
+  @BindingAnnotation
+  @Retention(RetentionPolicy.RUNTIME)
+  public @interface RowThreads {
+    //
+  }
 }
@@ -0,0 +1,203 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.output;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+
+/**
+ * Inserts rows into one table in bulk, using {@code COPY FROM STDIN} on PostgreSQL and multi-row
+ * {@code INSERT} statements on anything else. Rows are buffered until there are enough of them to
+ * send at once, so {@link #flush()} has to be called before anything else can rely on them being
+ * in the table.
+ */
+class BulkInserter implements AutoCloseable {
+
+  /**
+   * SQLite's default limit on the number of parameters in one statement, which is lower than
+   * anything else's.
+   */
+  private static final int MAX_PARAMETERS = 999;
+  private static final int COPY_ROWS = 10000;
+
+  private final Connection connection;
+  private final String table;
+  private final String columns;
+  private final int columnCount;
+  private final CopyManager copyManager;
+  private final int rowsPerStatement;
+  private final List<Object[]> rows;
+  private PreparedStatement fullInsert;
+
+  /**
+   * @param table Quoted name of the table.
+   * @param columns Quoted names of the columns that will be given for every row, in order.
+   * @param rowsPerInsert How many rows to put in each {@code INSERT}. This is reduced if it would
+   * need too many parameters, and is not used with {@code COPY}.
+   */
+  BulkInserter(final Connection connection, final String table, final List<String> columns,
+      final int rowsPerInsert) throws SQLException {
+    this.connection = connection;
+    this.table = table;
+    this.columns = String.join(", ", columns);
+    this.columnCount = columns.size();
+    if (connection.isWrapperFor(PGConnection.class)) {
+      copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+      rowsPerStatement = COPY_ROWS;
+    } else {
+      copyManager = null;
+      rowsPerStatement = Math.max(1, Math.min(rowsPerInsert, MAX_PARAMETERS / columnCount));
+    }
+    rows = new ArrayList<>(rowsPerStatement);
+  }
+
+  /**
+   * @param values One value for each column, in the order they were given to the constructor.
+   */
+  void add(final Object... values) throws SQLException {
+    rows.add(values);
+    if (rows.size() >= rowsPerStatement) {
+      flush();
+    }
+  }
+
+  /**
+   * Send every buffered row to the database.
+   */
+  void flush() throws SQLException {
+    if (rows.isEmpty()) {
+      return;
+    }
+    if (null != copyManager) {
+      copyRows();
+    } else if (rows.size() == rowsPerStatement) {
+      if (null == fullInsert) {
+        fullInsert = connection.prepareStatement(insertSql(rowsPerStatement));
+      }
+      insertRows(fullInsert);
+    } else {
+      try (final PreparedStatement statement = connection.prepareStatement(
+          insertSql(rows.size()))) {
+        insertRows(statement);
+      }
+    }
+    rows.clear();
+  }
+
+  @Override
+  public void close() throws SQLException {
+    if (null != fullInsert) {
+      fullInsert.close();
+    }
+  }
+
+  private String insertSql(final int rowCount) {
+    final StringBuilder row = new StringBuilder("(");
+    for (int i = 0; i < columnCount; i++) {
+      row.append(i == 0 ? "?" : ", ?");
+    }
+    row.append(')');
+
+    final StringBuilder sql = new StringBuilder(
+        String.format("INSERT INTO %s (%s) VALUES ", table, columns));
+    for (int i = 0; i < rowCount; i++) {
+      if (i > 0) {
+        sql.append(", ");
+      }
+      sql.append(row);
+    }
+    return sql.toString();
+  }
+
+  private void insertRows(final PreparedStatement statement) throws SQLException {
+    int index = 1;
+    for (final Object[] row : rows) {
+      for (final Object value : row) {
+        statement.setObject(index++, value);
+      }
+    }
+    statement.executeUpdate();
+  }
+
+  private void copyRows() throws SQLException {
+    final StringBuilder data = new StringBuilder();
+    for (final Object[] row : rows) {
+      for (int i = 0; i < row.length; i++) {
+        if (i > 0) {
+          data.append('\t');
+        }
+        appendCopyValue(data, row[i]);
+      }
+      data.append('\n');
+    }
+
+    try {
+      copyManager.copyIn(String.format("COPY %s (%s) FROM STDIN", table, columns),
+          new StringReader(data.toString()));
+    } catch (final IOException e) {
+      throw new SQLException("Unable to copy rows into " + table, e);
+    }
+  }
+
+  /**
+   * Append a value in {@code COPY}'s text format.
+   */
+  static void appendCopyValue(final StringBuilder data, final Object value) {
+    if (null == value) {
+      data.append("\\N");
+    } else if (value instanceof Boolean) {
+      data.append((Boolean) value ? 't' : 'f');
+    } else {
+      final String str = value.toString();
+      for (int i = 0; i < str.length(); i++) {
+        final char c = str.charAt(i);
+        switch (c) {
+          case '\\':
+            data.append("\\\\");
+            break;
+          case '\t':
+            data.append("\\t");
+            break;
+          case '\n':
+            data.append("\\n");
+            break;
+          case '\r':
+            data.append("\\r");
+            break;
+          default:
+            data.append(c);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.output;
+
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.google.inject.Inject;
+
+import net.socialgamer.cah.db.PyxBlackCard;
+import net.socialgamer.cah.db.PyxCardSet;
+import net.socialgamer.cah.db.PyxWhiteCard;
+import net.socialgamer.pyx.importer.BlackCardHelper;
+import net.socialgamer.pyx.importer.data.DeckInfo;
+
+
+/**
+ * Makes the database entities for decks and cards, so every outputter fills them in the same way.
+ */
+public class EntityFactory {
+  private static final Logger LOG = Logger.getLogger(EntityFactory.class);
+
+  private final BlackCardHelper blackCardHelper;
+  private final Map<String, DeckInfo> deckInfos;
+
+  @Inject
+  public EntityFactory(final BlackCardHelper blackCardHelper,
+      final Map<String, DeckInfo> deckInfos) {
+    this.blackCardHelper = blackCardHelper;
+    this.deckInfos = deckInfos;
+  }
+
+  /**
+   * @param deckName The deck the card was first seen in, which determines its watermark.
+   */
+  public PyxBlackCard makeBlackCard(final String deckName, final String cardText) {
+    final PyxBlackCard card = new PyxBlackCard();
+    card.setText(cardText);
+    card.setDraw(blackCardHelper.draw(cardText));
+    card.setPick(blackCardHelper.pick(cardText));
+    card.setWatermark(getWatermark(deckName, cardText));
+    return card;
+  }
+
+  /**
+   * @param deckName The deck the card was first seen in, which determines its watermark.
+   */
+  public PyxWhiteCard makeWhiteCard(final String deckName, final String cardText) {
+    final PyxWhiteCard card = new PyxWhiteCard();
+    card.setText(cardText);
+    card.setWatermark(getWatermark(deckName, cardText));
+    return card;
+  }
+
+  public PyxCardSet makeDeck(final String name) {
+    final PyxCardSet deck = new PyxCardSet();
+    deck.setActive(true);
+    deck.setName(name);
+    deck.setDescription(name);
+    deck.setWeight(deckInfos.get(name).getWeight());
+    return deck;
+  }
+
+  String getWatermark(final String deckName, final String cardText) {
+    if (deckInfos.containsKey(deckName)) {
+      return deckInfos.get(deckName).getWatermark();
+    } else {
+      LOG.warn(String.format(
+          "No deck info for deck %s, unable to determine watermark for card %s.",
+          deckName, cardText));
+      return "";
+    }
+  }
+}
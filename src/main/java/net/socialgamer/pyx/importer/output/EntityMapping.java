@@ -0,0 +1,178 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.output;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.hibernate.cfg.Configuration;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.id.IdentityGenerator;
+import org.hibernate.id.SequenceGenerator;
+import org.hibernate.mapping.Collection;
+import org.hibernate.mapping.Column;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.mapping.Property;
+import org.hibernate.mapping.RootClass;
+import org.hibernate.mapping.SimpleValue;
+import org.hibernate.mapping.Value;
+import org.hibernate.property.Getter;
+
+import net.socialgamer.cah.db.PyxCardSet;
+
+
+/**
+ * The table, columns, and id generator of one entity class, from its Hibernate mapping, for the
+ * outputters that write rows themselves instead of through a session.
+ *
+ * <p>{@link Configuration#buildMappings()} must have been called first.
+ */
+final class EntityMapping {
+
+  private final Dialect dialect;
+  private final PersistentClass mapping;
+  private final List<String> columns = new ArrayList<>();
+  private final List<Getter> getters = new ArrayList<>();
+  private final IdentifierGenerator generator;
+
+  EntityMapping(final Configuration config, final Dialect dialect, final Class<?> entity) {
+    this.dialect = dialect;
+    mapping = config.getClassMapping(entity.getName());
+
+    columns.add(columnName(mapping.getIdentifier(), dialect));
+    final Iterator<?> properties = mapping.getPropertyIterator();
+    while (properties.hasNext()) {
+      final Property property = (Property) properties.next();
+      // card collections are written separately, as join table rows
+      if (!(property.getValue() instanceof Collection)) {
+        columns.add(columnName(property.getValue(), dialect));
+        getters.add(property.getGetter(entity));
+      }
+    }
+
+    generator = ((SimpleValue) mapping.getIdentifier()).createIdentifierGenerator(
+        config.getIdentifierGeneratorFactory(), dialect, null, null, (RootClass) mapping);
+  }
+
+  /**
+   * @return The quoted names of the id column and every other column, in the order
+   * {@link #values(long, Object)} gives their values.
+   */
+  List<String> columns() {
+    return Collections.unmodifiableList(columns);
+  }
+
+  /**
+   * @return A row for {@code entity}, with the given id.
+   */
+  Object[] values(final long id, final Object entity) {
+    final Object[] values = new Object[getters.size() + 1];
+    values[0] = id;
+    for (int i = 0; i < getters.size(); i++) {
+      values[i + 1] = getters.get(i).get(entity);
+    }
+    return values;
+  }
+
+  /**
+   * @return The name of the sequence ids are taken from, or {@code null} if they aren't taken
+   * straight from a sequence.
+   */
+  String sequenceName() {
+    // subclasses of SequenceGenerator don't use the sequence's values directly
+    if (SequenceGenerator.class == generator.getClass()) {
+      return ((SequenceGenerator) generator).getSequenceName();
+    }
+    return null;
+  }
+
+  /**
+   * @return Whether the database generates the ids itself.
+   */
+  boolean isIdentity() {
+    return generator instanceof IdentityGenerator;
+  }
+
+  String generatorName() {
+    return generator.getClass().getSimpleName();
+  }
+
+  String tableName() {
+    return mapping.getTable().getQuotedName(dialect);
+  }
+
+  String idColumn() {
+    return columnName(mapping.getIdentifier(), dialect);
+  }
+
+  /**
+   * @return The quoted name of the column for a property of the entity.
+   */
+  String column(final String property) {
+    return columnName(mapping.getProperty(property).getValue(), dialect);
+  }
+
+  /**
+   * @return An expression for the PostgreSQL sequence behind the id column, if it is a
+   * {@code serial} column.
+   */
+  String serialSequence() {
+    final String idColumn = ((Column) mapping.getIdentifier().getColumnIterator().next())
+        .getName();
+    return String.format("pg_get_serial_sequence('%s', '%s')", mapping.getTable().getName(),
+        idColumn);
+  }
+
+  /**
+   * The join table for the deck memberships of one color.
+   */
+  static final class Memberships {
+    final String table;
+    final String deckColumn;
+    final String cardColumn;
+
+    /**
+     * @param property Name of the collection property on {@link PyxCardSet} for the color.
+     */
+    Memberships(final Configuration config, final Dialect dialect, final String property) {
+      final Collection collection = config.getCollectionMapping(PyxCardSet.class.getName() + "."
+          + property);
+      table = collection.getCollectionTable().getQuotedName(dialect);
+      deckColumn = columnName(collection.getKey(), dialect);
+      cardColumn = columnName(collection.getElement(), dialect);
+    }
+
+    List<String> columns() {
+      return Arrays.asList(deckColumn, cardColumn);
+    }
+  }
+
+  private static String columnName(final Value value, final Dialect dialect) {
+    return ((Column) value.getColumnIterator().next()).getQuotedName(dialect);
+  }
+}
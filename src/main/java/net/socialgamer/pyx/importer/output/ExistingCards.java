@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.output;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * The cards of one color that are already in the database, and the decks they are in. Cards are
+ * indexed by a 64-bit hash of their text instead of the text itself, so this stays small even for
+ * hundreds of thousands of cards. Two different texts are only mistaken for each other if their
+ * hashes collide, which for a few hundred thousand cards is on the order of a one in a billion
+ * chance.
+ */
+class ExistingCards {
+
+  private static final int FETCH_SIZE = 10000;
+
+  /**
+   * Card text hash to card id. If the same text is in the database more than once, this has the
+   * lowest id.
+   */
+  private final LongHashMap idsByHash;
+  private final Map<Long, Members> members = new HashMap<>();
+
+  private ExistingCards(final LongHashMap idsByHash) {
+    this.idsByHash = idsByHash;
+  }
+
+  /**
+   * All names should already be quoted for the database.
+   *
+   * @param cardTable The table of cards of this color.
+   * @param joinTable The table of deck memberships for cards of this color.
+   */
+  static ExistingCards load(final Connection connection, final String cardTable,
+      final String idColumn, final String textColumn, final String joinTable,
+      final String deckColumn, final String cardColumn) throws SQLException {
+    final int count = (int) queryLong(connection, "SELECT COUNT(*) FROM " + cardTable);
+    final LongHashMap idsByHash = new LongHashMap(count);
+    final LongHashMap hashesById = new LongHashMap(count);
+    try (final Statement statement = connection.createStatement()) {
+      statement.setFetchSize(FETCH_SIZE);
+      try (final ResultSet rs = statement.executeQuery(String.format(
+          "SELECT %s, %s FROM %s ORDER BY %s", idColumn, textColumn, cardTable, idColumn))) {
+        while (rs.next()) {
+          final long id = rs.getLong(1);
+          final long hash = hash(rs.getString(2));
+          idsByHash.putIfAbsent(hash, id);
+          hashesById.putIfAbsent(id, hash);
+        }
+      }
+    }
+
+    final ExistingCards cards = new ExistingCards(idsByHash);
+    try (final Statement statement = connection.createStatement()) {
+      statement.setFetchSize(FETCH_SIZE);
+      try (final ResultSet rs = statement.executeQuery(String.format("SELECT %s, %s FROM %s",
+          deckColumn, cardColumn, joinTable))) {
+        while (rs.next()) {
+          final long cardId = rs.getLong(2);
+          cards.addMember(rs.getLong(1), cardId, hashesById.get(cardId, 0));
+        }
+      }
+    }
+    return cards;
+  }
+
+  private static long queryLong(final Connection connection, final String sql)
+      throws SQLException {
+    try (final Statement statement = connection.createStatement();
+        final ResultSet rs = statement.executeQuery(sql)) {
+      rs.next();
+      return rs.getLong(1);
+    }
+  }
+
+  /**
+   * @return The id of a card with this text, or -1 if there isn't one.
+   */
+  long find(final String text) {
+    return idsByHash.get(hash(text), -1);
+  }
+
+  /**
+   * Record a card that has been saved since this was loaded.
+   */
+  void add(final long id, final String text) {
+    idsByHash.putIfAbsent(hash(text), id);
+  }
+
+  /**
+   * Record a card that has been added to a deck since this was loaded.
+   *
+   * @param hash The {@link #hash} of the card's text.
+   */
+  void addMember(final long deckId, final long cardId, final long hash) {
+    Members deck = members.get(deckId);
+    if (null == deck) {
+      deck = new Members();
+      members.put(deckId, deck);
+    }
+    deck.add(cardId, hash);
+  }
+
+  /**
+   * Record a card that has been removed from a deck since this was loaded.
+   */
+  void removeMember(final long deckId, final long cardId) {
+    final Members deck = members.get(deckId);
+    if (null != deck) {
+      deck.remove(cardId);
+    }
+  }
+
+  /**
+   * @return The cards in a deck. Empty if the deck doesn't have any, or doesn't exist.
+   */
+  Members getMembers(final long deckId) {
+    final Members deck = members.get(deckId);
+    return null == deck ? new Members() : deck;
+  }
+
+  /**
+   * 64-bit FNV-1a over the characters of {@code text}, with a final mix so every bit depends on all
+   * of them.
+   */
+  static long hash(final String text) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < text.length(); i++) {
+      h ^= text.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  /**
+   * The cards in one deck, as their ids and text hashes.
+   */
+  static class Members {
+    private long[] cardIds = new long[0];
+    private long[] hashes = new long[0];
+    private int size = 0;
+
+    private void add(final long cardId, final long hash) {
+      if (size == cardIds.length) {
+        cardIds = Arrays.copyOf(cardIds, Math.max(16, size * 2));
+        hashes = Arrays.copyOf(hashes, cardIds.length);
+      }
+      cardIds[size] = cardId;
+      hashes[size] = hash;
+      size++;
+    }
+
+    /**
+     * Remove the card once, if it's in the deck. The last card takes its place.
+     */
+    private void remove(final long cardId) {
+      for (int i = 0; i < size; i++) {
+        if (cardIds[i] == cardId) {
+          size--;
+          cardIds[i] = cardIds[size];
+          hashes[i] = hashes[size];
+          return;
+        }
+      }
+    }
+
+    int size() {
+      return size;
+    }
+
+    long getCardId(final int index) {
+      return cardIds[index];
+    }
+
+    long getHash(final int index) {
+      return hashes[index];
+    }
+  }
+}
@@ -23,125 +23,743 @@
 
 package net.socialgamer.pyx.importer.output;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.hibernate.Session;
 import org.hibernate.Transaction;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.type.IdentifierType;
+import org.hibernate.type.Type;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 
 import net.socialgamer.cah.db.PyxBlackCard;
 import net.socialgamer.cah.db.PyxCardSet;
 import net.socialgamer.cah.db.PyxWhiteCard;
-import net.socialgamer.pyx.importer.BlackCardHelper;
-import net.socialgamer.pyx.importer.data.DeckInfo;
+import net.socialgamer.pyx.importer.Metrics;
+import net.socialgamer.pyx.importer.data.CardIdSet;
+import net.socialgamer.pyx.importer.data.CardPool;
+import net.socialgamer.pyx.importer.data.CardsByDeck;
 import net.socialgamer.pyx.importer.data.ParseResult;
+import net.socialgamer.pyx.importer.inject.ImporterModule.BatchSize;
+import net.socialgamer.pyx.importer.inject.ImporterModule.CheckpointFile;
+import net.socialgamer.pyx.importer.inject.ImporterModule.CommitEvery;
 import net.socialgamer.pyx.importer.inject.ImporterModule.SaveToDatabase;
+import net.socialgamer.pyx.importer.inject.ImporterModule.WriteThreads;
 
 
-public class HibernateOutputter {
+public class HibernateOutputter implements Outputter {
   private static final Logger LOG = Logger.getLogger(HibernateOutputter.class);
 
-  private final BlackCardHelper blackCardHelper;
-  private final Map<String, DeckInfo> deckInfos;
+  private final EntityFactory entityFactory;
   private final boolean saveToDatabase;
-  private final Session session;
+  private final int batchSize;
+  private final int commitEvery;
+  private final Optional<File> checkpointFile;
+  private final int writeThreads;
+  private final Configuration config;
+  private final SessionFactoryLoader sessionFactoryLoader;
+  private final Metrics.Timer flushTimer;
+  private final Metrics.Timer batchTimer;
 
   @Inject
-  public HibernateOutputter(final BlackCardHelper blackCardHelper,
-      final Map<String, DeckInfo> deckInfos, @SaveToDatabase final boolean saveToDatabase,
-      final Session session) {
-    this.blackCardHelper = blackCardHelper;
-    this.deckInfos = deckInfos;
+  public HibernateOutputter(final EntityFactory entityFactory,
+      @SaveToDatabase final boolean saveToDatabase,
+      @BatchSize final int batchSize, @CommitEvery final int commitEvery,
+      @CheckpointFile final Optional<File> checkpointFile,
+      @WriteThreads final int writeThreads, final Configuration config,
+      final SessionFactoryLoader sessionFactoryLoader, final Metrics metrics) {
+    this.entityFactory = entityFactory;
     this.saveToDatabase = saveToDatabase;
-    this.session = session;
+    this.batchSize = batchSize;
+    this.commitEvery = commitEvery;
+    this.checkpointFile = checkpointFile;
+    this.writeThreads = writeThreads;
+    this.config = config;
+    this.sessionFactoryLoader = sessionFactoryLoader;
+    flushTimer = metrics.timer(Metrics.DB_FLUSH);
+    batchTimer = metrics.timer(Metrics.DB_BATCH);
   }
 
+  @Override
+  public void prepare() {
+    if (saveToDatabase) {
+      sessionFactoryLoader.start();
+    }
+  }
+
+  @Override
   public void output(final ParseResult result) {
     if (!saveToDatabase) {
       LOG.info("Not saving to database.");
       return;
     }
+    if (writeThreads > 1) {
+      outputParallel(result);
+      return;
+    }
 
+    final Session session = sessionFactoryLoader.get().openSession();
+    try {
+      if (batchSize > 0 || commitEvery > 0 || checkpointFile.isPresent()) {
+        outputBatched(session, result);
+      } else {
+        outputSingleSession(session, result);
+      }
+    } finally {
+      session.close();
+    }
+  }
+
+  /**
+   * Save everything through one persistence context, letting Hibernate work out the deck
+   * membership rows from the decks' collections when it commits.
+   */
+  private void outputSingleSession(final Session session, final ParseResult result) {
     final Transaction transaction = session.beginTransaction();
     transaction.begin();
 
     try {
-      final Map<String, PyxBlackCard> blackCards = new HashMap<>();
-      final Map<String, PyxWhiteCard> whiteCards = new HashMap<>();
+      final long start = System.nanoTime();
+      final CardsByDeck blackCards = result.getBlackCards();
+      final CardsByDeck whiteCards = result.getWhiteCards();
+      // by card id in the result
+      final PyxBlackCard[] savedBlackCards = new PyxBlackCard[blackCards.getPool().size()];
+      final PyxWhiteCard[] savedWhiteCards = new PyxWhiteCard[whiteCards.getPool().size()];
+      int blackCount = 0;
+      int whiteCount = 0;
       final Map<String, PyxCardSet> decks = new HashMap<>();
 
       LOG.info("Saving black cards...");
-      for (final Entry<String, Set<String>> entry : result.getBlackCards().entrySet()) {
+      for (final Entry<String, CardIdSet> entry : blackCards.getDecks().entrySet()) {
         LOG.info("Saving black cards for deck " + entry.getKey());
         final PyxCardSet deck = getOrMakeDeck(decks, entry.getKey());
 
-        for (final String cardText : entry.getValue()) {
-          final PyxBlackCard card;
-          if (blackCards.containsKey(cardText)) {
-            card = blackCards.get(cardText);
-          } else {
-            card = new PyxBlackCard();
-            card.setText(cardText);
-            card.setDraw(blackCardHelper.draw(cardText));
-            card.setPick(blackCardHelper.pick(cardText));
-            final String watermark;
-            if (deckInfos.containsKey(deck.getName())) {
-              watermark = deckInfos.get(deck.getName()).getWatermark();
-            } else {
-              LOG.warn(String.format(
-                  "No deck info for deck %s, unable to determine watermark for card %s.",
-                  deck.getName(), cardText));
-              watermark = "";
-            }
-            card.setWatermark(watermark);
-            session.save(card);
-            blackCards.put(cardText, card);
+        final CardIdSet cardIds = entry.getValue();
+        for (int i = 0; i < cardIds.size(); i++) {
+          final int cardId = cardIds.get(i);
+          if (null == savedBlackCards[cardId]) {
+            savedBlackCards[cardId] = entityFactory.makeBlackCard(deck.getName(),
+                blackCards.getText(cardId));
+            session.save(savedBlackCards[cardId]);
+            blackCount++;
           }
-          deck.getBlackCards().add(card);
+          deck.getBlackCards().add(savedBlackCards[cardId]);
+        }
+        if (!cardIds.isEmpty()) {
           session.save(deck);
         }
       }
 
       LOG.info("Saving white cards...");
-      for (final Entry<String, Set<String>> entry : result.getWhiteCards().entrySet()) {
+      for (final Entry<String, CardIdSet> entry : whiteCards.getDecks().entrySet()) {
         LOG.info("Saving white cards for deck " + entry.getKey());
         final PyxCardSet deck = getOrMakeDeck(decks, entry.getKey());
 
-        for (final String cardText : entry.getValue()) {
-          final PyxWhiteCard card;
-          if (whiteCards.containsKey(cardText)) {
-            card = whiteCards.get(cardText);
-          } else {
-            card = new PyxWhiteCard();
-            card.setText(cardText);
-            final String watermark;
-            if (deckInfos.containsKey(deck.getName())) {
-              watermark = deckInfos.get(deck.getName()).getWatermark();
-            } else {
-              LOG.warn(String.format(
-                  "No deck info for deck %s, unable to determine watermark for card %s.",
-                  deck.getName(), cardText));
-              watermark = "";
-            }
-            card.setWatermark(watermark);
-            session.save(card);
-            whiteCards.put(cardText, card);
+        final CardIdSet cardIds = entry.getValue();
+        for (int i = 0; i < cardIds.size(); i++) {
+          final int cardId = cardIds.get(i);
+          if (null == savedWhiteCards[cardId]) {
+            savedWhiteCards[cardId] = entityFactory.makeWhiteCard(deck.getName(),
+                whiteCards.getText(cardId));
+            session.save(savedWhiteCards[cardId]);
+            whiteCount++;
           }
-          deck.getWhiteCards().add(card);
+          deck.getWhiteCards().add(savedWhiteCards[cardId]);
+        }
+        if (!cardIds.isEmpty()) {
           session.save(deck);
         }
       }
 
+      // everything is flushed when it commits
+      final long flushStart = flushTimer.start();
       transaction.commit();
+      flushTimer.stop(flushStart);
+      logThroughput(start, blackCount, whiteCount);
     } catch (final Exception e) {
       LOG.error("Unable to save.", e);
       transaction.rollback();
+      throw new RuntimeException("Unable to save.", e);
+    }
+  }
+
+  /**
+   * Save cards and decks in JDBC batches, flushing and clearing the session every
+   * {@code batchSize} entities so it doesn't grow with the size of the import. Deck membership rows
+   * are inserted directly in batches instead of through the decks' collections, so only the ids of
+   * anything already saved are kept.
+   *
+   * <p>If {@code commitEvery} is set, this commits after each deck once at least that many cards
+   * have been added to decks since the last commit. With a checkpoint file, a later run with the
+   * same input skips the decks that were already committed.
+   */
+  private void outputBatched(final Session session, final ParseResult result) {
+    final ImportCheckpoint checkpoint;
+    try {
+      checkpoint = ImportCheckpoint.load(checkpointFile.orElse(null),
+          ImportCheckpoint.fingerprint(result));
+    } catch (final IOException e) {
+      LOG.error("Unable to load checkpoint.", e);
+      throw new RuntimeException("Unable to load checkpoint.", e);
+    }
+
+    final BatchState state = new BatchState(session, checkpoint, result);
+    try {
+      final long start = System.nanoTime();
+      resume(state, result);
+
+      LOG.info("Saving black cards...");
+      for (final Entry<String, CardIdSet> entry : result.getBlackCards().getDecks().entrySet()) {
+        saveDeck(state, CardColor.BLACK, entry.getKey(), entry.getValue(), result.getBlackCards(),
+            state.blackCardIds);
+      }
+
+      LOG.info("Saving white cards...");
+      for (final Entry<String, CardIdSet> entry : result.getWhiteCards().getDecks().entrySet()) {
+        saveDeck(state, CardColor.WHITE, entry.getKey(), entry.getValue(), result.getWhiteCards(),
+            state.whiteCardIds);
+      }
+
+      state.commit();
+      logThroughput(start, state.savedBlackCards, state.savedWhiteCards);
+    } catch (final Exception e) {
+      LOG.error("Unable to save.", e);
+      if (state.transaction.isActive()) {
+        state.transaction.rollback();
+      }
+      if (checkpointFile.isPresent()) {
+        LOG.error(String.format("%d decks were saved. Run again with checkpoint %s to save the"
+            + " rest.", checkpoint.getCompleted(), checkpointFile.get().getAbsolutePath()));
+      }
+      throw new RuntimeException("Unable to save.", e);
+    }
+  }
+
+  /**
+   * Save decks over {@code writeThreads} sessions at once, each taking the largest deck that nobody
+   * has started on yet. Every card is saved with the first deck it is in, the same as the other
+   * ways of saving, by whichever session is saving that deck, so no two sessions save the same
+   * card.
+   *
+   * <p>A session can't refer to cards that another one hasn't committed yet without waiting for it
+   * to commit, so the decks and cards are saved and committed first, and then which cards are in
+   * which decks. Each of those is committed by every session once they have all finished, or
+   * rolled back by all of them if any of them fail. If anything fails after some of the sessions
+   * have committed, what they committed is deleted again, so nothing is left half saved.
+   */
+  private void outputParallel(final ParseResult result) {
+    final long start = System.nanoTime();
+    final CardsByDeck blackCards = result.getBlackCards();
+    final CardsByDeck whiteCards = result.getWhiteCards();
+
+    final Map<String, Integer> sizes = new LinkedHashMap<>();
+    for (final CardsByDeck cards : Arrays.asList(blackCards, whiteCards)) {
+      for (final Entry<String, CardIdSet> entry : cards.getDecks().entrySet()) {
+        sizes.merge(entry.getKey(), entry.getValue().size(), Integer::sum);
+      }
+    }
+    // empty decks aren't saved
+    sizes.values().removeIf(size -> 0 == size);
+    final List<String> decks = new ArrayList<>(sizes.keySet());
+    // biggest first, so nobody is left with a big deck at the end while the rest have finished
+    decks.sort((a, b) -> Integer.compare(sizes.get(b), sizes.get(a)));
+
+    // which deck saves each card, and the ids they were saved with
+    final String[] blackOwners = owners(blackCards);
+    final String[] whiteOwners = owners(whiteCards);
+    final Serializable[] blackCardIds = new Serializable[blackOwners.length];
+    final Serializable[] whiteCardIds = new Serializable[whiteOwners.length];
+    final Serializable[] deckIds = new Serializable[decks.size()];
+    // which session saved each deck
+    final int[] savedBy = new int[decks.size()];
+    final AtomicInteger savedBlackCards = new AtomicInteger();
+    final AtomicInteger savedWhiteCards = new AtomicInteger();
+
+    final List<Session> sessions = new ArrayList<>(writeThreads);
+    final ExecutorService executor = Executors.newFixedThreadPool(writeThreads,
+        new ThreadFactoryBuilder().setNameFormat("hibernate-writer-%d").build());
+    try {
+      for (int i = 0; i < writeThreads; i++) {
+        sessions.add(sessionFactoryLoader.get().openSession());
+      }
+
+      LOG.info(String.format("Saving decks and cards over %d connections...", writeThreads));
+      try {
+        inParallel(executor, sessions, decks.size(), savedBy, (session, deck) -> {
+          final String name = decks.get(deck);
+          LOG.info("Saving cards for deck " + name);
+          deckIds[deck] = session.save(entityFactory.makeDeck(name));
+          savedBlackCards.addAndGet(saveOwnedCards(session, CardColor.BLACK, name, blackCards,
+              blackOwners, blackCardIds));
+          savedWhiteCards.addAndGet(saveOwnedCards(session, CardColor.WHITE, name, whiteCards,
+              whiteOwners, whiteCardIds));
+          flush(session);
+          session.clear();
+        });
+      } catch (final ParallelSaveException e) {
+        removeCommitted(decks, savedBy, e.committed, deckIds, result, blackOwners, blackCardIds,
+            whiteOwners, whiteCardIds);
+        throw e;
+      }
+
+      LOG.info("Saving deck memberships...");
+      try {
+        inParallel(executor, sessions, decks.size(), new int[decks.size()], (session, deck) -> {
+          final String name = decks.get(deck);
+          insertMemberships(session, CardColor.BLACK.property,
+              memberships(deckIds[deck], blackCards.getDecks().get(name), blackCardIds));
+          insertMemberships(session, CardColor.WHITE.property,
+              memberships(deckIds[deck], whiteCards.getDecks().get(name), whiteCardIds));
+        });
+      } catch (final ParallelSaveException e) {
+        // every session committed its decks and cards, and maybe some of their memberships too
+        removeCommitted(decks, savedBy, sessions.size(), deckIds, result, blackOwners,
+            blackCardIds, whiteOwners, whiteCardIds);
+        throw e;
+      }
+      logThroughput(start, savedBlackCards.get(), savedWhiteCards.get());
+    } finally {
+      executor.shutdownNow();
+      for (final Session session : sessions) {
+        session.close();
+      }
+    }
+  }
+
+  private interface DeckWork {
+    /**
+     * @param deck Index of the deck to save.
+     */
+    void save(Session session, int deck) throws Exception;
+  }
+
+  /**
+   * Thrown when saving over several sessions fails, after some of them may have committed.
+   */
+  private static class ParallelSaveException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * How many of the sessions, in order, had committed before it failed.
+     */
+    private final int committed;
+
+    ParallelSaveException(final int committed, final Throwable cause) {
+      super("Unable to save.", cause);
+      this.committed = committed;
+    }
+  }
+
+  /**
+   * Do {@code work} for every deck, in a new transaction in each of {@code sessions} at once, then
+   * commit all of them if it all worked, or roll back all of them if not.
+   *
+   * @param doneBy Filled in with the index in {@code sessions} of the session that did each deck.
+   * @throws ParallelSaveException If it didn't all work. Sessions that committed before one of
+   *         them failed to can't be rolled back any more.
+   */
+  private void inParallel(final ExecutorService executor, final List<Session> sessions,
+      final int deckCount, final int[] doneBy, final DeckWork work) {
+    final List<Transaction> transactions = new ArrayList<>(sessions.size());
+    final List<Future<Void>> futures = new ArrayList<>(sessions.size());
+    final AtomicInteger nextDeck = new AtomicInteger();
+    for (int i = 0; i < sessions.size(); i++) {
+      final int index = i;
+      final Session session = sessions.get(i);
+      final Transaction transaction = session.beginTransaction();
+      transaction.begin();
+      transactions.add(transaction);
+      futures.add(executor.submit(() -> {
+        for (int deck = nextDeck.getAndIncrement(); deck < deckCount; deck = nextDeck
+            .getAndIncrement()) {
+          doneBy[deck] = index;
+          work.save(session, deck);
+        }
+        return null;
+      }));
+    }
+
+    Throwable failure = null;
+    for (final Future<Void> future : futures) {
+      try {
+        future.get();
+      } catch (final ExecutionException e) {
+        LOG.error("Unable to save.", e.getCause());
+        failure = e.getCause();
+        // don't let the others carry on with decks that aren't going to be committed
+        nextDeck.set(deckCount);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        failure = e;
+      }
+    }
+
+    int committed = 0;
+    if (null == failure) {
+      try {
+        final long flushStart = flushTimer.start();
+        for (final Transaction transaction : transactions) {
+          transaction.commit();
+          committed++;
+        }
+        flushTimer.stop(flushStart);
+        return;
+      } catch (final RuntimeException e) {
+        LOG.error("Unable to commit.", e);
+        if (committed > 0) {
+          LOG.error(String.format("%d of %d connections had already committed.", committed,
+              transactions.size()));
+        }
+        failure = e;
+      }
+    }
+    for (final Transaction transaction : transactions.subList(committed, transactions.size())) {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+    throw new ParallelSaveException(committed, failure);
+  }
+
+  /**
+   * Delete the decks that the first {@code committed} sessions saved, along with the cards saved
+   * with them and every card in them, in a new session.
+   *
+   * @param savedBy Index of the session that saved each deck.
+   */
+  private void removeCommitted(final List<String> decks, final int[] savedBy,
+      final int committed, final Serializable[] deckIds, final ParseResult result,
+      final String[] blackOwners, final Serializable[] blackCardIds, final String[] whiteOwners,
+      final Serializable[] whiteCardIds) {
+    final List<String> names = new ArrayList<>();
+    final List<Serializable> removedDecks = new ArrayList<>();
+    final List<Serializable> removedBlackCards = new ArrayList<>();
+    final List<Serializable> removedWhiteCards = new ArrayList<>();
+    for (int deck = 0; deck < decks.size(); deck++) {
+      if (savedBy[deck] < committed && null != deckIds[deck]) {
+        final String name = decks.get(deck);
+        names.add(name);
+        removedDecks.add(deckIds[deck]);
+        removedBlackCards.addAll(ownedCardIds(name, result.getBlackCards(), blackOwners,
+            blackCardIds));
+        removedWhiteCards.addAll(ownedCardIds(name, result.getWhiteCards(), whiteOwners,
+            whiteCardIds));
+      }
+    }
+    if (removedDecks.isEmpty()) {
+      return;
+    }
+
+    LOG.info(String.format("Removing the %d decks that were already committed...",
+        removedDecks.size()));
+    final Dialect dialect = ((SessionFactoryImplementor) sessionFactoryLoader.get()).getDialect();
+    final Session session = sessionFactoryLoader.get().openSession();
+    try {
+      final Transaction transaction = session.beginTransaction();
+      transaction.begin();
+      session.doWork(connection -> {
+        for (final CardColor color : CardColor.values()) {
+          final EntityMapping.Memberships memberships = new EntityMapping.Memberships(config,
+              dialect, color.property);
+          deleteRows(connection, memberships.table, memberships.deckColumn, removedDecks);
+        }
+        for (final CardColor color : CardColor.values()) {
+          final EntityMapping cards = new EntityMapping(config, dialect, color.entity);
+          deleteRows(connection, cards.tableName(), cards.idColumn(),
+              CardColor.BLACK == color ? removedBlackCards : removedWhiteCards);
+        }
+        final EntityMapping deckMapping = new EntityMapping(config, dialect, PyxCardSet.class);
+        deleteRows(connection, deckMapping.tableName(), deckMapping.idColumn(), removedDecks);
+      });
+      transaction.commit();
+    } catch (final RuntimeException e) {
+      LOG.error("Unable to remove the decks that were already committed. These decks and their "
+          + "cards will have to be deleted by hand: " + names, e);
+    } finally {
+      session.close();
+    }
+  }
+
+  /**
+   * @return The ids that were saved for the cards in deck {@code name} that it is the first deck
+   *         for.
+   */
+  private static List<Serializable> ownedCardIds(final String name, final CardsByDeck allCards,
+      final String[] owners, final Serializable[] savedIds) {
+    final List<Serializable> ids = new ArrayList<>();
+    final CardIdSet cards = allCards.getDecks().get(name);
+    if (null != cards) {
+      for (int i = 0; i < cards.size(); i++) {
+        final int id = cards.get(i);
+        if (name.equals(owners[id]) && null != savedIds[id]) {
+          ids.add(savedIds[id]);
+        }
+      }
     }
+    return ids;
+  }
+
+  private void deleteRows(final Connection connection, final String table, final String column,
+      final List<Serializable> ids) throws SQLException {
+    final String sql = String.format("DELETE FROM %s WHERE %s = ?", table, column);
+    try (final PreparedStatement statement = connection.prepareStatement(sql)) {
+      int pending = 0;
+      for (final Serializable id : ids) {
+        statement.setObject(1, id);
+        statement.addBatch();
+        if (++pending == batchSize) {
+          executeBatch(statement);
+          pending = 0;
+        }
+      }
+      if (pending > 0) {
+        executeBatch(statement);
+      }
+    }
+  }
+
+  /**
+   * @return The name of the first deck each card is in, by id in {@code cards}.
+   */
+  private static String[] owners(final CardsByDeck cards) {
+    final String[] owners = new String[cards.getPool().size()];
+    for (final Entry<String, CardIdSet> entry : cards.getDecks().entrySet()) {
+      final CardIdSet ids = entry.getValue();
+      for (int i = 0; i < ids.size(); i++) {
+        if (null == owners[ids.get(i)]) {
+          owners[ids.get(i)] = entry.getKey();
+        }
+      }
+    }
+    return owners;
+  }
+
+  /**
+   * Save the cards in deck {@code name} that it is the first deck for.
+   *
+   * @return How many cards were saved.
+   */
+  private int saveOwnedCards(final Session session, final CardColor color, final String name,
+      final CardsByDeck allCards, final String[] owners, final Serializable[] savedIds) {
+    final CardIdSet cards = allCards.getDecks().get(name);
+    if (null == cards) {
+      return 0;
+    }
+    int saved = 0;
+    for (int i = 0; i < cards.size(); i++) {
+      final int id = cards.get(i);
+      // the same card can only be in a deck once
+      if (name.equals(owners[id])) {
+        final String cardText = allCards.getText(id);
+        savedIds[id] = session.save(CardColor.BLACK == color
+            ? entityFactory.makeBlackCard(name, cardText)
+            : entityFactory.makeWhiteCard(name, cardText));
+        saved++;
+        if (batchSize > 0 && saved % batchSize == 0) {
+          flush(session);
+          session.clear();
+        }
+      }
+    }
+    return saved;
+  }
+
+  private static List<Serializable[]> memberships(final Serializable deckId,
+      final CardIdSet cards, final Serializable[] savedIds) {
+    if (null == cards) {
+      return new ArrayList<>();
+    }
+    final List<Serializable[]> memberships = new ArrayList<>(cards.size());
+    for (int i = 0; i < cards.size(); i++) {
+      memberships.add(new Serializable[] { deckId, savedIds[cards.get(i)] });
+    }
+    return memberships;
+  }
+
+  /**
+   * @param cards The ids in {@code allCards} of the cards in the deck.
+   * @param savedIds The ids cards were saved with, by id in {@code allCards}.
+   */
+  private void saveDeck(final BatchState state, final CardColor color, final String name,
+      final CardIdSet cards, final CardsByDeck allCards, final Serializable[] savedIds)
+      throws IOException {
+    if (state.deckIndex++ < state.checkpoint.getCompleted()) {
+      LOG.info(String.format("Already saved %s cards for deck %s", color.name, name));
+      return;
+    }
+    LOG.info(String.format("Saving %s cards for deck %s", color.name, name));
+    if (cards.isEmpty()) {
+      return;
+    }
+
+    final Serializable deckId = state.getOrSaveDeck(name);
+    final List<Serializable[]> memberships = new ArrayList<>(cards.size());
+    Serializable cardId = null;
+    for (int i = 0; i < cards.size(); i++) {
+      final int id = cards.get(i);
+      cardId = savedIds[id];
+      if (null == cardId) {
+        final String cardText = allCards.getText(id);
+        cardId = state.session.save(CardColor.BLACK == color
+            ? entityFactory.makeBlackCard(name, cardText)
+            : entityFactory.makeWhiteCard(name, cardText));
+        savedIds[id] = cardId;
+        state.cardSaved(color);
+      }
+      memberships.add(new Serializable[] { deckId, cardId });
+    }
+    // the cards have to be in the database before anything can refer to them
+    flush(state.session);
+    state.session.clear();
+    insertMemberships(state.session, color.property, memberships);
+    state.deckSaved(color, deckId, cardId, cards.size());
+  }
+
+  /**
+   * Pick up where the checkpoint says a previous run left off: find out whether its last chunk was
+   * committed if that isn't known, then load the ids of the decks and cards it saved so they are
+   * reused instead of saved again.
+   */
+  private void resume(final BatchState state, final ParseResult result) throws Exception {
+    final ImportCheckpoint checkpoint = state.checkpoint;
+    if (checkpoint.hasPending()) {
+      final boolean committed;
+      if (null == checkpoint.getPendingColor()) {
+        // it didn't add any cards to decks, so it didn't save anything either
+        committed = true;
+      } else {
+        final CardColor color = CardColor.valueOf(checkpoint.getPendingColor());
+        committed = isInDeck(state.session, color,
+            toId(PyxCardSet.class, checkpoint.getPendingDeck()),
+            toId(color.entity, checkpoint.getPendingCard()));
+      }
+      LOG.info(String.format("The last chunk of the previous run was %scommitted.",
+          committed ? "" : "not "));
+      checkpoint.endChunk(committed);
+    }
+
+    if (checkpoint.getCompleted() > 0) {
+      LOG.info(String.format("Resuming after %d decks that were already saved.",
+          checkpoint.getCompleted()));
+    }
+    for (final Entry<String, String> deck : checkpoint.getDeckIds().entrySet()) {
+      final Serializable deckId = toId(PyxCardSet.class, deck.getValue());
+      state.deckIds.put(deck.getKey(), deckId);
+      loadCardIds(state.session, CardColor.BLACK, deckId, result.getBlackCards().getPool(),
+          state.blackCardIds);
+      loadCardIds(state.session, CardColor.WHITE, deckId, result.getWhiteCards().getPool(),
+          state.whiteCardIds);
+    }
+  }
+
+  private boolean isInDeck(final Session session, final CardColor color, final Serializable deckId,
+      final Serializable cardId) {
+    final Object count = session.createQuery("select count(*) from PyxCardSet d join d."
+        + color.property + " c where d.id = :deck and c.id = :card")
+        .setParameter("deck", deckId)
+        .setParameter("card", cardId)
+        .uniqueResult();
+    return ((Number) count).longValue() > 0;
+  }
+
+  /**
+   * Load the ids of the cards in a deck that was already saved, for the ones that are in
+   * {@code pool}.
+   */
+  private void loadCardIds(final Session session, final CardColor color, final Serializable deckId,
+      final CardPool pool, final Serializable[] cardIds) {
+    final List<?> rows = session.createQuery("select c.text, c.id from PyxCardSet d join d."
+        + color.property + " c where d.id = :deck")
+        .setParameter("deck", deckId)
+        .list();
+    for (final Object row : rows) {
+      final Object[] columns = (Object[]) row;
+      final int id = pool.indexOf((String) columns[0]);
+      if (id >= 0) {
+        cardIds[id] = (Serializable) columns[1];
+      }
+    }
+  }
+
+  private Serializable toId(final Class<?> entity, final String value) throws Exception {
+    final Type type = sessionFactoryLoader.get().getClassMetadata(entity).getIdentifierType();
+    return (Serializable) ((IdentifierType<?>) type).stringToObject(value);
+  }
+
+  /**
+   * Insert rows into the join table for one of {@link PyxCardSet}'s card collections. The table
+   * and column names come from the Hibernate mapping for that collection.
+   *
+   * @param property Name of the collection property on {@link PyxCardSet}.
+   * @param rows Pairs of deck id and card id.
+   */
+  private void insertMemberships(final Session session, final String property,
+      final List<Serializable[]> rows) {
+    final Dialect dialect = ((SessionFactoryImplementor) sessionFactoryLoader.get()).getDialect();
+    final EntityMapping.Memberships mapping = new EntityMapping.Memberships(config, dialect,
+        property);
+    final String sql = String.format("INSERT INTO %s (%s, %s) VALUES (?, ?)", mapping.table,
+        mapping.deckColumn, mapping.cardColumn);
+
+    session.doWork(connection -> {
+      try (final PreparedStatement statement = connection.prepareStatement(sql)) {
+        int pending = 0;
+        for (final Serializable[] row : rows) {
+          statement.setObject(1, row[0]);
+          statement.setObject(2, row[1]);
+          statement.addBatch();
+          if (++pending == batchSize) {
+            executeBatch(statement);
+            pending = 0;
+          }
+        }
+        if (pending > 0) {
+          executeBatch(statement);
+        }
+      }
+    });
+  }
+
+  private void executeBatch(final PreparedStatement statement) throws SQLException {
+    final long start = batchTimer.start();
+    statement.executeBatch();
+    batchTimer.stop(start);
+  }
+
+  private void flush(final Session session) {
+    final long start = flushTimer.start();
+    session.flush();
+    flushTimer.stop(start);
+  }
+
+  private void logThroughput(final long start, final int blackCards, final int whiteCards) {
+    final long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+    final int cards = blackCards + whiteCards;
+    LOG.info(String.format("Saved %d black cards and %d white cards in %d ms (%d cards/second).",
+        blackCards, whiteCards, millis, cards * 1000L / millis));
   }
 
   private PyxCardSet getOrMakeDeck(final Map<String, PyxCardSet> decks, final String name) {
@@ -149,13 +767,125 @@ public class HibernateOutputter {
     if (decks.containsKey(name)) {
       deck = decks.get(name);
     } else {
-      deck = new PyxCardSet();
-      deck.setActive(true);
-      deck.setName(name);
-      deck.setDescription(name);
-      deck.setWeight(deckInfos.get(name).getWeight());
+      deck = entityFactory.makeDeck(name);
       decks.put(name, deck);
     }
     return deck;
   }
+
+  private enum CardColor {
+    BLACK("black", "blackCards", PyxBlackCard.class),
+    WHITE("white", "whiteCards", PyxWhiteCard.class);
+
+    private final String name;
+    /**
+     * The property on {@link PyxCardSet} holding cards of this color.
+     */
+    private final String property;
+    private final Class<?> entity;
+
+    CardColor(final String name, final String property, final Class<?> entity) {
+      this.name = name;
+      this.property = property;
+      this.entity = entity;
+    }
+  }
+
+  /**
+   * Everything {@link #outputBatched} keeps track of while it saves.
+   */
+  private class BatchState {
+    private final Session session;
+    private final ImportCheckpoint checkpoint;
+    private Transaction transaction;
+
+    private final Map<String, Serializable> deckIds = new HashMap<>();
+    /**
+     * The ids cards were saved with, by id in the result.
+     */
+    private final Serializable[] blackCardIds;
+    private final Serializable[] whiteCardIds;
+    private int savedBlackCards = 0;
+    private int savedWhiteCards = 0;
+    /**
+     * Entities saved since the session was last flushed.
+     */
+    private int unflushed = 0;
+    /**
+     * Index of the next deck, counting black card decks first then white card decks.
+     */
+    private int deckIndex = 0;
+
+    // the chunk that hasn't been committed yet
+    private final Map<String, Serializable> newDecks = new HashMap<>();
+    private int uncommittedCards = 0;
+    private CardColor lastColor;
+    private Serializable lastDeckId;
+    private Serializable lastCardId;
+
+    private BatchState(final Session session, final ImportCheckpoint checkpoint,
+        final ParseResult result) {
+      this.session = session;
+      this.checkpoint = checkpoint;
+      blackCardIds = new Serializable[result.getBlackCards().getPool().size()];
+      whiteCardIds = new Serializable[result.getWhiteCards().getPool().size()];
+      transaction = session.beginTransaction();
+      transaction.begin();
+    }
+
+    private Serializable getOrSaveDeck(final String name) {
+      Serializable id = deckIds.get(name);
+      if (null == id) {
+        id = session.save(entityFactory.makeDeck(name));
+        deckIds.put(name, id);
+        newDecks.put(name, id);
+      }
+      return id;
+    }
+
+    private void cardSaved(final CardColor color) {
+      if (CardColor.BLACK == color) {
+        savedBlackCards++;
+      } else {
+        savedWhiteCards++;
+      }
+      if (batchSize > 0 && ++unflushed >= batchSize) {
+        flush(session);
+        session.clear();
+        unflushed = 0;
+      }
+    }
+
+    /**
+     * @param cardId The last card added to the deck.
+     * @param cardCount How many cards were added to the deck.
+     */
+    private void deckSaved(final CardColor color, final Serializable deckId,
+        final Serializable cardId, final int cardCount) throws IOException {
+      lastColor = color;
+      lastDeckId = deckId;
+      lastCardId = cardId;
+      uncommittedCards += cardCount;
+      if (commitEvery > 0 && uncommittedCards >= commitEvery) {
+        commit();
+        transaction = session.beginTransaction();
+        transaction.begin();
+      }
+    }
+
+    private void commit() throws IOException {
+      flush(session);
+      session.clear();
+      checkpoint.beginChunk(deckIndex, newDecks, null == lastColor ? null : lastColor.name(),
+          lastDeckId, lastCardId);
+      transaction.commit();
+      checkpoint.endChunk(true);
+      LOG.info(String.format("Committed %d decks.", deckIndex));
+
+      newDecks.clear();
+      uncommittedCards = 0;
+      lastColor = null;
+      unflushed = 0;
+    }
+  }
 }
@@ -0,0 +1,248 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.output;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+
+import net.socialgamer.pyx.importer.data.CardIdSet;
+import net.socialgamer.pyx.importer.data.CardsByDeck;
+import net.socialgamer.pyx.importer.data.ParseResult;
+
+
+/**
+ * Records how far a chunked import has got, so that running it again with the same input can pick
+ * up after the last chunk that was committed. Decks are counted in the order they are saved: every
+ * black card deck, then every white card deck.
+ *
+ * <p>Each chunk is written out as pending before it is committed, and moved into the completed
+ * count afterwards. If the importer stops in between, the next run has to check the database to
+ * find out whether the commit happened.
+ */
+class ImportCheckpoint {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final String FINGERPRINT = "fingerprint";
+  private static final String COMPLETED = "completed";
+  private static final String DECK_PREFIX = "deck.";
+  private static final String PENDING_COMPLETED = "pending.completed";
+  private static final String PENDING_COLOR = "pending.color";
+  private static final String PENDING_DECK = "pending.deck";
+  private static final String PENDING_CARD = "pending.card";
+  private static final String PENDING_DECK_PREFIX = "pending.new_deck.";
+
+  /**
+   * Where to keep the checkpoint. {@code null} if it isn't being kept, in which case this only
+   * tracks progress in memory.
+   */
+  private final File file;
+  private final Properties props;
+
+  private ImportCheckpoint(final File file, final Properties props) {
+    this.file = file;
+    this.props = props;
+  }
+
+  /**
+   * @param file The checkpoint file, or {@code null} to not keep one. It doesn't have to exist yet.
+   * @param fingerprint From {@link #fingerprint(ParseResult)} for the import being run.
+   * @throws IOException If the checkpoint can't be read, or is for a different import.
+   */
+  static ImportCheckpoint load(final File file, final String fingerprint) throws IOException {
+    final Properties props = new Properties();
+    if (null != file && file.exists()) {
+      try (Reader reader = new InputStreamReader(new FileInputStream(file), UTF_8)) {
+        props.load(reader);
+      }
+      if (!fingerprint.equals(props.getProperty(FINGERPRINT))) {
+        throw new IOException(String.format("Checkpoint %s was made for a different import. Remove"
+            + " it to start over.", file.getAbsolutePath()));
+      }
+    } else {
+      props.setProperty(FINGERPRINT, fingerprint);
+      props.setProperty(COMPLETED, "0");
+    }
+    return new ImportCheckpoint(file, props);
+  }
+
+  /**
+   * @return A digest of every deck name and card text in the result, in the order the decks will be
+   * saved. The order of cards within a deck does not matter.
+   */
+  static String fingerprint(final ParseResult result) {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (final NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+    digestDecks(digest, "black", result.getBlackCards());
+    digestDecks(digest, "white", result.getWhiteCards());
+    return String.format("%064x", new BigInteger(1, digest.digest()));
+  }
+
+  private static void digestDecks(final MessageDigest digest, final String color,
+      final CardsByDeck decks) {
+    for (final Entry<String, CardIdSet> entry : decks.getDecks().entrySet()) {
+      digestString(digest, color);
+      digestString(digest, entry.getKey());
+      final List<String> cards = new ArrayList<>(entry.getValue().size());
+      for (int i = 0; i < entry.getValue().size(); i++) {
+        cards.add(decks.getText(entry.getValue().get(i)));
+      }
+      Collections.sort(cards);
+      for (final String card : cards) {
+        digestString(digest, card);
+      }
+    }
+  }
+
+  private static void digestString(final MessageDigest digest, final String str) {
+    digest.update(str.getBytes(UTF_8));
+    digest.update((byte) 0);
+  }
+
+  /**
+   * @return How many decks have been committed.
+   */
+  int getCompleted() {
+    return Integer.parseInt(props.getProperty(COMPLETED));
+  }
+
+  /**
+   * @return The ids, as strings, of the committed decks, by name.
+   */
+  Map<String, String> getDeckIds() {
+    return getPrefixed(DECK_PREFIX);
+  }
+
+  boolean hasPending() {
+    return props.containsKey(PENDING_COMPLETED);
+  }
+
+  /**
+   * @return Color of the last card saved in the pending chunk, or {@code null} if it didn't save
+   * any cards.
+   */
+  String getPendingColor() {
+    return props.getProperty(PENDING_COLOR);
+  }
+
+  String getPendingDeck() {
+    return props.getProperty(PENDING_DECK);
+  }
+
+  String getPendingCard() {
+    return props.getProperty(PENDING_CARD);
+  }
+
+  /**
+   * Record a chunk that is about to be committed.
+   *
+   * @param completed How many decks will have been committed once it is.
+   * @param newDecks Decks that were created in this chunk.
+   * @param color Color of the last card added to a deck in this chunk, or {@code null} if none were.
+   * @param deckId The deck the last card was added to.
+   * @param cardId The last card added to a deck.
+   */
+  void beginChunk(final int completed, final Map<String, ?> newDecks, final String color,
+      final Object deckId, final Object cardId) throws IOException {
+    props.setProperty(PENDING_COMPLETED, String.valueOf(completed));
+    for (final Entry<String, ?> entry : newDecks.entrySet()) {
+      props.setProperty(PENDING_DECK_PREFIX + entry.getKey(), entry.getValue().toString());
+    }
+    if (null != color) {
+      props.setProperty(PENDING_COLOR, color);
+      props.setProperty(PENDING_DECK, deckId.toString());
+      props.setProperty(PENDING_CARD, cardId.toString());
+    }
+    save();
+  }
+
+  /**
+   * Resolve the pending chunk.
+   *
+   * @param committed Whether the pending chunk made it into the database.
+   */
+  void endChunk(final boolean committed) throws IOException {
+    if (committed) {
+      props.setProperty(COMPLETED, props.getProperty(PENDING_COMPLETED));
+      for (final Entry<String, String> entry : getPrefixed(PENDING_DECK_PREFIX).entrySet()) {
+        props.setProperty(DECK_PREFIX + entry.getKey(), entry.getValue());
+      }
+    }
+    for (final String key : props.stringPropertyNames()) {
+      if (key.startsWith("pending.")) {
+        props.remove(key);
+      }
+    }
+    save();
+  }
+
+  private Map<String, String> getPrefixed(final String prefix) {
+    final Map<String, String> map = new HashMap<>();
+    for (final String key : props.stringPropertyNames()) {
+      if (key.startsWith(prefix)) {
+        map.put(key.substring(prefix.length()), props.getProperty(key));
+      }
+    }
+    return map;
+  }
+
+  /**
+   * Write the checkpoint to a temporary file next to it then move it into place, so there is always
+   * a complete copy of it on disk.
+   */
+  private void save() throws IOException {
+    if (null == file) {
+      return;
+    }
+    final File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+    try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), UTF_8)) {
+      props.store(writer, "Card import checkpoint");
+    }
+    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+}
@@ -0,0 +1,824 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.output;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+import org.apache.log4j.Logger;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.dialect.Dialect;
+import org.postgresql.PGConnection;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import net.socialgamer.cah.db.PyxBlackCard;
+import net.socialgamer.cah.db.PyxCardSet;
+import net.socialgamer.cah.db.PyxWhiteCard;
+import net.socialgamer.pyx.importer.data.CardIdSet;
+import net.socialgamer.pyx.importer.data.CardsByDeck;
+import net.socialgamer.pyx.importer.data.ParseResult;
+import net.socialgamer.pyx.importer.inject.ImporterModule.BatchSize;
+import net.socialgamer.pyx.importer.inject.ImporterModule.Incremental;
+import net.socialgamer.pyx.importer.inject.ImporterModule.SaveToDatabase;
+
+
+/**
+ * Writes the same rows as {@link HibernateOutputter}, but directly over JDBC, without loading any
+ * of it into a Hibernate session. Table and column names, and how ids are generated, still come
+ * from the Hibernate mappings.
+ *
+ * <p>Ids are reserved from the sequence in blocks, or counted up from the highest one already in
+ * the table if the database generates them itself. In the latter case, nothing else can be writing
+ * to the tables at the same time. Rows are written with {@code COPY} on PostgreSQL, and multi-row
+ * {@code INSERT}s elsewhere.
+ *
+ * <p>An incremental import reuses the decks and cards that are already in the database, matching
+ * them by name and text, and only adds and removes the deck memberships that have changed. Cards
+ * that are no longer in any deck, and decks that aren't in the import, are left alone. The
+ * connection, and the decks, cards and deck memberships loaded from the database, are kept for the
+ * next incremental import, which only has to compare against them. Nothing else may change the
+ * tables in between. If saving fails, both are dropped and loaded again next time.
+ *
+ * <p>A pipelined import is saved a piece at a time as it is parsed, in the same transaction. Only
+ * the ids of the cards and deck memberships saved so far are kept, instead of rows waiting to be
+ * written.
+ */
+public class JdbcOutputter implements Outputter {
+  private static final Logger LOG = Logger.getLogger(JdbcOutputter.class);
+
+  private static final int DEFAULT_BATCH_SIZE = 100;
+
+  private final EntityFactory entityFactory;
+  private final boolean saveToDatabase;
+  private final int batchSize;
+  private final boolean incremental;
+  private final Configuration config;
+  private final Dialect dialect;
+  private final String driverClass;
+  private final String connectionUrl;
+  private final String username;
+  private final String password;
+
+  /**
+   * Kept open between incremental imports, {@code null} until the first save.
+   */
+  private Connection connection;
+  /**
+   * What is in the database after the last incremental import, or {@code null} if it has to be
+   * loaded again.
+   */
+  private Known known;
+
+  @Inject
+  public JdbcOutputter(final EntityFactory entityFactory,
+      @SaveToDatabase final boolean saveToDatabase, @BatchSize final int batchSize,
+      @Incremental final boolean incremental, final Configuration config, final Dialect dialect,
+      @Named("hibernate.driver_class") final String driverClass,
+      @Named("hibernate.url") final String connectionUrl,
+      @Named("hibernate.username") final String username,
+      @Named("hibernate.password") final String password) {
+    this.entityFactory = entityFactory;
+    this.saveToDatabase = saveToDatabase;
+    this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+    this.incremental = incremental;
+    this.config = config;
+    this.dialect = dialect;
+    this.driverClass = driverClass;
+    this.connectionUrl = connectionUrl;
+    this.username = username;
+    this.password = password;
+  }
+
+  @Override
+  public void output(final ParseResult result) {
+    if (!saveToDatabase) {
+      LOG.info("Not saving to database.");
+      return;
+    }
+    save(connection -> write(connection, result));
+  }
+
+  @Override
+  public void output(final Consumer<Consumer<ParseResult>> parts) {
+    if (!saveToDatabase) {
+      LOG.info("Not saving to database.");
+      // still parse everything, so any problems with it are found
+      parts.accept(part -> {
+        // nothing to do
+      });
+      return;
+    }
+    if (incremental) {
+      LOG.info("Incremental imports compare whole decks, so nothing will be saved until everything"
+          + " has been parsed.");
+      Outputter.super.output(parts);
+      return;
+    }
+    save(connection -> writePipelined(connection, parts));
+  }
+
+  private interface Work {
+    void write(Connection connection) throws SQLException;
+  }
+
+  /**
+   * Do {@code work} in one transaction, rolling it back and throwing if anything goes wrong. The
+   * connection is only kept afterwards for an incremental import that worked.
+   */
+  private void save(final Work work) {
+    final Connection connection = connect();
+    boolean saved = false;
+    try {
+      work.write(connection);
+      connection.commit();
+      saved = true;
+    } catch (final Exception e) {
+      LOG.error("Unable to save.", e);
+      // the decks and cards it knows about may include some that weren't saved after all
+      known = null;
+      try {
+        connection.rollback();
+      } catch (final SQLException rollbackException) {
+        LOG.error("Unable to roll back.", rollbackException);
+      }
+      throw new RuntimeException("Unable to save.", e);
+    } finally {
+      if (!saved || !incremental) {
+        // anything that went wrong might have been the connection itself
+        disconnect();
+      }
+    }
+  }
+
+  /**
+   * @return The connection kept from the last import, or a new one.
+   */
+  private Connection connect() {
+    if (null != connection) {
+      return connection;
+    }
+    try {
+      Class.forName(driverClass);
+    } catch (final ClassNotFoundException e) {
+      LOG.error("Unable to load database driver.", e);
+      throw new RuntimeException("Unable to load database driver.", e);
+    }
+    config.buildMappings();
+
+    try {
+      connection = DriverManager.getConnection(connectionUrl, username, password);
+      connection.setAutoCommit(false);
+    } catch (final SQLException e) {
+      LOG.error("Unable to connect to database.", e);
+      disconnect();
+      throw new RuntimeException("Unable to connect to database.", e);
+    }
+    return connection;
+  }
+
+  private void disconnect() {
+    if (null == connection) {
+      return;
+    }
+    try {
+      connection.close();
+    } catch (final SQLException e) {
+      LOG.warn("Unable to close database connection.", e);
+    }
+    connection = null;
+  }
+
+  /**
+   * The decks, cards and deck memberships in the database, by name and text.
+   */
+  private static class Known {
+    private final Map<String, Long> deckIds = new HashMap<>();
+    private ExistingCards blackCards;
+    private ExistingCards whiteCards;
+  }
+
+  /**
+   * @return What was in the database after the last incremental import, or what is in it now if
+   *         that isn't known.
+   */
+  private Known getKnown(final Connection connection, final EntityTable decks,
+      final EntityTable blackCards, final EntityTable whiteCards) throws SQLException {
+    if (null != known) {
+      LOG.info("Using the decks and cards from the last import.");
+      return known;
+    }
+    LOG.info("Loading existing decks and cards...");
+    final Known loaded = new Known();
+    loadDeckIds(connection, decks, loaded.deckIds);
+    loaded.blackCards = loadCards(connection, blackCards, "blackCards");
+    loaded.whiteCards = loadCards(connection, whiteCards, "whiteCards");
+    known = loaded;
+    return loaded;
+  }
+
+  /**
+   * @param property Name of the collection property on {@link PyxCardSet} for this color.
+   */
+  private ExistingCards loadCards(final Connection connection, final EntityTable cards,
+      final String property) throws SQLException {
+    final EntityMapping.Memberships memberships = new EntityMapping.Memberships(config, dialect,
+        property);
+    return ExistingCards.load(connection, cards.tableName(), cards.idColumn(),
+        cards.column("text"), memberships.table, memberships.deckColumn, memberships.cardColumn);
+  }
+
+  private void write(final Connection connection, final ParseResult result) throws SQLException {
+    final long start = System.nanoTime();
+    final boolean postgres = connection.isWrapperFor(PGConnection.class);
+
+    try (final EntityTable decks = new EntityTable(connection, postgres, PyxCardSet.class);
+        final EntityTable blackCards = new EntityTable(connection, postgres, PyxBlackCard.class);
+        final EntityTable whiteCards = new EntityTable(connection, postgres,
+            PyxWhiteCard.class)) {
+      final Map<String, Long> deckIds;
+      final ExistingCards existingBlack;
+      final ExistingCards existingWhite;
+      if (incremental) {
+        final Known existing = getKnown(connection, decks, blackCards, whiteCards);
+        deckIds = existing.deckIds;
+        existingBlack = existing.blackCards;
+        existingWhite = existing.whiteCards;
+      } else {
+        deckIds = new HashMap<>();
+        existingBlack = null;
+        existingWhite = null;
+      }
+      final CardWriter black = new CardWriter(connection, blackCards, "blackCards",
+          result.getBlackCards(), entityFactory::makeBlackCard, existingBlack);
+      final CardWriter white = new CardWriter(connection, whiteCards, "whiteCards",
+          result.getWhiteCards(), entityFactory::makeWhiteCard, existingWhite);
+
+      LOG.info("Saving black cards...");
+      for (final Entry<String, CardIdSet> entry : result.getBlackCards().getDecks().entrySet()) {
+        LOG.info("Saving black cards for deck " + entry.getKey());
+        // empty decks aren't created, but one that's already in the database has to be emptied
+        if (!entry.getValue().isEmpty() || deckIds.containsKey(entry.getKey())) {
+          black.saveDeck(getOrInsertDeck(decks, deckIds, entry.getKey()), entry.getKey(),
+              entry.getValue());
+        }
+      }
+
+      LOG.info("Saving white cards...");
+      for (final Entry<String, CardIdSet> entry : result.getWhiteCards().getDecks().entrySet()) {
+        LOG.info("Saving white cards for deck " + entry.getKey());
+        if (!entry.getValue().isEmpty() || deckIds.containsKey(entry.getKey())) {
+          white.saveDeck(getOrInsertDeck(decks, deckIds, entry.getKey()), entry.getKey(),
+              entry.getValue());
+        }
+      }
+
+      // the decks and cards have to be in the database before anything can refer to them
+      decks.finish();
+      blackCards.finish();
+      whiteCards.finish();
+
+      LOG.info("Saving deck memberships...");
+      black.saveMemberships();
+      white.saveMemberships();
+
+      final long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+      final int cards = black.inserted + white.inserted;
+      LOG.info(String.format("Saved %d black cards and %d white cards in %d ms (%d cards/second).",
+          black.inserted, white.inserted, millis, cards * 1000L / millis));
+      if (incremental) {
+        LOG.info(String.format("Added %d and removed %d deck memberships.",
+            black.added.size() + white.added.size(), black.removed.size() + white.removed.size()));
+      }
+    }
+  }
+
+  /**
+   * Save each piece of the import as soon as it arrives. The rows that end up in the database are
+   * the same as {@link #write(Connection, ParseResult)} saves, but ids are given out in a different
+   * order.
+   */
+  private void writePipelined(final Connection connection,
+      final Consumer<Consumer<ParseResult>> parts) throws SQLException {
+    final long start = System.nanoTime();
+    final boolean postgres = connection.isWrapperFor(PGConnection.class);
+
+    try (final EntityTable decks = new EntityTable(connection, postgres, PyxCardSet.class);
+        final EntityTable blackCards = new EntityTable(connection, postgres, PyxBlackCard.class);
+        final EntityTable whiteCards = new EntityTable(connection, postgres, PyxWhiteCard.class);
+        final PartWriter black = new PartWriter(connection, blackCards, "blackCards",
+            entityFactory::makeBlackCard);
+        final PartWriter white = new PartWriter(connection, whiteCards, "whiteCards",
+            entityFactory::makeWhiteCard)) {
+      final Map<String, Long> deckIds = new HashMap<>();
+      parts.accept(part -> {
+        try {
+          black.savePart(decks, deckIds, part.getBlackCards());
+          white.savePart(decks, deckIds, part.getWhiteCards());
+          // the decks and cards have to be in the database before anything can refer to them
+          decks.flush();
+          blackCards.flush();
+          whiteCards.flush();
+          black.saveMemberships();
+          white.saveMemberships();
+          LOG.info(String.format("Saved %d black cards and %d white cards so far.",
+              black.inserted, white.inserted));
+        } catch (final SQLException e) {
+          throw new RuntimeException(e);
+        }
+      });
+
+      decks.finish();
+      blackCards.finish();
+      whiteCards.finish();
+      black.finish();
+      white.finish();
+
+      final long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+      final int cards = black.inserted + white.inserted;
+      LOG.info(String.format("Parsed and saved %d black cards and %d white cards in %d ms (%d"
+          + " cards/second).", black.inserted, white.inserted, millis, cards * 1000L / millis));
+    }
+  }
+
+  /**
+   * Find the decks that are already in the database, by name. If there is more than one deck with
+   * the same name, the first one is used.
+   */
+  private void loadDeckIds(final Connection connection, final EntityTable decks,
+      final Map<String, Long> deckIds) throws SQLException {
+    try (final Statement statement = connection.createStatement();
+        final ResultSet rs = statement.executeQuery(String.format(
+            "SELECT %s, %s FROM %s ORDER BY %s", decks.idColumn(), decks.column("name"),
+            decks.tableName(), decks.idColumn()))) {
+      while (rs.next()) {
+        if (null != deckIds.putIfAbsent(rs.getString(2), rs.getLong(1))) {
+          LOG.warn(String.format("There is more than one deck named %s, only the first one will"
+              + " be updated.", rs.getString(2)));
+        }
+      }
+    }
+  }
+
+  private long getOrInsertDeck(final EntityTable decks, final Map<String, Long> deckIds,
+      final String name) throws SQLException {
+    Long id = deckIds.get(name);
+    if (null == id) {
+      id = decks.insert(entityFactory.makeDeck(name));
+      deckIds.put(name, id);
+    }
+    return id;
+  }
+
+  /**
+   * Saves the cards of one color, and which decks they are in. For an incremental import, only
+   * the cards that aren't already in the database are saved, and deck memberships are compared with
+   * what's already there. What's already there is updated to match as it goes.
+   */
+  private class CardWriter {
+    private final Connection connection;
+    private final EntityTable cards;
+    private final CardsByDeck allCards;
+    private final BiFunction<String, String, Object> makeCard;
+    private final EntityMapping.Memberships memberships;
+    /**
+     * {@code null} unless this is an incremental import.
+     */
+    private final ExistingCards existing;
+
+    /**
+     * The ids cards were saved with, or were found to already have, by id in {@code allCards}. -1
+     * if not known yet.
+     */
+    private final long[] cardIds;
+    private final List<long[]> added = new ArrayList<>();
+    private final List<long[]> removed = new ArrayList<>();
+    private int inserted = 0;
+
+    /**
+     * @param property Name of the collection property on {@link PyxCardSet} for this color.
+     * @param allCards The cards of this color to save.
+     * @param makeCard Makes a card entity from the name of the deck it was first seen in and its
+     * text.
+     * @param existing The cards already in the database, for an incremental import.
+     */
+    private CardWriter(final Connection connection, final EntityTable cards,
+        final String property, final CardsByDeck allCards,
+        final BiFunction<String, String, Object> makeCard, final ExistingCards existing) {
+      this.connection = connection;
+      this.cards = cards;
+      this.allCards = allCards;
+      this.makeCard = makeCard;
+      this.existing = existing;
+      cardIds = new long[allCards.getPool().size()];
+      Arrays.fill(cardIds, -1);
+      memberships = new EntityMapping.Memberships(config, dialect, property);
+    }
+
+    private void saveDeck(final long deckId, final String deckName, final CardIdSet deckCards)
+        throws SQLException {
+      if (null == existing) {
+        for (int i = 0; i < deckCards.size(); i++) {
+          added.add(new long[] { deckId, getOrInsertCard(deckName, deckCards.get(i)) });
+        }
+        return;
+      }
+
+      final ExistingCards.Members members = existing.getMembers(deckId);
+      final LongHashMap memberHashes = new LongHashMap(members.size());
+      for (int i = 0; i < members.size(); i++) {
+        memberHashes.putIfAbsent(members.getHash(i), members.getCardId(i));
+      }
+      final LongHashMap textHashes = new LongHashMap(deckCards.size());
+      final List<long[]> addedMembers = new ArrayList<>();
+      for (int i = 0; i < deckCards.size(); i++) {
+        final long hash = ExistingCards.hash(allCards.getText(deckCards.get(i)));
+        textHashes.putIfAbsent(hash, 0);
+        if (!memberHashes.containsKey(hash)) {
+          final long cardId = getOrInsertCard(deckName, deckCards.get(i));
+          added.add(new long[] { deckId, cardId });
+          addedMembers.add(new long[] { cardId, hash });
+        }
+      }
+      final List<Long> removedMembers = new ArrayList<>();
+      for (int i = 0; i < members.size(); i++) {
+        if (!textHashes.containsKey(members.getHash(i))) {
+          removed.add(new long[] { deckId, members.getCardId(i) });
+          removedMembers.add(members.getCardId(i));
+        }
+      }
+      for (final long cardId : removedMembers) {
+        existing.removeMember(deckId, cardId);
+      }
+      for (final long[] member : addedMembers) {
+        existing.addMember(deckId, member[0], member[1]);
+      }
+    }
+
+    private long getOrInsertCard(final String deckName, final int card) throws SQLException {
+      if (cardIds[card] < 0) {
+        final String text = allCards.getText(card);
+        final long existingId = null == existing ? -1 : existing.find(text);
+        if (existingId >= 0) {
+          cardIds[card] = existingId;
+        } else {
+          cardIds[card] = cards.insert(makeCard.apply(deckName, text));
+          inserted++;
+          if (null != existing) {
+            existing.add(cardIds[card], text);
+          }
+        }
+      }
+      return cardIds[card];
+    }
+
+    private void saveMemberships() throws SQLException {
+      if (!removed.isEmpty()) {
+        try (final PreparedStatement statement = connection.prepareStatement(String.format(
+            "DELETE FROM %s WHERE %s = ? AND %s = ?", memberships.table,
+            memberships.deckColumn, memberships.cardColumn))) {
+          int pending = 0;
+          for (final long[] row : removed) {
+            statement.setLong(1, row[0]);
+            statement.setLong(2, row[1]);
+            statement.addBatch();
+            if (++pending == batchSize) {
+              statement.executeBatch();
+              pending = 0;
+            }
+          }
+          if (pending > 0) {
+            statement.executeBatch();
+          }
+        }
+      }
+
+      try (final BulkInserter inserter = new BulkInserter(connection, memberships.table,
+          memberships.columns(), batchSize)) {
+        for (final long[] row : added) {
+          inserter.add(row[0], row[1]);
+        }
+        inserter.flush();
+      }
+    }
+  }
+
+  /**
+   * Saves the cards of one color, and which decks they are in, from each piece of a pipelined
+   * import as it arrives. Every card and deck membership it has seen is kept, as ids, so that each
+   * is only saved once across all of the pieces.
+   *
+   * <p>A whole import saves decks in the order they were first seen in, so a card gets the
+   * watermark of the first of those decks that it is in. A later piece can add a card to a deck that
+   * was first seen before the one it was saved with, in which case its watermark is corrected at
+   * the end.
+   */
+  private class PartWriter implements AutoCloseable {
+    private final Connection connection;
+    private final EntityTable cards;
+    private final BiFunction<String, String, Object> makeCard;
+    private final BulkInserter memberships;
+    private final CardsByDeck seen = new CardsByDeck();
+    /**
+     * The position of each deck in the order they were first seen in.
+     */
+    private final Map<String, Integer> deckRanks = new HashMap<>();
+    private final List<String> deckNames = new ArrayList<>();
+    /**
+     * The ids cards were saved with, by id in {@code seen}.
+     */
+    private long[] cardIds = new long[0];
+    /**
+     * The rank of the deck that each card's watermark should come from, by id in {@code seen}.
+     */
+    private int[] cardRanks = new int[0];
+    /**
+     * Cards that were already saved before a deck that is ranked ahead of the one they were saved
+     * with turned up.
+     */
+    private final CardIdSet watermarksChanged = new CardIdSet();
+    private final List<long[]> added = new ArrayList<>();
+    private int inserted = 0;
+
+    /**
+     * @param property Name of the collection property on {@link PyxCardSet} for this color.
+     * @param makeCard Makes a card entity from the name of the deck it was first seen in and its
+     * text.
+     */
+    private PartWriter(final Connection connection, final EntityTable cards,
+        final String property, final BiFunction<String, String, Object> makeCard)
+        throws SQLException {
+      this.connection = connection;
+      this.cards = cards;
+      this.makeCard = makeCard;
+      final EntityMapping.Memberships mapping = new EntityMapping.Memberships(config, dialect,
+          property);
+      memberships = new BulkInserter(connection, mapping.table, mapping.columns(), batchSize);
+    }
+
+    /**
+     * Save the cards in {@code part} that haven't been seen before, and work out which deck
+     * memberships are new. Those are saved by {@link #saveMemberships()}, once the decks and cards
+     * have been written out.
+     */
+    private void savePart(final EntityTable decks, final Map<String, Long> deckIds,
+        final CardsByDeck part) throws SQLException {
+      final int knownCards = seen.getPool().size();
+      final Map<String, Integer> knownMembers = new HashMap<>();
+      for (final String deck : part.getDecks().keySet()) {
+        final CardIdSet members = seen.getDecks().get(deck);
+        knownMembers.put(deck, null == members ? 0 : members.size());
+        if (!deckRanks.containsKey(deck)) {
+          deckRanks.put(deck, deckNames.size());
+          deckNames.add(deck);
+        }
+      }
+      seen.addAll(part, UnaryOperator.identity());
+
+      final int seenCards = seen.getPool().size();
+      if (seenCards > cardIds.length) {
+        final int length = Math.max(seenCards, cardIds.length * 2);
+        cardIds = Arrays.copyOf(cardIds, length);
+        cardRanks = Arrays.copyOf(cardRanks, length);
+      }
+      Arrays.fill(cardRanks, knownCards, seenCards, Integer.MAX_VALUE);
+      for (final String deck : part.getDecks().keySet()) {
+        final int rank = deckRanks.get(deck);
+        final CardIdSet members = seen.getDecks().get(deck);
+        for (int i = knownMembers.get(deck); i < members.size(); i++) {
+          final int card = members.get(i);
+          if (rank < cardRanks[card]) {
+            cardRanks[card] = rank;
+            if (card < knownCards) {
+              watermarksChanged.add(card);
+            }
+          }
+        }
+      }
+
+      for (int card = knownCards; card < seenCards; card++) {
+        cardIds[card] = cards.insert(makeCard.apply(deckNames.get(cardRanks[card]),
+            seen.getText(card)));
+        inserted++;
+      }
+      for (final String deck : part.getDecks().keySet()) {
+        final CardIdSet members = seen.getDecks().get(deck);
+        final int known = knownMembers.get(deck);
+        if (members.size() > known) {
+          final long deckId = getOrInsertDeck(decks, deckIds, deck);
+          for (int i = known; i < members.size(); i++) {
+            added.add(new long[] { deckId, cardIds[members.get(i)] });
+          }
+        }
+      }
+    }
+
+    private void saveMemberships() throws SQLException {
+      for (final long[] row : added) {
+        memberships.add(row[0], row[1]);
+      }
+      added.clear();
+    }
+
+    /**
+     * Write out the rest of the deck memberships, and correct the watermarks of cards that turned
+     * out to be in a deck ranked ahead of the one they were saved with.
+     */
+    private void finish() throws SQLException {
+      memberships.flush();
+      if (watermarksChanged.isEmpty()) {
+        return;
+      }
+
+      LOG.info(String.format("Updating the watermarks of %d cards.", watermarksChanged.size()));
+      try (final PreparedStatement statement = connection.prepareStatement(String.format(
+          "UPDATE %s SET %s = ? WHERE %s = ?", cards.tableName(), cards.column("watermark"),
+          cards.idColumn()))) {
+        int pending = 0;
+        for (int i = 0; i < watermarksChanged.size(); i++) {
+          final int card = watermarksChanged.get(i);
+          statement.setString(1, entityFactory.getWatermark(deckNames.get(cardRanks[card]),
+              seen.getText(card)));
+          statement.setLong(2, cardIds[card]);
+          statement.addBatch();
+          if (++pending == batchSize) {
+            statement.executeBatch();
+            pending = 0;
+          }
+        }
+        if (pending > 0) {
+          statement.executeBatch();
+        }
+      }
+    }
+
+    @Override
+    public void close() throws SQLException {
+      memberships.close();
+    }
+  }
+
+  /**
+   * Inserts rows for one entity class, assigning their ids.
+   */
+  private class EntityTable implements AutoCloseable {
+    private final Connection connection;
+    private final boolean postgres;
+    private final EntityMapping mapping;
+    private final BulkInserter inserter;
+    /**
+     * The sequence to take ids from, or {@code null} if the database generates them itself.
+     */
+    private final String sequence;
+    private List<Long> reservedIds = Collections.emptyList();
+    private int nextReserved = 0;
+    private long nextId;
+
+    private EntityTable(final Connection connection, final boolean postgres,
+        final Class<?> entity) throws SQLException {
+      this.connection = connection;
+      this.postgres = postgres;
+      mapping = new EntityMapping(config, dialect, entity);
+
+      sequence = mapping.sequenceName();
+      if (null == sequence) {
+        if (!mapping.isIdentity()) {
+          throw new UnsupportedOperationException(String.format(
+              "Unable to write %s directly, it uses id generator %s.", entity.getSimpleName(),
+              mapping.generatorName()));
+        }
+        nextId = queryLong(String.format("SELECT MAX(%s) FROM %s", idColumn(), tableName())) + 1;
+      }
+
+      inserter = new BulkInserter(connection, tableName(), mapping.columns(), batchSize);
+    }
+
+    /**
+     * @return The id the entity was given.
+     */
+    private long insert(final Object entity) throws SQLException {
+      final long id = nextId();
+      inserter.add(mapping.values(id, entity));
+      return id;
+    }
+
+    /**
+     * Write out anything that is still buffered, and if ids were assigned here instead of by the
+     * database's own sequence, bring that up to date.
+     */
+    private void finish() throws SQLException {
+      flush();
+      if (null == sequence && postgres) {
+        queryLong(String.format("SELECT setval(%s, MAX(%s)) FROM %s", mapping.serialSequence(),
+            idColumn(), tableName()));
+      }
+    }
+
+    private void flush() throws SQLException {
+      inserter.flush();
+    }
+
+    @Override
+    public void close() throws SQLException {
+      inserter.close();
+    }
+
+    private String tableName() {
+      return mapping.tableName();
+    }
+
+    private String idColumn() {
+      return mapping.idColumn();
+    }
+
+    /**
+     * @return The quoted name of the column for a property of the entity.
+     */
+    private String column(final String property) {
+      return mapping.column(property);
+    }
+
+    private long nextId() throws SQLException {
+      if (null == sequence) {
+        return nextId++;
+      }
+      if (nextReserved == reservedIds.size()) {
+        reservedIds = reserveIds(batchSize);
+        nextReserved = 0;
+      }
+      return reservedIds.get(nextReserved++);
+    }
+
+    /**
+     * Take the next {@code count} values from the sequence.
+     */
+    private List<Long> reserveIds(final int count) throws SQLException {
+      final List<Long> ids = new ArrayList<>(count);
+      if (postgres) {
+        try (final Statement statement = connection.createStatement();
+            final ResultSet rs = statement.executeQuery(String.format(
+                "SELECT %s FROM generate_series(1, %d)",
+                dialect.getSelectSequenceNextValString(sequence), count))) {
+          while (rs.next()) {
+            ids.add(rs.getLong(1));
+          }
+        }
+      } else {
+        try (final PreparedStatement statement = connection.prepareStatement(
+            dialect.getSequenceNextValString(sequence))) {
+          for (int i = 0; i < count; i++) {
+            try (final ResultSet rs = statement.executeQuery()) {
+              rs.next();
+              ids.add(rs.getLong(1));
+            }
+          }
+        }
+      }
+      return ids;
+    }
+
+    private long queryLong(final String sql) throws SQLException {
+      try (final Statement statement = connection.createStatement();
+          final ResultSet rs = statement.executeQuery(sql)) {
+        rs.next();
+        return rs.getLong(1);
+      }
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.output;
+
+
+/**
+ * An open-addressed hash map from {@code long} to {@code long} that doesn't box anything, for
+ * indexes over hundreds of thousands of cards where a {@code HashMap<Long, Long>} would take
+ * several times the memory.
+ */
+class LongHashMap {
+
+  private long[] keys;
+  private long[] values;
+  private boolean[] used;
+  private int size = 0;
+
+  LongHashMap(final int expectedSize) {
+    int capacity = 16;
+    while (capacity < expectedSize * 2) {
+      capacity <<= 1;
+    }
+    keys = new long[capacity];
+    values = new long[capacity];
+    used = new boolean[capacity];
+  }
+
+  /**
+   * @return The value for {@code key}, or {@code missing} if there isn't one.
+   */
+  long get(final long key, final long missing) {
+    final int slot = find(key);
+    return used[slot] ? values[slot] : missing;
+  }
+
+  boolean containsKey(final long key) {
+    return used[find(key)];
+  }
+
+  /**
+   * Add {@code key} with {@code value}, unless it's already there.
+   *
+   * @return Whether it was added.
+   */
+  boolean putIfAbsent(final long key, final long value) {
+    final int slot = find(key);
+    if (used[slot]) {
+      return false;
+    }
+    keys[slot] = key;
+    values[slot] = value;
+    used[slot] = true;
+    if (++size * 2 > keys.length) {
+      grow();
+    }
+    return true;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return The slot holding {@code key}, or the empty slot it would go in.
+   */
+  private int find(final long key) {
+    final int mask = keys.length - 1;
+    int slot = mix(key) & mask;
+    while (used[slot] && keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void grow() {
+    final long[] oldKeys = keys;
+    final long[] oldValues = values;
+    final boolean[] oldUsed = used;
+    keys = new long[oldKeys.length * 2];
+    values = new long[oldKeys.length * 2];
+    used = new boolean[oldKeys.length * 2];
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldUsed[i]) {
+        final int slot = find(oldKeys[i]);
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+        used[slot] = true;
+      }
+    }
+  }
+
+  private static int mix(final long key) {
+    final long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.output;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import net.socialgamer.pyx.importer.Metrics;
+import net.socialgamer.pyx.importer.data.ParseResult;
+
+
+/**
+ * Saves the same import with several outputters at once, each on its own thread with its own
+ * connection. They all get the same parse result, which none of them change. One that fails does
+ * not stop the others; once they are all done, how long each one took is logged, and then the
+ * failures.
+ */
+public class MultiOutputter implements Outputter {
+  private static final Logger LOG = Logger.getLogger(MultiOutputter.class);
+
+  private final List<String> names;
+  private final List<Outputter> outputters;
+  private final List<Metrics.Timer> timers;
+
+  /**
+   * @param names Name of each outputter, for logging.
+   */
+  public MultiOutputter(final List<String> names, final List<Outputter> outputters,
+      final Metrics metrics) {
+    this.names = names;
+    this.outputters = outputters;
+    timers = new ArrayList<>(outputters.size());
+    for (int i = 0; i < outputters.size(); i++) {
+      timers.add(metrics.timer(String.format(Metrics.OUTPUT_TARGET, i)));
+    }
+  }
+
+  @Override
+  public void prepare() {
+    for (final Outputter outputter : outputters) {
+      outputter.prepare();
+    }
+  }
+
+  @Override
+  public void output(final ParseResult result) {
+    final ExecutorService executor = Executors.newFixedThreadPool(outputters.size(),
+        new ThreadFactoryBuilder().setNameFormat("output-%d").build());
+    final long[] nanos = new long[outputters.size()];
+    final Map<Integer, Throwable> failures = new TreeMap<>();
+    try {
+      final List<Future<Void>> futures = new ArrayList<>(outputters.size());
+      for (int i = 0; i < outputters.size(); i++) {
+        final int index = i;
+        futures.add(executor.submit(() -> {
+          final long start = timers.get(index).start();
+          try {
+            outputters.get(index).output(result);
+          } finally {
+            nanos[index] = System.nanoTime() - start;
+            timers.get(index).stop(start);
+          }
+          return null;
+        }));
+      }
+
+      // waiting for each of them also makes its time visible here
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          futures.get(i).get();
+        } catch (final ExecutionException e) {
+          failures.put(i, e.getCause());
+        }
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    LOG.info("Outputs:");
+    for (int i = 0; i < outputters.size(); i++) {
+      LOG.info(String.format(">%s %s in %d ms", names.get(i),
+          failures.containsKey(i) ? "failed" : "finished",
+          TimeUnit.NANOSECONDS.toMillis(nanos[i])));
+    }
+    if (!failures.isEmpty()) {
+      for (final Entry<Integer, Throwable> failure : failures.entrySet()) {
+        LOG.error(String.format("Unable to save to %s.", names.get(failure.getKey())),
+            failure.getValue());
+      }
+      throw new RuntimeException(String.format("%d of %d outputs failed.", failures.size(),
+          outputters.size()));
+    }
+  }
+}
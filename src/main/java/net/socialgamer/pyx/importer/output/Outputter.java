@@ -0,0 +1,70 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.output;
+
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+import net.socialgamer.pyx.importer.data.CardsByDeck;
+import net.socialgamer.pyx.importer.data.ParseResult;
+
+
+/**
+ * Saves the cards from an import somewhere.
+ */
+public interface Outputter {
+
+  /**
+   * Called before anything is parsed, to start anything slow that saving will need, like
+   * connecting to the database, in the background.
+   */
+  default void prepare() {
+    // nothing to start by default
+  }
+
+  /**
+   * Save everything in {@code result}.
+   *
+   * @throws RuntimeException If it couldn't all be saved, after logging why.
+   */
+  void output(ParseResult result);
+
+  /**
+   * Save an import that is handed over a piece at a time, while the rest of it is still being
+   * parsed. {@code parts} passes every piece, in order, to the consumer it is given, and returns
+   * once there are no more.
+   *
+   * <p>By default, the pieces are merged and saved together with {@link #output(ParseResult)}
+   * at the end.
+   */
+  default void output(final Consumer<Consumer<ParseResult>> parts) {
+    final CardsByDeck blackCards = new CardsByDeck();
+    final CardsByDeck whiteCards = new CardsByDeck();
+    parts.accept(part -> {
+      blackCards.addAll(part.getBlackCards(), UnaryOperator.identity());
+      whiteCards.addAll(part.getWhiteCards(), UnaryOperator.identity());
+    });
+    output(new ParseResult(blackCards, whiteCards));
+  }
+}
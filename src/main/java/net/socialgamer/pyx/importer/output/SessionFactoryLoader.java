@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.output;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import net.socialgamer.pyx.importer.Metrics;
+
+
+/**
+ * Builds the Hibernate session factory, which connects to the database, only once something
+ * needs it. Imports that never save with Hibernate don't build it at all. {@link #start()} builds
+ * it in the background instead, so that it is ready by the time parsing is done.
+ */
+@Singleton
+public class SessionFactoryLoader {
+  private static final Logger LOG = Logger.getLogger(SessionFactoryLoader.class);
+
+  private final FutureTask<SessionFactory> task;
+  private final AtomicBoolean started = new AtomicBoolean();
+
+  @Inject
+  public SessionFactoryLoader(final Configuration config, final Metrics metrics) {
+    final Metrics.Timer timer = metrics.timer(Metrics.DB_BOOTSTRAP);
+    task = new FutureTask<>(() -> {
+      final long start = timer.start();
+      try {
+        return config.buildSessionFactory();
+      } finally {
+        timer.stop(start);
+      }
+    });
+  }
+
+  /**
+   * Start building the session factory in the background, if it hasn't been already.
+   */
+  public void start() {
+    if (started.compareAndSet(false, true)) {
+      LOG.info("Starting Hibernate in the background.");
+      final Thread thread = new Thread(task, "hibernate-bootstrap");
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /**
+   * @return The session factory, building it now if {@link #start()} wasn't called, or waiting
+   *         for it to finish if it was.
+   */
+  public SessionFactory get() {
+    started.set(true);
+    // does nothing if it is already running or done
+    task.run();
+    try {
+      return task.get();
+    } catch (final ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException("Unable to start Hibernate.", e.getCause());
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while starting Hibernate.", e);
+    }
+  }
+}
@@ -0,0 +1,403 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.output;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.function.BiFunction;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.MySQLDialect;
+import org.hibernate.dialect.PostgreSQLDialect;
+
+import com.google.inject.Inject;
+
+import net.socialgamer.cah.db.PyxBlackCard;
+import net.socialgamer.cah.db.PyxCardSet;
+import net.socialgamer.cah.db.PyxWhiteCard;
+import net.socialgamer.pyx.importer.data.CardIdSet;
+import net.socialgamer.pyx.importer.data.CardsByDeck;
+import net.socialgamer.pyx.importer.data.ParseResult;
+import net.socialgamer.pyx.importer.inject.ImporterModule.BatchSize;
+import net.socialgamer.pyx.importer.inject.ImporterModule.SaveToDatabase;
+import net.socialgamer.pyx.importer.inject.ImporterModule.Schema;
+import net.socialgamer.pyx.importer.inject.ImporterModule.ScriptFile;
+
+
+/**
+ * Writes an SQL script that creates the schema and fills it with the same rows as
+ * {@link HibernateOutputter} would save, for loading into an empty database later. Table and column
+ * names, and how ids are generated, come from the Hibernate mappings, the same as
+ * {@link JdbcOutputter}.
+ *
+ * <p>The rows are written with {@code COPY ... FROM stdin} blocks for PostgreSQL, which have to be
+ * loaded with {@code psql}, and multi-row {@code INSERT}s for anything else. Everything is in one
+ * transaction. Ids are counted up from 1, and any sequences are moved past them at the end.
+ * Strings are quoted the standard SQL way, by doubling any {@code '}, which is all PostgreSQL,
+ * H2, SQLite, and most others need. MySQL also treats {@code \} as an escape by default, so that
+ * is doubled too for its dialects.
+ *
+ * <p>Rows go straight out to the file as they are made, so besides the parse results themselves,
+ * only the id each deck and card was written with is kept. The script is compressed with gzip if
+ * the file name ends in {@code .gz}.
+ */
+public class SqlScriptOutputter implements Outputter {
+  private static final Logger LOG = Logger.getLogger(SqlScriptOutputter.class);
+
+  private static final int DEFAULT_BATCH_SIZE = 100;
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final EntityFactory entityFactory;
+  private final boolean saveToDatabase;
+  private final int batchSize;
+  private final String schema;
+  private final File scriptFile;
+  private final Configuration config;
+  private final Dialect dialect;
+  private final boolean postgres;
+  private final boolean mysql;
+
+  @Inject
+  public SqlScriptOutputter(final EntityFactory entityFactory,
+      @SaveToDatabase final boolean saveToDatabase, @BatchSize final int batchSize,
+      @Schema final String schema, @ScriptFile final Optional<File> scriptFile,
+      final Configuration config, final Dialect dialect) {
+    this.entityFactory = entityFactory;
+    this.saveToDatabase = saveToDatabase;
+    this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+    this.schema = schema;
+    this.scriptFile = scriptFile.orElseThrow(() -> new RuntimeException(
+        "--output script needs a file to write to, with --script."));
+    this.config = config;
+    this.dialect = dialect;
+    postgres = dialect instanceof PostgreSQLDialect;
+    mysql = dialect instanceof MySQLDialect;
+  }
+
+  @Override
+  public void output(final ParseResult result) {
+    if (!saveToDatabase) {
+      LOG.info("Not writing script.");
+      return;
+    }
+    config.buildMappings();
+
+    final long start = System.nanoTime();
+    try (final Writer out = openScript()) {
+      out.write("BEGIN;\n");
+      out.write(schema);
+      final int[] written = write(out, result);
+      out.write("COMMIT;\n");
+
+      final long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+      LOG.info(String.format("Wrote %d black cards and %d white cards to %s in %d ms (%d"
+          + " cards/second).", written[0], written[1], scriptFile.getAbsolutePath(), millis,
+          (written[0] + written[1]) * 1000L / millis));
+    } catch (final IOException e) {
+      LOG.error("Unable to write script.", e);
+      throw new RuntimeException("Unable to write script.", e);
+    }
+  }
+
+  private Writer openScript() throws IOException {
+    OutputStream stream = Channels.newOutputStream(FileChannel.open(scriptFile.toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.WRITE));
+    if (scriptFile.getName().endsWith(".gz")) {
+      stream = new GZIPOutputStream(stream, BUFFER_SIZE);
+    }
+    return new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8),
+        BUFFER_SIZE);
+  }
+
+  /**
+   * @return How many black and white cards were written.
+   */
+  private int[] write(final Writer out, final ParseResult result) throws IOException {
+    final Map<String, Counter> sequences = new HashMap<>();
+    final EntityTable decks = new EntityTable(PyxCardSet.class, sequences);
+    final EntityTable blackCards = new EntityTable(PyxBlackCard.class, sequences);
+    final EntityTable whiteCards = new EntityTable(PyxWhiteCard.class, sequences);
+
+    // empty decks aren't created
+    LOG.info("Writing decks...");
+    final Map<String, Long> deckIds = new LinkedHashMap<>();
+    try (final TableWriter rows = new TableWriter(out, decks.tableName(), decks.columns())) {
+      for (final CardsByDeck cards : Arrays.asList(result.getBlackCards(),
+          result.getWhiteCards())) {
+        for (final Entry<String, CardIdSet> entry : cards.getDecks().entrySet()) {
+          if (!entry.getValue().isEmpty() && !deckIds.containsKey(entry.getKey())) {
+            deckIds.put(entry.getKey(), decks.write(rows, entityFactory.makeDeck(entry.getKey())));
+          }
+        }
+      }
+    }
+
+    LOG.info("Writing black cards...");
+    final long[] blackIds = writeCards(out, blackCards, result.getBlackCards(),
+        entityFactory::makeBlackCard);
+    LOG.info("Writing white cards...");
+    final long[] whiteIds = writeCards(out, whiteCards, result.getWhiteCards(),
+        entityFactory::makeWhiteCard);
+
+    LOG.info("Writing deck memberships...");
+    writeMemberships(out, "blackCards", deckIds, result.getBlackCards(), blackIds);
+    writeMemberships(out, "whiteCards", deckIds, result.getWhiteCards(), whiteIds);
+
+    for (final Entry<String, Counter> sequence : sequences.entrySet()) {
+      if (sequence.getValue().last > 0) {
+        out.write(String.format("SELECT setval('%s', %d);\n", sequence.getKey(),
+            sequence.getValue().last));
+      }
+    }
+    for (final EntityTable table : Arrays.asList(decks, blackCards, whiteCards)) {
+      table.finish(out);
+    }
+
+    return new int[] { countWritten(blackIds), countWritten(whiteIds) };
+  }
+
+  /**
+   * Write each card the first time it is seen, going through the decks in order, so it gets the
+   * watermark of the first deck it is in.
+   *
+   * @param makeCard Makes a card entity from the name of the deck it was first seen in and its
+   * text.
+   * @return The ids the cards were written with, by id in {@code allCards}.
+   */
+  private long[] writeCards(final Writer out, final EntityTable cards,
+      final CardsByDeck allCards, final BiFunction<String, String, Object> makeCard)
+      throws IOException {
+    final long[] cardIds = new long[allCards.getPool().size()];
+    try (final TableWriter rows = new TableWriter(out, cards.tableName(), cards.columns())) {
+      for (final Entry<String, CardIdSet> entry : allCards.getDecks().entrySet()) {
+        final CardIdSet deckCards = entry.getValue();
+        for (int i = 0; i < deckCards.size(); i++) {
+          final int card = deckCards.get(i);
+          if (0 == cardIds[card]) {
+            cardIds[card] = cards.write(rows, makeCard.apply(entry.getKey(),
+                allCards.getText(card)));
+          }
+        }
+      }
+    }
+    return cardIds;
+  }
+
+  /**
+   * @param property Name of the collection property on {@link PyxCardSet} for this color.
+   */
+  private void writeMemberships(final Writer out, final String property,
+      final Map<String, Long> deckIds, final CardsByDeck allCards, final long[] cardIds)
+      throws IOException {
+    final EntityMapping.Memberships memberships = new EntityMapping.Memberships(config, dialect,
+        property);
+    try (final TableWriter rows = new TableWriter(out, memberships.table,
+        memberships.columns())) {
+      for (final Entry<String, CardIdSet> entry : allCards.getDecks().entrySet()) {
+        final CardIdSet deckCards = entry.getValue();
+        for (int i = 0; i < deckCards.size(); i++) {
+          rows.add(deckIds.get(entry.getKey()), cardIds[deckCards.get(i)]);
+        }
+      }
+    }
+  }
+
+  private static int countWritten(final long[] ids) {
+    int count = 0;
+    for (final long id : ids) {
+      if (id > 0) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * The last id given out from a sequence, or for a table whose ids the database generates itself.
+   */
+  private static class Counter {
+    private long last = 0;
+  }
+
+  /**
+   * The columns of one entity class, and where its ids come from.
+   */
+  private class EntityTable {
+    private final EntityMapping mapping;
+    private final Counter ids;
+    private final boolean identity;
+
+    /**
+     * @param sequences Counters for the sequences used so far, by name, so that entities that
+     * share a sequence don't give out the same ids.
+     */
+    private EntityTable(final Class<?> entity, final Map<String, Counter> sequences) {
+      mapping = new EntityMapping(config, dialect, entity);
+
+      final String sequence = mapping.sequenceName();
+      if (null != sequence && postgres) {
+        identity = false;
+        ids = sequences.computeIfAbsent(sequence, name -> new Counter());
+      } else if (mapping.isIdentity()) {
+        identity = true;
+        ids = new Counter();
+      } else {
+        throw new UnsupportedOperationException(String.format(
+            "Unable to write a script for %s, it uses id generator %s with %s.",
+            entity.getSimpleName(), mapping.generatorName(), dialect.getClass().getSimpleName()));
+      }
+    }
+
+    /**
+     * @return The id the entity was written with.
+     */
+    private long write(final TableWriter rows, final Object entity) throws IOException {
+      final long id = ++ids.last;
+      rows.add(mapping.values(id, entity));
+      return id;
+    }
+
+    /**
+     * Bring the database's own sequence for the ids up to date, if it has one.
+     */
+    private void finish(final Writer out) throws IOException {
+      if (identity && postgres && ids.last > 0) {
+        out.write(String.format("SELECT setval(%s, %d);\n", mapping.serialSequence(), ids.last));
+      }
+    }
+
+    private String tableName() {
+      return mapping.tableName();
+    }
+
+    private List<String> columns() {
+      return mapping.columns();
+    }
+  }
+
+  /**
+   * Writes the rows for one table, as a {@code COPY} block on PostgreSQL or as {@code INSERT}s of
+   * up to {@code batchSize} rows each anywhere else.
+   */
+  private class TableWriter implements AutoCloseable {
+    private final Writer out;
+    private final String header;
+    private final StringBuilder line = new StringBuilder();
+    private int rowsInStatement = 0;
+
+    /**
+     * @param table Quoted name of the table.
+     * @param columns Quoted names of the columns that will be given for every row, in order.
+     */
+    private TableWriter(final Writer out, final String table, final List<String> columns) {
+      this.out = out;
+      if (postgres) {
+        header = String.format("COPY %s (%s) FROM stdin;\n", table, String.join(", ", columns));
+      } else {
+        header = String.format("INSERT INTO %s (%s) VALUES\n", table, String.join(", ", columns));
+      }
+    }
+
+    /**
+     * @param values One value for each column, in the order they were given to the constructor.
+     */
+    private void add(final Object... values) throws IOException {
+      line.setLength(0);
+      if (postgres) {
+        if (0 == rowsInStatement) {
+          line.append(header);
+        }
+        for (int i = 0; i < values.length; i++) {
+          if (i > 0) {
+            line.append('\t');
+          }
+          BulkInserter.appendCopyValue(line, values[i]);
+        }
+        line.append('\n');
+        rowsInStatement++;
+      } else {
+        line.append(0 == rowsInStatement ? header : ",\n").append('(');
+        for (int i = 0; i < values.length; i++) {
+          if (i > 0) {
+            line.append(", ");
+          }
+          appendLiteral(values[i]);
+        }
+        line.append(')');
+        if (++rowsInStatement == batchSize) {
+          line.append(";\n");
+          rowsInStatement = 0;
+        }
+      }
+      out.append(line);
+    }
+
+    private void appendLiteral(final Object value) {
+      if (null == value) {
+        line.append("NULL");
+      } else if (value instanceof Boolean) {
+        line.append(dialect.toBooleanValueString((Boolean) value));
+      } else if (value instanceof Number) {
+        line.append(value);
+      } else {
+        final String str = value.toString();
+        line.append('\'');
+        for (int i = 0; i < str.length(); i++) {
+          final char c = str.charAt(i);
+          if ('\'' == c || ('\\' == c && mysql)) {
+            line.append(c);
+          }
+          line.append(c);
+        }
+        line.append('\'');
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (rowsInStatement > 0) {
+        out.write(postgres ? "\\.\n" : ";\n");
+      }
+    }
+  }
+}
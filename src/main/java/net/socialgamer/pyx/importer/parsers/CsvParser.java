@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.parsers;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.log4j.Logger;
+
+import com.google.inject.Inject;
+import com.google.inject.assistedinject.Assisted;
+
+import net.socialgamer.pyx.importer.Metrics;
+import net.socialgamer.pyx.importer.RichTextToHtmlFormatHelper;
+import net.socialgamer.pyx.importer.data.StyledText;
+
+
+/**
+ * Parse a delimited text file the same way as {@link SheetParser} parses a sheet, with each record
+ * as a row and each field as a cell. Empty fields are treated as cells that aren't there. Records
+ * are read one at a time through a large buffer, so only one of them is held in memory at a time.
+ *
+ * <p>If {@code markup} is set, bold and italic are read from the text as described in
+ * {@link InlineMarkup}.
+ */
+public class CsvParser implements Parser {
+
+  private static final Logger LOG = Logger.getLogger(CsvParser.class);
+
+  private static final int READ_BUFFER_CHARS = 1 << 20;
+  private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+  private final File file;
+  private final CSVFormat format;
+  private final Charset charset;
+  private final boolean markup;
+  private final int headingNamedCount;
+  private final int nextColNamedCount;
+  private final RichTextToHtmlFormatHelper formatHelper;
+  private final Metrics metrics;
+
+  @Inject
+  public CsvParser(@Assisted("file") final File file,
+      @Assisted("format") final CSVFormat format,
+      @Assisted("charset") final Charset charset,
+      @Assisted("markup") final boolean markup,
+      @Assisted("headingNamedCount") final int headingNamedCount,
+      @Assisted("nextColNamedCount") final int nextColNamedCount,
+      final RichTextToHtmlFormatHelper formatHelper, final Metrics metrics) {
+    this.file = file;
+    this.format = format;
+    this.charset = charset;
+    this.markup = markup;
+    this.headingNamedCount = headingNamedCount;
+    this.nextColNamedCount = nextColNamedCount;
+    this.formatHelper = formatHelper;
+    this.metrics = metrics;
+    LOG.info(String.format("Created CSV parser for %s.", file.getName()));
+  }
+
+  public interface Factory {
+    CsvParser create(@Assisted("file") final File file,
+        @Assisted("format") final CSVFormat format,
+        @Assisted("charset") final Charset charset,
+        @Assisted("markup") final boolean markup,
+        @Assisted("headingNamedCount") final int headingNamedCount,
+        @Assisted("nextColNamedCount") final int nextColNamedCount);
+  }
+
+  @Override
+  public Map<String, Set<String>> getCards() {
+    final RowCollector rows = new RowCollector(headingNamedCount, nextColNamedCount,
+        formatHelper, metrics);
+    StyledText[] cells = new StyledText[16];
+    try (final Reader reader = open(); final CSVParser parser = format.parse(reader)) {
+      for (final CSVRecord record : parser) {
+        if (record.size() > cells.length) {
+          cells = new StyledText[Math.max(cells.length * 2, record.size())];
+        }
+        for (int col = 0; col < record.size(); col++) {
+          final String value = record.get(col);
+          if (value.isEmpty()) {
+            cells[col] = null;
+          } else if (markup) {
+            cells[col] = InlineMarkup.parse(value);
+          } else {
+            cells[col] = new StyledText(value);
+          }
+        }
+        rows.addRow((int) record.getRecordNumber() - 1, cells, record.size());
+      }
+    } catch (final IOException | IllegalStateException e) {
+      // commons-csv reports malformed input as IllegalStateException
+      LOG.error("Unable to read " + file, e);
+      throw new RuntimeException(e);
+    }
+    return rows.finish();
+  }
+
+  /**
+   * Open the file for reading, skipping the byte order mark that some spreadsheets write at the
+   * start of it.
+   */
+  private Reader open() throws IOException {
+    final BufferedReader reader = new BufferedReader(
+        new InputStreamReader(Files.newInputStream(file.toPath()), charset), READ_BUFFER_CHARS);
+    reader.mark(1);
+    if (BYTE_ORDER_MARK != reader.read()) {
+      reader.reset();
+    }
+    return reader;
+  }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.parsers;
+
+import net.socialgamer.pyx.importer.data.StyledText;
+
+
+/**
+ * Reads formatting from plain text that marks it inline, for sources that can't hold rich text:
+ * {@code **bold**} and {@code *italic*}. A marker that doesn't have a matching one after it is
+ * left as a literal asterisk, as is {@code \*}.
+ *
+ * <p>Marked text becomes runs the same way a spreadsheet's rich text does, so it formats to
+ * exactly the same card as a cell with the same text in bold or italic.
+ */
+final class InlineMarkup {
+
+  private InlineMarkup() {
+    // static only
+  }
+
+  static StyledText parse(final String str) {
+    if (str.indexOf('*') < 0) {
+      return new StyledText(str);
+    }
+
+    final StyledText.Builder builder = new StyledText.Builder();
+    final StringBuilder run = new StringBuilder();
+    int style = 0;
+    int i = 0;
+    while (i < str.length()) {
+      final char c = str.charAt(i);
+      if ('\\' == c && i + 1 < str.length() && '*' == str.charAt(i + 1)) {
+        run.append('*');
+        i += 2;
+        continue;
+      }
+      if ('*' == c) {
+        final int length = markerLength(str, i);
+        final int flag = 2 == length ? StyledText.BOLD : StyledText.ITALIC;
+        if (0 != (style & flag) || hasMarker(str, i + length, length)) {
+          appendRun(builder, run, style);
+          style ^= flag;
+          i += length;
+          continue;
+        }
+      }
+      run.append(c);
+      i++;
+    }
+    appendRun(builder, run, style);
+    return builder.build();
+  }
+
+  private static void appendRun(final StyledText.Builder builder, final StringBuilder run,
+      final int style) {
+    if (run.length() > 0) {
+      builder.appendRun(run, 0 == style ? 0 : style | StyledText.HAS_FONT);
+      run.setLength(0);
+    }
+  }
+
+  /**
+   * @return 2 if there is a bold marker at {@code index}, otherwise 1.
+   */
+  private static int markerLength(final String str, final int index) {
+    return index + 1 < str.length() && '*' == str.charAt(index + 1) ? 2 : 1;
+  }
+
+  /**
+   * @return True if there is an unescaped marker of {@code length} at or after {@code from}.
+   */
+  private static boolean hasMarker(final String str, final int from, final int length) {
+    int i = from;
+    while (i < str.length()) {
+      final char c = str.charAt(i);
+      if ('\\' == c && i + 1 < str.length() && '*' == str.charAt(i + 1)) {
+        i += 2;
+      } else if ('*' == c) {
+        final int found = markerLength(str, i);
+        if (found == length) {
+          return true;
+        }
+        i += found;
+      } else {
+        i++;
+      }
+    }
+    return false;
+  }
+}
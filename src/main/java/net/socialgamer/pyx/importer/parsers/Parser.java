@@ -29,4 +29,26 @@ import java.util.Set;
 
 public interface Parser {
   Map<String, Set<String>> getCards();
+
+  /**
+   * Like {@link java.util.Spliterator#trySplit()}: hand the first part of the rows this parser has
+   * left over to a new parser, so the two parts can be read at the same time. This parser keeps the
+   * rest. Merging the first part's cards with this parser's afterwards, in that order, gives the
+   * same decks in the same order as not splitting.
+   *
+   * <p>The card and duplicate counts of each part only cover that part, as a card can be in both.
+   *
+   * @return A parser for the first part of the rows, or {@code null} if the rows can't be split.
+   */
+  default Parser trySplit() {
+    return null;
+  }
+
+  /**
+   * @return About how many rows this parser has left to read, or {@link Long#MAX_VALUE} if it
+   * doesn't know.
+   */
+  default long estimateRows() {
+    return Long.MAX_VALUE;
+  }
 }
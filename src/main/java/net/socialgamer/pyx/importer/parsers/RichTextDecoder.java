@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.parsers;
+
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTRElt;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTRPrElt;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTRst;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.STUnderlineValues;
+
+import net.socialgamer.pyx.importer.data.StyledText;
+
+
+/**
+ * Reduces POI's rich text to the runs and styles that we care about, by reading its runs directly
+ * in one pass. Going through {@code XSSFRichTextString} instead finds each run again from the start
+ * every time it is asked about one, and copies the run properties into a new {@code XSSFFont} just
+ * to ask if it is bold. The result is the same as that.
+ */
+public final class RichTextDecoder {
+
+  private RichTextDecoder() {
+    // static only
+  }
+
+  public static StyledText decode(final XSSFRichTextString rtf) {
+    final CTRst st = rtf.getCTRst();
+    final CTRElt[] runs = st.getRArray();
+    if (0 == runs.length) {
+      return new StyledText(st.isSetT() ? RichTextRunReader.utfDecode(st.getT()).toString() : "");
+    }
+
+    final StyledText.Builder builder = new StyledText.Builder();
+    for (final CTRElt run : runs) {
+      builder.appendRun(RichTextRunReader.utfDecode(run.getT()), getStyle(run.getRPr()));
+    }
+    // plain text if none of the runs have any properties
+    return builder.build();
+  }
+
+  /**
+   * @param properties The run properties, or {@code null} for normal text.
+   */
+  private static int getStyle(final CTRPrElt properties) {
+    if (null == properties) {
+      return 0;
+    }
+    int style = StyledText.HAS_FONT;
+    if (properties.sizeOfBArray() > 0 && properties.getBArray(0).getVal()) {
+      style |= StyledText.BOLD;
+    }
+    if (properties.sizeOfIArray() > 0 && properties.getIArray(0).getVal()) {
+      style |= StyledText.ITALIC;
+    }
+    if (properties.sizeOfUArray() > 0
+        && STUnderlineValues.NONE != properties.getUArray(0).getVal()) {
+      style |= StyledText.UNDERLINE;
+    }
+    return style;
+  }
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.parsers;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.xml.sax.Attributes;
+
+import net.socialgamer.pyx.importer.data.StyledText;
+
+
+/**
+ * Accumulates the contents of a SpreadsheetML rich text element ({@code <si>} in the shared strings
+ * table, or {@code <is>} for an inline string) from SAX events. The owning handler forwards every
+ * event between the start and end of that element.
+ */
+class RichTextRunReader {
+
+  // same escape handling as XSSFRichTextString
+  private static final Pattern UTF_ESCAPE = Pattern.compile("_x([0-9A-Fa-f]{4})_");
+
+  private final StyledText.Builder builder = new StyledText.Builder();
+  private final StringBuilder chars = new StringBuilder();
+  private boolean inRun = false;
+  private boolean inRunProperties = false;
+  private boolean inText = false;
+  // phonetic runs have their own text elements which are not part of the cell value
+  private int phoneticDepth = 0;
+  private int runStyle = 0;
+
+  void start(final String localName, final Attributes attributes) {
+    if (phoneticDepth > 0) {
+      if ("rPh".equals(localName)) {
+        phoneticDepth++;
+      }
+      return;
+    }
+
+    switch (localName) {
+      case "rPh":
+        phoneticDepth++;
+        break;
+      case "r":
+        inRun = true;
+        runStyle = 0;
+        break;
+      case "rPr":
+        inRunProperties = true;
+        runStyle |= StyledText.HAS_FONT;
+        break;
+      case "b":
+        if (inRunProperties && isTrue(attributes.getValue("val"))) {
+          runStyle |= StyledText.BOLD;
+        }
+        break;
+      case "i":
+        if (inRunProperties && isTrue(attributes.getValue("val"))) {
+          runStyle |= StyledText.ITALIC;
+        }
+        break;
+      case "u":
+        if (inRunProperties && !"none".equals(attributes.getValue("val"))) {
+          runStyle |= StyledText.UNDERLINE;
+        }
+        break;
+      case "t":
+        inText = true;
+        chars.setLength(0);
+        break;
+      default:
+        // font name, size, color, etc. don't matter to us
+    }
+  }
+
+  void end(final String localName) {
+    if (phoneticDepth > 0) {
+      if ("rPh".equals(localName)) {
+        phoneticDepth--;
+      }
+      return;
+    }
+
+    switch (localName) {
+      case "t":
+        inText = false;
+        if (!inRun) {
+          builder.append(utfDecode(chars));
+        }
+        break;
+      case "rPr":
+        inRunProperties = false;
+        break;
+      case "r":
+        builder.appendRun(utfDecode(chars), runStyle);
+        chars.setLength(0);
+        inRun = false;
+        break;
+      default:
+        // nothing to do
+    }
+  }
+
+  void characters(final char[] ch, final int start, final int length) {
+    if (inText && phoneticDepth == 0) {
+      chars.append(ch, start, length);
+    }
+  }
+
+  /**
+   * @return The accumulated text, and reset for the next element.
+   */
+  StyledText finish() {
+    final StyledText text = builder.build();
+    builder.clear();
+    chars.setLength(0);
+    inRun = false;
+    inRunProperties = false;
+    inText = false;
+    phoneticDepth = 0;
+    return text;
+  }
+
+  private static boolean isTrue(final String value) {
+    // the attribute defaults to true if not present
+    return null == value || "1".equals(value) || "true".equals(value);
+  }
+
+  static CharSequence utfDecode(final CharSequence value) {
+    if (value.length() < 7) {
+      return value;
+    }
+    final Matcher m = UTF_ESCAPE.matcher(value);
+    if (!m.find()) {
+      return value;
+    }
+    final StringBuilder buf = new StringBuilder(value.length());
+    int idx = 0;
+    do {
+      buf.append(value, idx, m.start());
+      buf.append((char) Integer.parseInt(m.group(1), 16));
+      idx = m.end();
+    } while (m.find());
+    buf.append(value, idx, value.length());
+    return buf;
+  }
+}
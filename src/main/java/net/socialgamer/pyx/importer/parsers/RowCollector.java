@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.parsers;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import net.socialgamer.pyx.importer.Metrics;
+import net.socialgamer.pyx.importer.RichTextToHtmlFormatHelper;
+import net.socialgamer.pyx.importer.data.StyledText;
+
+
+/**
+ * Collects cards into decks a row at a time, with the same logic as {@link SheetParser#getCards()},
+ * for parsers that only have one row of cells at a time.
+ */
+class RowCollector {
+
+  private static final Logger LOG = Logger.getLogger(RowCollector.class);
+
+  private final int headingNamedCount;
+  private final int nextColNamedCount;
+  private final RichTextToHtmlFormatHelper formatHelper;
+  private final Metrics metrics;
+
+  // so we iterate decks in the same order as the sheet
+  private final Map<String, Set<String>> values = new LinkedHashMap<>();
+  // until the heading row has been added
+  private SheetLayout layout = null;
+  private int rowCount = 0;
+  private int cellCount = 0;
+  private int cardCount = 0;
+  private int duplicateCount = 0;
+
+  RowCollector(final int headingNamedCount, final int nextColNamedCount,
+      final RichTextToHtmlFormatHelper formatHelper, final Metrics metrics) {
+    this.headingNamedCount = headingNamedCount;
+    this.nextColNamedCount = nextColNamedCount;
+    this.formatHelper = formatHelper;
+    this.metrics = metrics;
+  }
+
+  /**
+   * @param rowNum Zero-based row number, for logging.
+   * @param cells The cells in the row, by column. {@code null} for a cell that isn't there.
+   * @param lastCellNum One more than the column of the last cell in the row.
+   */
+  void addRow(final int rowNum, final StyledText[] cells, final int lastCellNum) {
+    rowCount++;
+    if (null == layout) {
+      // with no heading-named columns there are no headings to find, but still skip the heading
+      // row
+      final String[] headings = new String[headingNamedCount];
+      for (int col = 0; col < lastCellNum; col++) {
+        final StyledText cell = cells[col];
+        if (null == cell) {
+          continue;
+        }
+        cellCount++;
+        final String cellValue = cell.getString().trim();
+        if (col < headingNamedCount) {
+          headings[col] = cellValue;
+        } else {
+          LOG.trace(String.format(
+              "Skipping heading for column %d as it is not heading-named (value=%s)", col,
+              cellValue));
+        }
+      }
+      if (SheetLayout.hasHeadings(headings)) {
+        layout = new SheetLayout(headingNamedCount, nextColNamedCount, headings, values);
+      }
+      return;
+    }
+
+    for (int col = 0; col < lastCellNum; col++) {
+      final StyledText cell = cells[col];
+      if (null == cell) {
+        continue;
+      }
+      cellCount++;
+      switch (layout.getRole(col)) {
+        case SheetLayout.HEADING_NAMED:
+          final String text = formatHelper.format(cell);
+          if (!text.isEmpty()) {
+            addCard(layout.getDeck(col), text);
+          }
+          break;
+        case SheetLayout.NEXT_COLUMN_CARD:
+          addNextColumnCard(rowNum, col, cell, (++col < lastCellNum) ? cells[col] : null);
+          break;
+        case SheetLayout.NEXT_COLUMN_DECK:
+          // the deck name for a card cell that isn't there
+          break;
+        case SheetLayout.NO_HEADING:
+          LOG.warn(String.format("Skipping value for row %d col %d (%s), as the column has no"
+              + " heading!", rowNum, col, cell.getString()));
+          break;
+        default:
+          LOG.warn(String.format("Skipping value for row %d col %d (%s), don't know if it should"
+              + " be heading-named or next-column-named!", rowNum, col, cell.getString()));
+      }
+    }
+  }
+
+  private void addNextColumnCard(final int rowNum, final int col, final StyledText cell,
+      final StyledText deckCell) {
+    final String text = formatHelper.format(cell);
+    final String deck = (null == deckCell) ? "" : deckCell.getString().trim();
+    if (deck.isEmpty() && !text.isEmpty()) {
+      LOG.warn(String.format("Next-column-labeled cell row %d col %d (%s) has blank deck name!",
+          rowNum, col, text));
+    } else if (!text.isEmpty()) {
+      Set<String> deckCards = values.get(deck);
+      if (null == deckCards) {
+        deckCards = new HashSet<>();
+        values.put(deck, deckCards);
+      }
+      addCard(deckCards, text);
+    }
+  }
+
+  private void addCard(final Set<String> deckCards, final String text) {
+    if (deckCards.add(text)) {
+      cardCount++;
+    } else {
+      duplicateCount++;
+    }
+  }
+
+  /**
+   * Record how many rows, cells and cards there were, once all of the rows have been added.
+   *
+   * @return The cards in each deck, with decks in the order they were first seen in.
+   */
+  Map<String, Set<String>> finish() {
+    metrics.counter(Metrics.ROWS).add(rowCount);
+    metrics.counter(Metrics.CELLS).add(cellCount);
+    metrics.counter(Metrics.CARDS).add(cardCount);
+    metrics.counter(Metrics.DUPLICATE_CARDS).add(duplicateCount);
+    return values;
+  }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.parsers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.poi.util.SAXHelper;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import net.socialgamer.pyx.importer.data.StyledText;
+
+
+/**
+ * The shared strings table of a workbook, read with SAX. Unlike POI's
+ * {@code ReadOnlySharedStringsTable}, this keeps the bold, italic, and underline runs of each
+ * string, but nothing else about their formatting.
+ */
+public class SharedRichStrings {
+
+  private final List<StyledText> strings;
+
+  private SharedRichStrings(final List<StyledText> strings) {
+    this.strings = strings;
+  }
+
+  /**
+   * @param stream The shared strings part. May be {@code null} if the workbook doesn't have one, in
+   * which case the table is empty.
+   */
+  public static SharedRichStrings read(final InputStream stream) throws IOException {
+    if (null == stream) {
+      return new SharedRichStrings(new ArrayList<>(0));
+    }
+
+    final Handler handler = new Handler();
+    try {
+      final XMLReader reader = SAXHelper.newXMLReader();
+      reader.setContentHandler(handler);
+      reader.parse(new InputSource(stream));
+    } catch (final SAXException | ParserConfigurationException e) {
+      throw new IOException("Unable to parse shared strings table", e);
+    } finally {
+      stream.close();
+    }
+    return new SharedRichStrings(handler.strings);
+  }
+
+  public StyledText get(final int index) {
+    return strings.get(index);
+  }
+
+  public int size() {
+    return strings.size();
+  }
+
+  private static class Handler extends DefaultHandler {
+    private final RichTextRunReader runReader = new RichTextRunReader();
+    private List<StyledText> strings = new ArrayList<>();
+    private boolean inItem = false;
+
+    @Override
+    public void startElement(final String uri, final String localName, final String qName,
+        final Attributes attributes) {
+      if (inItem) {
+        runReader.start(localName, attributes);
+      } else if ("si".equals(localName)) {
+        inItem = true;
+      } else if ("sst".equals(localName)) {
+        final String uniqueCount = attributes.getValue("uniqueCount");
+        if (null != uniqueCount) {
+          strings = new ArrayList<>(Integer.parseInt(uniqueCount));
+        }
+      }
+    }
+
+    @Override
+    public void endElement(final String uri, final String localName, final String qName) {
+      if ("si".equals(localName)) {
+        strings.add(runReader.finish());
+        inItem = false;
+      } else if (inItem) {
+        runReader.end(localName);
+      }
+    }
+
+    @Override
+    public void characters(final char[] ch, final int start, final int length) {
+      if (inItem) {
+        runReader.characters(ch, start, length);
+      }
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.parsers;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * What each column of a sheet holds, worked out once from the sheet's configuration and heading row
+ * instead of for every cell. Heading-named columns refer directly to the set of cards for their
+ * deck.
+ */
+final class SheetLayout {
+
+  /** Not a configured column. Its values are skipped, with a warning. */
+  static final int UNKNOWN = 0;
+  /** A heading-named column. Cards go in the deck from {@link #getDeck(int)}. */
+  static final int HEADING_NAMED = 1;
+  /** The card half of a next-column-named pair. The next column has the deck name. */
+  static final int NEXT_COLUMN_CARD = 2;
+  /** The deck name half of a next-column-named pair, where the card cell isn't there. */
+  static final int NEXT_COLUMN_DECK = 3;
+  /** A heading-named column whose heading cell isn't there. */
+  static final int NO_HEADING = 4;
+
+  private final int[] roles;
+  private final String[] headings;
+  private final Set<String>[] decks;
+
+  /**
+   * @param headings The trimmed text of the heading row for each heading-named column, or
+   *          {@code null} where the heading cell isn't there.
+   * @param values The cards in each deck. A deck is added for each heading, in column order.
+   */
+  SheetLayout(final int headingNamedCount, final int nextColNamedCount, final String[] headings,
+      final Map<String, Set<String>> values) {
+    this(getRoles(headingNamedCount, nextColNamedCount, headings), headings, values);
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private SheetLayout(final int[] roles, final String[] headings,
+      final Map<String, Set<String>> values) {
+    this.roles = roles;
+    this.headings = headings;
+    decks = new Set[headings.length];
+    for (int col = 0; col < headings.length; col++) {
+      if (null != headings[col]) {
+        // two columns with the same heading are the same deck
+        decks[col] = values.computeIfAbsent(headings[col], k -> new HashSet<>());
+      }
+    }
+  }
+
+  private static int[] getRoles(final int headingNamedCount, final int nextColNamedCount,
+      final String[] headings) {
+    final int[] roles = new int[headingNamedCount + (nextColNamedCount * 2)];
+    for (int col = 0; col < headingNamedCount; col++) {
+      roles[col] = (null == headings[col]) ? NO_HEADING : HEADING_NAMED;
+    }
+    for (int col = headingNamedCount; col < roles.length; col += 2) {
+      roles[col] = NEXT_COLUMN_CARD;
+      roles[col + 1] = NEXT_COLUMN_DECK;
+    }
+    return roles;
+  }
+
+  /**
+   * @return The same layout, with its heading-named decks added to, and collected in,
+   * {@code values} instead. For reading part of the sheet separately from the rest of it.
+   */
+  SheetLayout withValues(final Map<String, Set<String>> values) {
+    return new SheetLayout(roles, headings, values);
+  }
+
+  /**
+   * @return Whether the heading row has been found: there aren't any heading-named columns to find
+   * headings for, or at least one of them has one.
+   */
+  static boolean hasHeadings(final String[] headings) {
+    if (0 == headings.length) {
+      return true;
+    }
+    for (final String heading : headings) {
+      if (null != heading) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  int getRole(final int col) {
+    return col < roles.length ? roles[col] : UNKNOWN;
+  }
+
+  /**
+   * @return The cards in the deck for a {@link #HEADING_NAMED} column.
+   */
+  Set<String> getDeck(final int col) {
+    return decks[col];
+  }
+}
@@ -23,15 +23,19 @@
 
 package net.socialgamer.pyx.importer.parsers;
 
-import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import org.apache.log4j.Logger;
 import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DataFormatter;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.xssf.usermodel.XSSFRichTextString;
@@ -39,7 +43,10 @@ import org.apache.poi.xssf.usermodel.XSSFRichTextString;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 
+import net.socialgamer.pyx.importer.Metrics;
 import net.socialgamer.pyx.importer.RichTextToHtmlFormatHelper;
+import net.socialgamer.pyx.importer.data.StyledText;
+import net.socialgamer.pyx.importer.inject.ImporterModule.RowThreads;
 
 
 /**
@@ -49,87 +56,348 @@ import net.socialgamer.pyx.importer.RichTextToHtmlFormatHelper;
  * this case, the first row of each column is ignored.</li></ul>
  * <p>This does not know if the cards are
  * black or white, it simply parses the text.
+ * <p>Given a row pool, the rows after the heading row are split into parts that are read at the
+ * same time on it, then merged back together in row order.
  */
 public class SheetParser implements Parser {
 
   private static final Logger LOG = Logger.getLogger(SheetParser.class);
 
+  // don't bother splitting the rows up into parts smaller than this
+  private static final int MIN_PART_ROWS = 1000;
+
   private final int headingNamedCount;
   private final int nextColNamedCount;
   private final Sheet sheet;
   private final RichTextToHtmlFormatHelper formatHelper;
+  private final Metrics metrics;
+  private final Optional<ForkJoinPool> rowPool;
+  private final DataFormatter dataFormatter = new DataFormatter();
+
+  // the rows left to read, as row numbers
+  private int nextRow;
+  private final int endRow;
+  // until the heading row has been read
+  private SheetLayout layout = null;
+  private int headingRows = 0;
+  private int headingCells = 0;
 
   @Inject
   public SheetParser(@Assisted("sheet") final Sheet sheet,
       @Assisted("headingNamedCount") final int headingNamedCount,
       @Assisted("nextColNamedCount") final int nextColNamedCount,
-      final RichTextToHtmlFormatHelper formatHelper) {
+      final RichTextToHtmlFormatHelper formatHelper, final Metrics metrics,
+      @RowThreads final Optional<ForkJoinPool> rowPool) {
     this.headingNamedCount = headingNamedCount;
     this.nextColNamedCount = nextColNamedCount;
     this.sheet = sheet;
     this.formatHelper = formatHelper;
+    this.metrics = metrics;
+    this.rowPool = rowPool;
+    nextRow = sheet.getFirstRowNum();
+    endRow = sheet.getLastRowNum() + 1;
     LOG.info(String.format("Created sheet parser for %s.", sheet.getSheetName()));
   }
 
+  /**
+   * For the rows from {@code firstRow} up to {@code endRow}, which are after the heading row.
+   */
+  private SheetParser(final SheetParser parser, final int firstRow, final int endRow) {
+    headingNamedCount = parser.headingNamedCount;
+    nextColNamedCount = parser.nextColNamedCount;
+    sheet = parser.sheet;
+    formatHelper = parser.formatHelper;
+    metrics = parser.metrics;
+    rowPool = parser.rowPool;
+    layout = parser.layout;
+    nextRow = firstRow;
+    this.endRow = endRow;
+  }
+
   public interface Factory {
     SheetParser create(@Assisted("sheet") final Sheet sheet,
         @Assisted("headingNamedCount") final int headingNamedCount,
         @Assisted("nextColNamedCount") final int nextColNamedCount);
   }
 
+  /**
+   * Cards from some of the rows of a sheet, and how much was read to find them.
+   */
+  private static class Part {
+    // so we iterate decks in the same order as the sheet
+    private final Map<String, Set<String>> values = new LinkedHashMap<>();
+    private int rows = 0;
+    private int cells = 0;
+    private int cards = 0;
+    private int duplicates = 0;
+
+    /**
+     * Add the cards from the rows after this part's, as if they had been read by the same parser.
+     *
+     * @return This part.
+     */
+    private Part merge(final Part next) {
+      rows += next.rows;
+      cells += next.cells;
+      cards += next.cards;
+      duplicates += next.duplicates;
+      for (final Entry<String, Set<String>> deck : next.values.entrySet()) {
+        final Set<String> deckCards = values.get(deck.getKey());
+        if (null == deckCards) {
+          values.put(deck.getKey(), deck.getValue());
+          continue;
+        }
+        // add the smaller set to the bigger one. replacing the value keeps the deck's place.
+        final Set<String> bigger;
+        final Set<String> smaller;
+        if (deckCards.size() >= deck.getValue().size()) {
+          bigger = deckCards;
+          smaller = deck.getValue();
+        } else {
+          bigger = deck.getValue();
+          smaller = deckCards;
+          values.put(deck.getKey(), bigger);
+        }
+        final int before = bigger.size();
+        bigger.addAll(smaller);
+        // cards that both parts counted
+        final int common = smaller.size() - (bigger.size() - before);
+        cards -= common;
+        duplicates += common;
+      }
+      return this;
+    }
+  }
+
+  /**
+   * Reads one part of the rows, after splitting off earlier parts for other workers to read while
+   * there are enough rows left.
+   */
+  @SuppressWarnings("serial")
+  private static class PartTask extends RecursiveTask<Part> {
+    private final SheetParser parser;
+    private final long partRows;
+
+    private PartTask(final SheetParser parser, final long partRows) {
+      this.parser = parser;
+      this.partRows = partRows;
+    }
+
+    @Override
+    protected Part compute() {
+      if (parser.estimateRows() >= partRows * 2) {
+        final SheetParser first = parser.trySplit();
+        if (null != first) {
+          final PartTask firstTask = new PartTask(first, partRows);
+          firstTask.fork();
+          final Part rest = new PartTask(parser, partRows).compute();
+          return firstTask.join().merge(rest);
+        }
+      }
+      return parser.readRows();
+    }
+  }
+
   @Override
   public Map<String, Set<String>> getCards() {
-    final List<String> columnHeadings = new ArrayList<>();
-    // so we iterate decks in the same order as the sheet
-    final Map<String, Set<String>> values = new LinkedHashMap<>();
+    readHeadings();
+    final Part part;
+    if (rowPool.isPresent() && estimateRows() >= MIN_PART_ROWS * 2) {
+      final ForkJoinPool pool = rowPool.get();
+      // a few parts for each thread, so a thread that finishes early can take another one
+      final long partRows = Math.max(MIN_PART_ROWS,
+          estimateRows() / (pool.getParallelism() * 4));
+      part = pool.invoke(new PartTask(this, partRows));
+    } else {
+      part = readRows();
+    }
 
-    for (final Row row : sheet) {
-      final boolean firstRow = columnHeadings.isEmpty();
+    metrics.counter(Metrics.ROWS).add(headingRows + part.rows);
+    metrics.counter(Metrics.CELLS).add(headingCells + part.cells);
+    metrics.counter(Metrics.CARDS).add(part.cards);
+    metrics.counter(Metrics.DUPLICATE_CARDS).add(part.duplicates);
+    return part.values;
+  }
 
+  /**
+   * Split the rows that are left after the heading row in half. The cards and duplicates that are
+   * counted by each half aren't accurate when they are read with {@link #getCards()}, as the same
+   * card can be in both halves.
+   */
+  @Override
+  public SheetParser trySplit() {
+    readHeadings();
+    if (null == layout || endRow - nextRow < 2) {
+      return null;
+    }
+    final int middle = nextRow + ((endRow - nextRow) / 2);
+    final SheetParser first = new SheetParser(this, nextRow, middle);
+    nextRow = middle;
+    return first;
+  }
+
+  @Override
+  public long estimateRows() {
+    return endRow - nextRow;
+  }
+
+  /**
+   * Read rows until the heading row is found, if it hasn't been already.
+   */
+  private void readHeadings() {
+    while (null == layout && nextRow < endRow) {
+      final Row row = sheet.getRow(nextRow++);
+      if (null == row) {
+        continue;
+      }
+      headingRows++;
+      // with no heading-named columns there are no headings to find, but still skip the heading
+      // row
+      final String[] headings = new String[headingNamedCount];
       for (int col = 0; col < row.getLastCellNum(); col++) {
         final Cell cell = row.getCell(col);
         if (null == cell) {
           continue;
         }
-        if (firstRow) {
-          final String cellValue = cell.getStringCellValue().trim();
-          if (col < headingNamedCount) {
-            columnHeadings.add(cellValue);
-            values.put(cellValue, new HashSet<>());
-          } else {
-            LOG.trace(String.format(
-                "Skipping heading for column %d as it is not heading-named (value=%s)", col,
-                cellValue));
-          }
+        headingCells++;
+        final String cellValue = getPlainText(cell).trim();
+        if (col < headingNamedCount) {
+          headings[col] = cellValue;
         } else {
-          if (col < headingNamedCount) {
-            final XSSFRichTextString rtf = (XSSFRichTextString) cell.getRichStringCellValue();
-            final String text = formatHelper.format(rtf);
-            if (!text.isEmpty()) {
-              values.get(columnHeadings.get(col)).add(text);
-            }
-          } else if (col < headingNamedCount + (nextColNamedCount * 2)) {
-            final XSSFRichTextString rtf = (XSSFRichTextString) cell.getRichStringCellValue();
-            final String text = formatHelper.format(rtf);
-            final String deck = row.getCell(++col).getStringCellValue().trim();
-            if (deck.isEmpty() && !text.isEmpty()) {
+          LOG.trace(String.format(
+              "Skipping heading for column %d as it is not heading-named (value=%s)", col,
+              cellValue));
+        }
+      }
+      if (SheetLayout.hasHeadings(headings)) {
+        // each part adds the decks to its own map
+        layout = new SheetLayout(headingNamedCount, nextColNamedCount, headings,
+            new LinkedHashMap<>());
+      }
+    }
+  }
+
+  /**
+   * Read the rows that are left, after the heading row.
+   */
+  private Part readRows() {
+    final Part part = new Part();
+    if (null == layout) {
+      // the sheet has no heading row, so there aren't any rows left either
+      return part;
+    }
+    final SheetLayout partLayout = layout.withValues(part.values);
+    final Map<String, Set<String>> values = part.values;
+    int rows = 0;
+    int cells = 0;
+    int cards = 0;
+    int duplicates = 0;
+
+    for (; nextRow < endRow; nextRow++) {
+      final Row row = sheet.getRow(nextRow);
+      if (null == row) {
+        continue;
+      }
+      rows++;
+      final int lastCellNum = row.getLastCellNum();
+      for (int col = 0; col < lastCellNum; col++) {
+        final Cell cell = row.getCell(col);
+        if (null == cell) {
+          continue;
+        }
+        cells++;
+        final Set<String> deckCards;
+        final String text;
+        switch (partLayout.getRole(col)) {
+          case SheetLayout.HEADING_NAMED:
+            deckCards = partLayout.getDeck(col);
+            text = format(cell);
+            break;
+          case SheetLayout.NEXT_COLUMN_CARD:
+            text = format(cell);
+            final Cell deckCell = row.getCell(++col);
+            final String deck = (null == deckCell) ? "" : getPlainText(deckCell).trim();
+            if (text.isEmpty()) {
+              continue;
+            } else if (deck.isEmpty()) {
               LOG.warn(
                   String.format("Next-column-labeled cell row %d col %d (%s) has blank deck name!",
                       row.getRowNum(), col - 1, text));
-            } else if (!text.isEmpty()) {
-              if (!values.containsKey(deck)) {
-                values.put(deck, new HashSet<>());
-              }
-              values.get(deck).add(text);
+              continue;
+            }
+            Set<String> found = values.get(deck);
+            if (null == found) {
+              found = new HashSet<>();
+              values.put(deck, found);
             }
-          } else if (cell.getStringCellValue().trim() != null) {
-            LOG.warn(String.format("Skipping value for row %d col %d (%s), don't know if it should"
-                + " be heading-named or next-column-named!",
-                row.getRowNum(), col, cell.getStringCellValue()));
-          }
+            deckCards = found;
+            break;
+          case SheetLayout.NEXT_COLUMN_DECK:
+            // the deck name for a card cell that isn't there
+            continue;
+          case SheetLayout.NO_HEADING:
+            LOG.warn(String.format("Skipping value for row %d col %d (%s), as the column has no"
+                + " heading!", row.getRowNum(), col, getPlainText(cell)));
+            continue;
+          default:
+            LOG.warn(String.format("Skipping value for row %d col %d (%s), don't know if it"
+                + " should be heading-named or next-column-named!",
+                row.getRowNum(), col, getPlainText(cell)));
+            continue;
+        }
+        if (text.isEmpty()) {
+          continue;
+        }
+        if (deckCards.add(text)) {
+          cards++;
+        } else {
+          duplicates++;
         }
       }
     }
-    return values;
+
+    part.rows = rows;
+    part.cells = cells;
+    part.cards = cards;
+    part.duplicates = duplicates;
+    return part;
+  }
+
+  /**
+   * @return The cell's text converted to HTML, keeping its formatting if it is a string.
+   */
+  private String format(final Cell cell) {
+    if (CellType.STRING == getResultType(cell)) {
+      return formatHelper.format((XSSFRichTextString) cell.getRichStringCellValue());
+    } else {
+      return formatHelper.format(new StyledText(getPlainText(cell)));
+    }
+  }
+
+  /**
+   * @return The cell's text without formatting. Numbers and booleans, including the results of
+   * formulas, are shown the way Excel shows them. Blank and error cells have no text.
+   */
+  private String getPlainText(final Cell cell) {
+    switch (getResultType(cell)) {
+      case STRING:
+        return cell.getStringCellValue();
+      case NUMERIC:
+        return dataFormatter.formatRawCellContents(cell.getNumericCellValue(),
+            cell.getCellStyle().getDataFormat(), cell.getCellStyle().getDataFormatString());
+      case BOOLEAN:
+        return cell.getBooleanCellValue() ? "TRUE" : "FALSE";
+      case ERROR:
+        LOG.warn(String.format("Cell %s in sheet %s has an error value, treating it as blank.",
+            cell.getAddress(), sheet.getSheetName()));
+        return "";
+      default:
+        return "";
+    }
+  }
+
+  private static CellType getResultType(final Cell cell) {
+    final CellType type = cell.getCellTypeEnum();
+    return CellType.FORMULA == type ? cell.getCachedFormulaResultTypeEnum() : type;
   }
 }
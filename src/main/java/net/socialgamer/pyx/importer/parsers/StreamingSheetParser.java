@@ -0,0 +1,268 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.parsers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.log4j.Logger;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.SAXHelper;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.google.inject.Inject;
+import com.google.inject.assistedinject.Assisted;
+
+import net.socialgamer.pyx.importer.Metrics;
+import net.socialgamer.pyx.importer.RichTextToHtmlFormatHelper;
+import net.socialgamer.pyx.importer.data.StyledText;
+
+
+/**
+ * Parse a sheet the same way as {@link SheetParser}, but read it directly from the sheet's XML with
+ * SAX instead of from a fully-loaded workbook. Only one row of cells is held in memory at a time.
+ * Numbers, booleans, and errors come out the same as they do from {@link SheetParser}, with numbers
+ * formatted by their cell's number format from {@code styles}.
+ */
+public class StreamingSheetParser implements Parser {
+
+  private static final Logger LOG = Logger.getLogger(StreamingSheetParser.class);
+
+  private final String sheetName;
+  private final PackagePart sheetPart;
+  private final SharedRichStrings sharedStrings;
+  private final StylesTable styles;
+  private final int headingNamedCount;
+  private final int nextColNamedCount;
+  private final RichTextToHtmlFormatHelper formatHelper;
+  private final Metrics metrics;
+  private final DataFormatter dataFormatter = new DataFormatter();
+
+  @Inject
+  public StreamingSheetParser(@Assisted("sheetName") final String sheetName,
+      @Assisted("sheetPart") final PackagePart sheetPart,
+      @Assisted("sharedStrings") final SharedRichStrings sharedStrings,
+      @Assisted("styles") final StylesTable styles,
+      @Assisted("headingNamedCount") final int headingNamedCount,
+      @Assisted("nextColNamedCount") final int nextColNamedCount,
+      final RichTextToHtmlFormatHelper formatHelper, final Metrics metrics) {
+    this.sheetName = sheetName;
+    this.sheetPart = sheetPart;
+    this.sharedStrings = sharedStrings;
+    this.styles = styles;
+    this.headingNamedCount = headingNamedCount;
+    this.nextColNamedCount = nextColNamedCount;
+    this.formatHelper = formatHelper;
+    this.metrics = metrics;
+    LOG.info(String.format("Created streaming sheet parser for %s.", sheetName));
+  }
+
+  public interface Factory {
+    StreamingSheetParser create(@Assisted("sheetName") final String sheetName,
+        @Assisted("sheetPart") final PackagePart sheetPart,
+        @Assisted("sharedStrings") final SharedRichStrings sharedStrings,
+        @Assisted("styles") final StylesTable styles,
+        @Assisted("headingNamedCount") final int headingNamedCount,
+        @Assisted("nextColNamedCount") final int nextColNamedCount);
+  }
+
+  @Override
+  public Map<String, Set<String>> getCards() {
+    final RowHandler handler = new RowHandler();
+    try (final InputStream stream = sheetPart.getInputStream()) {
+      final XMLReader reader = SAXHelper.newXMLReader();
+      reader.setContentHandler(handler);
+      reader.parse(new InputSource(stream));
+    } catch (final IOException | SAXException | ParserConfigurationException e) {
+      LOG.error("Unable to read sheet " + sheetName, e);
+      throw new RuntimeException(e);
+    }
+    return handler.rows.finish();
+  }
+
+  /**
+   * Convert a cell reference like {@code AB12} to a zero-based column index.
+   */
+  static int columnIndex(final String cellRef) {
+    int col = 0;
+    for (int i = 0; i < cellRef.length(); i++) {
+      final char c = cellRef.charAt(i);
+      if (c < 'A' || c > 'Z') {
+        break;
+      }
+      col = col * 26 + (c - 'A' + 1);
+    }
+    return col - 1;
+  }
+
+  private class RowHandler extends DefaultHandler {
+    private final RowCollector rows = new RowCollector(headingNamedCount, nextColNamedCount,
+        formatHelper, metrics);
+
+    private final RichTextRunReader inlineReader = new RichTextRunReader();
+    private final StringBuilder value = new StringBuilder();
+    private StyledText[] cells = new StyledText[16];
+    private int lastCellNum = 0;
+    private int rowNum = -1;
+    private int cellCol = -1;
+    private String cellType;
+    private int cellStyle;
+    private boolean hasValue;
+    private boolean inValue = false;
+    private boolean inInlineString = false;
+    private StyledText inlineString;
+
+    @Override
+    public void startElement(final String uri, final String localName, final String qName,
+        final Attributes attributes) {
+      if (inInlineString) {
+        inlineReader.start(localName, attributes);
+        return;
+      }
+
+      switch (localName) {
+        case "row":
+          final String r = attributes.getValue("r");
+          rowNum = (null == r) ? rowNum + 1 : Integer.parseInt(r) - 1;
+          Arrays.fill(cells, 0, lastCellNum, null);
+          lastCellNum = 0;
+          cellCol = -1;
+          break;
+        case "c":
+          final String ref = attributes.getValue("r");
+          cellCol = (null == ref) ? cellCol + 1 : columnIndex(ref);
+          cellType = attributes.getValue("t");
+          final String style = attributes.getValue("s");
+          cellStyle = (null == style) ? 0 : Integer.parseInt(style);
+          hasValue = false;
+          inlineString = null;
+          break;
+        case "v":
+          inValue = true;
+          value.setLength(0);
+          break;
+        case "is":
+          inInlineString = true;
+          break;
+        default:
+          // formulas and everything else don't matter
+      }
+    }
+
+    @Override
+    public void endElement(final String uri, final String localName, final String qName) {
+      if (inInlineString) {
+        if ("is".equals(localName)) {
+          inlineString = inlineReader.finish();
+          inInlineString = false;
+        } else {
+          inlineReader.end(localName);
+        }
+        return;
+      }
+
+      switch (localName) {
+        case "v":
+          inValue = false;
+          hasValue = true;
+          break;
+        case "c":
+          endCell();
+          break;
+        case "row":
+          rows.addRow(rowNum, cells, lastCellNum);
+          break;
+        default:
+          // nothing to do
+      }
+    }
+
+    @Override
+    public void characters(final char[] ch, final int start, final int length) {
+      if (inInlineString) {
+        inlineReader.characters(ch, start, length);
+      } else if (inValue) {
+        value.append(ch, start, length);
+      }
+    }
+
+    private void endCell() {
+      final StyledText text;
+      if ("s".equals(cellType)) {
+        text = hasValue ? sharedStrings.get(Integer.parseInt(value.toString().trim()))
+            : StyledText.EMPTY;
+      } else if ("inlineStr".equals(cellType) && null != inlineString) {
+        text = inlineString;
+      } else if (hasValue) {
+        text = new StyledText(getPlainText(value.toString()));
+      } else {
+        text = StyledText.EMPTY;
+      }
+
+      if (cellCol >= cells.length) {
+        cells = Arrays.copyOf(cells, Math.max(cells.length * 2, cellCol + 1));
+      }
+      cells[cellCol] = text;
+      lastCellNum = Math.max(lastCellNum, cellCol + 1);
+    }
+
+    /**
+     * @return The text of a cell that isn't a string, or is the string result of a formula.
+     */
+    private String getPlainText(final String rawValue) {
+      switch (null == cellType ? "n" : cellType) {
+        case "n":
+          final XSSFCellStyle style = styles.getStyleAt(cellStyle);
+          if (null == style) {
+            return dataFormatter.formatRawCellContents(Double.parseDouble(rawValue), 0,
+                "General");
+          }
+          return dataFormatter.formatRawCellContents(Double.parseDouble(rawValue),
+              style.getDataFormat(), style.getDataFormatString());
+        case "b":
+          return "1".equals(rawValue.trim()) ? "TRUE" : "FALSE";
+        case "e":
+          LOG.warn(String.format("Cell %s in sheet %s has an error value, treating it as blank.",
+              new CellReference(rowNum, cellCol).formatAsString(), sheetName));
+          return "";
+        default:
+          // formula string results, and anything else, are used as their literal value
+          return rawValue;
+      }
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class FileWatcherTest {
+
+  private static final long DELAY = 200;
+
+  private Path directory;
+  private File first;
+  private File second;
+  private File other;
+  private FileWatcher watcher;
+  private Thread thread;
+  private final BlockingQueue<Set<Integer>> changes = new LinkedBlockingQueue<>();
+
+  @Before
+  public void beforeTest() throws IOException {
+    directory = Files.createTempDirectory("file-watcher");
+    first = directory.resolve("first.csv").toFile();
+    second = directory.resolve("second.csv").toFile();
+    other = directory.resolve("other.csv").toFile();
+    write(first, "first");
+  }
+
+  @After
+  public void afterTest() throws Exception {
+    if (null != watcher) {
+      watcher.close();
+      thread.join(5000);
+    }
+    for (final File file : directory.toFile().listFiles()) {
+      file.delete();
+    }
+    Files.delete(directory);
+  }
+
+  private void start(final File... files) throws IOException {
+    watcher = new FileWatcher(Arrays.asList(files), DELAY);
+    thread = new Thread(() -> {
+      try {
+        watcher.run(changes::add);
+      } catch (final InterruptedException e) {
+        // done
+      }
+    });
+    thread.start();
+  }
+
+  private static void write(final File file, final String text) throws IOException {
+    Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static Set<Integer> set(final Integer... indexes) {
+    return new TreeSet<>(Arrays.asList(indexes));
+  }
+
+  @Test
+  public void testBurstReportedOnce() throws Exception {
+    start(first, second);
+    for (int i = 0; i < 5; i++) {
+      write(first, "first " + i);
+      Thread.sleep(DELAY / 4);
+    }
+    assertEquals(set(0), changes.poll(5, TimeUnit.SECONDS));
+    assertNull(changes.poll(DELAY * 2, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testChangesReportedTogether() throws Exception {
+    start(first, second);
+    write(first, "first again");
+    write(second, "second");
+    assertEquals(set(0, 1), changes.poll(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testReplacedFile() throws Exception {
+    start(first, second);
+    final File temp = directory.resolve("second.tmp").toFile();
+    write(temp, "second");
+    Files.move(temp.toPath(), second.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    assertEquals(set(1), changes.poll(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testOtherFilesIgnored() throws Exception {
+    start(first, second);
+    write(other, "other");
+    assertNull(changes.poll(DELAY * 3, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testSameFileTwice() throws Exception {
+    start(first, second, first);
+    write(first, "first again");
+    assertEquals(set(0, 2), changes.poll(5, TimeUnit.SECONDS));
+  }
+}
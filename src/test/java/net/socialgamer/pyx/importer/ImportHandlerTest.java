@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Consumer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import net.socialgamer.pyx.importer.data.CardsByDeck;
+import net.socialgamer.pyx.importer.data.DeckInfo;
+import net.socialgamer.pyx.importer.data.ParseResult;
+import net.socialgamer.pyx.importer.filetypes.FileType;
+
+
+public class ImportHandlerTest {
+
+  private Map<String, DeckInfo> deckInfos;
+
+  @Before
+  public void beforeTest() {
+    deckInfos = new HashMap<>();
+    deckInfos.put("a", new DeckInfo("a", "Deck A", "A", 1));
+    deckInfos.put("b", new DeckInfo("b", "Deck B", "B", 2));
+  }
+
+  private static ParseResult part(final String deck, final String... blackCards) {
+    final CardsByDeck black = new CardsByDeck();
+    black.addAll(deck, Arrays.asList(blackCards));
+    return new ParseResult(black, new CardsByDeck());
+  }
+
+  /**
+   * Passes on a fixed list of pieces, then fails if {@code failure} is set.
+   */
+  private static FileType file(final RuntimeException failure, final ParseResult... parts) {
+    return new FileType(new Properties(), 0) {
+      @Override
+      public void validate() {
+        // nothing to validate
+      }
+
+      @Override
+      public ParseResult process() {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void process(final Consumer<ParseResult> consumer) {
+        for (final ParseResult part : parts) {
+          consumer.accept(part);
+        }
+        if (null != failure) {
+          throw failure;
+        }
+      }
+    };
+  }
+
+  private static String describe(final ParseResult part) {
+    final StringBuilder sb = new StringBuilder();
+    part.getBlackCards().getDecks().forEach((deck, cards) -> {
+      sb.append(deck).append(':');
+      for (int i = 0; i < cards.size(); i++) {
+        sb.append(part.getBlackCards().getText(cards.get(i))).append(',');
+      }
+    });
+    return sb.toString();
+  }
+
+  @Test
+  public void testProcessParts_InOrder() {
+    final List<FileType> files = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      files.add(file(null, part("a", "card " + i + "-0"), part("b", "card " + i + "-1"),
+          part("c", "card " + i + "-2")));
+    }
+    // more pieces than fit in the queues, on more than one thread
+    final ImportHandler handler = new ImportHandler(deckInfos, files, 3, 1);
+
+    final List<String> parts = new ArrayList<>();
+    handler.process(part -> parts.add(describe(part)));
+
+    final List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      expected.add("Deck A:card " + i + "-0,");
+      expected.add("Deck B:card " + i + "-1,");
+      // no deck info, so not renamed
+      expected.add("c:card " + i + "-2,");
+    }
+    assertEquals(expected, parts);
+  }
+
+  @Test
+  public void testProcessParts_StopsAtFailure() {
+    final RuntimeException failure = new RuntimeException("bad file");
+    final List<FileType> files = Arrays.asList(file(null, part("a", "first")),
+        file(failure, part("b", "second")), file(null, part("a", "third")));
+    final ImportHandler handler = new ImportHandler(deckInfos, files, 2, 2);
+
+    final List<String> parts = new ArrayList<>();
+    try {
+      handler.process(part -> parts.add(describe(part)));
+      fail("Expected the failure to be passed on.");
+    } catch (final RuntimeException e) {
+      assertEquals(failure, e.getCause());
+    }
+    assertEquals(Arrays.asList("Deck A:first,", "Deck B:second,"), parts);
+  }
+
+  @Test
+  public void testProcessParts_DefaultIsWholeFile() {
+    final FileType file = new FileType(new Properties(), 0) {
+      @Override
+      public void validate() {
+        // nothing to validate
+      }
+
+      @Override
+      public ParseResult process() {
+        return part("b", "only");
+      }
+    };
+    final ImportHandler handler = new ImportHandler(deckInfos, Collections.singletonList(file), 1,
+        1);
+
+    final List<String> parts = new ArrayList<>();
+    handler.process(part -> parts.add(describe(part)));
+    assertEquals(Collections.singletonList("Deck B:only,"), parts);
+  }
+}
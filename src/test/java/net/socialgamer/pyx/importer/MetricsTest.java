@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+public class MetricsTest {
+
+  @Test
+  public void testBuckets() {
+    for (long nanos = 0; nanos < 100000; nanos++) {
+      final int bucket = Metrics.Timer.bucket(nanos);
+      assertTrue(nanos <= Metrics.Timer.bucketLimit(bucket));
+      assertTrue(0 == bucket || nanos > Metrics.Timer.bucketLimit(bucket - 1));
+      // within an eighth
+      assertTrue(Metrics.Timer.bucketLimit(bucket) - nanos <= nanos / 8);
+    }
+    assertEquals(Long.MAX_VALUE, Metrics.Timer.bucketLimit(Metrics.Timer.bucket(Long.MAX_VALUE)));
+  }
+
+  @Test
+  public void testTimer() {
+    final Metrics metrics = new Metrics();
+    final Metrics.Timer timer = metrics.timer("test");
+    assertSame(timer, metrics.timer("test"));
+    assertEquals(0, timer.getPercentile(50));
+
+    for (int i = 1; i <= 100; i++) {
+      timer.record(i * 1000);
+    }
+    assertEquals(100, timer.getCount());
+    assertEquals(5050000, timer.getTotal());
+    assertEquals(50500, timer.getMean());
+    assertEquals(100000, timer.getMax());
+    assertTrue(timer.getPercentile(50) >= 50000);
+    assertTrue(timer.getPercentile(50) < 50000 * 9 / 8);
+    assertTrue(timer.getPercentile(99) >= 99000);
+    assertEquals(100000, timer.getPercentile(100));
+  }
+
+  @Test
+  public void testJson() {
+    final Metrics metrics = new Metrics();
+    metrics.counter(Metrics.CARDS).add(3);
+    metrics.counter(Metrics.CARDS).increment();
+    metrics.counter(Metrics.ROWS).add(2);
+    metrics.timer(Metrics.FORMAT).record(7);
+
+    final String json = metrics.toJson();
+    assertTrue(json, json.contains("\"counters\": {\n    \"cards\": 4,\n    \"rows\": 2\n  }"));
+    assertTrue(json, json.contains("\"format\": {\"count\": 1, \"total_ns\": 7, \"mean_ns\": 7,"
+        + " \"p50_ns\": 7, \"p90_ns\": 7, \"p99_ns\": 7, \"max_ns\": 7}"));
+  }
+}
@@ -38,10 +38,12 @@ import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTFont;
 public class RichTextToHtmlFormatHelperTest {
 
   RichTextToHtmlFormatHelper helper;
+  Metrics metrics;
 
   @SuppressWarnings("serial")
   @Before
   public void beforeTest() {
+    metrics = new Metrics();
     helper = new RichTextToHtmlFormatHelper(true, new LinkedHashMap<String, String>() {
       {
         put("&", "&amp;");
@@ -50,7 +52,7 @@ public class RichTextToHtmlFormatHelperTest {
         put("ñ", "&ntilde;");
         put("\n", "<br>");
       }
-    });
+    }, 32, metrics);
   }
 
   @Test
@@ -117,6 +119,37 @@ public class RichTextToHtmlFormatHelperTest {
     assertEquals("<b>More fun &amp; awesome bold! :&gt;</b>", helper.format(rtf));
   }
 
+  @Test
+  public void testFormat_Cached() {
+    final XSSFFont bold = newFont();
+    bold.setBold(true);
+    final XSSFRichTextString plain = new XSSFRichTextString("Fun & games");
+    final XSSFRichTextString rich = new XSSFRichTextString();
+    rich.append("Fun", bold);
+    rich.append(" & games");
+
+    assertEquals("Fun &amp; games", helper.format(plain));
+    assertEquals("Fun &amp; games", helper.format(new XSSFRichTextString(" Fun & games ")));
+    assertEquals(0, metrics.counter(Metrics.FORMAT_CACHE_HITS).get());
+    assertEquals("Fun &amp; games", helper.format(plain));
+    assertEquals(1, metrics.counter(Metrics.FORMAT_CACHE_HITS).get());
+    // same text, but the formatting is different so the cached one can't be used
+    assertEquals("<b>Fun</b> &amp; games", helper.format(rich));
+    assertEquals("<b>Fun</b> &amp; games", helper.format(rich));
+    assertEquals(1, metrics.counter(Metrics.FORMAT_CACHE_HITS).get());
+    assertEquals(4, metrics.counter(Metrics.FORMAT_CACHE_MISSES).get());
+  }
+
+  @Test
+  public void testFormat_CacheOff() {
+    helper = new RichTextToHtmlFormatHelper(true, new LinkedHashMap<>(), 0, metrics);
+    final XSSFRichTextString rtf = new XSSFRichTextString("Simple string!");
+    assertEquals("Simple string!", helper.format(rtf));
+    assertEquals("Simple string!", helper.format(rtf));
+    assertEquals(0, metrics.counter(Metrics.FORMAT_CACHE_HITS).get());
+    assertEquals(2, metrics.counter(Metrics.FORMAT_CACHE_MISSES).get());
+  }
+
   private XSSFFont newFont() {
     return new XSSFFont(CTFont.Factory.newInstance());
   }
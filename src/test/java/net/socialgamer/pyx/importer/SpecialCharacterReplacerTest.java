@@ -0,0 +1,204 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class SpecialCharacterReplacerTest {
+
+  @SuppressWarnings("serial")
+  private static final LinkedHashMap<String, String> TEMPLATE = new LinkedHashMap<String, String>() {
+    {
+      put("&", "&amp;");
+      put("<", "&lt;");
+      put(">", "&gt;");
+      put("®", "&reg;");
+      put("é", "&eacute;");
+      put("£", "&pound;");
+      put("ñ", "&ntilde;");
+      put("™", "&trade;");
+      put("✮", "&#x2605;");
+      put("✩", "&#x2606;");
+      put("’", "'");
+      put("“", "\"");
+      put("”", "\"");
+      put("\n", "<br>");
+      put("⬇", "&darr;");
+      put("⬅", "&larr;");
+      put("➡", "&rarr;");
+    }
+  };
+
+  @Test
+  public void testReplace_Template() {
+    final SpecialCharacterReplacer replacer = new SpecialCharacterReplacer(TEMPLATE,
+        new Metrics.Counter());
+    assertTrue(replacer.isSinglePass());
+    assertEquals("&lt;b&gt;Caf&eacute; &amp; more&lt;/b&gt;<br>&darr;",
+        replacer.replace("<b>Café & more</b>\n⬇"));
+    assertEquals("\"Quoted\" isn't it", replacer.replace("“Quoted” isn’t it"));
+  }
+
+  @Test
+  public void testReplace_NothingToReplace() {
+    final SpecialCharacterReplacer replacer = new SpecialCharacterReplacer(TEMPLATE,
+        new Metrics.Counter());
+    final String str = "Nothing special here.";
+    assertSame(str, replacer.replace(str));
+  }
+
+  @Test
+  public void testReplace_SameAsSequential() {
+    final SpecialCharacterReplacer replacer = new SpecialCharacterReplacer(TEMPLATE,
+        new Metrics.Counter());
+    final String alphabet = "ab &<>\n®é£ñ™✮✩’“”⬇⬅➡è";
+    final Random random = new Random(1234);
+    for (int n = 0; n < 1000; n++) {
+      final StringBuilder sb = new StringBuilder();
+      final int len = random.nextInt(20);
+      for (int i = 0; i < len; i++) {
+        sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+      }
+      final String str = sb.toString();
+      assertEquals(str, replacer.replaceSequentially(str), replacer.replace(str));
+    }
+  }
+
+  /**
+   * Whenever a set of replacements is run in a single pass, it gives the same result as applying
+   * them in order.
+   */
+  @Test
+  public void testReplace_RandomSetsSameAsSequential() {
+    final Random random = new Random(5678);
+    for (int set = 0; set < 2000; set++) {
+      final LinkedHashMap<String, String> replacements = new LinkedHashMap<>();
+      for (int i = random.nextInt(3) + 1; i > 0; i--) {
+        replacements.put(randomString(random, "abc", 1, 3), randomString(random, "abcX", 0, 3));
+      }
+      final SpecialCharacterReplacer replacer = new SpecialCharacterReplacer(replacements,
+          new Metrics.Counter());
+      if (!replacer.isSinglePass()) {
+        continue;
+      }
+      for (int n = 0; n < 50; n++) {
+        final String str = randomString(random, "abcX", 0, 10);
+        assertEquals(replacements + " " + str, replacer.replaceSequentially(str),
+            replacer.replace(str));
+      }
+    }
+  }
+
+  private static String randomString(final Random random, final String alphabet, final int min,
+      final int max) {
+    final StringBuilder sb = new StringBuilder();
+    for (int i = min + random.nextInt(max - min + 1); i > 0; i--) {
+      sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+    }
+    return sb.toString();
+  }
+
+  @SuppressWarnings("serial")
+  @Test
+  public void testReplace_MultiCharacter() {
+    final SpecialCharacterReplacer replacer = new SpecialCharacterReplacer(
+        new LinkedHashMap<String, String>() {
+          {
+            put("...", "&hellip;");
+            put("--", "&mdash;");
+            put("ab", "x");
+          }
+        }, new Metrics.Counter());
+    assertTrue(replacer.isSinglePass());
+    for (final String str : new String[] { "a..b--c", "..a.-.-b..", "....--- aab", "a-b.c" }) {
+      assertEquals(replacer.replaceSequentially(str), replacer.replace(str));
+    }
+  }
+
+  @SuppressWarnings("serial")
+  @Test
+  public void testReplace_InteractingFallsBack() {
+    // the replacement for < has an & in it, which would then get replaced again
+    final SpecialCharacterReplacer replacer = new SpecialCharacterReplacer(
+        new LinkedHashMap<String, String>() {
+          {
+            put("<", "&lt;");
+            put("&", "&amp;");
+          }
+        }, new Metrics.Counter());
+    assertFalse(replacer.isSinglePass());
+    assertEquals("&amp;lt;&amp;", replacer.replace("<&"));
+  }
+
+  @SuppressWarnings("serial")
+  @Test
+  public void testReplace_OverlappingFallsBack() {
+    final SpecialCharacterReplacer replacer = new SpecialCharacterReplacer(
+        new LinkedHashMap<String, String>() {
+          {
+            put("ab", "1");
+            put("bc", "2");
+          }
+        }, new Metrics.Counter());
+    assertFalse(replacer.isSinglePass());
+    assertEquals("1c", replacer.replace("abc"));
+  }
+
+  @SuppressWarnings("serial")
+  @Test
+  public void testReplace_ReplacementEndsLaterPatternFallsBack() {
+    // the b that X is replaced with finishes a match for ab
+    final SpecialCharacterReplacer replacer = new SpecialCharacterReplacer(
+        new LinkedHashMap<String, String>() {
+          {
+            put("X", "b");
+            put("ab", "Y");
+          }
+        }, new Metrics.Counter());
+    assertFalse(replacer.isSinglePass());
+    assertEquals("Y", replacer.replace("aX"));
+    assertEquals(replacer.replaceSequentially("aXaX"), replacer.replace("aXaX"));
+  }
+
+  @Test
+  public void testReplace_Counted() {
+    final Metrics.Counter replaced = new Metrics.Counter();
+    final SpecialCharacterReplacer replacer = new SpecialCharacterReplacer(TEMPLATE, replaced);
+    replacer.replace("Nothing special here.");
+    assertEquals(0, replaced.get());
+    replacer.replace("<b>Café & more</b>");
+    assertEquals(6, replaced.get());
+    replacer.replaceSequentially("<b>Café & more</b>");
+    assertEquals(12, replaced.get());
+  }
+}
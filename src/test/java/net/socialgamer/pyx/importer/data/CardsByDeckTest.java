@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+
+public class CardsByDeckTest {
+
+  @Test
+  public void testCardPool() {
+    final CardPool pool = new CardPool();
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i, pool.intern("card " + i));
+    }
+    // a different instance of the same text
+    assertEquals(42, pool.intern(new String("card 42")));
+    assertEquals(1000, pool.size());
+    assertEquals(999, pool.indexOf("card 999"));
+    assertEquals(-1, pool.indexOf("card 1000"));
+    assertEquals("card 7", pool.get(7));
+  }
+
+  @Test
+  public void testCardIdSet() {
+    final CardIdSet set = new CardIdSet();
+    for (int i = 999; i >= 0; i--) {
+      assertTrue(set.add(i * 3));
+    }
+    assertFalse(set.add(300));
+    assertEquals(1000, set.size());
+    assertTrue(set.contains(0));
+    assertFalse(set.contains(1));
+    // in the order they were added
+    assertEquals(2997, set.get(0));
+    assertEquals(0, set.get(999));
+  }
+
+  @Test
+  public void testAddAll() {
+    final CardsByDeck first = new CardsByDeck();
+    first.addAll("a", Arrays.asList("one", "two"));
+    first.addAll("b", Arrays.asList("two", "three"));
+    first.addAll("empty", Collections.emptyList());
+    assertEquals(3, first.getPool().size());
+
+    final CardsByDeck second = new CardsByDeck();
+    second.addAll("b", Arrays.asList("three", "four"));
+    second.addAll("c", Arrays.asList("one"));
+
+    final CardsByDeck merged = new CardsByDeck();
+    merged.addAll(first, name -> name.toUpperCase());
+    merged.addAll(second, name -> "c".equals(name) ? "A" : name.toUpperCase());
+
+    assertEquals("[A, B, EMPTY]", merged.getDecks().keySet().toString());
+    assertEquals(4, merged.getPool().size());
+    assertEquals(2, merged.getDecks().get("A").size());
+    assertEquals(3, merged.getDecks().get("B").size());
+    assertTrue(merged.getDecks().get("EMPTY").isEmpty());
+    final CardIdSet b = merged.getDecks().get("B");
+    assertEquals("two", merged.getText(b.get(0)));
+    assertEquals("three", merged.getText(b.get(1)));
+    assertEquals("four", merged.getText(b.get(2)));
+  }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.filetypes;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.socialgamer.pyx.importer.Metrics;
+import net.socialgamer.pyx.importer.RichTextToHtmlFormatHelper;
+import net.socialgamer.pyx.importer.data.CardIdSet;
+import net.socialgamer.pyx.importer.data.CardsByDeck;
+import net.socialgamer.pyx.importer.data.ParseResult;
+import net.socialgamer.pyx.importer.parsers.CsvParser;
+
+
+public class CsvFileTypeTest {
+
+  private File file;
+  private Properties props;
+  private CsvFileType fileType;
+
+  @Before
+  public void beforeTest() throws Exception {
+    file = File.createTempFile("csv-file-type", ".csv");
+    try (final Writer out = new OutputStreamWriter(new FileOutputStream(file),
+        StandardCharsets.UTF_8)) {
+      out.write("Deck\nSome **bold** text.\n");
+    }
+
+    props = new Properties();
+    props.setProperty("import.file[0].type", "csv");
+    props.setProperty("import.file[0].name", file.getPath());
+    props.setProperty("import.file[0].color", "white");
+    props.setProperty("import.file[0].heading_named_count", "1");
+
+    final RichTextToHtmlFormatHelper helper = new RichTextToHtmlFormatHelper(true,
+        new LinkedHashMap<String, String>(), 32, new Metrics());
+    final CsvParser.Factory parserFactory = (csv, format, charset, markup, headingNamedCount,
+        nextColNamedCount) -> new CsvParser(csv, format, charset, markup, headingNamedCount,
+            nextColNamedCount, helper, new Metrics());
+    fileType = new CsvFileType(props, 0, parserFactory);
+  }
+
+  @After
+  public void afterTest() {
+    file.delete();
+  }
+
+  private static String onlyCard(final ParseResult result) {
+    final CardsByDeck cards = result.getWhiteCards();
+    final CardIdSet deck = cards.getDecks().get("Deck");
+    assertEquals(1, deck.size());
+    return cards.getText(deck.get(0));
+  }
+
+  @Test
+  public void testProcess_MarkupOffByDefault() throws Exception {
+    fileType.validate();
+    assertEquals("Some **bold** text.", onlyCard(fileType.process()));
+  }
+
+  @Test
+  public void testProcess_Markup() throws Exception {
+    props.setProperty("import.file[0].markup", "true");
+    fileType.validate();
+    assertEquals("Some <b>bold</b> text.", onlyCard(fileType.process()));
+  }
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.filetypes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+public class ParseCacheTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private ParseCache cache;
+  private LinkedHashMap<String, String> replacements;
+
+  @Before
+  public void beforeTest() {
+    replacements = new LinkedHashMap<>();
+    replacements.put("&", "&amp;");
+    cache = new ParseCache(Optional.of(folder.getRoot()), 1, true, replacements);
+  }
+
+  private static Map<String, Set<String>> cards(final String deck, final String... cards) {
+    final Map<String, Set<String>> map = new LinkedHashMap<>();
+    map.put(deck, new HashSet<>(Arrays.asList(cards)));
+    return map;
+  }
+
+  private File entry(final String key) {
+    return new File(folder.getRoot(), key + ".cards");
+  }
+
+  @Test
+  public void testPutGet() {
+    final Map<String, Set<String>> cards = cards("Deck B", "Card 1", "Cárd 2 &amp; more");
+    cards.put("Deck A", new HashSet<>());
+    final String key = cache.key(new byte[] { 1, 2, 3 }, true, 2, 1);
+
+    assertNull(cache.get(key));
+    cache.put(key, cards);
+    final Map<String, Set<String>> loaded = cache.get(key);
+    assertEquals(cards, loaded);
+    // and make sure deck order is the same too
+    assertEquals(cards.keySet().toString(), loaded.keySet().toString());
+  }
+
+  @Test
+  public void testKey() {
+    final byte[] content = new byte[] { 1, 2, 3 };
+    final String key = cache.key(content, true, 2, 1);
+    assertEquals(key, cache.key(content, true, 2, 1));
+    assertNotEquals(key, cache.key(new byte[] { 1, 2, 4 }, true, 2, 1));
+    assertNotEquals(key, cache.key(content, false, 2, 1));
+    assertNotEquals(key, cache.key(content, true, 1, 2));
+    assertNotEquals(key, new ParseCache(Optional.of(folder.getRoot()), 1, false, replacements)
+        .key(content, true, 2, 1));
+    replacements.put("<", "&lt;");
+    assertNotEquals(key, new ParseCache(Optional.of(folder.getRoot()), 1, true, replacements)
+        .key(content, true, 2, 1));
+  }
+
+  @Test
+  public void testCorruptEntry() throws Exception {
+    final String key = cache.key(new byte[] { 1 });
+    cache.put(key, cards("Deck", "Card 1", "Card 2"));
+    try (final RandomAccessFile file = new RandomAccessFile(entry(key), "rw")) {
+      file.seek(file.length() - 12);
+      final int b = file.read();
+      file.seek(file.length() - 12);
+      file.write(b ^ 0xff);
+    }
+
+    assertNull(cache.get(key));
+    assertFalse(entry(key).exists());
+  }
+
+  @Test
+  public void testTruncatedEntry() throws Exception {
+    final String key = cache.key(new byte[] { 1 });
+    cache.put(key, cards("Deck", "Card 1", "Card 2"));
+    try (final RandomAccessFile file = new RandomAccessFile(entry(key), "rw")) {
+      file.setLength(file.length() / 2);
+    }
+
+    assertNull(cache.get(key));
+    assertFalse(entry(key).exists());
+  }
+
+  @Test
+  public void testEviction() {
+    // about 400 KB each, so only two fit in 1 MB
+    final String[] big = new String[4000];
+    for (int i = 0; i < big.length; i++) {
+      big[i] = String.format("%0100d", i);
+    }
+    final String a = cache.key(new byte[] { 1 });
+    final String b = cache.key(new byte[] { 2 });
+    final String c = cache.key(new byte[] { 3 });
+
+    cache.put(a, cards("A", big));
+    cache.put(b, cards("B", big));
+    final long now = System.currentTimeMillis();
+    entry(a).setLastModified(now - 20000);
+    entry(b).setLastModified(now - 10000);
+    // using it makes it the most recently used
+    assertEquals(cards("A", big), cache.get(a));
+    cache.put(c, cards("C", big));
+
+    assertTrue(entry(a).exists());
+    assertFalse(entry(b).exists());
+    assertTrue(entry(c).exists());
+  }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.filetypes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.socialgamer.pyx.importer.parsers.SharedRichStrings;
+
+
+public class SheetDigestTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * @return A workbook with a heading and one number in a cell with {@code format}.
+   */
+  private File write(final String format) throws Exception {
+    final File file = folder.newFile();
+    try (final XSSFWorkbook workbook = new XSSFWorkbook()) {
+      final XSSFCellStyle style = workbook.createCellStyle();
+      style.setDataFormat(workbook.createDataFormat().getFormat(format));
+      final XSSFRow heading = workbook.createSheet("cards").createRow(0);
+      heading.createCell(0).setCellValue("Deck");
+      heading.createCell(1).setCellValue(0.5);
+      heading.getCell(1).setCellStyle(style);
+      try (final OutputStream out = new FileOutputStream(file)) {
+        workbook.write(out);
+      }
+    }
+    return file;
+  }
+
+  private byte[] digest(final File file) throws Exception {
+    final OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ);
+    try {
+      final XSSFReader reader = new XSSFReader(pkg);
+      final SharedRichStrings strings = SharedRichStrings.read(reader.getSharedStringsData());
+      final List<PackagePart> styles = pkg.getPartsByContentType(
+          XSSFRelation.STYLES.getContentType());
+      final XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+      sheets.next().close();
+      return SheetDigest.digest(sheets.getSheetPart(), strings,
+          SheetDigest.digestStyles(styles.get(0)));
+    } finally {
+      pkg.revert();
+    }
+  }
+
+  @Test
+  public void testDigest_SameSheet() throws Exception {
+    assertArrayEquals(digest(write("0%")), digest(write("0%")));
+  }
+
+  @Test
+  public void testDigest_NumberFormatChanged() throws Exception {
+    // the cell data is the same, only the number format of its style is different
+    assertFalse(Arrays.equals(digest(write("0%")), digest(write("0.00"))));
+  }
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.output;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+
+public class BulkInserterTest {
+
+  private static String copyValue(final Object value) {
+    final StringBuilder data = new StringBuilder();
+    BulkInserter.appendCopyValue(data, value);
+    return data.toString();
+  }
+
+  @Test
+  public void testAppendCopyValue_Plain() {
+    assertEquals("Simple &amp; plain.", copyValue("Simple &amp; plain."));
+    assertEquals("42", copyValue(42L));
+  }
+
+  @Test
+  public void testAppendCopyValue_Escapes() {
+    assertEquals("a\\tb\\nc\\rd\\\\e", copyValue("a\tb\nc\rd\\e"));
+  }
+
+  @Test
+  public void testAppendCopyValue_NullAndBoolean() {
+    assertEquals("\\N", copyValue(null));
+    assertEquals("t", copyValue(true));
+    assertEquals("f", copyValue(false));
+  }
+}
@@ -0,0 +1,403 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.output;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Transaction;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.connection.DriverManagerConnectionProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Injector;
+import com.google.inject.Provides;
+
+import net.socialgamer.cah.db.PyxBlackCard;
+import net.socialgamer.cah.db.PyxWhiteCard;
+import net.socialgamer.pyx.importer.BlackCardHelper;
+import net.socialgamer.pyx.importer.data.CardsByDeck;
+import net.socialgamer.pyx.importer.data.DeckInfo;
+import net.socialgamer.pyx.importer.data.ParseResult;
+
+
+public class HibernateOutputterTest {
+
+  private static final List<String> DECKS = Arrays.asList("Deck 0", "Deck 1", "Deck 2", "Deck 3",
+      "Deck 4", "Deck 5");
+  // saving the cards in order, with each deck as a chunk, this stops after the third white card
+  // deck has been committed, part way through the fourth, which has cards from the third in it too
+  private static final int CARDS_BEFORE_FAILURE = 30 + 10 + 5 + 5 + 3;
+
+  private ParseResult result;
+  private SqliteTestDatabase database;
+  private File checkpoint;
+  private File snapshot;
+
+  @Before
+  public void beforeTest() throws Exception {
+    // each deck shares half of its cards with the one before it
+    final CardsByDeck blackCards = new CardsByDeck();
+    final CardsByDeck whiteCards = new CardsByDeck();
+    for (int deck = 0; deck < DECKS.size(); deck++) {
+      final List<String> black = new ArrayList<>();
+      final List<String> white = new ArrayList<>();
+      for (int card = deck * 5; card < deck * 5 + 10; card++) {
+        black.add(String.format("Black card %d is ____.", card));
+        white.add(String.format("White card %d.", card));
+      }
+      if (deck % 2 == 0) {
+        blackCards.addAll(DECKS.get(deck), black);
+      }
+      whiteCards.addAll(DECKS.get(deck), white);
+    }
+    result = new ParseResult(blackCards, whiteCards);
+
+    database = new SqliteTestDatabase(DECKS);
+    checkpoint = File.createTempFile("importer-test", ".checkpoint");
+    checkpoint.delete();
+    snapshot = File.createTempFile("importer-test", ".checkpoint");
+  }
+
+  @After
+  public void afterTest() {
+    database.close();
+    checkpoint.delete();
+    snapshot.delete();
+  }
+
+  /**
+   * Stops the import by failing to make any card after the first {@code limit}.
+   */
+  private static class FailingEntityFactory extends EntityFactory {
+    private final int limit;
+    private int made = 0;
+
+    FailingEntityFactory(final BlackCardHelper blackCardHelper,
+        final Map<String, DeckInfo> deckInfos, final int limit) {
+      super(blackCardHelper, deckInfos);
+      this.limit = limit;
+    }
+
+    @Override
+    public PyxBlackCard makeBlackCard(final String deckName, final String cardText) {
+      checkLimit();
+      return super.makeBlackCard(deckName, cardText);
+    }
+
+    @Override
+    public PyxWhiteCard makeWhiteCard(final String deckName, final String cardText) {
+      checkLimit();
+      return super.makeWhiteCard(deckName, cardText);
+    }
+
+    private void checkLimit() {
+      if (++made > limit) {
+        throw new IllegalStateException("Stopping the import.");
+      }
+    }
+  }
+
+  private Injector failingInjector(final int limit, final String... args) throws IOException {
+    return database.injector(new AbstractModule() {
+      @Override
+      protected void configure() {
+        // only the provider below
+      }
+
+      @Provides
+      public EntityFactory provideEntityFactory(final BlackCardHelper blackCardHelper,
+          final Map<String, DeckInfo> deckInfos) {
+        return new FailingEntityFactory(blackCardHelper, deckInfos, limit);
+      }
+    }, args);
+  }
+
+  private void outputAndFail(final Injector injector) {
+    try {
+      injector.getInstance(HibernateOutputter.class).output(result);
+      fail("The import should have stopped.");
+    } catch (final RuntimeException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Everything is in the database exactly once.
+   */
+  private void assertSaved() throws Exception {
+    assertEquals(SqliteTestDatabase.memberships(result), database.memberships());
+    assertEquals(DECKS.size(), database.count("SELECT COUNT(*) FROM card_set"));
+    assertEquals(result.getBlackCards().getPool().size(),
+        database.count("SELECT COUNT(*) FROM black_cards"));
+    assertEquals(result.getWhiteCards().getPool().size(),
+        database.count("SELECT COUNT(*) FROM white_cards"));
+  }
+
+  private String[] checkpointArgs() {
+    return new String[] { "--commit-every", "10", "--checkpoint", checkpoint.getAbsolutePath() };
+  }
+
+  @Test
+  public void testOutputBatched() throws Exception {
+    database.injector("--batch-size", "7").getInstance(HibernateOutputter.class).output(result);
+    assertSaved();
+  }
+
+  /**
+   * Keep a copy of the checkpoint from just before each commit, when it says that the chunk being
+   * committed is pending, in {@link #snapshot}.
+   */
+  private void snapshotCheckpoints(final Injector injector) {
+    injector.getInstance(Configuration.class).setInterceptor(new EmptyInterceptor() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      public void beforeTransactionCompletion(final Transaction tx) {
+        try {
+          if (checkpoint.exists()) {
+            Files.copy(checkpoint.toPath(), snapshot.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+          }
+        } catch (final IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Put back the last checkpoint from {@link #snapshotCheckpoints}.
+   *
+   * @return The checkpoint.
+   */
+  private Properties restoreSnapshot() throws IOException {
+    Files.copy(snapshot.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    final Properties props = new Properties();
+    try (final InputStream in = new FileInputStream(checkpoint)) {
+      props.load(in);
+    }
+    assertTrue(props.containsKey("pending.completed"));
+    return props;
+  }
+
+  @Test
+  public void testResume_AfterFailedChunk() throws Exception {
+    outputAndFail(failingInjector(CARDS_BEFORE_FAILURE, checkpointArgs()));
+    // the first three decks with black cards, and the second deck with white cards
+    assertEquals(4, database.count("SELECT COUNT(*) FROM card_set"));
+
+    database.injector(checkpointArgs()).getInstance(HibernateOutputter.class).output(result);
+    assertSaved();
+  }
+
+  @Test
+  public void testResume_AfterCommitBeforeCheckpoint() throws Exception {
+    final Injector injector = failingInjector(CARDS_BEFORE_FAILURE, checkpointArgs());
+    snapshotCheckpoints(injector);
+    outputAndFail(injector);
+    // as if it had stopped between committing the last chunk and recording that it had
+    restoreSnapshot();
+
+    database.injector(checkpointArgs()).getInstance(HibernateOutputter.class).output(result);
+    assertSaved();
+  }
+
+  @Test
+  public void testResume_AfterCheckpointBeforeCommit() throws Exception {
+    final Injector injector = failingInjector(CARDS_BEFORE_FAILURE, checkpointArgs());
+    snapshotCheckpoints(injector);
+    outputAndFail(injector);
+    // as if it had stopped after recording that the last chunk was pending, but before committing
+    // it. that chunk only added white cards to an existing deck.
+    final Properties props = restoreSnapshot();
+    assertEquals("WHITE", props.getProperty("pending.color"));
+    database.execute("DELETE FROM card_set_white_card WHERE card_set_id = "
+        + props.getProperty("pending.deck"),
+        "DELETE FROM white_cards WHERE id NOT IN (SELECT white_card_id FROM card_set_white_card)");
+
+    database.injector(checkpointArgs()).getInstance(HibernateOutputter.class).output(result);
+    assertSaved();
+  }
+
+  /**
+   * Put everything in the first deck. SQLite only lets one connection write at a time, and the
+   * sessions saving in parallel only commit once they have all finished, so only one of them can
+   * have anything to save.
+   */
+  private void useOneDeck() {
+    result = new ParseResult(oneDeck(result.getBlackCards()), oneDeck(result.getWhiteCards()));
+  }
+
+  private static CardsByDeck oneDeck(final CardsByDeck cards) {
+    final List<String> texts = new ArrayList<>();
+    for (int id = 0; id < cards.getPool().size(); id++) {
+      texts.add(cards.getText(id));
+    }
+    final CardsByDeck oneDeck = new CardsByDeck();
+    oneDeck.addAll(DECKS.get(0), texts);
+    return oneDeck;
+  }
+
+  private void assertEmpty() throws Exception {
+    for (final String table : Arrays.asList("card_set", "black_cards", "white_cards",
+        "card_set_black_card", "card_set_white_card")) {
+      assertEquals(table, 0, database.count("SELECT COUNT(*) FROM " + table));
+    }
+  }
+
+  @Test
+  public void testOutputParallel() throws Exception {
+    useOneDeck();
+    database.injector("--write-threads", "2").getInstance(HibernateOutputter.class)
+        .output(result);
+    assertEquals(SqliteTestDatabase.memberships(result), database.memberships());
+    assertEquals(1, database.count("SELECT COUNT(*) FROM card_set"));
+    assertEquals(result.getBlackCards().getPool().size(),
+        database.count("SELECT COUNT(*) FROM black_cards"));
+    assertEquals(result.getWhiteCards().getPool().size(),
+        database.count("SELECT COUNT(*) FROM white_cards"));
+  }
+
+  @Test
+  public void testOutputParallel_RollsBack() throws Exception {
+    useOneDeck();
+    outputAndFail(failingInjector(5, "--write-threads", "2"));
+    assertEmpty();
+  }
+
+  @Test
+  public void testOutputParallel_AfterPartialCommit() throws Exception {
+    useOneDeck();
+    final Injector injector = database.injector("--write-threads", "2");
+    injector.getInstance(Configuration.class).setProperty("hibernate.connection.provider_class",
+        FailingCommitConnectionProvider.class.getName());
+    FailingCommitConnectionProvider.reset();
+    outputAndFail(injector);
+    assertTrue(FailingCommitConnectionProvider.failed);
+    // whichever connections committed, what they committed was deleted again
+    assertEmpty();
+  }
+
+  @Test
+  public void testWriteThreads_PoolSize() throws Exception {
+    // hibernate's default of 20 is already enough
+    assertNull(database.injector("--write-threads", "2")
+        .getInstance(Configuration.class).getProperty("hibernate.connection.pool_size"));
+    assertEquals("31", database.injector("--write-threads", "30")
+        .getInstance(Configuration.class).getProperty("hibernate.connection.pool_size"));
+  }
+
+  /**
+   * Hands out connections that fail to commit once, the first time one that didn't write anything
+   * commits after one that did. With one deck saved over two sessions, either the session that
+   * saved the deck commits and the other one fails, or the deck is committed and then the first
+   * session to commit its memberships fails.
+   */
+  public static class FailingCommitConnectionProvider extends DriverManagerConnectionProvider {
+    private static volatile boolean writerCommitted;
+    private static volatile boolean failed;
+
+    static void reset() {
+      writerCommitted = false;
+      failed = false;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+      return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+          new Class<?>[] { Connection.class }, new FailingCommitHandler(super.getConnection()));
+    }
+
+    @Override
+    public void closeConnection(final Connection connection) throws SQLException {
+      super.closeConnection(((FailingCommitHandler) Proxy.getInvocationHandler(connection))
+          .connection);
+    }
+
+    private static class FailingCommitHandler implements InvocationHandler {
+      private final Connection connection;
+      private volatile boolean wrote = false;
+
+      FailingCommitHandler(final Connection connection) {
+        this.connection = connection;
+      }
+
+      @Override
+      public Object invoke(final Object proxy, final Method method, final Object[] args)
+          throws Throwable {
+        switch (method.getName()) {
+          case "createStatement":
+          case "prepareStatement":
+          case "prepareCall":
+            wrote = true;
+            break;
+          case "commit":
+            if (!wrote && writerCommitted && !failed) {
+              failed = true;
+              connection.rollback();
+              throw new SQLException("Failing to commit.");
+            }
+            break;
+          default:
+            break;
+        }
+        final Object value;
+        try {
+          value = method.invoke(connection, args);
+        } catch (final InvocationTargetException e) {
+          throw e.getCause();
+        }
+        if ("commit".equals(method.getName()) && wrote) {
+          writerCommitted = true;
+        }
+        return value;
+      }
+    }
+  }
+}
@@ -0,0 +1,223 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.output;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.inject.ProvisionException;
+
+import net.socialgamer.pyx.importer.data.CardsByDeck;
+import net.socialgamer.pyx.importer.data.ParseResult;
+
+
+public class JdbcOutputterTest {
+
+  private static final List<String> DECKS = SqliteTestDatabase.SAMPLE_DECKS;
+
+  private ParseResult result;
+  private SqliteTestDatabase database;
+
+  @Before
+  public void beforeTest() throws Exception {
+    result = SqliteTestDatabase.sampleResult();
+    database = new SqliteTestDatabase(DECKS);
+  }
+
+  @After
+  public void afterTest() {
+    database.close();
+  }
+
+  private void deleteAll() throws Exception {
+    database.execute("DELETE FROM card_set_black_card", "DELETE FROM card_set_white_card",
+        "DELETE FROM black_cards", "DELETE FROM white_cards", "DELETE FROM card_set");
+  }
+
+  @Test
+  public void testOutput_SameAsHibernate() throws Exception {
+    database.injector().getInstance(HibernateOutputter.class).output(result);
+    final List<String> expected = database.contents();
+
+    deleteAll();
+    database.injector("--output", "jdbc", "--batch-size", "2").getInstance(JdbcOutputter.class)
+        .output(result);
+    assertEquals(expected, database.contents());
+  }
+
+  @Test
+  public void testOutput_IncrementalUnchanged() throws Exception {
+    database.injector("--output", "jdbc").getInstance(JdbcOutputter.class).output(result);
+    final List<String> expected = database.contents();
+
+    database.injector("--output", "jdbc", "--incremental").getInstance(JdbcOutputter.class)
+        .output(result);
+    assertEquals(expected, database.contents());
+  }
+
+  /**
+   * @return {@code base}, with the white cards in {@code deck} replaced by {@code cards}.
+   */
+  private static ParseResult changeWhiteCards(final ParseResult base, final String deck,
+      final String... cards) {
+    final CardsByDeck whiteCards = new CardsByDeck();
+    base.getWhiteCards().getDecks().forEach((name, ids) -> {
+      final List<String> texts = new ArrayList<>();
+      if (name.equals(deck)) {
+        texts.addAll(Arrays.asList(cards));
+      } else {
+        for (int i = 0; i < ids.size(); i++) {
+          texts.add(base.getWhiteCards().getText(ids.get(i)));
+        }
+      }
+      whiteCards.addAll(name, texts);
+    });
+    return new ParseResult(base.getBlackCards(), whiteCards);
+  }
+
+  /**
+   * Save {@link #result}, then save {@code changed} incrementally, and check that the deck
+   * memberships match it. The decks are updated, not saved again.
+   *
+   * @return The ids and text of the white cards before the change.
+   */
+  private List<String> saveChanged(final ParseResult changed) throws Exception {
+    database.injector("--output", "jdbc").getInstance(JdbcOutputter.class).output(result);
+    final List<String> decks = database.rows("SELECT id, name FROM card_set ORDER BY id");
+    final List<String> whiteCards = whiteCardIds();
+
+    database.injector("--output", "jdbc", "--incremental").getInstance(JdbcOutputter.class)
+        .output(changed);
+    assertEquals(SqliteTestDatabase.memberships(changed), database.memberships());
+    assertEquals(decks, database.rows("SELECT id, name FROM card_set ORDER BY id"));
+    return whiteCards;
+  }
+
+  private List<String> whiteCardIds() throws Exception {
+    return database.rows("SELECT id, text FROM white_cards ORDER BY id");
+  }
+
+  @Test
+  public void testOutput_IncrementalNewCard() throws Exception {
+    final List<String> before = saveChanged(changeWhiteCards(result, "Deck 1", "Another card.",
+        "C:\\Windows", "''", "A new card."));
+    final List<String> after = whiteCardIds();
+    assertEquals(before.size() + 1, after.size());
+    assertEquals(before, after.subList(0, before.size()));
+    assertTrue(after.get(before.size()).endsWith("|A new card."));
+  }
+
+  @Test
+  public void testOutput_IncrementalRemovedCard() throws Exception {
+    final List<String> before = saveChanged(changeWhiteCards(result, "Deck 1", "Another card.",
+        "''"));
+    // the card itself is left alone
+    assertEquals(before, whiteCardIds());
+    assertEquals(0, database.count("SELECT COUNT(*) FROM card_set_white_card m"
+        + " JOIN white_cards c ON c.id = m.white_card_id WHERE c.text = 'C:\\Windows'"));
+  }
+
+  @Test
+  public void testOutput_IncrementalMovedCard() throws Exception {
+    final List<String> before = saveChanged(changeWhiteCards(
+        changeWhiteCards(result, "Deck 1", "Another card.", "''"),
+        "Deck 2", "<i>Italic</i> &amp; more.", "C:\\Windows"));
+    // the same card is in the other deck now
+    assertEquals(before, whiteCardIds());
+    assertEquals(Arrays.asList("Deck 2"), database.rows("SELECT d.name FROM card_set d"
+        + " JOIN card_set_white_card m ON m.card_set_id = d.id"
+        + " JOIN white_cards c ON c.id = m.white_card_id WHERE c.text = 'C:\\Windows'"));
+  }
+
+  @Test
+  public void testOutput_IncrementalEmptiedDeck() throws Exception {
+    final List<String> before = saveChanged(changeWhiteCards(result, "Deck 1"));
+    assertEquals(before, whiteCardIds());
+    assertEquals(0, database.count("SELECT COUNT(*) FROM card_set_white_card m"
+        + " JOIN card_set d ON d.id = m.card_set_id WHERE d.name = 'Deck 1'"));
+  }
+
+  @Test
+  public void testOutput_IncrementalCardFromAnotherDeck() throws Exception {
+    final List<String> before = saveChanged(changeWhiteCards(result, "Deck 1", "Another card.",
+        "C:\\Windows", "''", "It's a card."));
+    // the card that is already in the first deck is added to this one, not saved again
+    assertEquals(before, whiteCardIds());
+    assertEquals(2, database.count("SELECT COUNT(*) FROM card_set_white_card m"
+        + " JOIN white_cards c ON c.id = m.white_card_id WHERE c.text = 'It''s a card.'"));
+  }
+
+  /**
+   * The same outputter imports again the way --watch does, using what it loaded the first time.
+   */
+  @Test
+  public void testOutput_IncrementalAgain() throws Exception {
+    final JdbcOutputter outputter = database.injector("--output", "jdbc", "--incremental")
+        .getInstance(JdbcOutputter.class);
+    outputter.output(result);
+
+    final CardsByDeck blackCards = new CardsByDeck();
+    final CardsByDeck whiteCards = new CardsByDeck();
+    blackCards.addAll("Deck 0", Arrays.asList("Don't forget ____.", "____ and ____."));
+    blackCards.addAll("Deck 2", Arrays.asList("A \\ in ____."));
+    whiteCards.addAll("Deck 0", Arrays.asList("It's a card.", "A new card."));
+    whiteCards.addAll("Deck 1", Arrays.asList("Another card.", "C:\\Windows", "''"));
+    whiteCards.addAll("Deck 2", Arrays.asList("<i>Italic</i> &amp; more.", "It's a card."));
+    final ParseResult changed = new ParseResult(blackCards, whiteCards);
+    outputter.output(changed);
+    assertEquals(SqliteTestDatabase.memberships(changed), database.memberships());
+    assertEquals(6, database.count("SELECT COUNT(*) FROM white_cards"));
+
+    outputter.output(result);
+    assertEquals(SqliteTestDatabase.memberships(result), database.memberships());
+    assertEquals(DECKS.size(), database.count("SELECT COUNT(*) FROM card_set"));
+    assertEquals(3, database.count("SELECT COUNT(*) FROM black_cards"));
+    assertEquals(6, database.count("SELECT COUNT(*) FROM white_cards"));
+  }
+
+  @Test
+  public void testWatch_RequiresIncremental() throws Exception {
+    for (final String[] args : Arrays.asList(new String[] { "--watch" },
+        new String[] { "--watch", "--output", "jdbc" },
+        new String[] { "--watch", "--output", "script", "--script", "watched.sql" })) {
+      try {
+        database.injector(args).getInstance(Outputter.class);
+        fail("Watching should need --output jdbc --incremental: " + Arrays.toString(args));
+      } catch (final ProvisionException e) {
+        // expected
+      }
+    }
+    assertTrue(database.injector("--watch", "--output", "jdbc", "--incremental")
+        .getInstance(Outputter.class) instanceof JdbcOutputter);
+  }
+}
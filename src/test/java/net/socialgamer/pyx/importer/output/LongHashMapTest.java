@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.output;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class LongHashMapTest {
+
+  @Test
+  public void testPutIfAbsent() {
+    final LongHashMap map = new LongHashMap(0);
+    assertTrue(map.putIfAbsent(42, 1));
+    assertFalse(map.putIfAbsent(42, 2));
+    assertEquals(1, map.get(42, -1));
+    assertEquals(-1, map.get(43, -1));
+    assertTrue(map.containsKey(42));
+    assertFalse(map.containsKey(0));
+    assertEquals(1, map.size());
+  }
+
+  @Test
+  public void testGrow() {
+    final LongHashMap map = new LongHashMap(4);
+    final Map<Long, Long> expected = new HashMap<>();
+    final Random random = new Random(1);
+    for (int i = 0; i < 10000; i++) {
+      final long key = random.nextLong();
+      expected.putIfAbsent(key, (long) i);
+      map.putIfAbsent(key, i);
+    }
+    // keys that differ only in their high bits shouldn't all land in the same slot
+    for (long i = 0; i < 1000; i++) {
+      expected.putIfAbsent(i << 40, i);
+      map.putIfAbsent(i << 40, i);
+    }
+
+    assertEquals(expected.size(), map.size());
+    for (final Map.Entry<Long, Long> entry : expected.entrySet()) {
+      assertEquals(entry.getValue().longValue(), map.get(entry.getKey(), -1));
+    }
+  }
+}
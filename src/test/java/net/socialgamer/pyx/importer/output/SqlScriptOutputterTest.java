@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.output;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.socialgamer.pyx.importer.data.ParseResult;
+
+
+public class SqlScriptOutputterTest {
+
+  private static final List<String> DECKS = SqliteTestDatabase.SAMPLE_DECKS;
+
+  private ParseResult result;
+  private SqliteTestDatabase database;
+  private File script;
+
+  @Before
+  public void beforeTest() throws Exception {
+    result = SqliteTestDatabase.sampleResult();
+    database = new SqliteTestDatabase(DECKS);
+    script = File.createTempFile("importer-test", ".sql");
+  }
+
+  @After
+  public void afterTest() {
+    database.close();
+    script.delete();
+  }
+
+  @Test
+  public void testOutput_SameAsHibernate() throws Exception {
+    database.injector().getInstance(HibernateOutputter.class).output(result);
+    final List<String> expected = database.contents();
+    assertEquals(DECKS.size(), database.count("SELECT COUNT(*) FROM card_set"));
+
+    database.dropSchema();
+    database.injector("--output", "script", "--script", script.getAbsolutePath(),
+        "--batch-size", "2").getInstance(SqlScriptOutputter.class).output(result);
+    final String contents = new String(Files.readAllBytes(script.toPath()),
+        StandardCharsets.UTF_8);
+    // none of the cards have a statement separator in them
+    database.execute(contents.split(";\n"));
+    assertEquals(expected, database.contents());
+  }
+}
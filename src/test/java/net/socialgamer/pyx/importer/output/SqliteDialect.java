@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.output;
+
+import java.sql.Types;
+
+import org.hibernate.dialect.Dialect;
+
+
+/**
+ * Just enough of a SQLite dialect for Hibernate to create the PYX tables and save cards to them,
+ * which Hibernate doesn't come with one of. Not for use outside of tests and benchmarks.
+ */
+public class SqliteDialect extends Dialect {
+
+  public SqliteDialect() {
+    registerColumnType(Types.BIT, "integer");
+    registerColumnType(Types.BOOLEAN, "integer");
+    registerColumnType(Types.INTEGER, "integer");
+    registerColumnType(Types.BIGINT, "integer");
+    registerColumnType(Types.VARCHAR, "varchar($l)");
+    registerColumnType(Types.CLOB, "text");
+  }
+
+  @Override
+  public boolean supportsIdentityColumns() {
+    return true;
+  }
+
+  @Override
+  public boolean hasDataTypeInIdentityColumn() {
+    return false;
+  }
+
+  @Override
+  public String getIdentityColumnString() {
+    return "integer";
+  }
+
+  @Override
+  public String getIdentitySelectString() {
+    return "select last_insert_rowid()";
+  }
+
+  @Override
+  public boolean hasAlterTable() {
+    return false;
+  }
+
+  @Override
+  public boolean dropConstraints() {
+    return false;
+  }
+
+  @Override
+  public boolean supportsIfExistsBeforeTableName() {
+    return true;
+  }
+}
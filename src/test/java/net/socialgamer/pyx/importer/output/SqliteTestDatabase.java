@@ -0,0 +1,253 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.output;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+
+import org.hibernate.cfg.Configuration;
+import org.hibernate.dialect.Dialect;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Module;
+import com.google.inject.util.Modules;
+
+import net.socialgamer.pyx.importer.Options;
+import net.socialgamer.pyx.importer.data.CardsByDeck;
+import net.socialgamer.pyx.importer.data.ParseResult;
+import net.socialgamer.pyx.importer.inject.ImporterModule;
+
+
+/**
+ * A SQLite database in a temporary file, with the PYX tables in it, and importer configuration
+ * for saving to it.
+ */
+class SqliteTestDatabase implements Closeable {
+
+  private final File databaseFile;
+  private final File confFile;
+  private final String url;
+  private final Configuration config;
+  private final Dialect dialect;
+  private final List<Injector> injectors = new ArrayList<>();
+
+  /**
+   * The decks {@link #sampleResult()} has cards in.
+   */
+  static final List<String> SAMPLE_DECKS = Arrays.asList("Deck 0", "Deck 1", "Deck 2");
+
+  /**
+   * @return A few cards, some of them in more than one deck, with quotes and backslashes in some.
+   */
+  static ParseResult sampleResult() {
+    final CardsByDeck blackCards = new CardsByDeck();
+    final CardsByDeck whiteCards = new CardsByDeck();
+    blackCards.addAll("Deck 0", Arrays.asList("Don't forget ____.", "____ and ____."));
+    blackCards.addAll("Deck 2", Arrays.asList("____ and ____.", "A \\ in ____."));
+    whiteCards.addAll("Deck 0", Arrays.asList("It's a card.", "Another card."));
+    whiteCards.addAll("Deck 1", Arrays.asList("Another card.", "C:\\Windows", "''"));
+    whiteCards.addAll("Deck 2", Arrays.asList("<i>Italic</i> &amp; more."));
+    return new ParseResult(blackCards, whiteCards);
+  }
+
+  /**
+   * @param decks Every deck that will be saved, so they all have deck info.
+   */
+  SqliteTestDatabase(final Collection<String> decks) throws IOException, SQLException {
+    databaseFile = File.createTempFile("importer-test", ".sqlite");
+    url = "jdbc:sqlite:" + databaseFile.getAbsolutePath();
+
+    final Properties props = new Properties();
+    props.setProperty("hibernate.dialect", SqliteDialect.class.getName());
+    props.setProperty("hibernate.driver_class", "org.sqlite.JDBC");
+    props.setProperty("hibernate.url", url);
+    props.setProperty("hibernate.username", "");
+    props.setProperty("hibernate.password", "");
+    props.setProperty("hibernate.sql.show", "false");
+    props.setProperty("hibernate.sql.format", "false");
+    int count = 0;
+    for (final String deck : decks) {
+      props.setProperty(String.format("deckinfo[%d].id", count), deck);
+      props.setProperty(String.format("deckinfo[%d].watermark", count), "W" + count);
+      props.setProperty(String.format("deckinfo[%d].weight", count), String.valueOf(count));
+      count++;
+    }
+    props.setProperty("deckinfo.count", String.valueOf(count));
+    confFile = File.createTempFile("importer-test", ".properties");
+    try (final OutputStream out = new FileOutputStream(confFile)) {
+      props.store(out, null);
+    }
+
+    final Injector injector = createInjector(Modules.EMPTY_MODULE);
+    config = injector.getInstance(Configuration.class);
+    dialect = injector.getInstance(Dialect.class);
+    execute(config.generateSchemaCreationScript(dialect));
+  }
+
+  /**
+   * Drop all of the PYX tables, for something that creates them itself.
+   */
+  void dropSchema() throws SQLException {
+    execute(config.generateDropSchemaScript(dialect));
+  }
+
+  /**
+   * @param args Command line arguments, other than the configuration file.
+   */
+  Injector injector(final String... args) throws IOException {
+    return injector(Modules.EMPTY_MODULE, args);
+  }
+
+  /**
+   * @param overrides Bindings to use instead of the importer's own.
+   * @param args Command line arguments, other than the configuration file.
+   */
+  Injector injector(final Module overrides, final String... args) throws IOException {
+    final Injector injector = createInjector(overrides, args);
+    injectors.add(injector);
+    return injector;
+  }
+
+  private Injector createInjector(final Module overrides, final String... args)
+      throws IOException {
+    final List<String> allArgs = new ArrayList<>(Arrays.asList("-c", confFile.getAbsolutePath()));
+    allArgs.addAll(Arrays.asList(args));
+    return Guice.createInjector(Modules.override(
+        new ImporterModule(new Options(allArgs.toArray(new String[allArgs.size()]))))
+        .with(overrides));
+  }
+
+  void execute(final String... script) throws SQLException {
+    try (final Connection connection = DriverManager.getConnection(url);
+        final Statement statement = connection.createStatement()) {
+      for (final String sql : script) {
+        statement.execute(sql);
+      }
+    }
+  }
+
+  /**
+   * @return The single number {@code sql} selects.
+   */
+  long count(final String sql) throws SQLException {
+    try (final Connection connection = DriverManager.getConnection(url);
+        final Statement statement = connection.createStatement();
+        final ResultSet results = statement.executeQuery(sql)) {
+      results.next();
+      return results.getLong(1);
+    }
+  }
+
+  /**
+   * @return Every row {@code sql} selects, with the columns separated by {@code |}.
+   */
+  List<String> rows(final String sql) throws SQLException {
+    final List<String> rows = new ArrayList<>();
+    try (final Connection connection = DriverManager.getConnection(url);
+        final Statement statement = connection.createStatement();
+        final ResultSet results = statement.executeQuery(sql)) {
+      final int columns = results.getMetaData().getColumnCount();
+      while (results.next()) {
+        final StringBuilder row = new StringBuilder();
+        for (int i = 1; i <= columns; i++) {
+          if (i > 1) {
+            row.append('|');
+          }
+          row.append(results.getString(i));
+        }
+        rows.add(row.toString());
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * @return Every card in every deck, as deck name, color and card text.
+   */
+  List<String> memberships() throws SQLException {
+    final List<String> rows = rows("SELECT d.name, 'black', c.text FROM card_set d"
+        + " JOIN card_set_black_card m ON m.card_set_id = d.id"
+        + " JOIN black_cards c ON c.id = m.black_card_id");
+    rows.addAll(rows("SELECT d.name, 'white', c.text FROM card_set d"
+        + " JOIN card_set_white_card m ON m.card_set_id = d.id"
+        + " JOIN white_cards c ON c.id = m.white_card_id"));
+    rows.sort(null);
+    return rows;
+  }
+
+  /**
+   * @return What {@link #memberships()} should be once {@code result} is saved.
+   */
+  static List<String> memberships(final ParseResult result) {
+    final List<String> rows = new ArrayList<>();
+    for (final String color : Arrays.asList("black", "white")) {
+      final CardsByDeck cards = "black".equals(color) ? result.getBlackCards()
+          : result.getWhiteCards();
+      cards.getDecks().forEach((deck, ids) -> {
+        for (int i = 0; i < ids.size(); i++) {
+          rows.add(deck + "|" + color + "|" + cards.getText(ids.get(i)));
+        }
+      });
+    }
+    rows.sort(null);
+    return rows;
+  }
+
+  /**
+   * @return Every deck, card, and deck membership, without their ids.
+   */
+  List<String> contents() throws SQLException {
+    final List<String> rows = new ArrayList<>();
+    rows.addAll(rows("SELECT name, description, active, base_deck, weight FROM card_set"
+        + " ORDER BY name"));
+    rows.addAll(rows("SELECT text, draw, pick, watermark FROM black_cards ORDER BY text"));
+    rows.addAll(rows("SELECT text, watermark FROM white_cards ORDER BY text"));
+    rows.addAll(memberships());
+    return rows;
+  }
+
+  @Override
+  public void close() {
+    for (final Injector injector : injectors) {
+      // so the database file isn't still open
+      injector.getInstance(SessionFactoryLoader.class).get().close();
+    }
+    databaseFile.delete();
+    confFile.delete();
+  }
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.parsers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.poi.xssf.usermodel.XSSFFont;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.socialgamer.pyx.importer.Metrics;
+import net.socialgamer.pyx.importer.RichTextToHtmlFormatHelper;
+import net.socialgamer.pyx.importer.data.StyledText;
+
+
+public class CsvParserTest {
+
+  private File file;
+  private RichTextToHtmlFormatHelper helper;
+
+  @SuppressWarnings("serial")
+  @Before
+  public void beforeTest() throws Exception {
+    helper = new RichTextToHtmlFormatHelper(true, new LinkedHashMap<String, String>() {
+      {
+        put("&", "&amp;");
+        put("ñ", "&ntilde;");
+      }
+    }, 32, new Metrics());
+    file = File.createTempFile("csv-parser", ".csv");
+  }
+
+  @After
+  public void afterTest() {
+    file.delete();
+  }
+
+  private void write(final String contents) throws Exception {
+    try (final Writer out = new OutputStreamWriter(new FileOutputStream(file),
+        StandardCharsets.UTF_8)) {
+      out.write(contents);
+    }
+  }
+
+  private Map<String, Set<String>> parse(final CSVFormat format, final boolean markup) {
+    return new CsvParser(file, format, StandardCharsets.UTF_8, markup, 2, 1, helper,
+        new Metrics()).getCards();
+  }
+
+  @Test
+  public void testGetCards_SameAsSheetParser() throws Exception {
+    final File xlsx = File.createTempFile("csv-parser", ".xlsx");
+    try {
+      final Map<String, Set<String>> expected;
+      try (final XSSFWorkbook workbook = new XSSFWorkbook()) {
+        final XSSFFont bold = workbook.createFont();
+        bold.setBold(true);
+        final XSSFFont italic = workbook.createFont();
+        italic.setItalic(true);
+
+        final XSSFSheet sheet = workbook.createSheet("cards");
+        final XSSFRow headings = sheet.createRow(0);
+        headings.createCell(0).setCellValue("Deck A ");
+        headings.createCell(1).setCellValue("Deck B");
+        headings.createCell(2).setCellValue("ignored");
+
+        final XSSFRow row1 = sheet.createRow(1);
+        row1.createCell(0).setCellValue("Plain & simple.");
+        final XSSFRichTextString rich = new XSSFRichTextString();
+        rich.append("Some ");
+        rich.append("bold", bold);
+        rich.append(" and ");
+        rich.append("fancy", italic);
+        rich.append(" text.");
+        row1.createCell(1).setCellValue(rich);
+        row1.createCell(2).setCellValue("Mañana");
+        row1.createCell(3).setCellValue("Deck C");
+
+        final XSSFRow row2 = sheet.createRow(2);
+        row2.createCell(1).setCellValue("Plain & simple.");
+        row2.createCell(2).setCellValue("No deck");
+        row2.createCell(3);
+        row2.createCell(4).setCellValue("too far");
+
+        final XSSFRow row3 = sheet.createRow(3);
+        row3.createCell(1).setCellValue("A ________ blank, \"quoted\".");
+        row3.createCell(2).setCellValue("Another card");
+        row3.createCell(3).setCellValue("Deck A");
+
+        try (final OutputStream out = new FileOutputStream(xlsx)) {
+          workbook.write(out);
+        }
+      }
+      try (final XSSFWorkbook workbook = new XSSFWorkbook(xlsx)) {
+        expected = new SheetParser(workbook.getSheetAt(0), 2, 1, helper, new Metrics(),
+            Optional.empty())
+            .getCards();
+      }
+
+      write("\uFEFFDeck A ,Deck B,ignored\r\n"
+          + "Plain & simple.,Some **bold** and *fancy* text.,Mañana,Deck C\r\n"
+          + ",Plain & simple.,No deck,,too far\r\n"
+          + ",\"A ________ blank, \"\"quoted\"\".\",Another card,Deck A\r\n");
+      final Map<String, Set<String>> actual = parse(CSVFormat.DEFAULT, true);
+
+      assertEquals(expected, actual);
+      // and make sure deck order is the same too
+      assertEquals(expected.keySet().toString(), actual.keySet().toString());
+    } finally {
+      xlsx.delete();
+    }
+  }
+
+  @Test
+  public void testGetCards_TabDelimitedWithoutMarkup() throws Exception {
+    write("Deck A\tDeck B\n*not italic*\tb, with a comma\n");
+    final Map<String, Set<String>> cards = parse(CSVFormat.TDF, false);
+
+    assertEquals(new HashSet<>(Arrays.asList("*not italic*")), cards.get("Deck A"));
+    assertEquals(new HashSet<>(Arrays.asList("b, with a comma")), cards.get("Deck B"));
+  }
+
+  @Test
+  public void testGetCards_MissingNextColumnNamedCard() throws Exception {
+    write("Deck A,,,,\nA1,,Deck B,b2,Deck C\n");
+    final Map<String, Set<String>> cards = new CsvParser(file, CSVFormat.DEFAULT,
+        StandardCharsets.UTF_8, true, 1, 2, helper, new Metrics()).getCards();
+
+    assertEquals(new HashSet<>(Arrays.asList("A1")), cards.get("Deck A"));
+    // the deck name of the missing card isn't a card itself
+    assertFalse(cards.containsKey("b2"));
+    assertEquals(new HashSet<>(Arrays.asList("b2")), cards.get("Deck C"));
+  }
+
+  @Test
+  public void testGetCards_NoHeadingNamedColumns() throws Exception {
+    write("Card,Deck\nc1,Deck A\nc2,Deck B\n");
+    final Map<String, Set<String>> cards = new CsvParser(file, CSVFormat.DEFAULT,
+        StandardCharsets.UTF_8, true, 0, 1, helper, new Metrics()).getCards();
+
+    assertEquals(new HashSet<>(Arrays.asList("c1")), cards.get("Deck A"));
+    assertEquals(new HashSet<>(Arrays.asList("c2")), cards.get("Deck B"));
+  }
+
+  @Test
+  public void testMarkup() {
+    assertEquals("Some <b>bold</b> and <i>fancy</i> text.",
+        helper.format(InlineMarkup.parse("Some **bold** and *fancy* text.")));
+    // each run is formatted separately, same as rich text
+    assertEquals("<b>Both</b> <b><i>at</i></b> <b>once</b> .",
+        helper.format(InlineMarkup.parse("**Both *at* once**.")));
+  }
+
+  @Test
+  public void testMarkup_Literal() {
+    StyledText text = InlineMarkup.parse("What the f*ck?");
+    assertFalse(text.hasFormatting());
+    assertEquals("What the f*ck?", text.getString());
+
+    text = InlineMarkup.parse("\\*Not\\* italic, but *this* is.");
+    assertTrue(text.hasFormatting());
+    assertEquals("*Not* italic, but this is.", text.getString());
+
+    text = InlineMarkup.parse("2 * 3 = 6");
+    assertFalse(text.hasFormatting());
+    assertEquals("2 * 3 = 6", text.getString());
+  }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.parsers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.apache.poi.ss.usermodel.FontUnderline;
+import org.apache.poi.xssf.usermodel.XSSFFont;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+import org.junit.Test;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTFont;
+
+import net.socialgamer.pyx.importer.data.StyledText;
+
+
+public class RichTextDecoderTest {
+
+  /**
+   * How runs and styles were found before, through XSSFRichTextString and XSSFFont.
+   */
+  private static StyledText decodeWithFonts(final XSSFRichTextString rtf) {
+    final String str = rtf.getString();
+    if (!rtf.hasFormatting()) {
+      return new StyledText(str);
+    }
+
+    final StyledText.Builder builder = new StyledText.Builder();
+    for (int i = 0; i < rtf.numFormattingRuns(); i++) {
+      final int start = rtf.getIndexOfFormattingRun(i);
+      final String segment = str.substring(start, start + rtf.getLengthOfFormattingRun(i));
+      final XSSFFont font = rtf.getFontOfFormattingRun(i);
+      int style = 0;
+      if (null != font) {
+        style |= StyledText.HAS_FONT;
+        if (font.getBold()) {
+          style |= StyledText.BOLD;
+        }
+        if (font.getItalic()) {
+          style |= StyledText.ITALIC;
+        }
+        if (font.getUnderline() > 0) {
+          style |= StyledText.UNDERLINE;
+        }
+      }
+      builder.appendRun(segment, style);
+    }
+    return builder.build();
+  }
+
+  private static void assertSameAsFonts(final XSSFRichTextString rtf) {
+    final StyledText expected = decodeWithFonts(rtf);
+    final StyledText actual = RichTextDecoder.decode(rtf);
+    assertEquals(expected, actual);
+    assertEquals(expected.getString(), actual.getString());
+  }
+
+  private static XSSFFont newFont() {
+    return new XSSFFont(CTFont.Factory.newInstance());
+  }
+
+  @Test
+  public void testDecode_Plain() {
+    assertSameAsFonts(new XSSFRichTextString("Simple string!"));
+    assertSameAsFonts(new XSSFRichTextString("Escaped _x0041_ character."));
+    assertFalse(RichTextDecoder.decode(new XSSFRichTextString("Simple string!")).hasFormatting());
+  }
+
+  @Test
+  public void testDecode_RunsWithoutFonts() {
+    final XSSFRichTextString rtf = new XSSFRichTextString("Starts ");
+    rtf.append("and carries on.");
+    assertSameAsFonts(rtf);
+    assertFalse(RichTextDecoder.decode(rtf).hasFormatting());
+  }
+
+  @Test
+  public void testDecode_Styles() {
+    final XSSFFont bold = newFont();
+    bold.setBold(true);
+    final XSSFFont italicUnderline = newFont();
+    italicUnderline.setItalic(true);
+    italicUnderline.setUnderline(FontUnderline.DOUBLE);
+    final XSSFFont notBold = newFont();
+    notBold.setBold(false);
+    notBold.setUnderline(FontUnderline.NONE);
+    final XSSFFont sized = newFont();
+    sized.setFontHeightInPoints((short) 14);
+
+    final XSSFRichTextString rtf = new XSSFRichTextString();
+    rtf.append("Plain. ");
+    rtf.append("Bold. ", bold);
+    rtf.append("Both. ", italicUnderline);
+    rtf.append("Not bold. ", notBold);
+    rtf.append("Bigger.", sized);
+    assertSameAsFonts(rtf);
+
+    final StyledText text = RichTextDecoder.decode(rtf);
+    assertEquals(5, text.getRunCount());
+    assertEquals(0, text.getRunStyle(0));
+    assertEquals(StyledText.HAS_FONT | StyledText.BOLD, text.getRunStyle(1));
+    assertEquals(StyledText.HAS_FONT | StyledText.ITALIC | StyledText.UNDERLINE,
+        text.getRunStyle(2));
+    assertEquals(StyledText.HAS_FONT, text.getRunStyle(3));
+    assertEquals(StyledText.HAS_FONT, text.getRunStyle(4));
+    assertEquals("Plain. Bold. Both. Not bold. Bigger.", text.getString());
+  }
+
+  @Test
+  public void testDecode_EscapeInRun() {
+    final XSSFFont bold = newFont();
+    bold.setBold(true);
+    final XSSFRichTextString rtf = new XSSFRichTextString();
+    rtf.append("Escaped ");
+    rtf.append("_x0041_", bold);
+    rtf.append(" character.");
+
+    // XSSFRichTextString's run positions don't allow for the escape, so this is the only way
+    final StyledText text = RichTextDecoder.decode(rtf);
+    assertEquals("Escaped A character.", text.getString());
+    assertEquals(8, text.getRunStart(1));
+    assertEquals(9, text.getRunEnd(1));
+  }
+}
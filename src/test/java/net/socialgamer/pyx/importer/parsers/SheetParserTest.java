@@ -0,0 +1,222 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.parsers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.socialgamer.pyx.importer.Metrics;
+import net.socialgamer.pyx.importer.RichTextToHtmlFormatHelper;
+
+
+public class SheetParserTest {
+
+  private File file;
+  private RichTextToHtmlFormatHelper helper;
+  private Metrics metrics;
+
+  @Before
+  public void beforeTest() throws Exception {
+    metrics = new Metrics();
+    helper = new RichTextToHtmlFormatHelper(true, new LinkedHashMap<>(), 32, metrics);
+    file = File.createTempFile("sheet-parser", ".xlsx");
+  }
+
+  @After
+  public void afterTest() {
+    file.delete();
+  }
+
+  private Map<String, Set<String>> parse(final XSSFWorkbook workbook,
+      final int headingNamedCount, final int nextColNamedCount) throws Exception {
+    try (final OutputStream out = new FileOutputStream(file)) {
+      workbook.write(out);
+    }
+    try (final XSSFWorkbook written = new XSSFWorkbook(file)) {
+      return new SheetParser(written.getSheetAt(0), headingNamedCount, nextColNamedCount, helper,
+          metrics, Optional.empty()).getCards();
+    }
+  }
+
+  /**
+   * A sheet with a heading-named column and a next-column-named pair, with cards that repeat all
+   * the way down so every part has some of the same cards as the others, and with gaps.
+   */
+  private void writeLongSheet(final int rows) throws Exception {
+    try (final XSSFWorkbook workbook = new XSSFWorkbook()) {
+      final XSSFSheet sheet = workbook.createSheet("cards");
+      final XSSFRow headings = sheet.createRow(0);
+      headings.createCell(0).setCellValue("Deck A");
+      for (int r = 1; r <= rows; r++) {
+        if (r % 97 == 0) {
+          // no row here at all
+          continue;
+        }
+        final XSSFRow row = sheet.createRow(r);
+        row.createCell(0).setCellValue("a" + (r % 1500));
+        if (r % 13 != 0) {
+          row.createCell(1).setCellValue("b" + (r % 2100));
+          // decks first seen at different places in the sheet
+          row.createCell(2).setCellValue("Deck " + (r * 7 / rows) + (r % 3));
+        }
+      }
+      try (final OutputStream out = new FileOutputStream(file)) {
+        workbook.write(out);
+      }
+    }
+  }
+
+  @Test
+  public void testGetCards_NonStringCells() throws Exception {
+    final Map<String, Set<String>> cards;
+    try (final XSSFWorkbook workbook = new XSSFWorkbook()) {
+      final XSSFSheet sheet = workbook.createSheet("cards");
+      final XSSFRow headings = sheet.createRow(0);
+      headings.createCell(0).setCellValue("Deck A");
+      headings.createCell(1).setCellValue(2018);
+
+      final XSSFCellStyle percent = workbook.createCellStyle();
+      percent.setDataFormat(workbook.createDataFormat().getFormat("0%"));
+      final XSSFRow row1 = sheet.createRow(1);
+      row1.createCell(0).setCellValue(42);
+      row1.createCell(1).setCellValue(true);
+      row1.createCell(2).setCellValue(0.5);
+      row1.getCell(2).setCellStyle(percent);
+      row1.createCell(3).setCellValue("Deck B");
+
+      final XSSFRow row2 = sheet.createRow(2);
+      row2.createCell(0).setCellFormula("\"Formula \"&\"text\"");
+      row2.createCell(1).setCellFormula("6*7");
+      row2.createCell(2).setCellValue("Numbered deck");
+      row2.createCell(3).setCellFormula("A2+1");
+      row2.createCell(4).setCellFormula("1/0");
+      workbook.getCreationHelper().createFormulaEvaluator().evaluateAll();
+
+      cards = parse(workbook, 2, 1);
+    }
+
+    assertEquals(Arrays.asList("Deck A", "2018", "Deck B", "43"),
+        Arrays.asList(cards.keySet().toArray()));
+    assertEquals(new HashSet<>(Arrays.asList("42", "Formula text")), cards.get("Deck A"));
+    assertEquals(new HashSet<>(Arrays.asList("TRUE", "42")), cards.get("2018"));
+    assertEquals(new HashSet<>(Arrays.asList("50%")), cards.get("Deck B"));
+    assertEquals(new HashSet<>(Arrays.asList("Numbered deck")), cards.get("43"));
+  }
+
+  @Test
+  public void testGetCards_MissingAndRepeatedHeadings() throws Exception {
+    final Map<String, Set<String>> cards;
+    try (final XSSFWorkbook workbook = new XSSFWorkbook()) {
+      final XSSFSheet sheet = workbook.createSheet("cards");
+      // not a heading row, as none of the heading-named columns have anything in them
+      sheet.createRow(0).createCell(3).setCellValue("ignored");
+      final XSSFRow headings = sheet.createRow(1);
+      headings.createCell(1).setCellValue("Deck A");
+      headings.createCell(2).setCellValue("Deck A ");
+
+      final XSSFRow row = sheet.createRow(2);
+      row.createCell(0).setCellValue("no heading");
+      row.createCell(1).setCellValue("a1");
+      row.createCell(2).setCellValue("a2");
+      final XSSFRow duplicate = sheet.createRow(3);
+      duplicate.createCell(2).setCellValue("a1");
+
+      cards = parse(workbook, 3, 0);
+    }
+
+    assertEquals(1, cards.size());
+    assertEquals(new HashSet<>(Arrays.asList("a1", "a2")), cards.get("Deck A"));
+    assertFalse(cards.get("Deck A").contains("no heading"));
+    assertEquals(4, metrics.counter(Metrics.ROWS).get());
+    assertEquals(2, metrics.counter(Metrics.CARDS).get());
+    assertEquals(1, metrics.counter(Metrics.DUPLICATE_CARDS).get());
+  }
+
+  @Test
+  public void testGetCards_RowThreadsSameAsSequential() throws Exception {
+    writeLongSheet(9000);
+    try (final XSSFWorkbook workbook = new XSSFWorkbook(file)) {
+      final Metrics sequentialMetrics = new Metrics();
+      final Map<String, Set<String>> expected = new SheetParser(workbook.getSheetAt(0), 1, 1,
+          helper, sequentialMetrics, Optional.empty()).getCards();
+      final ForkJoinPool pool = new ForkJoinPool(4);
+      final Map<String, Set<String>> actual;
+      try {
+        actual = new SheetParser(workbook.getSheetAt(0), 1, 1, helper, metrics,
+            Optional.of(pool)).getCards();
+      } finally {
+        pool.shutdown();
+      }
+
+      assertEquals(expected, actual);
+      // and make sure deck order is the same too
+      assertEquals(expected.keySet().toString(), actual.keySet().toString());
+      for (final String counter : Arrays.asList(Metrics.ROWS, Metrics.CELLS, Metrics.CARDS,
+          Metrics.DUPLICATE_CARDS)) {
+        assertEquals(counter, sequentialMetrics.counter(counter).get(),
+            metrics.counter(counter).get());
+      }
+    }
+  }
+
+  @Test
+  public void testTrySplit() throws Exception {
+    writeLongSheet(100);
+    try (final XSSFWorkbook workbook = new XSSFWorkbook(file)) {
+      final SheetParser rest = new SheetParser(workbook.getSheetAt(0), 1, 1, helper, metrics,
+          Optional.empty());
+      // the heading row is read first, and isn't in either part
+      final SheetParser first = rest.trySplit();
+      assertEquals(50, first.estimateRows());
+      assertEquals(50, rest.estimateRows());
+
+      final Map<String, Set<String>> firstCards = first.getCards();
+      assertTrue(firstCards.get("Deck A").contains("a50"));
+      assertFalse(firstCards.get("Deck A").contains("a51"));
+      final Map<String, Set<String>> restCards = rest.getCards();
+      assertTrue(restCards.get("Deck A").contains("a51"));
+      assertFalse(restCards.get("Deck A").contains("a50"));
+    }
+  }
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright (c) 2018, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.socialgamer.pyx.importer.parsers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.FontUnderline;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFFont;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.socialgamer.pyx.importer.Metrics;
+import net.socialgamer.pyx.importer.RichTextToHtmlFormatHelper;
+
+
+public class StreamingSheetParserTest {
+
+  private File file;
+  private RichTextToHtmlFormatHelper helper;
+
+  @SuppressWarnings("serial")
+  @Before
+  public void beforeTest() throws Exception {
+    helper = new RichTextToHtmlFormatHelper(true, new LinkedHashMap<String, String>() {
+      {
+        put("&", "&amp;");
+        put("ñ", "&ntilde;");
+      }
+    }, 32, new Metrics());
+
+    file = File.createTempFile("streaming-sheet-parser", ".xlsx");
+    try (final XSSFWorkbook workbook = new XSSFWorkbook()) {
+      final XSSFFont bold = workbook.createFont();
+      bold.setBold(true);
+      final XSSFFont italicUnderline = workbook.createFont();
+      italicUnderline.setItalic(true);
+      italicUnderline.setUnderline(FontUnderline.SINGLE);
+
+      final XSSFSheet sheet = workbook.createSheet("cards");
+      final XSSFRow headings = sheet.createRow(0);
+      headings.createCell(0).setCellValue("Deck A ");
+      headings.createCell(1).setCellValue("Deck B");
+      headings.createCell(2).setCellValue("ignored");
+
+      final XSSFRow row1 = sheet.createRow(1);
+      row1.createCell(0).setCellValue("Plain & simple.");
+      final XSSFRichTextString rich = new XSSFRichTextString();
+      rich.append("Some ");
+      rich.append("bold", bold);
+      rich.append(" and ");
+      rich.append("fancy", italicUnderline);
+      rich.append(" text.");
+      row1.createCell(1).setCellValue(rich);
+      row1.createCell(2).setCellValue("Mañana");
+      row1.createCell(3).setCellValue("Deck C");
+
+      final XSSFRow row2 = sheet.createRow(2);
+      // blank cell
+      row2.createCell(0);
+      row2.createCell(1).setCellValue("Plain & simple.");
+      row2.createCell(2).setCellValue("No deck");
+      row2.createCell(3);
+      row2.createCell(4).setCellValue("too far");
+
+      // skip a row entirely
+      final XSSFRow row4 = sheet.createRow(4);
+      row4.createCell(1).setCellValue("A ________ blank.");
+      row4.createCell(2).setCellValue("Another card");
+      row4.createCell(3).setCellValue("Deck A");
+
+      try (final OutputStream out = new FileOutputStream(file)) {
+        workbook.write(out);
+      }
+    }
+  }
+
+  @After
+  public void afterTest() {
+    file.delete();
+  }
+
+  /**
+   * Parse the first sheet of {@code file} with both parsers, and check they give the same cards.
+   */
+  private void assertSameAsSheetParser(final int headingNamedCount, final int nextColNamedCount)
+      throws Exception {
+    final Map<String, Set<String>> expected;
+    try (final XSSFWorkbook workbook = new XSSFWorkbook(file)) {
+      expected = new SheetParser(workbook.getSheetAt(0), headingNamedCount, nextColNamedCount,
+          helper, new Metrics(), Optional.empty()).getCards();
+    }
+
+    final Map<String, Set<String>> actual;
+    final OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ);
+    try {
+      final XSSFReader reader = new XSSFReader(pkg);
+      final SharedRichStrings strings = SharedRichStrings.read(reader.getSharedStringsData());
+      final XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+      sheets.next().close();
+      actual = new StreamingSheetParser(sheets.getSheetName(), sheets.getSheetPart(), strings,
+          reader.getStylesTable(), headingNamedCount, nextColNamedCount, helper, new Metrics())
+          .getCards();
+    } finally {
+      pkg.revert();
+    }
+
+    assertEquals(expected, actual);
+    // and make sure deck order is the same too
+    assertEquals(expected.keySet().toString(), actual.keySet().toString());
+  }
+
+  @Test
+  public void testGetCards_SameAsSheetParser() throws Exception {
+    assertSameAsSheetParser(2, 1);
+  }
+
+  @Test
+  public void testGetCards_NonStringCellsSameAsSheetParser() throws Exception {
+    try (final XSSFWorkbook workbook = new XSSFWorkbook()) {
+      final XSSFSheet sheet = workbook.createSheet("cards");
+      final XSSFRow headings = sheet.createRow(0);
+      headings.createCell(0).setCellValue("Deck A");
+      headings.createCell(1).setCellValue(2018);
+
+      final XSSFCellStyle percent = workbook.createCellStyle();
+      percent.setDataFormat(workbook.createDataFormat().getFormat("0%"));
+      final XSSFCellStyle date = workbook.createCellStyle();
+      date.setDataFormat(workbook.createDataFormat().getFormat("yyyy-mm-dd"));
+      final XSSFRow row1 = sheet.createRow(1);
+      row1.createCell(0).setCellValue(42);
+      row1.createCell(1).setCellValue(true);
+      row1.createCell(2).setCellValue(0.5);
+      row1.getCell(2).setCellStyle(percent);
+      row1.createCell(3).setCellValue("Deck B");
+
+      final XSSFRow row2 = sheet.createRow(2);
+      row2.createCell(0).setCellFormula("\"Formula \"&\"text\"");
+      row2.createCell(1).setCellFormula("6*7");
+      row2.createCell(2).setCellValue("Numbered deck");
+      row2.createCell(3).setCellFormula("A2+1");
+      row2.createCell(4).setCellFormula("1/0");
+
+      final XSSFRow row3 = sheet.createRow(3);
+      row3.createCell(0).setCellValue(1.25);
+      row3.createCell(1).setCellValue(false);
+      row3.createCell(2).setCellValue(43390);
+      row3.getCell(2).setCellStyle(date);
+      row3.createCell(3).setCellFormula("1/0");
+      workbook.getCreationHelper().createFormulaEvaluator().evaluateAll();
+
+      try (final OutputStream out = new FileOutputStream(file)) {
+        workbook.write(out);
+      }
+    }
+
+    assertSameAsSheetParser(2, 1);
+  }
+
+  @Test
+  public void testColumnIndex() {
+    assertEquals(0, StreamingSheetParser.columnIndex("A1"));
+    assertEquals(25, StreamingSheetParser.columnIndex("Z99"));
+    assertEquals(26, StreamingSheetParser.columnIndex("AA3"));
+    assertEquals(27, StreamingSheetParser.columnIndex("AB12"));
+  }
+}